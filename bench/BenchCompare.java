@@ -0,0 +1,71 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares two result files written by Microbench (-Dbench.json=...) benchmark by benchmark.
+ * A benchmark counts as slower or faster only when the change is over the threshold (percent,
+ * default 10) and larger than the two error bars together. The same threshold flags a rise in
+ * bytes allocated per op. Exits with status 1 when anything regressed.
+ *
+ *   java -cp bench-out BenchCompare before.json after.json [thresholdPercent]
+ */
+public class BenchCompare {
+    private static final Pattern RESULT = Pattern.compile(
+            "\"name\": \"((?:[^\"\\\\]|\\\\.)*)\", \"nsPerOp\": ([-0-9.]+), \"errorNs\": ([-0-9.]+), \"allocBytesPerOp\": ([-0-9.]+)");
+    private static final Pattern LABEL = Pattern.compile("\"label\": \"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("usage: BenchCompare before.json after.json [thresholdPercent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        String beforeText = new String(Files.readAllBytes(Paths.get(args[0])), StandardCharsets.UTF_8);
+        String afterText = new String(Files.readAllBytes(Paths.get(args[1])), StandardCharsets.UTF_8);
+        Map<String, double[]> before = read(beforeText), after = read(afterText);
+        System.out.printf("before: %s %s%nafter:  %s %s%n", args[0], label(beforeText), args[1], label(afterText));
+        System.out.printf("%-40s %12s %12s %8s %10s %10s  %s%n", "benchmark", "before ns", "after ns", "change", "B/op was", "B/op now", "");
+
+        int regressions = 0;
+        for (Map.Entry<String, double[]> e : after.entrySet()) {
+            double[] a = e.getValue(), b = before.get(e.getKey());
+            if (b == null) {
+                System.out.printf("%-40s %12s %12.1f %8s %10s %10.1f  new%n", e.getKey(), "-", a[0], "", "-", a[2]);
+                continue;
+            }
+            double change = (a[0] - b[0]) / b[0] * 100;
+            boolean significant = Math.abs(a[0] - b[0]) > a[1] + b[1] && Math.abs(change) > threshold;
+            boolean moreAlloc = b[2] >= 0 && a[2] > b[2] + 16 && a[2] > b[2] * (1 + threshold / 100);
+            String verdict = significant ? (change > 0 ? "SLOWER" : "faster") : "";
+            if (moreAlloc) verdict += (verdict.isEmpty() ? "" : ", ") + "MORE ALLOCATION";
+            if ((significant && change > 0) || moreAlloc) regressions++;
+            System.out.printf("%-40s %12.1f %12.1f %+7.1f%% %10.1f %10.1f  %s%n", e.getKey(), b[0], a[0], change, b[2], a[2], verdict);
+        }
+        for (String name : before.keySet()) {
+            if (!after.containsKey(name)) System.out.printf("%-40s  missing from %s%n", name, args[1]);
+        }
+        System.out.println(regressions == 0 ? "no regressions" : regressions + " regressions");
+        if (regressions > 0) System.exit(1);
+    }
+
+    // name -> {ns/op, error, B/op}
+    private static Map<String, double[]> read(String text) {
+        Map<String, double[]> results = new LinkedHashMap<>();
+        Matcher m = RESULT.matcher(text);
+        while (m.find()) {
+            results.put(m.group(1).replace("\\\"", "\"").replace("\\\\", "\\"), new double[]{
+                    Double.parseDouble(m.group(2)), Double.parseDouble(m.group(3)), Double.parseDouble(m.group(4))});
+        }
+        return results;
+    }
+
+    private static String label(String text) {
+        Matcher m = LABEL.matcher(text);
+        return m.find() && !m.group(1).isEmpty() ? "(" + m.group(1) + ")" : "";
+    }
+}
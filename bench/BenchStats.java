@@ -0,0 +1,100 @@
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Collects raw latency samples (nanoseconds) for the benchmark programs in bench/
+ * and reports mean and percentiles. Also holds the helpers those programs share: pass/fail
+ * checks, GC totals and deleting a benchmark database directory.
+ */
+public class BenchStats {
+    private static int checks, failures;
+
+    private long[] samples;
+    private int count;
+
+    public BenchStats(int expected) {
+        samples = new long[Math.max(16, expected)];
+    }
+
+    public void record(long nanos) {
+        if (count == samples.length) samples = Arrays.copyOf(samples, samples.length * 2);
+        samples[count++] = nanos;
+    }
+
+    // merge samples recorded by another (e.g. per-thread) instance
+    public synchronized void addAll(BenchStats other) {
+        for (int i = 0; i < other.count; i++) record(other.samples[i]);
+    }
+
+    public int count() { return count; }
+
+    public double meanMicros() {
+        if (count == 0) return 0.0;
+        double sum = 0;
+        for (int i = 0; i < count; i++) sum += samples[i];
+        return sum / count / 1000.0;
+    }
+
+    // percentile in microseconds, p in [0, 100]
+    public double percentileMicros(double p) {
+        if (count == 0) return 0.0;
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int idx = (int) Math.ceil(p / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, idx))] / 1000.0;
+    }
+
+    // bytes allocated so far by the calling thread (HotSpot), or -1 when not supported
+    public static long allocatedBytes() {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (mx instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    public String summary(String label) {
+        return String.format("%-28s n=%-8d mean=%9.1fus p50=%9.1fus p99=%9.1fus p99.9=%9.1fus max=%9.1fus",
+                label, count, meanMicros(), percentileMicros(50), percentileMicros(99), percentileMicros(99.9), percentileMicros(100));
+    }
+
+    // print one check of a harness as ok or FAIL and count it
+    public static synchronized void check(String what, boolean ok) {
+        checks++;
+        if (!ok) failures++;
+        System.out.println((ok ? "  ok   " : "  FAIL ") + what);
+    }
+
+    public static synchronized int checks() { return checks; }
+    public static synchronized int failures() { return failures; }
+
+    // exit with status 1 if any check failed
+    public static void exitIfChecksFailed() {
+        int failed = failures();
+        if (failed > 0) {
+            System.out.println(failed + " checks failed");
+            System.exit(1);
+        }
+    }
+
+    // collections and milliseconds spent collecting so far, over all collectors
+    public static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionCount());
+        return n;
+    }
+
+    public static long gcMillis() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionTime());
+        return n;
+    }
+
+    public static void deleteRecursively(File f) {
+        File[] children = f.listFiles();
+        if (children != null) for (File c : children) deleteRecursively(c);
+        f.delete();
+    }
+}
@@ -0,0 +1,60 @@
+import java.sql.*;
+import java.util.List;
+
+/**
+ * Compares checkout (saveOrder) latency of the old connection-per-call code path
+ * against the pooled DatabaseManager.saveOrder (which also writes the order_lines rows).
+ *
+ * Run with derby.jar on the classpath, e.g.
+ *   java -cp out:bench-out:derby.jar -Doakdonuts.db.url="jdbc:derby:memory:benchdb;create=true" ConnectionPoolBenchmark 2000
+ */
+public class ConnectionPoolBenchmark {
+    private static final String URL = System.getProperty("oakdonuts.db.url", "jdbc:derby:benchdb;create=true");
+    private static final List<DatabaseManager.OrderLine> ORDER = DatabaseManager.parseItemsString("Glazed Donut x2; Latte x1");
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("oakdonuts.db.url", URL);
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int warmup = Math.max(100, iterations / 10);
+
+        DatabaseManager.initializeDatabase();
+
+        for (int i = 0; i < warmup; i++) legacySaveOrder("warmup x1", 100, 6, 106);
+        BenchStats legacy = new BenchStats(iterations);
+        for (int i = 0; i < iterations; i++) {
+            long t0 = System.nanoTime();
+            legacySaveOrder("Glazed Donut x2; Latte x1", 598, 36, 634);
+            legacy.record(System.nanoTime() - t0);
+        }
+
+        for (int i = 0; i < warmup; i++) DatabaseManager.saveOrder(ORDER, 598, 36, 634);
+        BenchStats pooled = new BenchStats(iterations);
+        for (int i = 0; i < iterations; i++) {
+            long t0 = System.nanoTime();
+            DatabaseManager.saveOrder(ORDER, 598, 36, 634);
+            pooled.record(System.nanoTime() - t0);
+        }
+
+        System.out.println(legacy.summary("DriverManager per call"));
+        System.out.println(pooled.summary("ConnectionPool"));
+        System.out.println(DatabaseManager.poolStats());
+        DatabaseManager.shutdown();
+    }
+
+    // the pre-pool implementation of saveOrder, kept here as the baseline
+    // (ids now come from DatabaseManager.nextOrderId rather than the identity column)
+    private static int legacySaveOrder(String items, long subtotalCents, long taxCents, long totalCents) throws SQLException {
+        String sql = "INSERT INTO orders (transaction_id, items, subtotal_cents, tax_cents, total_cents) VALUES (?, ?, ?, ?, ?)";
+        int id = DatabaseManager.nextOrderId();
+        try (Connection conn = DriverManager.getConnection(URL);
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, id);
+            ps.setString(2, items);
+            ps.setLong(3, subtotalCents);
+            ps.setLong(4, taxCents);
+            ps.setLong(5, totalCents);
+            ps.executeUpdate();
+        }
+        return id;
+    }
+}
@@ -0,0 +1,133 @@
+import javax.swing.DefaultListModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Microbenchmarks (see Microbench) for the paths the registers hit all day: the menu filter
+ * behind refreshMenu, ringing up and totalling an order, the items summary saved with each
+ * order and its parser, amount parsing, and every Store call. The store benchmarks run against
+ * DatabaseManager on embedded Derby (benchdb/hotpaths, recreated each run) and are skipped when
+ * derby.jar is missing; -Doakdonuts.store=memory|log runs them against another backend.
+ *
+ *   java -cp out:bench-out[:derby.jar] -Dbench.json=before.json HotPathBenchmarks
+ *   (change, rebuild)
+ *   java -cp out:bench-out[:derby.jar] -Dbench.json=after.json HotPathBenchmarks
+ *   java -cp bench-out BenchCompare before.json after.json
+ */
+public class HotPathBenchmarks {
+    private static final String[] WORDS = {"glazed", "chocolate", "sprinkle", "boston", "creme", "maple", "jelly", "cruller",
+            "latte", "iced", "coffee", "mocha", "tomato", "mozzarella", "sandwich", "bagel"};
+    private static final String[] CATEGORIES = {"Donuts", "Drinks", "Sandwiches"};
+    private static final String[] AMOUNTS = {"$1,234.56", "3", "2.5", "-0.99", "(12.00)", "$0.499", "1499"};
+
+    public static void main(String[] args) throws Exception {
+        Microbench bench = new Microbench("HotPathBenchmarks");
+        inMemory(bench);
+        store(bench);
+        bench.finish();
+    }
+
+    private static void inMemory(Microbench bench) throws Exception {
+        // a menu a bit larger than a real shop's, so filtering has something to do
+        LinkedHashMap<String, DatabaseManager.MenuItem> itemMap = new LinkedHashMap<>();
+        for (DatabaseManager.MenuItem mi : DonutShopApp.defaultMenu()) itemMap.put(mi.name, mi);
+        Random r = new Random(42);
+        for (int i = 0; itemMap.size() < 500; i++) {
+            String name = WORDS[r.nextInt(WORDS.length)] + " " + WORDS[r.nextInt(WORDS.length)] + " " + i;
+            itemMap.put(name, new DatabaseManager.MenuItem(1000 + i, name, CATEGORIES[r.nextInt(3)], 100 + r.nextInt(500)));
+        }
+        MenuCatalog<DatabaseManager.MenuItem> catalog = new MenuCatalog<>(itemMap.values(), mi -> mi.name, mi -> mi.category,
+                mi -> String.format("%s — %s", mi.name, Money.format(mi.priceCents)));
+        String[] typed = {"", "b", "bo", "bos", "boston", "boston c", "boston cr"};
+        int[] next = {0};
+        bench.run("menu.search", () -> catalog.search(MenuCatalog.ALL, typed[next[0]++ % typed.length]));
+        MenuCatalog<DatabaseManager.MenuItem>.Searcher searcher = catalog.newSearcher();
+        DefaultListModel<String> listModel = new DefaultListModel<>();
+        bench.run("menu.refresh", () -> {
+            // what refreshMenu does per keystroke: refine the result and diff it into the list model
+            searcher.update(MenuCatalog.ALL, typed[next[0]++ % typed.length]);
+            searcher.applyTo(listModel);
+            return listModel.size();
+        });
+        bench.run("menu.rebuildCatalog", () -> new MenuCatalog<>(itemMap.values(), mi -> mi.name, mi -> mi.category,
+                mi -> String.format("%s — %s", mi.name, Money.format(mi.priceCents))).size());
+        // what a menu edit costs the main list instead: the next snapshot with one entry changed
+        List<DatabaseManager.MenuItem> priced = new ArrayList<>(itemMap.values());
+        List<MenuCatalog<DatabaseManager.MenuItem>> edited = new ArrayList<>(Collections.singletonList(catalog));
+        bench.run("menu.applyChange", () -> {
+            int slot = next[0]++ % priced.size();
+            DatabaseManager.MenuItem mi = priced.get(slot);
+            edited.set(0, edited.get(0).with(slot, new DatabaseManager.MenuItem(mi.id, mi.name, mi.category, mi.priceCents + next[0] % 7)));
+            return edited.get(0).size();
+        });
+
+        List<DatabaseManager.MenuItem> menu = new ArrayList<>(itemMap.values());
+        OrderTableModel order = new OrderTableModel();
+        bench.run("order.ringUp", () -> {
+            // five lines, one quantity edit, then the totals the labels show
+            order.clear();
+            for (int i = 0; i < 5; i++) {
+                DatabaseManager.MenuItem mi = menu.get((next[0] + i * 7) % menu.size());
+                order.add(mi.id, mi.name, i == 0 ? "Chocolate" : null, i == 1 ? "Jam" : null, 1 + i % 3, mi.priceCents);
+            }
+            order.setQuantity(2, 4);
+            next[0]++;
+            long subtotal = order.subtotalCents();
+            return Money.plus(subtotal, DonutShopApp.SALES_TAX.taxOn(subtotal));
+        });
+        bench.run("order.subtotal", () -> order.subtotalCents() + DonutShopApp.SALES_TAX.taxOn(order.subtotalCents()));
+        bench.run("order.orderLines", order::orderLines);
+        List<DatabaseManager.OrderLine> lines = order.orderLines();
+        bench.run("order.itemsSummary", () -> DatabaseManager.OrderLine.summarize(lines, DatabaseManager.ITEMS_SUMMARY_MAX));
+        String summary = DatabaseManager.OrderLine.summarize(lines, DatabaseManager.ITEMS_SUMMARY_MAX);
+        bench.run("order.parseItemsString", () -> DatabaseManager.parseItemsString(summary));
+        bench.run("money.parse", () -> Money.parse(AMOUNTS[next[0]++ % AMOUNTS.length]));
+        bench.run("money.format", () -> Money.format(next[0]++ * 37L));
+    }
+
+    private static void store(Microbench bench) throws Exception {
+        String kind = System.getProperty("oakdonuts.store", "derby");
+        if (!bench.includes("store.")) return;
+        if (kind.equals("derby")) {
+            try {
+                Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+            } catch (ClassNotFoundException e) {
+                System.out.println("store.*: skipped, Derby is not on the class path");
+                return;
+            }
+            if (System.getProperty("oakdonuts.db.url") == null) {
+                BenchStats.deleteRecursively(new java.io.File("benchdb/hotpaths"));
+                System.setProperty("oakdonuts.db.url", "jdbc:derby:benchdb/hotpaths;create=true");
+            }
+        }
+        Store store = Store.fromSystemProperties();
+        store.open();
+        if (store.loadMenuItems().isEmpty()) store.seedMenuItems(DonutShopApp.defaultMenu());
+        DatabaseManager.MenuItem glazed = store.loadMenuItems().get("Glazed Donut");
+        List<DatabaseManager.OrderLine> lines = Arrays.asList(
+                new DatabaseManager.OrderLine(glazed.id, glazed.name, 2, glazed.priceCents, "Chocolate", null),
+                new DatabaseManager.OrderLine(glazed.id, glazed.name, 1, glazed.priceCents, null, "Jam"));
+        long sub = 3 * glazed.priceCents, tax = DonutShopApp.SALES_TAX.taxOn(sub);
+        for (int i = 0; i < 2000; i++) store.saveOrder(lines, sub, tax, sub + tax);
+        int newest = store.loadOrderIdAt(0, null, null);
+        int[] n = {0};
+
+        bench.run("store.loadMenuItems", store::loadMenuItems);
+        bench.run("store.addMenuItem", () -> store.addMenuItem("Bench Item " + (n[0]++ % 100), "Donuts", 100));
+        int benchItem = store.addMenuItem("Bench Item", "Donuts", 100);
+        bench.run("store.updateMenuItem", () -> store.updateMenuItem(benchItem, "Bench Item", "Donuts", 100 + n[0]++ % 50));
+        bench.run("store.addAndDeleteMenuItem", () -> store.deleteMenuItem(store.addMenuItem("Bench Temp " + n[0]++, "Donuts", 100)));
+        bench.run("store.saveOrder", () -> store.saveOrder(lines, sub, tax, sub + tax));
+        bench.run("store.saveOrderAsync", () -> store.saveOrderAsync(lines, sub, tax, sub + tax).get());
+        bench.run("store.loadOrderLines", () -> store.loadOrderLines(newest - n[0]++ % 1000));
+        bench.run("store.historyPage", () -> store.loadOrdersBefore(Integer.MAX_VALUE, 200, null, null));
+        bench.run("store.countOrders", () -> store.countOrders(null, null));
+        bench.run("store.updateOrder", () -> store.updateOrder(newest - n[0]++ % 1000, "Glazed Donut x3 [Icing: Maple]", sub, tax, sub + tax));
+        bench.run("store.saveAndDeleteOrder", () -> store.deleteOrder(store.saveOrder(lines, sub, tax, sub + tax)));
+        store.close();
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-threaded stress test for the in-memory store (InMemoryStore).
+ * Register threads save, update and delete orders and add menu items with clashing names
+ * in different case, while reader threads take snapshots. Checks that:
+ *  - every snapshot row is internally consistent (subtotal + tax == total, never torn),
+ *  - snapshots are sorted newest first with unique ids,
+ *  - the final order count equals saved minus deleted,
+ *  - each case-folded menu name exists exactly once.
+ * Exits with status 1 on the first violation.
+ *
+ *   java -cp out:bench-out InMemoryStoreStress [registers] [opsPerRegister]
+ */
+public class InMemoryStoreStress {
+    private static final String[] NAMES = {"Glazed Donut", "Latte", "Iced Coffee", "Boston Creme Donut", "Cruller", "Bagel"};
+    private static final InMemoryStore store = new InMemoryStore();
+
+    public static void main(String[] args) throws Exception {
+        int registers = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        int before = store.countOrders(null, null);
+
+        AtomicLong saved = new AtomicLong(), deleted = new AtomicLong(), snapshots = new AtomicLong();
+        AtomicBoolean done = new AtomicBoolean();
+        ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < registers; t++) {
+            int seed = t;
+            threads.add(new Thread(() -> {
+                Random r = new Random(seed);
+                List<Integer> mine = new ArrayList<>();
+                await(start);
+                for (int i = 0; i < ops; i++) {
+                    int op = r.nextInt(100);
+                    if (op < 60 || mine.isEmpty()) {
+                        long sub = 100 + r.nextInt(5000), tax = sub * 6 / 100;
+                        List<DatabaseManager.OrderLine> lines = new ArrayList<>();
+                        lines.add(new DatabaseManager.OrderLine(1, NAMES[r.nextInt(NAMES.length)], 1, sub, null, null));
+                        mine.add(store.saveOrder(lines, sub, tax, sub + tax));
+                        saved.incrementAndGet();
+                    } else if (op < 80) {
+                        long sub = 100 + r.nextInt(5000), tax = sub * 6 / 100;
+                        store.updateOrder(mine.get(r.nextInt(mine.size())), "edited x1", sub, tax, sub + tax);
+                    } else if (op < 95) {
+                        if (store.deleteOrder(mine.remove(r.nextInt(mine.size())))) deleted.incrementAndGet();
+                    } else {
+                        String name = NAMES[r.nextInt(NAMES.length)];
+                        name = r.nextBoolean() ? name.toUpperCase(Locale.ROOT) : name.toLowerCase(Locale.ROOT);
+                        store.addMenuItem(name, "Donuts", 100 + r.nextInt(400));
+                    }
+                }
+            }, "register-" + t));
+        }
+        for (int t = 0; t < Math.max(2, registers / 4); t++) {
+            threads.add(new Thread(() -> {
+                await(start);
+                while (!done.get()) {
+                    List<DatabaseManager.OrderRow> rows = store.loadOrders();
+                    int prev = Integer.MAX_VALUE;
+                    for (DatabaseManager.OrderRow o : rows) {
+                        if (o.subtotalCents + o.taxCents != o.totalCents) failures.add("torn row " + o.transactionId);
+                        if (o.transactionId >= prev) failures.add("order/duplicate at " + o.transactionId);
+                        prev = o.transactionId;
+                    }
+                    List<DatabaseManager.OrderRow> page = store.loadOrdersBefore(Integer.MAX_VALUE, 200, null, null);
+                    for (int i = 1; i < page.size(); i++) {
+                        if (page.get(i).transactionId >= page.get(i - 1).transactionId) failures.add("page order at " + page.get(i).transactionId);
+                    }
+                    store.loadMenuItems();
+                    snapshots.incrementAndGet();
+                    if (!failures.isEmpty()) break;
+                }
+            }, "reader-" + t));
+        }
+
+        long t0 = System.nanoTime();
+        for (Thread t : threads) t.start();
+        start.countDown();
+        for (int i = 0; i < registers; i++) threads.get(i).join();
+        double seconds = (System.nanoTime() - t0) / 1e9;
+        done.set(true);
+        for (Thread t : threads) t.join();
+
+        long expected = before + saved.get() - deleted.get();
+        int actual = store.countOrders(null, null);
+        if (actual != expected) failures.add("count " + actual + " != expected " + expected);
+        if (store.loadOrders().size() != actual) failures.add("loadOrders size differs from countOrders");
+        Set<String> folded = new HashSet<>();
+        for (String name : store.loadMenuItems().keySet()) {
+            if (!folded.add(name.toLowerCase(Locale.ROOT))) failures.add("duplicate menu name " + name);
+        }
+        if (folded.size() != NAMES.length) failures.add("expected " + NAMES.length + " menu items, found " + folded.size());
+
+        System.out.printf("%d registers x %d ops in %.2f s (%.0f ops/s), %d snapshots, %d orders left%n",
+                registers, ops, seconds, registers * (double) ops / seconds, snapshots.get(), actual);
+        if (!failures.isEmpty()) {
+            System.out.println("FAILED: " + failures.size() + " violations, first: " + failures.peek());
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
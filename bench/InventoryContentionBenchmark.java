@@ -0,0 +1,194 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stock reservations from many registers at once: Inventory's striped cells against one
+ * AtomicLong per SKU (Inventory with a single cell) and against one lock around a map.
+ *
+ * Each register thread adds lines (reserving the item and maybe an icing and a filling, as
+ * DonutShopApp does) and clears about one order in five (releasing them again), mostly on the
+ * same few best sellers. Every strategy gets the same threads and the same time. Then each
+ * thread keeps reserving a scarce SKU until it is refused, to check the last units are sold
+ * exactly once, while another thread reads its level, which must never go up meanwhile (a gather
+ * must not show as stock missing). Checks that for every SKU the level left plus the units still
+ * held equals the starting level (nothing oversold, nothing lost), and that the levels Inventory
+ * flushed in the background reach the store. Exits with status 1 when a check fails.
+ *
+ *   java -cp out:bench-out InventoryContentionBenchmark [threads] [seconds]
+ */
+public class InventoryContentionBenchmark {
+    private static final String[] ITEMS = {"item:1", "item:2", "item:3", "item:4", "item:5", "item:6"};
+    private static final String[] ICINGS = {null, "icing:Chocolate", "icing:Vanilla", "icing:Maple"};
+    private static final String[] FILLINGS = {null, "filling:Custard", "filling:Jam", "filling:Cream"};
+    private static final long START_LEVEL = 1L << 40;   // never runs out during the timed phase
+    private static final String SCARCE = "filling:Boston";
+    private static final int SCARCE_LEVEL = 100_000;
+    private static int failures;
+
+    // the three ways of keeping a level that the benchmark compares
+    private interface Counters {
+        boolean reserve(String sku, int qty);
+        void release(String sku, int qty);
+        void set(String sku, long level);
+        long level(String sku);
+    }
+
+    private static final class Locked implements Counters {
+        private final Map<String, Long> levels = new HashMap<>();
+        public synchronized boolean reserve(String sku, int qty) {
+            long left = levels.get(sku);
+            if (left < qty) return false;
+            levels.put(sku, left - qty);
+            return true;
+        }
+        public synchronized void release(String sku, int qty) { levels.put(sku, levels.get(sku) + qty); }
+        public synchronized void set(String sku, long level) { levels.put(sku, level); }
+        public synchronized long level(String sku) { return levels.get(sku); }
+    }
+
+    private static final class Striped implements Counters {
+        final Inventory inventory;
+        Striped(Inventory inventory) { this.inventory = inventory; }
+        public boolean reserve(String sku, int qty) { return inventory.reserve(sku, qty); }
+        public void release(String sku, int qty) { inventory.release(sku, qty); }
+        public void set(String sku, long level) { inventory.setLevel(sku, level); }
+        public long level(String sku) { return inventory.level(sku); }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 3;
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d register threads, %d cores, %.1f s per run%n", threads, cores, seconds);
+        System.out.printf("%-22s %14s %12s %12s %14s %8s%n", "strategy", "lines/s", "ns/line", "gathers", "sellout/s", "check");
+
+        for (int round = 0; round < 2; round++) {   // the first round warms up the JIT
+            run("global lock", new Locked(), threads, seconds);
+            run("AtomicLong per SKU", new Striped(new Inventory(new InMemoryStore(), 1)), threads, seconds);
+            InMemoryStore store = new InMemoryStore();
+            Inventory striped = new Inventory(store, Math.max(8, 2 * cores));
+            striped.open(50);   // flushing in the background all along, as in the app
+            run("striped (" + Math.max(8, 2 * cores) + " cells)", new Striped(striped), threads, seconds);
+            striped.close();
+            Map<String, Long> saved = store.loadInventory();
+            boolean ok = saved.equals(striped.levels());
+            if (!ok) failures++;
+            if (round == 1) System.out.printf("background flushes reached the store: %s (%d SKUs)%n", ok ? "ok" : "FAIL", saved.size());
+        }
+        if (failures > 0) {
+            System.out.println(failures + " checks failed");
+            System.exit(1);
+        }
+    }
+
+    private static void run(String name, Counters c, int threadCount, double seconds) throws Exception {
+        List<String> skus = new ArrayList<>();
+        for (String s : ITEMS) skus.add(s);
+        for (String s : ICINGS) if (s != null) skus.add(s);
+        for (String s : FILLINGS) if (s != null) skus.add(s);
+        for (String s : skus) c.set(s, START_LEVEL);
+        c.set(SCARCE, SCARCE_LEVEL);
+        long gathersBefore = Metrics.counter("inventory.slowPathGathers").getCount();
+
+        long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        CountDownLatch start = new CountDownLatch(1);
+        CyclicBarrier timedDone = new CyclicBarrier(threadCount + 1);
+        AtomicLong lines = new AtomicLong(), scarceSold = new AtomicLong();
+        List<Map<String, Long>> held = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            Map<String, Long> mine = new HashMap<>();
+            held.add(mine);
+            Random r = new Random(t);
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long count = 0;
+                List<String[]> order = new ArrayList<>();
+                List<Integer> qtys = new ArrayList<>();
+                while ((count & 255) != 0 || System.nanoTime() < deadline) {
+                    // best sellers first: item 1 and 2 take most of the lines
+                    String[] line = {ITEMS[r.nextBoolean() ? r.nextInt(2) : r.nextInt(ITEMS.length)],
+                            ICINGS[r.nextInt(ICINGS.length)], FILLINGS[r.nextInt(FILLINGS.length)]};
+                    int qty = 1 + r.nextInt(3);
+                    if (reserveLine(c, line, qty)) {
+                        order.add(line);
+                        qtys.add(qty);
+                    }
+                    count++;
+                    if (order.size() == 4) {
+                        if (r.nextInt(5) == 0) {   // cleared: everything goes back
+                            for (int i = 0; i < order.size(); i++) for (String sku : order.get(i)) if (sku != null) c.release(sku, qtys.get(i));
+                        } else {                   // checked out: the units stay sold
+                            for (int i = 0; i < order.size(); i++) for (String sku : order.get(i)) if (sku != null) mine.merge(sku, (long) qtys.get(i), Long::sum);
+                        }
+                        order.clear();
+                        qtys.clear();
+                    }
+                }
+                for (int i = 0; i < order.size(); i++) for (String sku : order.get(i)) if (sku != null) mine.merge(sku, (long) qtys.get(i), Long::sum);
+                lines.addAndGet(count);
+                try {
+                    timedDone.await();
+                } catch (Exception e) {
+                    return;
+                }
+                // sell out the scarce SKU
+                long sold = 0;
+                while (c.reserve(SCARCE, 1)) sold++;
+                scarceSold.addAndGet(sold);
+            }));
+        }
+        for (Thread t : threads) t.start();
+        long t0 = System.nanoTime();
+        start.countDown();
+        timedDone.await();
+        long elapsed = System.nanoTime() - t0;
+        long t1 = System.nanoTime();
+        // while the scarce SKU sells out its level may only go down, as the flusher would see it
+        AtomicBoolean selling = new AtomicBoolean(true), levelRose = new AtomicBoolean();
+        Thread watcher = new Thread(() -> {
+            for (long last = Long.MAX_VALUE; selling.get(); ) {
+                long now = c.level(SCARCE);
+                if (now > last) levelRose.set(true);
+                last = now;
+            }
+        });
+        watcher.start();
+        for (Thread t : threads) t.join();
+        long selloutNanos = System.nanoTime() - t1;
+        selling.set(false);
+        watcher.join();
+
+        Map<String, Long> sold = new HashMap<>();
+        for (Map<String, Long> m : held) for (Map.Entry<String, Long> e : m.entrySet()) sold.merge(e.getKey(), e.getValue(), Long::sum);
+        boolean ok = true;
+        for (String sku : skus) ok &= c.level(sku) + sold.getOrDefault(sku, 0L) == START_LEVEL;
+        ok &= scarceSold.get() == SCARCE_LEVEL && c.level(SCARCE) == 0 && !c.reserve(SCARCE, 1) && !levelRose.get();
+        if (!ok) failures++;
+        double secs = elapsed / 1e9;
+        long gathers = Metrics.counter("inventory.slowPathGathers").getCount() - gathersBefore;
+        System.out.printf("%-22s %,14.0f %12.1f %,12d %,14.0f %8s%n", name, lines.get() / secs, elapsed / (double) lines.get(),
+                c instanceof Striped ? gathers : 0, SCARCE_LEVEL / (selloutNanos / 1e9), ok ? "ok" : "FAIL");
+    }
+
+    // reserve every SKU of a line or none, like Inventory.reserveLine
+    private static boolean reserveLine(Counters c, String[] line, int qty) {
+        for (int i = 0; i < line.length; i++) {
+            if (line[i] == null || c.reserve(line[i], qty)) continue;
+            for (int j = 0; j < i; j++) if (line[j] != null) c.release(line[j], qty);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,197 @@
+import javax.swing.SwingUtilities;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * KitchenRing with several consumers: publish-to-consumer latency and allocation per order.
+ *
+ * Each phase publishes orders from one thread to a fresh ring read by every consumer, flat out
+ * ("burst") and then paced like a busy shop, where the consumers have gone idle between orders
+ * and must be woken. Latency is measured per ticket per consumer; allocation is measured per
+ * thread (HotSpot) after a warm-up tenth. Every consumer checks it saw every order in order.
+ * Pacing sleeps rather than spins, so on a machine with few cores the producer does not take
+ * the consumers' CPU. Then two checks: two producers publishing at once (every order seen
+ * exactly once by every consumer) and a KitchenDisplay on the EDT showing the last tickets.
+ * Exits with status 1 when a check fails.
+ *
+ *   java -Djava.awt.headless=true -cp out:bench-out KitchenRingBenchmark [consumers] [orders]
+ */
+public class KitchenRingBenchmark {
+    private static final int POOL = 64;
+    private static final DatabaseManager.OrderRow[] ORDERS = new DatabaseManager.OrderRow[POOL];
+    private static final List<List<DatabaseManager.OrderLine>> LINES = new ArrayList<>();
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int consumers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int orders = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+        // a fixed pool of orders, so the producer side allocates nothing of its own
+        Random r = new Random(5);
+        String[] items = {"Glazed Donut", "Boston Creme Donut", "Latte", "Iced Coffee", "Cruller"};
+        for (int i = 0; i < POOL; i++) {
+            List<DatabaseManager.OrderLine> lines = new ArrayList<>();
+            for (int k = 0, n = 1 + r.nextInt(4); k < n; k++) {
+                lines.add(new DatabaseManager.OrderLine(k + 1, items[r.nextInt(items.length)], 1 + r.nextInt(3), 199,
+                        r.nextBoolean() ? "Maple" : null, r.nextInt(3) == 0 ? "Jam" : null));
+            }
+            LINES.add(lines);
+            ORDERS[i] = InMemoryStore.newOrderRow(1000 + i, new Timestamp(System.currentTimeMillis()), lines, 500, 30, 530, 0);
+        }
+
+        System.out.printf("%d consumers, ring of 1024, staleness bound 500 us%n", consumers);
+        System.out.printf("%-16s %10s %12s %9s %9s %9s %9s %12s %12s %8s%n", "phase", "orders", "orders/s", "p50 us", "p99 us",
+                "p99.9 us", "max us", "prod B/ord", "cons B/ord", "check");
+        phase("burst", consumers, orders, 0);
+        phase("burst", consumers, orders, 0);   // the first run warms up the JIT
+        phase("paced 20k/s", consumers, Math.min(orders, 200_000), 50_000);
+        phase("paced 1k/s", consumers, 10_000, 1_000_000);
+
+        multiProducer(consumers);
+        display();
+        if (failures > 0) {
+            System.out.println(failures + " checks failed");
+            System.exit(1);
+        }
+    }
+
+    private static void phase(String name, int consumerCount, int orders, long pacingNanos) throws Exception {
+        KitchenRing ring = new KitchenRing(1024, 500_000);
+        int warm = orders / 10;
+        CountDownLatch done = new CountDownLatch(consumerCount);
+        BenchStats[] latency = new BenchStats[consumerCount];
+        long[] allocated = new long[consumerCount];
+        boolean[] ok = new boolean[consumerCount];
+        List<KitchenRing.Consumer> started = new ArrayList<>();
+        for (int c = 0; c < consumerCount; c++) {
+            int id = c;
+            latency[c] = new BenchStats(orders - warm);
+            ok[c] = true;
+            long[] expected = {0};
+            long[] allocStart = {0};
+            started.add(ring.startConsumer("bench-" + c, (t, seq, endOfBatch) -> {
+                long now = System.nanoTime();
+                int i = (int) (expected[0] % POOL);
+                if (seq != expected[0] || t.transactionId != ORDERS[i].transactionId || t.lineCount != LINES.get(i).size()) ok[id] = false;
+                expected[0]++;
+                if (seq == warm) allocStart[0] = BenchStats.allocatedBytes();
+                if (seq >= warm) latency[id].record(now - t.publishNanos);
+                if (seq == orders - 1) {
+                    allocated[id] = BenchStats.allocatedBytes() - allocStart[0];
+                    done.countDown();
+                }
+            }, 256));
+        }
+        long waitsBefore = Metrics.counter("kitchen.producerWaits").getCount();
+        long allocStart = 0;
+        long t0 = System.nanoTime(), next = t0;
+        for (int s = 0; s < orders; s++) {
+            if (s == warm) {
+                allocStart = BenchStats.allocatedBytes();
+                t0 = System.nanoTime();
+            }
+            if (pacingNanos > 0) {
+                next += pacingNanos;
+                pace(next);
+            }
+            ring.publish(ORDERS[s % POOL], LINES.get(s % POOL));
+        }
+        long producerBytes = BenchStats.allocatedBytes() - allocStart;
+        if (!done.await(60, TimeUnit.SECONDS)) ok[0] = false;
+        double seconds = (System.nanoTime() - t0) / 1e9;
+        for (KitchenRing.Consumer c : started) ring.stopConsumer(c);
+
+        BenchStats all = new BenchStats(orders * consumerCount);
+        long consumerBytes = 0;
+        boolean allOk = true;
+        for (int c = 0; c < consumerCount; c++) {
+            all.addAll(latency[c]);
+            consumerBytes = Math.max(consumerBytes, allocated[c]);
+            allOk &= ok[c];
+        }
+        if (!allOk) failures++;
+        int measured = orders - warm;
+        System.out.printf("%-16s %,10d %,12.0f %9.1f %9.1f %9.1f %9.1f %12.2f %12.2f %8s%n", name, orders, measured / seconds,
+                all.percentileMicros(50), all.percentileMicros(99), all.percentileMicros(99.9), all.percentileMicros(100),
+                producerBytes / (double) measured, consumerBytes / (double) measured, allOk ? "ok" : "FAIL");
+        long waits = Metrics.counter("kitchen.producerWaits").getCount() - waitsBefore;
+        if (waits > 0) System.out.printf("%-16s producer waited for a full ring %,d times%n", "", waits);
+    }
+
+    // sleep until the deadline (latency is measured from publish, so oversleeping only slows the pace)
+    private static void pace(long deadline) {
+        for (long left; (left = deadline - System.nanoTime()) > 0; ) LockSupport.parkNanos(left);
+    }
+
+    // two threads publishing at once: every consumer sees each order exactly once
+    private static void multiProducer(int consumerCount) throws Exception {
+        int perProducer = 200_000;
+        KitchenRing ring = new KitchenRing(1024, 500_000);
+        BitSet[] seen = new BitSet[consumerCount];
+        AtomicInteger duplicates = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(consumerCount);
+        List<KitchenRing.Consumer> started = new ArrayList<>();
+        for (int c = 0; c < consumerCount; c++) {
+            BitSet s = seen[c] = new BitSet(2 * perProducer);
+            int[] count = {0};
+            started.add(ring.startConsumer("mp-" + c, (t, seq, endOfBatch) -> {
+                int key = t.transactionId * perProducer + (int) t.totalCents;   // producer and its own counter
+                if (s.get(key)) duplicates.incrementAndGet();
+                s.set(key);
+                if (++count[0] == 2 * perProducer) done.countDown();
+            }, 256));
+        }
+        Thread[] producers = new Thread[2];
+        for (int p = 0; p < 2; p++) {
+            int producer = p;
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    ring.publish(InMemoryStore.newOrderRow(producer, new Timestamp(0), LINES.get(i % POOL), 0, 0, i, 0), LINES.get(i % POOL));
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread t : producers) t.join();
+        boolean ok = done.await(60, TimeUnit.SECONDS) && duplicates.get() == 0;
+        for (BitSet s : seen) ok &= s.cardinality() == 2 * perProducer;
+        for (KitchenRing.Consumer c : started) ring.stopConsumer(c);
+        if (!ok) failures++;
+        System.out.printf("%ntwo producers, %,d orders each: %s%n", perProducer, ok ? "every consumer saw every order once" : "FAIL");
+    }
+
+    // a KitchenDisplay fed at 2k orders/s ends up listing the newest MAX_TICKETS tickets
+    private static void display() throws Exception {
+        KitchenRing ring = new KitchenRing(1024, 500_000);
+        KitchenDisplay display = new KitchenDisplay(ring, "bench-display");
+        display.start();
+        int orders = 5_000;
+        long next = System.nanoTime();
+        for (int i = 0; i < orders; i++) {
+            next += 500_000;
+            pace(next);
+            ring.publish(InMemoryStore.newOrderRow(1000 + i, new Timestamp(System.currentTimeMillis()), LINES.get(i % POOL), 500, 30, 530, 0),
+                    LINES.get(i % POOL));
+        }
+        Thread.sleep(200);
+        String[] first = new String[1], last = new String[1];
+        int[] size = new int[1];
+        SwingUtilities.invokeAndWait(() -> {
+            size[0] = display.model().size();
+            first[0] = display.model().firstElement();
+            last[0] = display.model().lastElement();
+        });
+        display.stop();
+        boolean ok = size[0] == KitchenDisplay.MAX_TICKETS && first[0].startsWith("#" + (1000 + orders - KitchenDisplay.MAX_TICKETS) + " ")
+                && last[0].startsWith("#" + (1000 + orders - 1) + " ");
+        if (!ok) failures++;
+        Metrics.Snapshot shown = Metrics.timer("kitchen.checkoutToDisplay").snapshot();
+        System.out.printf("display, %,d orders at 2k/s: %d tickets listed, newest \"%s\"; publish to list model p50 %.1f us, p99 %.1f us over %,d EDT updates: %s%n",
+                orders, size[0], last[0], shown.percentileMicros(50), shown.percentileMicros(99), shown.count, ok ? "ok" : "FAIL");
+    }
+}
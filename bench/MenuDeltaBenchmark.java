@@ -0,0 +1,143 @@
+import javax.swing.DefaultListModel;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Menu edits through MenuCache, followed the way the main menu list follows them: each change
+ * event becomes MenuCatalog.with() plus a carried-over Searcher whose applyTo() patches the
+ * list model, against the old way (a new MenuCatalog over the reloaded menu and a fresh list).
+ *
+ * A random mix of adds, renames, price changes, category moves and deletes runs against an
+ * InMemoryStore while a filter (category and search text) is active. After every edit the list
+ * is compared with a fresh catalog's answer and the cache with the store. Reports the cost per
+ * edit of both ways and the list model events per edit. Exits with status 1 on a mismatch.
+ *
+ *   java -cp out:bench-out MenuDeltaBenchmark [menuItems] [edits]
+ */
+public class MenuDeltaBenchmark {
+    private static final String[] WORDS = {"glazed", "chocolate", "sprinkle", "boston", "creme", "maple", "jelly", "cruller",
+            "latte", "iced", "coffee", "mocha", "tomato", "mozzarella", "sandwich", "bagel", "vanilla", "caramel"};
+    private static final String[] CATEGORIES = {"Donuts", "Drinks", "Sandwiches"};
+    private static final String[][] FILTERS = {{MenuCatalog.ALL, ""}, {"Donuts", ""}, {MenuCatalog.ALL, "la"}, {"Drinks", "mocha"}};
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int edits = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        Random r = new Random(11);
+        InMemoryStore store = new InMemoryStore();
+        List<DatabaseManager.MenuItem> seed = new ArrayList<>();
+        for (int i = 0; i < size; i++) seed.add(new DatabaseManager.MenuItem(0, name(r, i), CATEGORIES[r.nextInt(3)], 100 + r.nextInt(500)));
+        store.seedMenuItems(seed);
+        MenuCache cache = new MenuCache(store);
+
+        // the main list's bookkeeping, as in DonutShopApp.applyMenuChange
+        Map<Integer, Integer> slots = new HashMap<>();
+        DefaultListModel<String> model = new DefaultListModel<>();
+        long[] modelEvents = {0};
+        model.addListDataListener(new ListDataListener() {
+            public void intervalAdded(ListDataEvent e) { modelEvents[0]++; }
+            public void intervalRemoved(ListDataEvent e) { modelEvents[0]++; }
+            public void contentsChanged(ListDataEvent e) { modelEvents[0]++; }
+        });
+        AtomicReference<MenuCatalog<DatabaseManager.MenuItem>> catalog = new AtomicReference<>();
+        AtomicReference<MenuCatalog<DatabaseManager.MenuItem>.Searcher> searcher = new AtomicReference<>();
+        String[] filter = FILTERS[0];
+        long[] deltaNanos = {0};
+        cache.addListener(change -> {
+            long t0 = System.nanoTime();
+            if (change.kind == MenuCache.Kind.RELOADED) {
+                slots.clear();
+                for (int i = 0; i < change.menu.size(); i++) slots.put(change.menu.get(i).id, i);
+                catalog.set(newCatalog(change.menu));
+                searcher.set(catalog.get().newSearcher());
+            } else {
+                int id = change.after != null ? change.after.id : change.before.id;
+                Integer slot = change.after != null ? slots.computeIfAbsent(id, k -> catalog.get().size()) : slots.remove(id);
+                if (slot == null) return;
+                catalog.set(catalog.get().with(slot, change.after));
+                searcher.set(catalog.get().newSearcher(searcher.get(), slot));
+            }
+            searcher.get().update(filter[0], filter[1]);
+            searcher.get().applyTo(model);
+            deltaNanos[0] += System.nanoTime() - t0;
+        });
+        cache.reload();
+
+        int failures = 0;
+        long rebuildNanos = 0;
+        long eventsBefore = modelEvents[0], filterEvents = 0;
+        deltaNanos[0] = 0;
+        for (int e = 0; e < edits; e++) {
+            if (e % 1000 == 0) {   // change the filter now and then, as a cashier would
+                String[] f = FILTERS[(e / 1000) % FILTERS.length];
+                filter[0] = f[0];
+                filter[1] = f[1];
+                long m0 = modelEvents[0];
+                searcher.get().update(filter[0], filter[1]);
+                searcher.get().applyTo(model);
+                filterEvents += modelEvents[0] - m0;
+            }
+            List<DatabaseManager.MenuItem> items = cache.items();
+            DatabaseManager.MenuItem target = items.get(r.nextInt(items.size()));
+            switch (r.nextInt(5)) {
+                case 0: cache.add(name(r, size + e), CATEGORIES[r.nextInt(3)], 100 + r.nextInt(500)); break;
+                case 1: cache.update(target.id, name(r, size + e), target.category, target.priceCents); break;
+                case 2: cache.update(target.id, target.name, target.category, target.priceCents + 25); break;
+                case 3: cache.update(target.id, target.name, CATEGORIES[r.nextInt(3)], target.priceCents); break;
+                default: cache.delete(target.id); break;
+            }
+
+            // the old way: load the menu, index it again and fill a fresh list
+            long t0 = System.nanoTime();
+            MenuCatalog<DatabaseManager.MenuItem> fresh = newCatalog(new ArrayList<>(store.loadMenuItems().values()));
+            MenuCatalog<DatabaseManager.MenuItem>.Searcher full = fresh.newSearcher();
+            full.update(filter[0], filter[1]);
+            DefaultListModel<String> expected = new DefaultListModel<>();
+            full.applyTo(expected);
+            rebuildNanos += System.nanoTime() - t0;
+
+            if (!Collections.list(model.elements()).equals(Collections.list(expected.elements()))) {
+                failures++;
+                if (failures <= 5) System.out.printf("  FAIL after edit %d: list has %d rows, expected %d%n", e, model.size(), expected.size());
+            }
+        }
+        if (!sameMenu(cache, store)) {
+            failures++;
+            System.out.println("  FAIL: cache and store differ");
+        }
+
+        System.out.printf("%,d items, %,d edits, cache version %,d%n", size, edits, cache.version());
+        System.out.printf("delta:   %8.1f us per edit, %.2f list model events per edit%n", deltaNanos[0] / 1e3 / edits,
+                (modelEvents[0] - eventsBefore - filterEvents) / (double) edits);
+        System.out.printf("rebuild: %8.1f us per edit (reload, new catalog, fresh list)%n", rebuildNanos / 1e3 / edits);
+        System.out.println(failures == 0 ? "list matched a full rebuild after every edit" : failures + " mismatches");
+        if (failures > 0) System.exit(1);
+    }
+
+    private static MenuCatalog<DatabaseManager.MenuItem> newCatalog(List<DatabaseManager.MenuItem> menu) {
+        return new MenuCatalog<>(menu, mi -> mi.name, mi -> mi.category, mi -> String.format("%s — %s", mi.name, Money.format(mi.priceCents)));
+    }
+
+    private static boolean sameMenu(MenuCache cache, InMemoryStore store) {
+        List<DatabaseManager.MenuItem> a = cache.items();
+        List<DatabaseManager.MenuItem> b = new ArrayList<>(store.loadMenuItems().values());
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            DatabaseManager.MenuItem x = a.get(i), y = b.get(i);
+            if (x.id != y.id || !x.name.equals(y.name) || !x.category.equals(y.category) || x.priceCents != y.priceCents) return false;
+            if (cache.byName(y.name.toUpperCase()) != x || cache.byId(y.id) != x) return false;
+        }
+        return true;
+    }
+
+    private static String name(Random r, int i) {
+        return WORDS[r.nextInt(WORDS.length)] + " " + WORDS[r.nextInt(WORDS.length)] + " #" + i;
+    }
+}
@@ -0,0 +1,176 @@
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bulk menu imports (see MenuFile) into each backend. First a thousand items are added one at a
+ * time, as the Manage Menu dialog does, for comparison; then a seasonal menu of 100,000 items
+ * that includes them is imported from CSV, and the whole menu is exported to JSON and imported
+ * again (every item an update). Checks that odd names survive both formats, that a bad file
+ * is refused with its line numbers and changes nothing, that the imported menu is exactly the
+ * file, and that the log backend replays a bulk import. Derby is skipped when derby.jar is not
+ * on the class path. Exits with status 1 when a check fails.
+ *
+ *   java -cp out:bench-out[:derby.jar] MenuImportBenchmark [items] [memory] [log] [derby]
+ */
+public class MenuImportBenchmark {
+    private static final String[] CATEGORIES = {"Donuts", "Drinks", "Sandwiches", "Bagels", "Seasonal"};
+    private static final int ONE_AT_A_TIME = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        List<String> kinds = args.length > 1 ? Arrays.asList(args).subList(1, args.length) : Arrays.asList("memory", "log", "derby");
+        if (System.getProperty("oakdonuts.db.url") == null) System.setProperty("oakdonuts.db.url", "jdbc:derby:benchdb/menuimport;create=true");
+        formats();
+
+        Path dir = Files.createTempDirectory("menuimport");
+        Path csv = dir.resolve("menu.csv"), json = dir.resolve("menu.json");
+        List<DatabaseManager.MenuItem> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            // the first ones are also added one at a time below, so the import updates them
+            items.add(new DatabaseManager.MenuItem(0, "Seasonal Item " + i, CATEGORIES[i % CATEGORIES.length], 99 + (i * 37) % 900));
+        }
+        MenuFile.export(items, csv);
+        System.out.printf("%,d items, %.1f MB of CSV%n", count, Files.size(csv) / 1e6);
+
+        for (String kind : kinds) {
+            if (kind.equals("derby") && !derbyAvailable()) {
+                System.out.println("derby: skipped, Derby is not on the class path");
+                continue;
+            }
+            Path logFile = dir.resolve("menu.log");
+            Files.deleteIfExists(logFile);
+            if (kind.equals("derby")) BenchStats.deleteRecursively(new File("benchdb/menuimport"));
+            Store store = kind.equals("log") ? new OrderLogStore(logFile.toString()) : Store.create(kind);
+            store.open();
+            MenuCache menu = new MenuCache(store);
+            menu.reload();
+            System.out.println("== " + kind);
+
+            int existing = Math.min(count / 10, ONE_AT_A_TIME);
+            long t0 = System.nanoTime();
+            for (int i = 0; i < existing; i++) {
+                DatabaseManager.MenuItem mi = items.get(i);
+                menu.add(mi.name, mi.category, mi.priceCents + 1);
+            }
+            double perItem = (System.nanoTime() - t0) / (double) Math.max(1, existing);
+            System.out.printf("%-24s %,10d items %10.3f s  (%.1f us/item, %.1f s for %,d)%n", "one at a time", existing,
+                    perItem * existing / 1e9, perItem / 1e3, perItem * count / 1e9, count);
+
+            MenuFile.Summary csvImport = MenuFile.importFile(menu, csv);
+            report("CSV import", csvImport);
+            BenchStats.check(kind + ": the CSV import added the new items and updated the rest",
+                    csvImport.added == count - existing && csvImport.updated == existing);
+            BenchStats.check(kind + ": the menu is exactly the file", sameItems(items, store.loadMenuItems()) && menu.size() == count);
+
+            t0 = System.nanoTime();
+            MenuFile.export(menu.items(), json);
+            System.out.printf("%-24s %,10d items %10.3f s  (%.1f MB)%n", "JSON export", count, (System.nanoTime() - t0) / 1e9, Files.size(json) / 1e6);
+            MenuFile.Summary jsonImport = MenuFile.importFile(menu, json);
+            report("JSON import (updates)", jsonImport);
+            BenchStats.check(kind + ": importing the exported menu only updates", jsonImport.added == 0 && jsonImport.updated == count
+                    && sameItems(items, store.loadMenuItems()));
+
+            if (store instanceof OrderLogStore) {
+                store.close();
+                store = new OrderLogStore(logFile.toString());
+                t0 = System.nanoTime();
+                store.open();
+                System.out.printf("%-24s %,10d items %10.3f s%n", "log replay", count, (System.nanoTime() - t0) / 1e9);
+                BenchStats.check(kind + ": reopen replays the import", sameItems(items, store.loadMenuItems()));
+            }
+            store.close();
+        }
+        Files.deleteIfExists(dir.resolve("menu.log"));
+        Files.deleteIfExists(csv);
+        Files.deleteIfExists(json);
+        Files.deleteIfExists(dir);
+
+        BenchStats.exitIfChecksFailed();
+    }
+
+    // names that need quoting or escaping, and files that must be refused
+    private static void formats() throws Exception {
+        List<DatabaseManager.MenuItem> odd = Arrays.asList(
+                new DatabaseManager.MenuItem(0, "Tomato, Basil Sandwich", "Sandwiches", 450),
+                new DatabaseManager.MenuItem(0, "The \"Big\" Donut", "Donuts", 299),
+                new DatabaseManager.MenuItem(0, "Back\\slash Bagel", "Bagels", 0),
+                new DatabaseManager.MenuItem(0, "Crème Brûlée Donut", "Donuts", 249));
+        Path dir = Files.createTempDirectory("menuformats");
+        for (String name : new String[]{"odd.csv", "odd.json"}) {
+            Path file = dir.resolve(name);
+            MenuFile.export(odd, file);
+            List<DatabaseManager.MenuItem> back = MenuFile.read(file);
+            boolean same = back.size() == odd.size();
+            for (int i = 0; same && i < odd.size(); i++) {
+                same = back.get(i).name.equals(odd.get(i).name) && back.get(i).category.equals(odd.get(i).category)
+                        && back.get(i).priceCents == odd.get(i).priceCents;
+            }
+            BenchStats.check(name + ": names with commas, quotes and accents come back as written", same);
+            Files.delete(file);
+        }
+        Files.delete(dir);
+
+        BenchStats.check("CSV columns in any order, blank category is Donuts", MenuFile.read(new StringReader("price,name,category\n1.49,Glazed Donut,\n"),
+                MenuFile.Format.CSV, "t.csv").get(0).category.equals("Donuts"));
+        BenchStats.check("a bad CSV names every bad line", rejects(MenuFile.Format.CSV,
+                "name,category,price\nGlazed Donut,Donuts,1.49\n,Donuts,1.00\nLatte,Drinks,abc\nGLAZED DONUT,Donuts,1.59\n",
+                "line 3:", "line 4:", "line 5:"));
+        BenchStats.check("a CSV without the columns is refused", rejects(MenuFile.Format.CSV, "item,cost\nGlazed,1.49\n", "line 1:"));
+        BenchStats.check("a bad JSON item names its line", rejects(MenuFile.Format.JSON,
+                "[\n{\"name\": \"Glazed Donut\", \"price\": 1.49},\n{\"name\": \"Latte\", \"price\": -3}\n]", "line 3:"));
+        BenchStats.check("broken JSON is refused", rejects(MenuFile.Format.JSON, "[{\"name\": \"Glazed Donut\", \"price\": 1.49", "line 1:"));
+
+        InMemoryStore store = new InMemoryStore();
+        MenuCache menu = new MenuCache(store);
+        menu.add("Glazed Donut", "Donuts", 149);
+        Path bad = Files.createTempFile("bad", ".csv");
+        Files.write(bad, Arrays.asList("name,category,price", "Cruller,Donuts,1.89", "Glazed Donut,Donuts,oops"));
+        try {
+            MenuFile.importFile(menu, bad);
+            BenchStats.check("a bad file is not imported", false);
+        } catch (IllegalArgumentException expected) {
+            BenchStats.check("a bad file is not imported", store.loadMenuItems().size() == 1 && store.loadMenuItems().get("Glazed Donut").priceCents == 149);
+        } finally {
+            Files.delete(bad);
+        }
+    }
+
+    private static boolean rejects(MenuFile.Format format, String text, String... lines) throws Exception {
+        try {
+            MenuFile.read(new StringReader(text), format, "t");
+            return false;
+        } catch (IllegalArgumentException ex) {
+            for (String line : lines) if (!ex.getMessage().contains(line)) return false;
+            return true;
+        }
+    }
+
+    private static boolean sameItems(List<DatabaseManager.MenuItem> expected, Map<String, DatabaseManager.MenuItem> stored) {
+        if (stored.size() != expected.size()) return false;
+        for (DatabaseManager.MenuItem mi : expected) {
+            DatabaseManager.MenuItem s = stored.get(mi.name);
+            if (s == null || s.priceCents != mi.priceCents || !s.category.equals(mi.category)) return false;
+        }
+        return true;
+    }
+
+    private static void report(String what, MenuFile.Summary s) {
+        System.out.printf("%-24s %,10d items %10.3f s  (%.3f s reading, %.3f s storing; %,d added, %,d updated)%n", what, s.items,
+                (s.readNanos + s.storeNanos) / 1e9, s.readNanos / 1e9, s.storeNanos / 1e9, s.added, s.updated);
+    }
+
+    private static boolean derbyAvailable() {
+        try {
+            Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import javax.swing.DefaultListModel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Per-keystroke cost of the menu filter: the old linear scan (toLowerCase + String.format for
+ * every entry, full list model rebuild) against MenuCatalog's index, incremental refinement
+ * and list model diffs, over a synthetic multi-store catalog.
+ *
+ *   java -cp out:bench-out MenuSearchBenchmark [skus]
+ */
+public class MenuSearchBenchmark {
+    private static final String[] WORDS = {"glazed", "chocolate", "sprinkle", "boston", "creme", "maple", "jelly", "cruller",
+            "latte", "iced", "coffee", "mocha", "tomato", "mozzarella", "sandwich", "bagel", "vanilla", "caramel", "store"};
+    private static final String[] CATEGORIES = {"Donuts", "Drinks", "Sandwiches"};
+    private static final String[] TYPED = {"b", "bo", "bos", "bost", "bosto", "boston", " boston c", "boston cr", "boston cre"};
+
+    public static void main(String[] args) {
+        int skus = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        LinkedHashMap<String, DatabaseManager.MenuItem> itemMap = new LinkedHashMap<>();
+        Random r = new Random(42);
+        for (int i = 0; itemMap.size() < skus; i++) {
+            String name = WORDS[r.nextInt(WORDS.length)] + " " + WORDS[r.nextInt(WORDS.length)] + " #" + i;
+            itemMap.put(name, new DatabaseManager.MenuItem(i + 1, name, CATEGORIES[r.nextInt(3)], 100 + r.nextInt(500)));
+        }
+
+        long t0 = System.nanoTime();
+        MenuCatalog<DatabaseManager.MenuItem> catalog = new MenuCatalog<>(itemMap.values(), mi -> mi.name, mi -> mi.category,
+                mi -> String.format("%s — %s", mi.name, Money.format(mi.priceCents)));
+        System.out.printf("catalog build: %.1f ms for %d SKUs%n", (System.nanoTime() - t0) / 1e6, skus);
+
+        BenchStats legacy = new BenchStats(1000);
+        BenchStats indexed = new BenchStats(1000);
+        DefaultListModel<String> legacyModel = new DefaultListModel<>();
+        DefaultListModel<String> indexedModel = new DefaultListModel<>();
+        for (int round = 0; round < 60; round++) {
+            boolean measure = round >= 10;   // first rounds are warmup
+            MenuCatalog<DatabaseManager.MenuItem>.Searcher searcher = catalog.newSearcher();
+            for (String q : TYPED) {
+                long a = System.nanoTime();
+                legacyRefresh(itemMap, legacyModel, "All", q);
+                long b = System.nanoTime();
+                searcher.update("All", q);
+                searcher.applyTo(indexedModel);
+                long c = System.nanoTime();
+                if (measure) {
+                    legacy.record(b - a);
+                    indexed.record(c - b);
+                }
+                if (legacyModel.size() != indexedModel.size()) throw new IllegalStateException("result mismatch for '" + q + "'");
+            }
+        }
+        System.out.println(legacy.summary("linear scan per keystroke"));
+        System.out.println(indexed.summary("MenuCatalog per keystroke"));
+    }
+
+    // the refreshMenu body before MenuCatalog
+    private static void legacyRefresh(Map<String, DatabaseManager.MenuItem> itemMap, DefaultListModel<String> model,
+                                      String selectedCategory, String query) {
+        String q = query.trim().toLowerCase();
+        model.clear();
+        List<String> rows = new ArrayList<>();
+        for (Map.Entry<String, DatabaseManager.MenuItem> e : itemMap.entrySet()) {
+            String name = e.getKey();
+            DatabaseManager.MenuItem mi = e.getValue();
+            String cat = mi.category == null ? "All" : mi.category;
+            boolean catMatch = "All".equals(selectedCategory) || selectedCategory.equalsIgnoreCase(cat);
+            boolean searchMatch = q.isEmpty() || name.toLowerCase().contains(q);
+            if (catMatch && searchMatch) rows.add(String.format("%s — %s", name, Money.format(mi.priceCents)));
+        }
+        model.addAll(rows);
+    }
+}
@@ -0,0 +1,176 @@
+import javax.swing.DefaultListModel;
+import javax.swing.JComponent;
+import javax.swing.JList;
+import javax.swing.JTextField;
+import javax.swing.RepaintManager;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scripted typing into the menu search box, with the old synchronous refresh (search and list
+ * update on the EDT for every document event) against MenuSearchPipeline with and without
+ * debouncing. The script types two queries key by key, pastes a third, and backspaces.
+ * For each mode it reports list model updates, JList repaint requests, total EDT time
+ * (EdtMonitor), and the slowest keystroke handler. It also checks that the list ends up
+ * showing the right result.
+ *
+ *   java -Djava.awt.headless=true -cp out:bench-out MenuTypingBenchmark [skus] [keyDelayMs]
+ */
+public class MenuTypingBenchmark {
+    private static final String[] WORDS = {"glazed", "chocolate", "sprinkle", "boston", "creme", "maple", "jelly", "cruller",
+            "latte", "iced", "coffee", "mocha", "tomato", "mozzarella", "sandwich", "bagel", "vanilla", "caramel", "store"};
+    private static final String[] CATEGORIES = {"Donuts", "Drinks", "Sandwiches"};
+
+    private static final AtomicLong repaints = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int skus = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int keyDelay = args.length > 1 ? Integer.parseInt(args[1]) : 35;
+        LinkedHashMap<String, DatabaseManager.MenuItem> itemMap = new LinkedHashMap<>();
+        Random r = new Random(42);
+        for (int i = 0; itemMap.size() < skus; i++) {
+            String name = WORDS[r.nextInt(WORDS.length)] + " " + WORDS[r.nextInt(WORDS.length)] + " #" + i;
+            itemMap.put(name, new DatabaseManager.MenuItem(i + 1, name, CATEGORIES[r.nextInt(3)], 100 + r.nextInt(500)));
+        }
+        MenuCatalog<DatabaseManager.MenuItem> catalog = new MenuCatalog<>(itemMap.values(), mi -> mi.name, mi -> mi.category,
+                mi -> String.format("%s — %s", mi.name, Money.format(mi.priceCents)));
+        // the old mode stalls the EDT on purpose; keep the watchdog's reports out of the table
+        if (System.getProperty("oakdonuts.edt.log") == null) {
+            System.setProperty("oakdonuts.edt.log", java.nio.file.Files.createTempFile("menutyping", ".edt.log").toString());
+        }
+        EdtMonitor.install();
+        SwingUtilities.invokeAndWait(() -> RepaintManager.setCurrentManager(new RepaintManager() {
+            @Override
+            public void addDirtyRegion(JComponent c, int x, int y, int w, int h) {
+                if (c instanceof JList) repaints.incrementAndGet();
+                super.addDirtyRegion(c, x, y, w, h);
+            }
+        }));
+
+        System.out.printf("%d SKUs, %d ms between keys%n", skus, keyDelay);
+        System.out.printf("%-22s %8s %10s %10s %12s %14s %8s%n", "mode", "keys", "updates", "repaints", "EDT ms", "worst key ms", "correct");
+        for (int round = 0; round < 2; round++) {   // the first round warms up
+            boolean print = round == 1;
+            run("sync (old)", catalog, -1, keyDelay, print);
+            run("pipeline, no debounce", catalog, 0, keyDelay, print);
+            run("pipeline, 60 ms", catalog, 60, keyDelay, print);
+        }
+    }
+
+    // debounceMs < 0 is the old synchronous refresh
+    private static void run(String mode, MenuCatalog<DatabaseManager.MenuItem> catalog, int debounceMs, int keyDelay, boolean print) throws Exception {
+        JTextField searchField = new JTextField();
+        DefaultListModel<String> model = new DefaultListModel<>();
+        JList<String> list = new JList<>(model);
+        long[] updates = {0};
+        model.addListDataListener(new ListDataListener() {
+            public void intervalAdded(ListDataEvent e) { updates[0]++; }
+            public void intervalRemoved(ListDataEvent e) { updates[0]++; }
+            public void contentsChanged(ListDataEvent e) { updates[0]++; }
+        });
+        Runnable afterApply = () -> { if (!model.isEmpty()) list.setSelectedIndex(0); };
+        MenuCatalog<DatabaseManager.MenuItem>.Searcher searcher = catalog.newSearcher();
+        MenuSearchPipeline<DatabaseManager.MenuItem> pipeline = debounceMs < 0 ? null
+                : new MenuSearchPipeline<>(model, () -> MenuCatalog.ALL, searchField::getText, afterApply, debounceMs);
+        SwingUtilities.invokeAndWait(() -> {
+            if (pipeline != null) {
+                pipeline.setCatalog(catalog);
+            } else {
+                searcher.update(MenuCatalog.ALL, "");
+                searcher.applyTo(model);
+            }
+            searchField.getDocument().addDocumentListener(new DocumentListener() {
+                void upd() {
+                    if (pipeline != null) {
+                        pipeline.requestRefresh();
+                    } else {
+                        searcher.update(MenuCatalog.ALL, searchField.getText());
+                        searcher.applyTo(model);
+                        afterApply.run();
+                    }
+                }
+                public void insertUpdate(DocumentEvent e) { upd(); }
+                public void removeUpdate(DocumentEvent e) { upd(); }
+                public void changedUpdate(DocumentEvent e) { upd(); }
+            });
+        });
+        waitIdle(pipeline);
+
+        updates[0] = 0;
+        repaints.set(0);
+        Metrics.Snapshot before = Metrics.timer("edt.event").snapshot();
+        int keys = 0;
+        long worst = 0;
+        String[] script = {"type:boston creme", "pause", "type:glazed maple", "pause", "paste:chocolate sprinkle", "pause", "back:6", "pause"};
+        for (String step : script) {
+            if (step.equals("pause")) {
+                Thread.sleep(300);
+                continue;
+            }
+            String arg = step.substring(step.indexOf(':') + 1);
+            if (step.startsWith("type:")) {
+                worst = Math.max(worst, key(() -> searchField.setText(""), keyDelay));
+                for (char c : arg.toCharArray()) {
+                    worst = Math.max(worst, key(() -> searchField.setText(searchField.getText() + c), keyDelay));
+                    keys++;
+                }
+            } else if (step.startsWith("paste:")) {
+                worst = Math.max(worst, key(() -> searchField.setText(arg), keyDelay));
+                keys++;
+            } else {
+                for (int i = 0; i < Integer.parseInt(arg); i++) {
+                    worst = Math.max(worst, key(() -> {
+                        String t = searchField.getText();
+                        searchField.setText(t.substring(0, t.length() - 1));
+                    }, keyDelay));
+                    keys++;
+                }
+            }
+        }
+        waitIdle(pipeline);
+        Metrics.Snapshot after = Metrics.timer("edt.event").snapshot();
+        double edtMillis = (after.meanMicros() * after.count - before.meanMicros() * before.count) / 1000.0;
+        boolean[] correct = {false};
+        SwingUtilities.invokeAndWait(() -> {
+            int[] expected = catalog.search(MenuCatalog.ALL, searchField.getText());
+            String[] shown = new String[model.size()];
+            model.copyInto(shown);
+            String[] want = new String[expected.length];
+            for (int i = 0; i < expected.length; i++) want[i] = catalog.display(expected[i]);
+            correct[0] = Arrays.equals(shown, want);
+        });
+        if (pipeline != null) pipeline.shutdown();
+        if (print) {
+            System.out.printf("%-22s %8d %10d %10d %12.1f %14.2f %8s%n", mode, keys, updates[0], repaints.get(), edtMillis,
+                    worst / 1e6, correct[0] ? "yes" : "NO");
+        }
+    }
+
+    // one keystroke on the EDT; returns how long the EDT spent handling it
+    private static long key(Runnable edit, int keyDelay) throws Exception {
+        long[] nanos = {0};
+        SwingUtilities.invokeAndWait(() -> {
+            long t0 = System.nanoTime();
+            edit.run();
+            nanos[0] = System.nanoTime() - t0;
+        });
+        Thread.sleep(keyDelay);
+        return nanos[0];
+    }
+
+    private static void waitIdle(MenuSearchPipeline<?> pipeline) throws Exception {
+        if (pipeline == null) return;
+        boolean[] idle = {false};
+        while (!idle[0]) {
+            Thread.sleep(20);
+            SwingUtilities.invokeAndWait(() -> idle[0] = pipeline.idle());
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A small JMH-style runner for the bench/ programs: timed warm-up and measurement iterations on
+ * one thread, results kept alive through a blackhole, and per-benchmark allocation and GC counts
+ * (what JMH's gc profiler reports). Results can be written as JSON and compared between commits
+ * with BenchCompare.
+ *
+ * Settings (system properties):
+ *  - bench.include   regex on benchmark names (default: all)
+ *  - bench.warmup    warm-up iterations (default 3)
+ *  - bench.iterations measured iterations (default 5)
+ *  - bench.timeMs    length of one iteration (default 500)
+ *  - bench.json      file to write the results to
+ *  - bench.label     free text stored with the results, e.g. the commit
+ */
+public class Microbench {
+
+    // one benchmarked operation; the result is consumed so the JIT cannot drop the work
+    public interface Op {
+        Object run() throws Exception;
+    }
+
+    public static final class Result {
+        public final String name;
+        public final double nsPerOp;
+        public final double errorNs;         // half-width of the 99.9% interval over iterations
+        public final double allocBytesPerOp;  // -1 when the JVM cannot tell
+        public final long gcCount;
+        public final long gcMillis;
+
+        Result(String name, double nsPerOp, double errorNs, double allocBytesPerOp, long gcCount, long gcMillis) {
+            this.name = name;
+            this.nsPerOp = nsPerOp;
+            this.errorNs = errorNs;
+            this.allocBytesPerOp = allocBytesPerOp;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+    }
+
+    private static volatile int sink;
+
+    private final String suite;
+    private final Pattern include = Pattern.compile(System.getProperty("bench.include", ".*"));
+    private final int warmup = Integer.getInteger("bench.warmup", 3);
+    private final int iterations = Integer.getInteger("bench.iterations", 5);
+    private final long iterationNanos = Integer.getInteger("bench.timeMs", 500) * 1_000_000L;
+    private final List<Result> results = new ArrayList<>();
+
+    public Microbench(String suite) {
+        this.suite = suite;
+        System.out.printf("%-40s %12s %10s %12s %8s%n", suite, "ns/op", "error", "B/op", "gc");
+    }
+
+    public boolean includes(String name) {
+        return include.matcher(name).find();
+    }
+
+    public void run(String name, Op op) throws Exception {
+        if (!includes(name)) return;
+        for (int i = 0; i < warmup; i++) iteration(op);
+        double[] ns = new double[iterations];
+        long ops = 0;
+        long alloc0 = BenchStats.allocatedBytes(), gcCount0 = BenchStats.gcCount(), gcMillis0 = BenchStats.gcMillis();
+        for (int i = 0; i < iterations; i++) {
+            long[] r = iteration(op);
+            ns[i] = r[1] / (double) r[0];
+            ops += r[0];
+        }
+        long alloc = BenchStats.allocatedBytes() - alloc0;
+        double mean = 0;
+        for (double v : ns) mean += v / iterations;
+        double var = 0;
+        for (double v : ns) var += (v - mean) * (v - mean);
+        double error = iterations > 1 ? 3.29 * Math.sqrt(var / (iterations - 1)) / Math.sqrt(iterations) : 0;
+        Result result = new Result(name, mean, error, alloc0 < 0 ? -1 : alloc / (double) ops, BenchStats.gcCount() - gcCount0, BenchStats.gcMillis() - gcMillis0);
+        results.add(result);
+        System.out.printf("%-40s %12.1f %10.1f %12.1f %8d%n", name, result.nsPerOp, result.errorNs, result.allocBytesPerOp, result.gcCount);
+    }
+
+    // calls op in growing batches until the iteration time is used up; returns {ops, nanos}
+    private long[] iteration(Op op) throws Exception {
+        long ops = 0, batch = 1;
+        int h = 0;
+        long start = System.nanoTime(), elapsed;
+        do {
+            for (long i = 0; i < batch; i++) {
+                Object o = op.run();
+                h += o == null ? 1 : o.hashCode();
+            }
+            ops += batch;
+            if (batch < 1 << 16) batch <<= 1;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        sink += h;
+        return new long[]{ops, elapsed};
+    }
+
+    public List<Result> results() { return results; }
+
+    // writes bench.json if it was given; one result per line so BenchCompare can read it back
+    public void finish() throws IOException {
+        String file = System.getProperty("bench.json");
+        if (file == null) return;
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8))) {
+            out.println("{");
+            out.printf("  \"suite\": \"%s\",%n", escape(suite));
+            out.printf("  \"label\": \"%s\",%n", escape(System.getProperty("bench.label", "")));
+            out.printf("  \"java\": \"%s\",%n", escape(System.getProperty("java.version")));
+            out.printf("  \"timestamp\": %d,%n", System.currentTimeMillis());
+            out.println("  \"results\": [");
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                out.printf(java.util.Locale.ROOT, "    {\"name\": \"%s\", \"nsPerOp\": %.3f, \"errorNs\": %.3f, \"allocBytesPerOp\": %.1f, \"gcCount\": %d, \"gcMillis\": %d}%s%n",
+                        escape(r.name), r.nsPerOp, r.errorNs, r.allocBytesPerOp, r.gcCount, r.gcMillis, i + 1 < results.size() ? "," : "");
+            }
+            out.println("  ]");
+            out.println("}");
+        }
+        System.out.println("results written to " + file);
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,175 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Export throughput for every OrderExporter format: CSV and columnar, plain and gzipped, fed
+ * with generated orders (a year of them, one to four lines each) so that the exporter alone is
+ * measured. Each file is read back and checked against the generated orders (count and a
+ * checksum of ids, totals, discounts and quantities). Run it with a small heap (-Xmx64m) to see that
+ * memory does not grow with the row count.
+ *
+ * Then the same through a store: InMemoryStore.scanOrders with a date range, and Derby
+ * (jdbc:derby:memory:...) when derby.jar is on the class path, using fewer orders.
+ * Exits with status 1 when a check fails.
+ *
+ *   java -Xmx64m -cp out:bench-out[:derby.jar] OrderExportBenchmark [orders] [storeOrders]
+ */
+public class OrderExportBenchmark {
+    private static final String[] ITEMS = {"Glazed Donut", "Chocolate Sprinkle Donut", "Boston Creme Donut", "Cruller",
+            "Iced Coffee", "Latte", "Tomato & Mozzarella Sandwich", "Crème Brûlée Donut"};
+    private static final long YEAR = 365 * 86_400_000L;
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        long orders = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000L;
+        int storeOrders = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        Path dir = Files.createTempDirectory("orderexport");
+
+        System.out.printf("%,d orders, max heap %d MB%n", orders, Runtime.getRuntime().maxMemory() >> 20);
+        System.out.printf("%-12s %10s %10s %12s %10s %10s %8s%n", "format", "seconds", "orders/s", "MB", "MB/s", "B/order", "check");
+        for (String name : new String[]{"orders.csv", "orders.csv.gz", "orders.oakc", "orders.oakc.gz"}) {
+            Path file = dir.resolve(name);
+            long expected;
+            OrderExporter.Summary summary;
+            try (OrderExporter.Export export = OrderExporter.open(file, OrderExporter.Format.forFile(file), name.endsWith(".gz"))) {
+                expected = generate(orders, export);
+                summary = export.commit();
+            }
+            long actual = name.contains(".csv") ? csvChecksum(file) : columnarChecksum(file, null, null);
+            boolean ok = actual == expected && summary.orders == orders;
+            if (!ok) failures++;
+            double seconds = summary.nanos / 1e9;
+            System.out.printf("%-12s %10.2f %,10.0f %,12.1f %10.1f %10.1f %8s%n", name.substring(name.indexOf('.') + 1), seconds,
+                    orders / seconds, summary.bytes / 1e6, summary.bytes / 1e6 / seconds, summary.bytes / (double) orders, ok ? "ok" : "FAIL");
+            Files.delete(file);
+        }
+
+        System.out.println();
+        InMemoryStore memory = new InMemoryStore();
+        long now = System.currentTimeMillis();
+        Random r = new Random(3);
+        for (int i = 0; i < storeOrders; i++) {
+            List<DatabaseManager.OrderLine> lines = lines(r);
+            memory.putOrder(row(1000 + i, now - YEAR + (long) i * YEAR / storeOrders, lines), lines);
+        }
+        storeExport("memory", memory, dir, now);
+        try {
+            Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+            System.setProperty("oakdonuts.db.url", "jdbc:derby:memory:exportbench;create=true");
+            DerbyStore derby = new DerbyStore();
+            derby.open();
+            for (int i = 0; i < storeOrders; i++) {
+                List<DatabaseManager.OrderLine> lines = lines(r);
+                derby.saveOrderAsync(lines, 500, 30, 530);
+            }
+            derby.close();   // flushes the write-behind queue
+            derby.open();
+            storeExport("derby", derby, dir, now + YEAR);
+            derby.close();
+        } catch (ClassNotFoundException e) {
+            System.out.println("derby: skipped, Derby is not on the class path");
+        }
+        Files.delete(dir);
+        if (failures > 0) {
+            System.out.println(failures + " checks failed");
+            System.exit(1);
+        }
+    }
+
+    // the last 30 days from a store, to columnar, checked against a scan of the store
+    private static void storeExport(String kind, Store store, Path dir, long now) throws Exception {
+        Timestamp from = new Timestamp(now - 30 * 86_400_000L);
+        Path file = dir.resolve(kind + ".oakc");
+        OrderExporter.Summary s = OrderExporter.export(store, from, null, file);
+        long[] expected = {0};
+        long[] count = {0};
+        store.scanOrders(from, null, (o, lines) -> {
+            expected[0] = mix(expected[0], o, lines);
+            count[0]++;
+        });
+        boolean ok = s.orders == count[0] && columnarChecksum(file, null, null) == expected[0]
+                && columnarChecksum(file, from, null) == expected[0];
+        if (!ok) failures++;
+        System.out.printf("%s: last 30 days, %,d orders in %.2f s (%,.0f orders/s), %s%n", kind, s.orders, s.nanos / 1e9,
+                s.orders / (s.nanos / 1e9), ok ? "ok" : "FAIL");
+        Files.delete(file);
+    }
+
+    // feed generated orders to the visitor; returns their checksum
+    private static long generate(long orders, OrderStore.OrderVisitor visitor) throws Exception {
+        Random r = new Random(7);
+        long start = System.currentTimeMillis() - YEAR;
+        long sum = 0;
+        for (long i = 0; i < orders; i++) {
+            List<DatabaseManager.OrderLine> lines = lines(r);
+            DatabaseManager.OrderRow o = row((int) (1000 + i), start + i * YEAR / orders, lines);
+            visitor.visit(o, lines);
+            sum = mix(sum, o, lines);
+        }
+        return sum;
+    }
+
+    private static long mix(long sum, DatabaseManager.OrderRow o, List<DatabaseManager.OrderLine> lines) {
+        long qty = 0;
+        for (DatabaseManager.OrderLine l : lines) qty += l.qty;
+        return sum * 31 + o.transactionId * 7L + o.totalCents * 3 + o.discountCents * 5 + qty;
+    }
+
+    private static long columnarChecksum(Path file, Timestamp from, Timestamp to) throws Exception {
+        long[] sum = {0};
+        ColumnarOrderFile.read(file, from, to, (o, lines) -> sum[0] = mix(sum[0], o, lines));
+        return sum[0];
+    }
+
+    // parse the CSV back just far enough for the checksum (id, quantities, total, discount)
+    private static long csvChecksum(Path file) throws Exception {
+        long sum = 0;
+        try (InputStream raw = Files.newInputStream(file);
+             InputStream in = file.toString().endsWith(".gz") ? new GZIPInputStream(raw, 1 << 16) : raw;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)) {
+            reader.readLine();   // header
+            for (String line; (line = reader.readLine()) != null; ) {
+                int id = Integer.parseInt(line.substring(0, line.indexOf(',')));
+                int open = line.indexOf('"'), close = line.lastIndexOf('"');
+                int last = line.lastIndexOf(',');
+                long total = Money.parse(line.substring(line.lastIndexOf(',', last - 1) + 1, last));
+                long discount = Money.parse(line.substring(last + 1));
+                long qty = 0;
+                for (DatabaseManager.OrderLine l : DatabaseManager.parseItemsString(line.substring(open + 1, close))) qty += l.qty;
+                sum = sum * 31 + id * 7L + total * 3 + discount * 5 + qty;
+            }
+        }
+        return sum;
+    }
+
+    private static List<DatabaseManager.OrderLine> lines(Random r) {
+        int n = 1 + r.nextInt(4);
+        List<DatabaseManager.OrderLine> lines = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int item = r.nextInt(ITEMS.length);
+            boolean donut = ITEMS[item].endsWith("Donut");
+            String icing = donut && r.nextBoolean() ? DonutShopApp.ICINGS[1 + r.nextInt(3)] : null;
+            String filling = donut && r.nextInt(3) == 0 ? DonutShopApp.FILLINGS[1 + r.nextInt(3)] : null;
+            lines.add(new DatabaseManager.OrderLine(item + 1, ITEMS[item], 1 + r.nextInt(3), 150 + item * 25, icing, filling));
+        }
+        return lines;
+    }
+
+    private static DatabaseManager.OrderRow row(int txId, long date, List<DatabaseManager.OrderLine> lines) {
+        long subtotal = 0;
+        for (DatabaseManager.OrderLine l : lines) subtotal += l.qty * l.unitPriceCents;
+        long discount = txId % 5 == 0 ? 50 : 0;   // every fifth order had a promotion
+        subtotal -= discount;
+        long tax = DonutShopApp.SALES_TAX.taxOn(subtotal);
+        return InMemoryStore.newOrderRow(txId, new Timestamp(date), lines, subtotal, tax, subtotal + tax, discount);
+    }
+}
@@ -0,0 +1,118 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * OrderJournal in front of a real OrderWriter whose queue holds only a handful of orders.
+ * A burst of checkouts from several registers many times the writer's queue must all be
+ * acknowledged and stored, and the checkpoint must catch up. Then a journal backlog of
+ * unstored orders much larger than that queue must be replayed into it on the next start.
+ * Derby runs in memory (jdbc:derby:memory:...); the test is skipped when derby.jar is not
+ * on the class path. Exits with status 1 if a check fails.
+ *
+ *   java -cp out:bench-out:derby.jar OrderJournalBackpressureTest [orders] [queueCapacity]
+ */
+public class OrderJournalBackpressureTest {
+    private static final List<DatabaseManager.OrderLine> ORDER = DatabaseManager.parseItemsString("Glazed Donut x2; Latte x1");
+    private static final int REGISTERS = 4;
+
+    public static void main(String[] args) throws Exception {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        try {
+            Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+        } catch (ClassNotFoundException e) {
+            System.out.println("skipped: Derby is not on the class path");
+            return;
+        }
+        System.setProperty("oakdonuts.db.url", "jdbc:derby:memory:journalbackpressure;create=true");
+        DatabaseManager.initializeDatabase();
+        Path file = Files.createTempFile("backpressure", ".journal");
+        Files.delete(file);
+
+        // a burst: registers append as fast as they can, the writer takes 4 orders per commit
+        OrderWriter writer = new OrderWriter(DatabaseManager.pool(), capacity, 4, 1, OrderWriter.Durability.GROUP_COMMIT);
+        OrderJournal journal = new OrderJournal(file, 256 * 1024, OrderJournal.Sync.NONE);
+        journal.recover(writer::put);
+        journal.start(writer::put);
+        int before = DatabaseManager.countOrders(null, null);
+        AtomicInteger failed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> registers = new ArrayList<>();
+        for (int r = 0; r < REGISTERS; r++) {
+            Thread t = new Thread(() -> {
+                List<CompletableFuture<Integer>> acks = new ArrayList<>();
+                try {
+                    start.await();
+                    for (int i = 0; i < orders / REGISTERS; i++) {
+                        acks.add(journal.append(DatabaseManager.nextOrderId(), new Timestamp(System.currentTimeMillis()), ORDER, 598, 36, 634, 0));
+                    }
+                    for (CompletableFuture<Integer> ack : acks) ack.get();
+                } catch (Exception ex) {
+                    System.out.println("  register failed: " + ex);
+                    failed.incrementAndGet();
+                }
+            }, "register-" + r);
+            registers.add(t);
+            t.start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread t : registers) t.join();
+        int burst = orders / REGISTERS * REGISTERS;
+        boolean caughtUp = waitFor(() -> journal.backlogBytes() == 0 && writer.written() == burst);
+        System.out.printf("burst: %,d orders through a queue of %d in %.1f s, %,d commits, %,d rejected%n",
+                burst, capacity, (System.nanoTime() - t0) / 1e9, writer.commits(), writer.rejected());
+        BenchStats.check("every order of the burst is acknowledged", failed.get() == 0);
+        BenchStats.check("the writer stores them all and the checkpoint catches up", caughtUp);
+        BenchStats.check("the orders table has them", DatabaseManager.countOrders(null, null) == before + burst);
+        journal.close();
+        writer.close();
+
+        // a backlog: journal orders a sink never stores, then replay them into a small writer
+        OrderJournal unstored = new OrderJournal(file, 256 * 1024, OrderJournal.Sync.NONE);
+        unstored.recover((id, date, lines, sub, tax, total, discount) -> CompletableFuture.completedFuture(id));
+        unstored.start((id, date, lines, sub, tax, total, discount) -> new CompletableFuture<Integer>());
+        int backlog = 0;
+        while (unstored.backlogBytes() < 128 * 1024) {
+            unstored.append(DatabaseManager.nextOrderId(), new Timestamp(System.currentTimeMillis()), ORDER, 598, 36, 634, 0).get();
+            backlog++;
+        }
+        unstored.close();
+        before = DatabaseManager.countOrders(null, null);
+        OrderWriter small = new OrderWriter(DatabaseManager.pool(), capacity, 4, 1, OrderWriter.Durability.GROUP_COMMIT);
+        OrderJournal reopened = new OrderJournal(file, 256 * 1024, OrderJournal.Sync.NONE);
+        int replayed = -1;
+        try {
+            replayed = reopened.recover(small::put);
+        } catch (Exception ex) {
+            System.out.println("  recovery failed: " + ex);
+        }
+        BenchStats.check("a backlog of " + backlog + " orders is replayed into a queue of " + capacity,
+                replayed == backlog && DatabaseManager.countOrders(null, null) == before + backlog && reopened.backlogBytes() == 0);
+        reopened.close();
+        small.close();
+
+        DatabaseManager.shutdown();
+        Files.deleteIfExists(file);
+        BenchStats.exitIfChecksFailed();
+    }
+
+    private interface Condition {
+        boolean holds() throws Exception;
+    }
+
+    private static boolean waitFor(Condition c) throws Exception {
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (!c.holds()) {
+            if (System.nanoTime() > deadline) return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
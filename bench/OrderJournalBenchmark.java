@@ -0,0 +1,95 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures OrderJournal on its own, with a sink that stores instantly: append throughput from one
+ * pipelined producer (the target is 50k orders/s on a single core, run under taskset -c 0 to
+ * check), then checkout acknowledgement latency from 1..16 registers that each wait for their ack,
+ * with the number of orders sharing each fsync in BATCH mode.
+ *
+ *   java -cp out:bench-out OrderJournalBenchmark [orders] [BATCH] [NONE]
+ */
+public class OrderJournalBenchmark {
+    private static final int[] REGISTERS = {1, 4, 16};
+    private static final List<DatabaseManager.OrderLine> ORDER = Arrays.asList(
+            new DatabaseManager.OrderLine(1, "Glazed Donut", 2, 149, "Chocolate", null),
+            new DatabaseManager.OrderLine(5, "Latte", 1, 300, null, null));
+    private static final OrderJournal.Sink STORED = (id, date, lines, sub, tax, total, discount) -> CompletableFuture.completedFuture(id);
+
+    public static void main(String[] args) throws Exception {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        List<String> modes = args.length > 1 ? Arrays.asList(args).subList(1, args.length) : Arrays.asList("BATCH", "NONE");
+        for (String mode : modes) {
+            OrderJournal.Sync sync = OrderJournal.Sync.valueOf(mode);
+            Path file = Files.createTempFile("journalbench", ".journal");
+            Files.delete(file);
+            OrderJournal journal = new OrderJournal(file, 64L * 1024 * 1024, sync);
+            journal.recover(STORED);
+            journal.start(STORED);
+            System.out.println("== " + sync);
+
+            int id = 1;
+            for (int round = 0; round < 3; round++) {   // the first rounds warm up
+                long syncs = journal.syncs();
+                long t0 = System.nanoTime();
+                CompletableFuture<Integer> last = null;
+                for (int i = 0; i < orders; i++) last = journal.append(id++, new Timestamp(System.currentTimeMillis()), ORDER, 598, 36, 634, 0);
+                last.get();
+                double seconds = (System.nanoTime() - t0) / 1e9;
+                System.out.printf("%-28s %10.0f orders/s  %s%n", "append, pipelined", orders / seconds, perSync(orders, journal.syncs() - syncs));
+            }
+
+            for (int registers : REGISTERS) {
+                int perRegister = Math.max(1, Math.min(orders / registers, sync == OrderJournal.Sync.BATCH ? 5_000 : orders));
+                long syncs = journal.syncs();
+                BenchStats ack = closedLoop(journal, registers, perRegister, id);
+                id += registers * perRegister;
+                System.out.println(ack.summary("ack, " + registers + (registers == 1 ? " register" : " registers"))
+                        + "  " + perSync(registers * perRegister, journal.syncs() - syncs));
+            }
+            journal.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static String perSync(long orders, long syncs) {
+        return syncs == 0 ? "" : String.format("(%.1f orders/fsync)", orders / (double) syncs);
+    }
+
+    // every register appends and waits for its ack before the next checkout
+    private static BenchStats closedLoop(OrderJournal journal, int registers, int perRegister, int firstId) throws Exception {
+        BenchStats all = new BenchStats(registers * perRegister);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        List<Exception> errors = new ArrayList<>();
+        for (int r = 0; r < registers; r++) {
+            int base = firstId + r * perRegister;
+            Thread t = new Thread(() -> {
+                BenchStats mine = new BenchStats(perRegister);
+                try {
+                    start.await();
+                    for (int i = 0; i < perRegister; i++) {
+                        long t0 = System.nanoTime();
+                        journal.append(base + i, new Timestamp(System.currentTimeMillis()), ORDER, 598, 36, 634, 0).get();
+                        mine.record(System.nanoTime() - t0);
+                    }
+                } catch (Exception ex) {
+                    synchronized (errors) { errors.add(ex); }
+                }
+                all.addAll(mine);
+            });
+            threads.add(t);
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : threads) t.join();
+        if (!errors.isEmpty()) throw errors.get(0);
+        return all;
+    }
+}
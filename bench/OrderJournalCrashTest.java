@@ -0,0 +1,190 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * kill -9 test for OrderJournal. Each round starts a child JVM that journals orders from several
+ * registers into a small ring (so it wraps) while a deliberately slow sink stores them, logs
+ * every acknowledged and every stored id, and is killed with SIGKILL at a random moment. The
+ * parent then recovers the journal and checks that every acknowledged order was either stored
+ * by the sink or comes back from the journal intact, with no id replayed twice.
+ * Rounds alternate between the BATCH and NONE sync modes. Exits with status 1 on a violation.
+ *
+ *   java -cp out:bench-out OrderJournalCrashTest [rounds] [ringKb]
+ */
+public class OrderJournalCrashTest {
+    private static final String[] NAMES = {"Glazed Donut", "Latte", "Boston Creme Donut", "Iced Coffee"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("child")) {
+            child(Paths.get(args[1]), Paths.get(args[2]), OrderJournal.Sync.valueOf(args[3]), Long.parseLong(args[4]), Integer.parseInt(args[5]));
+            return;
+        }
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        long ringBytes = (args.length > 1 ? Long.parseLong(args[1]) : 256) * 1024;
+        Path file = Files.createTempFile("crashtest", ".journal");
+        Files.delete(file);
+        // events go to a file, not stdout: output still in the pipe when the child is killed can be dropped
+        Path events = Files.createTempFile("crashtest", ".events");
+        Random random = new Random();
+        int nextId = 1;
+        int failures = 0;
+
+        for (int round = 0; round < rounds; round++) {
+            OrderJournal.Sync sync = round % 2 == 0 ? OrderJournal.Sync.BATCH : OrderJournal.Sync.NONE;
+            List<String> cmd = Arrays.asList(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                    "-cp", System.getProperty("java.class.path"), "OrderJournalCrashTest",
+                    "child", file.toString(), events.toString(), sync.name(), Long.toString(ringBytes), Integer.toString(nextId));
+            Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null && !line.equals("READY")) System.out.println("  [child] " + line);
+            }
+            Thread.sleep(200 + random.nextInt(800));
+            p.destroyForcibly();   // SIGKILL: no shutdown hooks, no close()
+            p.waitFor();
+            Set<Integer> acked = new HashSet<>(), stored = new HashSet<>();
+            for (String line : Files.readAllLines(events, StandardCharsets.UTF_8)) {
+                if (line.matches("[AS] \\d+")) (line.charAt(0) == 'A' ? acked : stored).add(Integer.parseInt(line.substring(2)));
+                else if (!line.matches("[AS] ?\\d*")) System.out.println("  [child] " + line);   // a cut-off last line is expected
+            }
+
+            // recover and check
+            List<Integer> replayed = new ArrayList<>();
+            List<String> bad = new ArrayList<>();
+            OrderJournal journal = new OrderJournal(file, ringBytes, OrderJournal.Sync.NONE);
+            journal.recover((id, date, lines, sub, tax, total, discount) -> {
+                replayed.add(id);
+                if (!intact(id, lines, sub, tax, total, discount)) bad.add("order " + id + " came back altered");
+                return CompletableFuture.completedFuture(id);
+            });
+            journal.close();
+            Set<Integer> replayedSet = new HashSet<>(replayed);
+            if (replayedSet.size() != replayed.size()) bad.add("an order was replayed twice");
+            int lost = 0;
+            for (int id : acked) if (!stored.contains(id) && !replayedSet.contains(id)) lost++;
+            if (lost > 0) bad.add(lost + " acknowledged orders lost");
+
+            int maxId = nextId - 1;
+            for (int id : acked) maxId = Math.max(maxId, id);
+            for (int id : stored) maxId = Math.max(maxId, id);
+            for (int id : replayed) maxId = Math.max(maxId, id);
+            nextId = maxId + 1;
+            System.out.printf("round %2d %-5s acked=%7d stored=%7d replayed=%5d %s%n",
+                    round, sync, acked.size(), stored.size(), replayed.size(), bad.isEmpty() ? "OK" : "FAILED " + bad);
+            if (!bad.isEmpty()) failures++;
+        }
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(events);
+        if (failures > 0) {
+            System.out.println(failures + " rounds failed");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    // amounts and lines are derived from the id, so the parent can check what comes back
+    private static List<DatabaseManager.OrderLine> linesFor(int id) {
+        List<DatabaseManager.OrderLine> lines = new ArrayList<>();
+        for (int k = 0; k <= id % 3; k++) {
+            lines.add(new DatabaseManager.OrderLine(k + 1, NAMES[(id + k) % NAMES.length], 1 + (id + k) % 4, 100 + k,
+                    k == 0 ? "Chocolate" : null, k == 1 ? "Jam" : null));
+        }
+        return lines;
+    }
+
+    private static long discountFor(int id) {
+        return id % 4 == 0 ? 50 : 0;
+    }
+
+    private static long subtotalFor(int id) {
+        long sub = -discountFor(id);
+        for (DatabaseManager.OrderLine l : linesFor(id)) sub += l.unitPriceCents * l.qty;
+        return sub;
+    }
+
+    private static boolean intact(int id, List<DatabaseManager.OrderLine> lines, long sub, long tax, long total, long discount) {
+        List<DatabaseManager.OrderLine> expected = linesFor(id);
+        if (lines.size() != expected.size() || sub != subtotalFor(id) || tax != sub * 6 / 100 || total != sub + tax
+                || discount != discountFor(id)) return false;
+        for (int i = 0; i < lines.size(); i++) {
+            DatabaseManager.OrderLine a = lines.get(i), b = expected.get(i);
+            if (a.menuItemId != b.menuItemId || !a.itemName.equals(b.itemName) || a.qty != b.qty || a.unitPriceCents != b.unitPriceCents
+                    || !java.util.Objects.equals(a.icing, b.icing) || !java.util.Objects.equals(a.filling, b.filling)) return false;
+        }
+        return true;
+    }
+
+    // journal orders until killed; the sink stores them a little later, from its own thread
+    private static void child(Path file, Path events, OrderJournal.Sync sync, long ringBytes, int firstId) throws Exception {
+        // unbuffered: every line is one write(), so it is in the page cache before the next event
+        PrintStream out = new PrintStream(new FileOutputStream(events.toFile()), true, "UTF-8");
+        OrderJournal journal = new OrderJournal(file, ringBytes, sync);
+        journal.recover((id, date, lines, sub, tax, total, discount) -> CompletableFuture.completedFuture(id));   // the parent replayed already
+        ArrayDeque<Object[]> backlog = new ArrayDeque<>();
+        journal.start((id, date, lines, sub, tax, total, discount) -> {
+            CompletableFuture<Integer> f = new CompletableFuture<>();
+            synchronized (backlog) {
+                backlog.add(new Object[]{id, f});
+                backlog.notifyAll();
+            }
+            return f;
+        });
+        Thread storer = new Thread(() -> {
+            try {
+                while (true) {
+                    Object[] next;
+                    synchronized (backlog) {
+                        while (backlog.size() < 200) backlog.wait(5);
+                        next = backlog.poll();
+                    }
+                    int id = (Integer) next[0];
+                    synchronized (out) { out.println("S " + id); }
+                    @SuppressWarnings("unchecked") CompletableFuture<Integer> f = (CompletableFuture<Integer>) next[1];
+                    f.complete(id);
+                }
+            } catch (InterruptedException ignore) {
+            }
+        }, "slow-sink");
+        storer.setDaemon(true);
+        storer.start();
+
+        AtomicInteger ids = new AtomicInteger(firstId);
+        System.out.println("READY");
+        System.out.flush();
+        List<Thread> registers = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            Thread t = new Thread(() -> {
+                try {
+                    while (true) {
+                        int id = ids.getAndIncrement();
+                        long sub = subtotalFor(id), tax = sub * 6 / 100;
+                        journal.append(id, new Timestamp(System.currentTimeMillis()), linesFor(id), sub, tax, sub + tax, discountFor(id))
+                                .thenAccept(tx -> { synchronized (out) { out.println("A " + tx); } });
+                    }
+                } catch (Exception ex) {
+                    out.println("register failed: " + ex);
+                }
+            });
+            registers.add(t);
+            t.start();
+        }
+        for (Thread t : registers) t.join();
+    }
+}
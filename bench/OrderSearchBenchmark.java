@@ -0,0 +1,214 @@
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * OrderSearchIndex over a synthetic year of orders (6am-8pm, one to four lines, random icings
+ * and fillings on donuts).
+ *
+ * First a check: a 60,000 order InMemoryStore is indexed by scanning it, then edited through
+ * the store (updates and enough deletes to force a compaction) while the index follows the
+ * events. Every query is compared with a brute-force scan of the store after each step.
+ * Then the timing: the given number of orders is fed to an index as save events, and each
+ * query is run repeatedly, reporting matches and latency. Exits with status 1 on a mismatch.
+ *
+ *   java -Xmx4g -cp out:bench-out OrderSearchBenchmark [orders] [repeats]
+ */
+public class OrderSearchBenchmark {
+    private static final String[] DONUTS = {"Glazed Donut", "Chocolate Sprinkle Donut", "Boston Creme Donut", "Cruller",
+            "Jelly Donut", "Maple Bar", "Old Fashioned Donut", "Powdered Donut", "Apple Fritter", "Blueberry Cake Donut"};
+    private static final String[] OTHERS = {"Iced Coffee", "Latte", "Mocha", "Cappuccino", "Hot Chocolate", "Chai Latte",
+            "Tomato & Mozzarella Sandwich", "Egg & Cheese Bagel", "Plain Bagel", "Orange Juice"};
+    private static final String[] QUERIES = {
+            "boston creme filling:jam time:7-9 days:7 total>20",
+            "boston creme filling:jam",
+            "latte",
+            "glazed icing:choc; latte",
+            "days:7",
+            "total>40",
+            "time:6-7 total:10-12",
+            "from:2025-03-01 to:2025-03-31 mocha",
+            "cruller icing:maple time:19-20 total<5",
+            "sandwich yesterday",
+            "nothing like this",
+    };
+    private static final long DAY = 86_400_000L;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        // a fixed "now" so the relative queries (days:7, yesterday) land inside the data
+        long now = Timestamp.valueOf("2025-12-31 20:00:00").getTime();
+
+        check(now);
+        if (failures > 0) {
+            System.out.println(failures + " mismatches");
+            System.exit(1);
+        }
+
+        System.out.printf("%nindexing %,d orders%n", orders);
+        System.gc();
+        long heapBefore = usedHeap();
+        OrderSearchIndex index = new OrderSearchIndex();
+        Random r = new Random(1);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < orders; i++) {
+            long date = now - 365 * DAY + (long) i * 365 * DAY / orders;
+            List<DatabaseManager.OrderLine> lines = randomLines(r);
+            index.orderSaved(row(1000 + i, dayTime(date, r), lines), lines);
+        }
+        double seconds = (System.nanoTime() - t0) / 1e9;
+        System.gc();
+        System.out.printf("%.1f s, %,.0f orders/s, heap %,d MB (%.0f bytes per order)%n", seconds, orders / seconds,
+                (usedHeap() - heapBefore) >> 20, (usedHeap() - heapBefore) / (double) orders);
+
+        System.out.printf("%n%-52s %10s %10s %10s%n", "query", "matches", "p50 ms", "max ms");
+        for (String text : QUERIES) {
+            OrderSearchIndex.Query q = OrderSearchIndex.Query.parse(text, now);
+            BenchStats stats = new BenchStats(repeats);
+            int matches = 0;
+            for (int i = 0; i < repeats + 3; i++) {   // a few warm-up runs first
+                long s = System.nanoTime();
+                matches = index.search(q).length;
+                if (i >= 3) stats.record(System.nanoTime() - s);
+            }
+            System.out.printf(Locale.ROOT, "%-52s %,10d %10.2f %10.2f%n", text, matches, stats.percentileMicros(50) / 1000,
+                    stats.percentileMicros(100) / 1000);
+        }
+
+        // incremental maintenance: edits of random old orders while the index is live
+        int edits = 100_000;
+        t0 = System.nanoTime();
+        for (int i = 0; i < edits; i++) {
+            int tx = 1000 + r.nextInt(orders);
+            if (i % 4 == 0) {
+                index.orderDeleted(tx);
+            } else {
+                List<DatabaseManager.OrderLine> lines = randomLines(r);
+                index.orderUpdated(row(tx, now - r.nextInt(365) * DAY, lines), lines);
+            }
+        }
+        System.out.printf("%n%,d updates and deletes: %.2f us each, %,d orders indexed%n", edits,
+                (System.nanoTime() - t0) / 1e3 / edits, index.size());
+    }
+
+    // the index against brute force, after a scan build, after edits and after a compaction
+    private static void check(long now) throws Exception {
+        InMemoryStore store = new InMemoryStore();
+        for (String name : DONUTS) store.addMenuItem(name, "Donuts", 199);
+        for (String name : OTHERS) store.addMenuItem(name, "Drinks", 349);
+        Random r = new Random(2);
+        int n = 60_000;
+        for (int i = 0; i < n; i++) {
+            List<DatabaseManager.OrderLine> lines = randomLines(r);
+            store.putOrder(row(1000 + i, dayTime(now - 365 * DAY + (long) i * 365 * DAY / n, r), lines), lines);
+        }
+        OrderSearchIndex index = OrderSearchIndex.build(store);
+        compare("after build", index, store, now);
+
+        for (int i = 0; i < 5_000; i++) {
+            int tx = 1000 + r.nextInt(n);
+            List<DatabaseManager.OrderLine> lines = randomLines(r);
+            store.updateOrder(tx, DatabaseManager.OrderLine.summarize(lines, Integer.MAX_VALUE), 100 + r.nextInt(5000), 0, 100 + r.nextInt(5000));
+        }
+        for (int i = 0; i < 2_000; i++) {
+            List<DatabaseManager.OrderLine> lines = randomLines(r);
+            store.saveOrder(lines, 0, 0, 100 + r.nextInt(5000));
+        }
+        compare("after edits", index, store, now);
+
+        for (int i = 0; i < 25_000; i++) store.deleteOrder(1000 + r.nextInt(n));
+        compare("after deletes (compacted)", index, store, now);
+        System.out.printf("checked %d queries after build, edits and deletes: %s%n", QUERIES.length, failures == 0 ? "all match" : failures + " mismatches");
+    }
+
+    private static void compare(String when, OrderSearchIndex index, InMemoryStore store, long now) throws Exception {
+        if (index.size() != store.countOrders(null, null)) {
+            failures++;
+            System.out.println("  FAIL " + when + ": index has " + index.size() + " orders, store " + store.countOrders(null, null));
+        }
+        for (String text : QUERIES) {
+            OrderSearchIndex.Query q = OrderSearchIndex.Query.parse(text, now);
+            List<Integer> expected = new ArrayList<>();
+            store.scanOrders(null, null, (o, lines) -> { if (matches(q, o, lines)) expected.add(o.transactionId); });
+            int[] want = new int[expected.size()];
+            for (int i = 0; i < want.length; i++) want[i] = expected.get(want.length - 1 - i);
+            int[] got = index.search(q);
+            if (!Arrays.equals(want, got)) {
+                failures++;
+                System.out.printf("  FAIL %s: \"%s\" found %d orders, expected %d%n", when, text, got.length, want.length);
+            }
+        }
+    }
+
+    // the query semantics, spelled out
+    private static boolean matches(OrderSearchIndex.Query q, DatabaseManager.OrderRow o, List<DatabaseManager.OrderLine> lines) {
+        long date = o.orderDate.getTime();
+        if (date < q.fromMillis || date >= q.toMillis || o.totalCents < q.minTotalCents || o.totalCents > q.maxTotalCents) return false;
+        if (q.fromMinute >= 0) {
+            java.time.LocalTime t = o.orderDate.toLocalDateTime().toLocalTime();
+            int minute = t.getHour() * 60 + t.getMinute();
+            boolean in = q.fromMinute <= q.toMinute ? minute >= q.fromMinute && minute < q.toMinute
+                    : minute >= q.fromMinute || minute < q.toMinute;
+            if (!in) return false;
+        }
+        for (List<String> clause : q.lines) {
+            boolean any = false;
+            for (DatabaseManager.OrderLine l : lines) any |= lineMatches(clause, l);
+            if (!any) return false;
+        }
+        return true;
+    }
+
+    private static boolean lineMatches(List<String> clause, DatabaseManager.OrderLine l) {
+        for (String term : clause) {
+            String text = term.startsWith("icing:") ? l.icing : term.startsWith("filling:") ? l.filling : l.itemName;
+            String prefix = term.substring(term.indexOf(':') + 1);
+            boolean found = false;
+            if (text != null) for (String w : OrderSearchIndex.words(text)) found |= w.startsWith(prefix);
+            if (!found) return false;
+        }
+        return true;
+    }
+
+    private static List<DatabaseManager.OrderLine> randomLines(Random r) {
+        int n = 1 + r.nextInt(4);
+        List<DatabaseManager.OrderLine> lines = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            boolean donut = r.nextBoolean();
+            String name = donut ? DONUTS[r.nextInt(DONUTS.length)] : OTHERS[r.nextInt(OTHERS.length)];
+            String icing = donut ? option(DonutShopApp.ICINGS, r) : null;
+            String filling = donut ? option(DonutShopApp.FILLINGS, r) : null;
+            lines.add(new DatabaseManager.OrderLine(0, name, 1 + r.nextInt(3), donut ? 199 : 349, icing, filling));
+        }
+        return lines;
+    }
+
+    private static String option(String[] choices, Random r) {
+        String c = choices[r.nextInt(choices.length)];
+        return c.equals("None") ? null : c;
+    }
+
+    // a time between 6am and 8pm on the day of the given instant
+    private static long dayTime(long date, Random r) {
+        java.time.LocalDate day = new Timestamp(date).toLocalDateTime().toLocalDate();
+        return Timestamp.valueOf(day.atTime(6, 0)).getTime() + (long) (r.nextDouble() * 14 * 3_600_000L);
+    }
+
+    private static DatabaseManager.OrderRow row(int txId, long date, List<DatabaseManager.OrderLine> lines) {
+        long subtotal = 0;
+        for (DatabaseManager.OrderLine l : lines) subtotal += l.qty * l.unitPriceCents;
+        long tax = DonutShopApp.SALES_TAX.taxOn(subtotal);
+        return InMemoryStore.newOrderRow(txId, new Timestamp(date), lines, subtotal, tax, subtotal + tax, 0);
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
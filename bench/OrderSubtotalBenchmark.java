@@ -0,0 +1,78 @@
+import javax.swing.table.DefaultTableModel;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * Cost of "edit one line, then refresh the totals" on a large catering order: the old
+ * DefaultTableModel of formatted strings (computeSubtotal re-parses every Total cell) against
+ * OrderTableModel's typed lines and running subtotal. Reports latency and bytes allocated per op.
+ *
+ *   java -cp out:bench-out OrderSubtotalBenchmark [lines]
+ */
+public class OrderSubtotalBenchmark {
+    public static void main(String[] args) {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int ops = 2000;
+        NumberFormat money = NumberFormat.getCurrencyInstance(Locale.US);
+
+        DefaultTableModel legacy = new DefaultTableModel(new Object[]{"Item", "Options", "Qty", "Price", "Total"}, 0);
+        OrderTableModel typed = new OrderTableModel();
+        for (int i = 0; i < lines; i++) {
+            long cents = 149 + (i % 7) * 25;
+            legacy.addRow(new Object[]{"Glazed Donut " + i, "-", 12, money.format(cents / 100.0), money.format(cents * 12 / 100.0)});
+            typed.add(i, "Glazed Donut " + i, null, null, 12, cents);
+        }
+
+        double check = 0;
+        BenchStats legacyStats = new BenchStats(ops);
+        BenchStats typedStats = new BenchStats(ops);
+        for (int pass = 0; pass < 2; pass++) {     // pass 0 is warmup
+            long alloc0 = BenchStats.allocatedBytes();
+            for (int i = 0; i < ops; i++) {
+                long t0 = System.nanoTime();
+                int row = i % lines;
+                int qty = 1 + i % 24;
+                try {
+                    double unit = money.parse((String) legacy.getValueAt(row, 3)).doubleValue();
+                    legacy.setValueAt(qty, row, 2);
+                    legacy.setValueAt(money.format(unit * qty), row, 4);
+                } catch (java.text.ParseException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                check += legacySubtotal(legacy, money);
+                if (pass == 1) legacyStats.record(System.nanoTime() - t0);
+            }
+            long alloc1 = BenchStats.allocatedBytes();
+            for (int i = 0; i < ops; i++) {
+                long t0 = System.nanoTime();
+                typed.setQuantity(i % lines, 1 + i % 24);
+                check += typed.subtotalCents();
+                if (pass == 1) typedStats.record(System.nanoTime() - t0);
+            }
+            long alloc2 = BenchStats.allocatedBytes();
+            if (pass == 1) {
+                System.out.println(legacyStats.summary("parse every Total cell") + String.format("  alloc/op=%d B", (alloc1 - alloc0) / ops));
+                System.out.println(typedStats.summary("OrderTableModel") + String.format("  alloc/op=%d B", (alloc2 - alloc1) / ops));
+            }
+        }
+        if (check == 42) System.out.println();   // keep the work observable
+    }
+
+    // computeSubtotal before OrderTableModel
+    private static double legacySubtotal(DefaultTableModel model, NumberFormat money) {
+        double subtotal = 0.0;
+        for (int r = 0; r < model.getRowCount(); r++) {
+            Object totalObj = model.getValueAt(r, 4);
+            if (totalObj != null) {
+                try {
+                    subtotal += money.parse(totalObj.toString()).doubleValue();
+                } catch (Exception ex) {
+                    try {
+                        subtotal += Double.parseDouble(totalObj.toString().replaceAll("[^0-9.\\-]", ""));
+                    } catch (Exception ignore) {}
+                }
+            }
+        }
+        return subtotal;
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Order ingest throughput with 1..32 concurrent producers: synchronous saveOrder versus
+ * the OrderWriter queue in PER_ORDER and GROUP_COMMIT durability modes.
+ *
+ *   java -cp out:bench-out:derby.jar OrderWriterBenchmark [ordersPerProducer]
+ */
+public class OrderWriterBenchmark {
+    private static final int[] PRODUCERS = {1, 2, 4, 8, 16, 32};
+    private static final List<DatabaseManager.OrderLine> ORDER = DatabaseManager.parseItemsString("Glazed Donut x2; Latte x1");
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("oakdonuts.db.url") == null) System.setProperty("oakdonuts.db.url", "jdbc:derby:benchdb;create=true");
+        System.setProperty("oakdonuts.db.poolSize", System.getProperty("oakdonuts.db.poolSize", "32"));
+        int perProducer = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+
+        DatabaseManager.initializeDatabase();
+        System.out.printf("%-14s %10s %12s %12s %10s%n", "mode", "producers", "orders/s", "p99 ack(us)", "commits");
+        for (int producers : PRODUCERS) {
+            run("sync", producers, perProducer, null);
+            for (OrderWriter.Durability d : OrderWriter.Durability.values()) run(d.name(), producers, perProducer, d);
+        }
+        DatabaseManager.shutdown();
+    }
+
+    private static void run(String mode, int producers, int perProducer, OrderWriter.Durability durability) throws Exception {
+        OrderWriter writer = durability == null ? null
+                : new OrderWriter(DatabaseManager.pool(), 4096, 256, 5_000, durability);
+        BenchStats ack = new BenchStats(producers * perProducer);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            Thread t = new Thread(() -> {
+                BenchStats local = new BenchStats(perProducer);
+                List<CompletableFuture<Long>> futures = new ArrayList<>(perProducer);
+                List<Long> submitted = new ArrayList<>(perProducer);
+                try {
+                    start.await();
+                    for (int i = 0; i < perProducer; i++) {
+                        long t0 = System.nanoTime();
+                        if (writer == null) {
+                            DatabaseManager.saveOrder(ORDER, 598, 36, 634);
+                            local.record(System.nanoTime() - t0);
+                        } else {
+                            // capture the completion time on the writer thread, not when we get around to joining
+                            futures.add(writer.submit(ORDER, 598, 36, 634).thenApply(id -> System.nanoTime()));
+                            submitted.add(t0);
+                        }
+                    }
+                    for (int i = 0; i < futures.size(); i++) {
+                        local.record(futures.get(i).join() - submitted.get(i));
+                    }
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+                ack.addAll(local);
+            });
+            threads.add(t);
+            t.start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread t : threads) t.join();
+        double seconds = (System.nanoTime() - t0) / 1e9;
+        long commits = writer == null ? producers * (long) perProducer : writer.commits();
+        if (writer != null) writer.close();
+        System.out.printf("%-14s %10d %12.0f %12.1f %10d%n", mode, producers, producers * perProducer / seconds, ack.percentileMicros(99), commits);
+    }
+}
@@ -0,0 +1,158 @@
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Microbenchmarks (see Microbench) for promotion pricing with a few hundred active promotions
+ * over a 500 item menu: compiling them, repricing an order after one line changes (what the
+ * register does on every add, edit and remove) and, for comparison, pricing the whole order
+ * from scratch. Checks first that the sample promotions price known orders as expected and
+ * that incremental repricing always agrees with a from-scratch price over a long run of random
+ * edits. Exits with status 1 when a check fails.
+ *
+ *   java -cp out:bench-out PromotionBenchmark [promotions]
+ */
+public class PromotionBenchmark {
+    private static final String[] CATEGORIES = {"Donuts", "Drinks", "Sandwiches"};
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        samples();
+
+        Random r = new Random(7);
+        List<DatabaseManager.MenuItem> menu = new ArrayList<>();
+        for (int i = 1; i <= 500; i++) menu.add(new DatabaseManager.MenuItem(i, "Item " + i, CATEGORIES[r.nextInt(3)], 100 + r.nextInt(500)));
+        List<Promotion> promotions = randomPromotions(r, count, menu.size());
+        LocalDateTime now = LocalDateTime.of(2026, 10, 13, 15, 0);   // a Tuesday afternoon
+        PromotionEngine engine = PromotionEngine.compile(promotions, menu, now);
+        System.out.printf("%d promotions, %d active at %s, %d components%n", promotions.size(), engine.activeCount(), now, engine.componentCount());
+
+        // a busy order: 20 lines, some of the same item
+        int[] lineItem = new int[20], lineQty = new int[20];
+        PromotionEngine.Cart cart = engine.newCart();
+        for (int i = 0; i < lineItem.length; i++) {
+            lineItem[i] = 1 + r.nextInt(i < 10 ? 20 : menu.size());   // the first items are the popular ones
+            lineQty[i] = 1 + r.nextInt(6);
+            cart.change(lineItem[i], menu.get(lineItem[i] - 1).priceCents, lineQty[i]);
+        }
+        agreement(engine, menu, r);
+
+        Microbench bench = new Microbench("PromotionBenchmark");
+        bench.run("promo.compile", () -> PromotionEngine.compile(promotions, menu, now).activeCount());
+        int[] next = {0};
+        bench.run("promo.repriceAfterChange", () -> {
+            // one line up by one, then back down: each call is one change and one reprice
+            int line = next[0] % lineItem.length;
+            int delta = (next[0]++ / lineItem.length) % 2 == 0 ? 1 : -1;
+            cart.change(lineItem[line], menu.get(lineItem[line] - 1).priceCents, delta);
+            return cart.discountCents();
+        });
+        bench.run("promo.repriceFull", () -> {
+            PromotionEngine.Cart fresh = engine.newCart();
+            for (int i = 0; i < lineItem.length; i++) fresh.change(lineItem[i], menu.get(lineItem[i] - 1).priceCents, lineQty[i]);
+            return fresh.discountCents();
+        });
+        OrderTableModel order = new OrderTableModel();
+        order.setPromotions(engine);
+        bench.run("order.ringUpWithPromotions", () -> {
+            // as HotPathBenchmarks order.ringUp, with the promotions repriced after every change
+            order.clear();
+            long d = 0;
+            for (int i = 0; i < 5; i++) {
+                DatabaseManager.MenuItem mi = menu.get(lineItem[(next[0] + i) % lineItem.length] - 1);
+                order.add(mi.id, mi.name, null, null, 1 + i % 3, mi.priceCents);
+                d += order.discountCents();
+            }
+            order.setQuantity(2, 4);
+            next[0]++;
+            return d + order.discountCents();
+        });
+        bench.finish();
+
+        BenchStats.exitIfChecksFailed();
+    }
+
+    // the sample promotions file priced by hand
+    private static void samples() {
+        List<Promotion> promotions = Promotion.parseAll(Arrays.asList(
+                "# sample",
+                "Dozen Donuts       | 12 Donuts                              | for 14.99",
+                "Half Dozen Donuts  | 6 Donuts                               | for 7.99",
+                "Coffee & Donut     | 1 \"Latte\" or \"Iced Coffee\" + 1 Donuts | off 0.50",
+                "Happy Hour Drinks  | 1 Drinks                               | 20% off | Mon-Fri 14:00-16:00"));
+        List<DatabaseManager.MenuItem> menu = DonutShopApp.defaultMenu();
+        List<DatabaseManager.MenuItem> withIds = new ArrayList<>();
+        for (int i = 0; i < menu.size(); i++) {
+            DatabaseManager.MenuItem mi = menu.get(i);
+            withIds.add(new DatabaseManager.MenuItem(i + 1, mi.name, mi.category, mi.priceCents));
+        }
+        // 1 Glazed 1.49, 2 Chocolate Sprinkle 1.79, 3 Boston Creme 1.99, 4 Iced Coffee 2.00, 5 Latte 3.00
+        LocalDateTime tuesdayMorning = LocalDateTime.of(2026, 10, 13, 9, 0), tuesdayHappyHour = tuesdayMorning.withHour(15);
+        BenchStats.check("a dozen glazed for 14.99", price(promotions, withIds, tuesdayMorning, 1, 12) == 1788 - 1499);
+        BenchStats.check("thirteen donuts: the dozen takes the dearest", price(promotions, withIds, tuesdayMorning, 3, 1, 1, 12) == 199 + 1788 - 1499 - 149);
+        BenchStats.check("seven glazed: half dozen, the seventh at full price", price(promotions, withIds, tuesdayMorning, 1, 7) == 894 - 799);
+        BenchStats.check("latte and a donut", price(promotions, withIds, tuesdayMorning, 5, 1, 3, 1) == 50);
+        BenchStats.check("happy hour on drinks", price(promotions, withIds, tuesdayHappyHour, 4, 2) == 80);
+        BenchStats.check("a unit counts once: the combo takes the latte before happy hour", price(promotions, withIds, tuesdayHappyHour, 5, 1, 3, 1, 4, 1) == 50 + 40);
+        BenchStats.check("happy hour ends", !PromotionEngine.compile(promotions, withIds, tuesdayHappyHour).sameActiveAt(tuesdayHappyHour.withHour(16)));
+        BenchStats.check("a bad line names its number", rejects(Arrays.asList("", "Broken | 0 Donuts | for 1.00")));
+    }
+
+    // discount on an order of (menu item id, qty) pairs
+    private static long price(List<Promotion> promotions, List<DatabaseManager.MenuItem> menu, LocalDateTime at, int... itemQty) {
+        PromotionEngine.Cart cart = PromotionEngine.compile(promotions, menu, at).newCart();
+        for (int i = 0; i < itemQty.length; i += 2) cart.change(itemQty[i], menu.get(itemQty[i] - 1).priceCents, itemQty[i + 1]);
+        return cart.discountCents();
+    }
+
+    private static boolean rejects(List<String> lines) {
+        try {
+            Promotion.parseAll(lines);
+            return false;
+        } catch (IllegalArgumentException ex) {
+            return ex.getMessage().startsWith("promotions line 2:");
+        }
+    }
+
+    // random edits: the incrementally repriced cart must always match one priced from scratch
+    private static void agreement(PromotionEngine engine, List<DatabaseManager.MenuItem> menu, Random r) {
+        PromotionEngine.Cart cart = engine.newCart();
+        int[] qty = new int[menu.size() + 1];
+        int mismatches = 0;
+        for (int step = 0; step < 20_000; step++) {
+            int id = 1 + r.nextInt(r.nextBoolean() ? 20 : menu.size());
+            int delta = qty[id] > 0 && r.nextInt(3) == 0 ? -Math.min(qty[id], 1 + r.nextInt(3)) : 1 + r.nextInt(4);
+            if (step % 500 == 499) {
+                cart.clear();
+                Arrays.fill(qty, 0);
+            } else {
+                cart.change(id, menu.get(id - 1).priceCents, delta);
+                qty[id] += delta;
+            }
+            PromotionEngine.Cart fresh = engine.newCart();
+            for (int i = 1; i < qty.length; i++) if (qty[i] > 0) fresh.change(i, menu.get(i - 1).priceCents, qty[i]);
+            if (cart.discountCents() != fresh.discountCents()) mismatches++;
+        }
+        BenchStats.check("incremental repricing matched a full reprice after 20,000 random edits (" + mismatches + " mismatches)", mismatches == 0);
+    }
+
+    // bundles of one item or a category, combos, percentages and amounts off, some only in certain hours
+    private static List<Promotion> randomPromotions(Random r, int count, int menuSize) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String item = "\"Item " + (1 + r.nextInt(menuSize)) + "\"";
+            String other = "\"Item " + (1 + r.nextInt(menuSize)) + "\"";
+            String when = r.nextInt(4) == 0 ? " | Mon-Fri " + (8 + r.nextInt(10)) + ":00-" + (12 + r.nextInt(10)) + ":00" : "";
+            switch (r.nextInt(5)) {
+                case 0: lines.add("Bundle " + i + " | " + (2 + r.nextInt(5)) + " " + item + " | for " + (3 + r.nextInt(10)) + ".00" + when); break;
+                case 1: lines.add("Combo " + i + " | 1 " + item + " + 1 " + other + " | off 0." + (10 + r.nextInt(80)) + when); break;
+                case 2: lines.add("Percent " + i + " | 1 " + item + " or " + other + " | " + (5 + r.nextInt(30)) + "% off" + when); break;
+                case 3: lines.add("Box " + i + " | " + (6 + r.nextInt(7)) + " " + CATEGORIES[r.nextInt(3)] + " | for " + (8 + r.nextInt(20)) + ".99" + when); break;
+                default: lines.add("Pair " + i + " | 1 " + CATEGORIES[r.nextInt(3)] + " + 1 " + CATEGORIES[r.nextInt(3)] + " | off 0.25" + when); break;
+            }
+        }
+        return Promotion.parseAll(lines);
+    }
+}
@@ -0,0 +1,143 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless load simulator: N registers ring up orders the way DonutShopApp does, through the same
+ * OrderTableModel, option lists and tax rule, and check out with saveOrderAsync, waiting for the
+ * acknowledgement like the Checkout button does. Each order adds 1-5 menu items with random
+ * icing/filling and quantity, sometimes edits a quantity or removes a line, then checks out.
+ *
+ * After a warm-up it reports checkouts/s, checkout latency percentiles, and GC pressure
+ * (collections, pause time, bytes allocated per checkout). With maxP99Ms set it exits with
+ * status 1 when p99 latency is above it, so it can gate a release.
+ *
+ * Runs against DatabaseManager on embedded Derby by default (benchdb/loadsim, recreated each run);
+ * -Doakdonuts.store=memory|log drives the other backends, and the -Doakdonuts.journal.* and
+ * -Doakdonuts.db.* settings apply as in the app.
+ *
+ *   java -cp out:bench-out:derby.jar RegisterLoadSimulator [registers] [seconds] [thinkMs] [maxP99Ms]
+ */
+public class RegisterLoadSimulator {
+
+    public static void main(String[] args) throws Exception {
+        int registers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int thinkMs = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        double maxP99Ms = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+        if (System.getProperty("oakdonuts.db.url") == null) {
+            BenchStats.deleteRecursively(new java.io.File("benchdb/loadsim"));
+            System.setProperty("oakdonuts.db.url", "jdbc:derby:benchdb/loadsim;create=true");
+        }
+
+        Store store = Store.fromSystemProperties();
+        store.open();
+        if (store.loadMenuItems().isEmpty()) store.seedMenuItems(DonutShopApp.defaultMenu());
+        List<DatabaseManager.MenuItem> menu = new ArrayList<>(store.loadMenuItems().values());
+        int before = store.countOrders(null, null);
+
+        long warmupNanos = Math.min(10, Math.max(1, seconds / 5)) * 1_000_000_000L;
+        AtomicBoolean measuring = new AtomicBoolean(false), stop = new AtomicBoolean(false);
+        AtomicLong allocated = new AtomicLong();
+        BenchStats checkout = new BenchStats(1 << 16);
+        List<Exception> errors = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(registers);
+        for (int r = 0; r < registers; r++) {
+            long seed = 31L * r + 7;
+            Thread t = new Thread(() -> {
+                Register register = new Register(store, menu, new Random(seed));
+                BenchStats mine = new BenchStats(1 << 12);
+                long allocStart = 0;
+                boolean counted = false;
+                try {
+                    while (!stop.get()) {
+                        if (!counted && measuring.get()) {
+                            counted = true;
+                            mine = new BenchStats(1 << 12);
+                            allocStart = BenchStats.allocatedBytes();
+                        }
+                        mine.record(register.ringUpAndCheckout());
+                        if (thinkMs > 0) Thread.sleep(thinkMs);
+                    }
+                    if (counted) {
+                        checkout.addAll(mine);
+                        allocated.addAndGet(BenchStats.allocatedBytes() - allocStart);
+                    }
+                } catch (Exception ex) {
+                    synchronized (errors) { errors.add(ex); }
+                } finally {
+                    done.countDown();
+                }
+            }, "register-" + r);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        Thread.sleep(warmupNanos / 1_000_000);
+        long gcCount0 = BenchStats.gcCount(), gcMillis0 = BenchStats.gcMillis();
+        long t0 = System.nanoTime();
+        measuring.set(true);
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        done.await();
+        double elapsed = (System.nanoTime() - t0) / 1e9;
+        long gcCount = BenchStats.gcCount() - gcCount0, gcMillis = BenchStats.gcMillis() - gcMillis0;
+        if (!errors.isEmpty()) throw errors.get(0);
+
+        int saved = store.countOrders(null, null) - before;
+        System.out.printf("%d registers, %ds (after %ds warm-up), think %dms, store %s%n",
+                registers, seconds, warmupNanos / 1_000_000_000L, thinkMs, System.getProperty("oakdonuts.store", "derby"));
+        System.out.printf("%-28s %10.0f checkouts/s (%d measured, %d orders saved in total)%n",
+                "throughput", checkout.count() / elapsed, checkout.count(), saved);
+        System.out.println(checkout.summary("checkout"));
+        System.out.printf("%-28s %d collections, %d ms paused (%.1f%% of wall time), %.1f KB allocated per checkout%n", "gc",
+                gcCount, gcMillis, 100.0 * gcMillis / (elapsed * 1000), allocated.get() / 1024.0 / Math.max(1, checkout.count()));
+        store.close();
+
+        if (maxP99Ms > 0 && checkout.percentileMicros(99) > maxP99Ms * 1000) {
+            System.out.printf("FAILED: p99 %.1f ms is above %.1f ms%n", checkout.percentileMicros(99) / 1000, maxP99Ms);
+            System.exit(1);
+        }
+    }
+
+    // one simulated register with its own order table, as in DonutShopApp
+    private static final class Register {
+        private final Store store;
+        private final List<DatabaseManager.MenuItem> menu;
+        private final Random random;
+        private final OrderTableModel order = new OrderTableModel();
+
+        Register(Store store, List<DatabaseManager.MenuItem> menu, Random random) {
+            this.store = store;
+            this.menu = menu;
+            this.random = random;
+        }
+
+        // builds one order and checks it out; returns the checkout latency in nanoseconds
+        long ringUpAndCheckout() throws Exception {
+            int items = 1 + random.nextInt(5);
+            for (int i = 0; i < items; i++) {
+                DatabaseManager.MenuItem mi = menu.get(random.nextInt(menu.size()));
+                String icing = DonutShopApp.ICINGS[random.nextInt(DonutShopApp.ICINGS.length)];
+                String filling = DonutShopApp.FILLINGS[random.nextInt(DonutShopApp.FILLINGS.length)];
+                order.add(mi.id, mi.name, "None".equals(icing) ? null : icing, "None".equals(filling) ? null : filling,
+                        1 + random.nextInt(3), mi.priceCents);
+            }
+            if (random.nextInt(4) == 0) order.setQuantity(random.nextInt(order.getRowCount()), 1 + random.nextInt(6));
+            if (order.getRowCount() > 1 && random.nextInt(8) == 0) order.remove(random.nextInt(order.getRowCount()));
+
+            long t0 = System.nanoTime();
+            long subtotal = order.subtotalCents();
+            long tax = DonutShopApp.SALES_TAX.taxOn(subtotal);
+            long grand = Money.plus(subtotal, tax);
+            int txId = store.saveOrderAsync(order.orderLines(), subtotal, tax, grand).get();
+            long nanos = System.nanoTime() - t0;
+            if (txId <= 0) throw new IllegalStateException("checkout was not saved");
+            order.clear();
+            return nanos;
+        }
+    }
+}
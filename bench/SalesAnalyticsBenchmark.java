@@ -0,0 +1,166 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Dashboard queries at scale: bulk-loads N orders (default 10M) spread over a year, times the
+ * rollup backfill, then compares the report queries answered by scanning orders/order_lines
+ * with the same reports read from the rollup tables. Finishes with a consistency check and
+ * the latency of saveOrder with the rollup maintenance included.
+ *
+ *   java -Xmx2g -cp out:bench-out:derby.jar SalesAnalyticsBenchmark [orders] [days]
+ */
+public class SalesAnalyticsBenchmark {
+    private static final String[] ITEMS = {"Glazed Donut", "Chocolate Sprinkle Donut", "Boston Creme Donut", "Iced Coffee", "Latte", "Tomato & Mozzarella Sandwich"};
+    private static final long[] PRICES = {149, 179, 199, 200, 300, 450};
+    private static final Money.TaxRule TAX = new Money.TaxRule(600, java.math.RoundingMode.HALF_UP);
+    private static final int REPEAT = 20;
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("oakdonuts.db.url") == null) System.setProperty("oakdonuts.db.url", "jdbc:derby:benchdb/analytics;create=true");
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : 365;
+        LocalDate first = LocalDate.now().minusDays(days);
+
+        DatabaseManager.initializeDatabase();
+        long t0 = System.nanoTime();
+        bulkLoad(orders, first, days);
+        System.out.printf("bulk load: %d orders in %.1f s%n", orders, (System.nanoTime() - t0) / 1e9);
+
+        t0 = System.nanoTime();
+        SalesAnalytics.backfill();
+        System.out.printf("backfill:  %.1f s%n", (System.nanoTime() - t0) / 1e9);
+
+        LocalDate to = LocalDate.now().plusDays(1);
+        LocalDate monthAgo = to.minusDays(30);
+        LocalDate yesterday = to.minusDays(2);
+
+        compare("daily revenue, 30 days",
+                () -> scan("SELECT DATE(order_date), COUNT(*), SUM(total_cents) FROM orders WHERE order_date >= ? AND order_date < ? GROUP BY DATE(order_date)", monthAgo, to),
+                () -> SalesAnalytics.dailySales(monthAgo, to).size());
+        compare("hourly revenue, 1 day",
+                () -> scan("SELECT HOUR(order_date), COUNT(*), SUM(total_cents) FROM orders WHERE order_date >= ? AND order_date < ? GROUP BY HOUR(order_date)", yesterday, yesterday.plusDays(1)),
+                () -> SalesAnalytics.hourlySales(yesterday, yesterday.plusDays(1)).size());
+        compare("tax total, whole range",
+                () -> scan("SELECT SUM(tax_cents) FROM orders WHERE order_date >= ? AND order_date < ?", first, to),
+                () -> SalesAnalytics.dailySales(first, to).size());
+        compare("top 5 items, whole range",
+                () -> scan("SELECT l.item_name, SUM(l.qty) AS q FROM order_lines l JOIN orders o ON o.transaction_id = l.transaction_id "
+                        + "WHERE o.order_date >= ? AND o.order_date < ? GROUP BY l.item_name ORDER BY q DESC FETCH FIRST 5 ROWS ONLY", first, to),
+                () -> SalesAnalytics.topItems(first, to, 5).size());
+
+        // rollups must agree with the raw rows
+        long raw = scalar("SELECT SUM(total_cents) FROM orders");
+        long rolled = 0;
+        for (SalesAnalytics.Bucket b : SalesAnalytics.dailySales(LocalDate.of(1970, 1, 1), to)) rolled += b.totalCents;
+        System.out.println("consistency: orders=" + Money.format(raw) + " rollup=" + Money.format(rolled) + (raw == rolled ? " OK" : " MISMATCH"));
+
+        List<DatabaseManager.OrderLine> order = DatabaseManager.parseItemsString("Glazed Donut x2; Latte x1");
+        BenchStats save = new BenchStats(2000);
+        for (int i = 0; i < 2000; i++) {
+            long s0 = System.nanoTime();
+            DatabaseManager.saveOrder(order, 598, 36, 634);
+            save.record(System.nanoTime() - s0);
+        }
+        System.out.println(save.summary("saveOrder incl. rollups"));
+        DatabaseManager.shutdown();
+    }
+
+    private interface Query {
+        int run() throws Exception;
+    }
+
+    private static void compare(String label, Query rawScan, Query rollup) throws Exception {
+        BenchStats a = new BenchStats(REPEAT), b = new BenchStats(REPEAT);
+        for (int i = 0; i < REPEAT; i++) {
+            long t0 = System.nanoTime();
+            rawScan.run();
+            a.record(System.nanoTime() - t0);
+            t0 = System.nanoTime();
+            rollup.run();
+            b.record(System.nanoTime() - t0);
+        }
+        System.out.println(label);
+        System.out.println("  " + a.summary("scan orders"));
+        System.out.println("  " + b.summary("rollup tables"));
+    }
+
+    private static int scan(String sql, LocalDate from, LocalDate to) throws SQLException {
+        try (ConnectionPool.PooledConnection pc = DatabaseManager.pool().acquire()) {
+            PreparedStatement ps = pc.prepare(sql);
+            ps.setTimestamp(1, Timestamp.valueOf(from.atStartOfDay()));
+            ps.setTimestamp(2, Timestamp.valueOf(to.atStartOfDay()));
+            int rows = 0;
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) rows++;
+            }
+            return rows;
+        }
+    }
+
+    private static long scalar(String sql) throws SQLException {
+        try (ConnectionPool.PooledConnection pc = DatabaseManager.pool().acquire();
+             ResultSet rs = pc.prepare(sql).executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    // insert orders with random dates and 1-3 lines each, bypassing the rollups (backfill builds them)
+    private static void bulkLoad(int orders, LocalDate first, int days) throws SQLException {
+        Random r = new Random(7);
+        int[] item = new int[3], qty = new int[3];
+        try (ConnectionPool.PooledConnection pc = DatabaseManager.pool().acquire()) {
+            Connection conn = pc.connection();
+            conn.setAutoCommit(false);
+            PreparedStatement ins = pc.prepare("INSERT INTO orders (transaction_id, order_date, items, subtotal_cents, tax_cents, total_cents) VALUES (?, ?, ?, ?, ?, ?)");
+            PreparedStatement lines = pc.prepare(DatabaseManager.INSERT_LINE_SQL);
+            int id = 0;
+            for (int i = 0; i < orders; i++) {
+                LocalDateTime when = first.plusDays(r.nextInt(days)).atTime(6 + r.nextInt(14), r.nextInt(60), r.nextInt(60));
+                int n = 1 + r.nextInt(3);
+                long subtotal = 0;
+                StringBuilder items = new StringBuilder();
+                for (int k = 0; k < n; k++) {
+                    item[k] = r.nextInt(ITEMS.length);
+                    qty[k] = 1 + r.nextInt(3);
+                    subtotal += PRICES[item[k]] * qty[k];
+                    if (k > 0) items.append("; ");
+                    items.append(ITEMS[item[k]]).append(" x").append(qty[k]);
+                }
+                long tax = TAX.taxOn(subtotal);
+                id = DatabaseManager.nextOrderId();
+                ins.setInt(1, id);
+                ins.setTimestamp(2, Timestamp.valueOf(when));
+                ins.setString(3, items.toString());
+                ins.setLong(4, subtotal);
+                ins.setLong(5, tax);
+                ins.setLong(6, subtotal + tax);
+                ins.addBatch();
+                for (int k = 0; k < n; k++) {
+                    lines.setInt(1, id);
+                    lines.setInt(2, k + 1);
+                    lines.setInt(3, item[k] + 1);
+                    lines.setString(4, ITEMS[item[k]]);
+                    lines.setInt(5, qty[k]);
+                    lines.setLong(6, PRICES[item[k]]);
+                    lines.setNull(7, Types.VARCHAR);
+                    lines.setNull(8, Types.VARCHAR);
+                    lines.addBatch();
+                }
+                if (i % 10_000 == 9_999) {
+                    // orders first: the lines reference them
+                    ins.executeBatch();
+                    lines.executeBatch();
+                    conn.commit();
+                }
+            }
+            ins.executeBatch();
+            lines.executeBatch();
+            conn.commit();
+            conn.setAutoCommit(true);
+            System.out.println("loaded ids up to " + id + ", max in table " + scalar("SELECT MAX(transaction_id) FROM orders"));
+        }
+    }
+}
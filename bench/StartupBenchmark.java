@@ -0,0 +1,72 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Time to first frame: launches DonutShopApp in a fresh JVM several times with startup tracing on
+ * and the exit-after-startup switch, and reports the wall-clock launch time plus each traced phase
+ * (main, schema-ready, first-frame, menu-ready). The first run starts from an empty database, so it
+ * includes schema creation and seeding; the rest take the schema_meta fast path.
+ * Needs a display (or Xvfb). Extra arguments are passed to the child JVM.
+ *
+ *   java -cp out:bench-out:derby.jar StartupBenchmark 10 -Xshare:auto
+ */
+public class StartupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        List<String> jvmArgs = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) jvmArgs.add(args[i]);
+
+        File dbDir = new File("benchdb/startup");
+        BenchStats.deleteRecursively(dbDir);
+        String dbUrl = "jdbc:derby:" + dbDir.getPath() + ";create=true";
+
+        Map<String, BenchStats> phases = new LinkedHashMap<>();
+        BenchStats wall = new BenchStats(runs);
+        for (int run = 0; run < runs; run++) {
+            List<String> cmd = new ArrayList<>();
+            cmd.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+            cmd.add("-cp");
+            cmd.add(System.getProperty("java.class.path"));
+            cmd.add("-Doakdonuts.startupTrace=true");
+            cmd.add("-Doakdonuts.exitAfterStartup=true");
+            cmd.add("-Doakdonuts.db.url=" + dbUrl);
+            cmd.addAll(jvmArgs);
+            cmd.add("DonutShopApp");
+
+            long t0 = System.nanoTime();
+            Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+            String report = null;
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("startup:")) report = line;
+                    else System.out.println("  [app] " + line);
+                }
+            }
+            int exit = p.waitFor();
+            long elapsed = System.nanoTime() - t0;
+            if (report == null) {
+                System.out.println("run " + run + ": no startup report (exit " + exit + ")");
+                continue;
+            }
+            System.out.printf("run %2d: %s (process %.0f ms)%n", run, report, elapsed / 1e6);
+            if (run == 0 && runs > 1) continue;   // cold database, reported above but kept out of the stats
+            wall.record(elapsed);
+            for (String token : report.substring("startup:".length()).trim().split(" ")) {
+                int eq = token.indexOf('=');
+                long ms = Long.parseLong(token.substring(eq + 1, token.length() - 2));
+                phases.computeIfAbsent(token.substring(0, eq), k -> new BenchStats(runs)).record(ms * 1_000_000L);
+            }
+        }
+
+        System.out.println(wall.summary("process launch to exit"));
+        phases.forEach((phase, stats) -> System.out.println(stats.summary("main -> " + phase)));
+    }
+}
@@ -0,0 +1,118 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compares the storage backends (see Store) on the same workload: saveOrder latency from one
+ * register, saveOrder throughput from 1..16 registers, then the history reads (first page,
+ * count, loadOrderLines) over what was written. The log backend also reports its bytes per order.
+ * Derby is skipped when derby.jar is not on the class path.
+ *
+ *   java -cp out:bench-out[:derby.jar] StoreBenchmark [ordersPerRegister] [memory] [log] [derby]
+ */
+public class StoreBenchmark {
+    private static final int[] REGISTERS = {1, 2, 4, 8, 16};
+    private static final List<DatabaseManager.OrderLine> ORDER = Arrays.asList(
+            new DatabaseManager.OrderLine(1, "Glazed Donut", 2, 149, "Chocolate", null),
+            new DatabaseManager.OrderLine(5, "Latte", 1, 300, null, null));
+
+    public static void main(String[] args) throws Exception {
+        int perRegister = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        List<String> kinds = args.length > 1 ? Arrays.asList(args).subList(1, args.length) : Arrays.asList("memory", "log", "derby");
+        if (System.getProperty("oakdonuts.db.url") == null) System.setProperty("oakdonuts.db.url", "jdbc:derby:benchdb/stores;create=true");
+        System.setProperty("oakdonuts.db.poolSize", System.getProperty("oakdonuts.db.poolSize", "16"));
+
+        for (String kind : kinds) {
+            if (kind.equals("derby") && !derbyAvailable()) {
+                System.out.println("derby: skipped, Derby is not on the class path");
+                continue;
+            }
+            Path logFile = Files.createTempFile("storebench", ".log");
+            Files.delete(logFile);
+            if (kind.equals("derby")) BenchStats.deleteRecursively(new File("benchdb/stores"));
+            Store store = kind.equals("log") ? new OrderLogStore(logFile.toString()) : Store.create(kind);
+            store.open();
+
+            System.out.println("== " + kind);
+            BenchStats save = new BenchStats(perRegister);
+            for (int i = 0; i < perRegister; i++) {
+                long t0 = System.nanoTime();
+                store.saveOrder(ORDER, 598, 36, 634);
+                save.record(System.nanoTime() - t0);
+            }
+            System.out.println(save.summary("saveOrder, 1 register"));
+
+            for (int registers : REGISTERS) {
+                double seconds = concurrentSaves(store, registers, perRegister);
+                System.out.printf("%-28s %10.0f orders/s%n", "saveOrder, " + registers + (registers == 1 ? " register" : " registers"), registers * (double) perRegister / seconds);
+            }
+
+            int total = store.countOrders(null, null);
+            BenchStats page = new BenchStats(200), count = new BenchStats(200), lines = new BenchStats(200);
+            int newest = store.loadOrderIdAt(0, null, null);
+            for (int i = 0; i < 200; i++) {
+                long t0 = System.nanoTime();
+                store.loadOrdersBefore(Integer.MAX_VALUE, 200, null, null);
+                page.record(System.nanoTime() - t0);
+                t0 = System.nanoTime();
+                store.countOrders(null, null);
+                count.record(System.nanoTime() - t0);
+                t0 = System.nanoTime();
+                store.loadOrderLines(newest - i);
+                lines.record(System.nanoTime() - t0);
+            }
+            System.out.println(page.summary("first history page"));
+            System.out.println(count.summary("countOrders (" + total + ")"));
+            System.out.println(lines.summary("loadOrderLines"));
+            if (store instanceof OrderLogStore) {
+                OrderLogStore log = (OrderLogStore) store;
+                System.out.printf("log: %d records, %.1f MB, %.0f bytes/order%n", log.recordCount(), log.sizeBytes() / 1e6, log.sizeBytes() / (double) total);
+                long t0 = System.nanoTime();
+                log.close();
+                OrderLogStore reopened = new OrderLogStore(logFile.toString());
+                reopened.open();
+                System.out.printf("log: replayed %d orders in %.0f ms (including the final force)%n",
+                        reopened.countOrders(null, null), (System.nanoTime() - t0) / 1e6);
+                store = reopened;
+            }
+            store.close();
+            Files.deleteIfExists(logFile);
+        }
+    }
+
+    private static double concurrentSaves(Store store, int registers, int perRegister) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        List<Exception> errors = new ArrayList<>();
+        for (int r = 0; r < registers; r++) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perRegister; i++) store.saveOrder(ORDER, 598, 36, 634);
+                } catch (Exception ex) {
+                    synchronized (errors) { errors.add(ex); }
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread t : threads) t.join();
+        if (!errors.isEmpty()) throw errors.get(0);
+        return (System.nanoTime() - t0) / 1e9;
+    }
+
+    private static boolean derbyAvailable() {
+        try {
+            Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The behaviour every Store must share (see MenuStore and OrderStore), run against each backend:
+ * menu names unique ignoring case, increasing transaction ids, newest-first paging with date
+ * filters, lines kept exactly, edits that keep the order date and discount and price new lines from the menu,
+ * deletes, lookups by id, full scans, sales rollups, change events and stock levels. Persistent backends are also closed and reopened and must come back unchanged; the
+ * log backend additionally has to recover from a torn last record.
+ * Derby runs in memory (jdbc:derby:memory:...) and is skipped when derby.jar is not on the class path.
+ * Exits with status 1 if any check fails.
+ *
+ *   java -cp out:bench-out[:derby.jar] StoreConformance [memory] [log] [derby]
+ */
+public class StoreConformance {
+    private interface Opener {
+        Store open() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> kinds = args.length > 0 ? Arrays.asList(args) : Arrays.asList("memory", "log", "derby");
+        for (String kind : kinds) {
+            System.out.println("== " + kind);
+            switch (kind) {
+                case "memory":
+                    run(() -> open(new InMemoryStore()), false);
+                    break;
+                case "log": {
+                    Path file = Files.createTempFile("conformance", ".log");
+                    Files.delete(file);
+                    // a small window so the suite also crosses remaps
+                    run(() -> open(new OrderLogStore(file, 64 * 1024)), true);
+                    tornTail(file);
+                    Files.deleteIfExists(file);
+                    break;
+                }
+                case "derby":
+                    try {
+                        Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+                    } catch (ClassNotFoundException e) {
+                        System.out.println("skipped: Derby is not on the class path");
+                        break;
+                    }
+                    System.setProperty("oakdonuts.db.url", "jdbc:derby:memory:conformance;create=true");
+                    run(() -> open(new DerbyStore()), true);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown store " + kind);
+            }
+        }
+        System.out.println(BenchStats.checks() + " checks, " + BenchStats.failures() + " failed");
+        if (BenchStats.failures() > 0) System.exit(1);
+    }
+
+    private static Store open(Store s) throws Exception {
+        s.open();
+        return s;
+    }
+
+    private static void run(Opener opener, boolean persistent) throws Exception {
+        Store s = opener.open();
+        BenchStats.check("new store has no orders", s.countOrders(null, null) == 0 && s.loadOrders().isEmpty() && s.loadOrderIdAt(0, null, null) == -1);
+        BenchStats.check("new store has no menu", s.loadMenuItems().isEmpty());
+
+        // menu
+        int glazed = s.addMenuItem("Glazed Donut", "Donuts", 149);
+        int latte = s.addMenuItem("Latte", "Drinks", 300);
+        BenchStats.check("menu ids are positive and distinct", glazed > 0 && latte > 0 && glazed != latte);
+        BenchStats.check("adding a name again (other case) updates the item", s.addMenuItem("GLAZED DONUT", "Donuts", 159) == glazed);
+        LinkedHashMap<String, DatabaseManager.MenuItem> menu = s.loadMenuItems();
+        BenchStats.check("menu keeps one item per name", menu.size() == 2 && menu.get("Glazed Donut") != null && menu.get("Glazed Donut").priceCents == 159);
+        BenchStats.check("rename onto another item's name is refused", !s.updateMenuItem(latte, "glazed donut", "Drinks", 300));
+        BenchStats.check("update of a missing item is refused", !s.updateMenuItem(99_999, "Nothing", "Donuts", 1));
+        BenchStats.check("update changes the item", s.updateMenuItem(latte, "Cafe Latte", "Drinks", 325)
+                && s.loadMenuItems().get("Cafe Latte").priceCents == 325 && !s.loadMenuItems().containsKey("Latte"));
+        s.seedMenuItems(Arrays.asList(new DatabaseManager.MenuItem(0, "Cruller", "Donuts", 189),
+                new DatabaseManager.MenuItem(0, "Bagel", "Bagels", 129)));
+        BenchStats.check("seed adds in order", new ArrayList<>(s.loadMenuItems().keySet()).equals(Arrays.asList("Glazed Donut", "Cafe Latte", "Cruller", "Bagel")));
+        int bagel = s.loadMenuItems().get("Bagel").id;
+        BenchStats.check("delete removes the item once", s.deleteMenuItem(bagel) && !s.deleteMenuItem(bagel) && !s.loadMenuItems().containsKey("Bagel"));
+        int upserted = s.upsertMenuItems(Arrays.asList(new DatabaseManager.MenuItem(0, "Old Fashioned", "Donuts", 169),
+                new DatabaseManager.MenuItem(0, "cafe latte", "Coffee", 325), new DatabaseManager.MenuItem(0, "Old Fashioned", "Donuts", 179)));
+        menu = s.loadMenuItems();
+        BenchStats.check("upsert adds new names and updates existing ones (ignoring case); a repeated name keeps the last",
+                upserted == 1 && menu.size() == 4 && "Coffee".equals(menu.get("Cafe Latte").category) && menu.get("Old Fashioned").priceCents == 179);
+        int fresh = s.addMenuItem("Jelly Donut", "Donuts", 199);
+        BenchStats.check("ids continue after an upsert", fresh > menu.get("Old Fashioned").id);
+
+        // orders
+        List<DatabaseManager.OrderLine> lines = Arrays.asList(
+                new DatabaseManager.OrderLine(glazed, "Glazed Donut", 2, 159, "Chocolate", null),
+                new DatabaseManager.OrderLine(latte, "Cafe Latte", 1, 325, null, null));
+        Timestamp before = new Timestamp(System.currentTimeMillis() - 1000);
+        int first = s.saveOrder(lines, 593, 36, 629, 50);   // a promotion took 0.50 off the 6.43 of lines
+        List<Integer> ids = new ArrayList<>();
+        ids.add(first);
+        for (int i = 0; i < 2000; i++) ids.add(s.saveOrder(lines.subList(1, 2), 325, 20, 345));
+        int last = s.saveOrderAsync(lines, 643, 39, 682).get();
+        ids.add(last);
+        boolean increasing = true;
+        for (int i = 1; i < ids.size(); i++) increasing &= ids.get(i) > ids.get(i - 1);
+        BenchStats.check("transaction ids increase", first > 0 && increasing);
+        BenchStats.check("count", s.countOrders(null, null) == ids.size());
+        List<DatabaseManager.OrderLine> back = s.loadOrderLines(first);
+        BenchStats.check("lines come back as saved", back.size() == 2 && same(back.get(0), lines.get(0)) && same(back.get(1), lines.get(1)));
+        DatabaseManager.OrderRow row = s.loadOrders().get(ids.size() - 1);
+        BenchStats.check("row holds amounts, discount and summary", row.transactionId == first && row.subtotalCents == 593 && row.taxCents == 36
+                && row.totalCents == 629 && row.discountCents == 50 && row.items.equals("Glazed Donut x2 [Icing: Chocolate]; Cafe Latte x1"));
+
+        List<DatabaseManager.OrderRow> page = s.loadOrdersBefore(Integer.MAX_VALUE, 50, null, null);
+        List<DatabaseManager.OrderRow> next = s.loadOrdersBefore(page.get(page.size() - 1).transactionId, 50, null, null);
+        BenchStats.check("pages are newest first and continue", page.size() == 50 && page.get(0).transactionId == last
+                && next.size() == 50 && next.get(0).transactionId == ids.get(ids.size() - 51));
+        BenchStats.check("key at offset", s.loadOrderIdAt(0, null, null) == last && s.loadOrderIdAt(ids.size() - 1, null, null) == first
+                && s.loadOrderIdAt(ids.size(), null, null) == -1);
+        Timestamp future = new Timestamp(System.currentTimeMillis() + 86_400_000L);
+        BenchStats.check("date filter includes today", s.countOrders(before, future) == ids.size());
+        BenchStats.check("date filter excludes the future", s.countOrders(future, null) == 0 && s.loadOrdersBefore(Integer.MAX_VALUE, 10, future, null).isEmpty());
+        BenchStats.check("date filter to is exclusive", s.countOrders(null, before) == 0 && s.loadOrderIdAt(0, null, before) == -1);
+
+        Timestamp date = row.orderDate;
+        BenchStats.check("update of a missing order is refused", !s.updateOrder(0, "Cruller x1", 189, 11, 200));
+        s.addMenuItem("Glazed Donut", "Donuts", 169);   // a price rise after the order was sold
+        BenchStats.check("update replaces the order", s.updateOrder(first, "Cruller x3; Glazed Donut x1 [Icing: Chocolate]", 726, 44, 770));
+        DatabaseManager.OrderRow edited = s.loadOrders().get(ids.size() - 1);
+        BenchStats.check("update keeps id, date and discount", edited.transactionId == first && edited.orderDate.equals(date) && edited.totalCents == 770
+                && edited.discountCents == 50);
+        back = s.loadOrderLines(first);
+        BenchStats.check("update prices new lines from the menu and keeps the sold price of the others", back.size() == 2
+                && back.get(0).itemName.equals("Cruller") && back.get(0).qty == 3 && back.get(0).unitPriceCents == 189
+                && back.get(1).qty == 1 && back.get(1).unitPriceCents == 159 && back.get(1).menuItemId == glazed);
+        s.addMenuItem("Glazed Donut", "Donuts", 159);
+
+        BenchStats.check("delete removes the order once", s.deleteOrder(last) && !s.deleteOrder(last) && s.loadOrderLines(last).isEmpty());
+        ids.remove(ids.size() - 1);
+        BenchStats.check("count after delete", s.countOrders(null, null) == ids.size() && s.loadOrderIdAt(0, null, null) == ids.get(ids.size() - 1));
+        int after = s.saveOrder(lines, 643, 39, 682);
+        BenchStats.check("ids are not reused after a delete", after > last);
+        ids.add(after);
+
+        List<DatabaseManager.OrderRow> byId = s.loadOrdersById(new int[]{ids.get(5), last, first, 999_999});
+        BenchStats.check("lookup by id keeps the given order and skips missing ids", byId.size() == 2
+                && byId.get(0).transactionId == ids.get(5) && byId.get(1).transactionId == first && byId.get(1).totalCents == 770
+                && byId.get(1).discountCents == 50);
+        List<Integer> scanned = new ArrayList<>();
+        boolean[] linesMatch = {true};
+        s.scanOrders(null, null, (o, l) -> {
+            scanned.add(o.transactionId);
+            if (o.transactionId == first) linesMatch[0] = l.size() == 2 && l.get(0).itemName.equals("Cruller") && l.get(0).qty == 3 && o.discountCents == 50;
+            else linesMatch[0] &= l.size() == 1 || l.size() == 2;
+        });
+        BenchStats.check("scan visits every order oldest first with its lines", scanned.equals(ids) && linesMatch[0]);
+        int[] inFuture = {0};
+        s.scanOrders(future, null, (o, l) -> inFuture[0]++);
+        BenchStats.check("scan applies the date filter", inFuture[0] == 0);
+
+        BenchStats.check("new store tracks no stock", s.loadInventory().isEmpty());
+        Map<String, Long> levels = new HashMap<>();
+        levels.put("item:" + glazed, 40L);
+        levels.put("filling:Custard", 12L);
+        levels.put("icing:Maple", 0L);
+        s.saveInventory(levels);
+        levels.clear();
+        levels.put("filling:Custard", 9L);
+        levels.put("icing:Maple", null);
+        levels.put("icing:Chocolate", null);   // never tracked: deleting it is a no-op
+        s.saveInventory(levels);
+        Map<String, Long> stock = s.loadInventory();
+        BenchStats.check("stock levels are saved, overwritten and untracked", stock.size() == 2 && stock.get("item:" + glazed) == 40L
+                && stock.get("filling:Custard") == 9L);
+
+        List<String> events = new java.util.concurrent.CopyOnWriteArrayList<>();
+        OrderStore.OrderListener recorder = new OrderStore.OrderListener() {
+            @Override public void orderSaved(DatabaseManager.OrderRow o, List<DatabaseManager.OrderLine> l) { events.add("saved " + o.transactionId + " " + l.size()); }
+            @Override public void orderUpdated(DatabaseManager.OrderRow o, List<DatabaseManager.OrderLine> l) { events.add("updated " + o.transactionId + " " + o.totalCents + " " + l.size()); }
+            @Override public void orderDeleted(int txId) { events.add("deleted " + txId); }
+        };
+        s.addOrderListener(recorder);
+        int heard = s.saveOrder(lines, 643, 39, 682);
+        s.updateOrder(heard, "Cruller x1", 189, 11, 200);
+        s.deleteOrder(heard);
+        s.deleteOrder(heard);
+        int heardAsync = s.saveOrderAsync(lines.subList(1, 2), 325, 20, 345).get();
+        s.removeOrderListener(recorder);
+        s.deleteOrder(heardAsync);
+        BenchStats.check("listeners hear saves, updates and deletes once stored", events.equals(Arrays.asList("saved " + heard + " 2",
+                "updated " + heard + " 200 1", "deleted " + heard, "saved " + heardAsync + " 1")));
+        BenchStats.check("sales rollups follow saves, updates and deletes", rollupsMatch(s));
+
+        if (persistent) {
+            // the newest order is deleted before closing, so its id must not come back either
+            s.deleteOrder(after);
+            LinkedHashMap<String, DatabaseManager.MenuItem> menuBefore = s.loadMenuItems();
+            List<DatabaseManager.OrderRow> ordersBefore = s.loadOrders();
+            s.close();
+            s = opener.open();
+            BenchStats.check("reopen keeps the menu", sameMenu(menuBefore, s.loadMenuItems()));
+            BenchStats.check("reopen keeps the orders", sameOrders(ordersBefore, s.loadOrders()));
+            back = s.loadOrderLines(first);
+            BenchStats.check("reopen keeps the lines", back.size() == 2 && back.get(0).qty == 3 && back.get(1).menuItemId == glazed);
+            BenchStats.check("reopen keeps the stock levels", s.loadInventory().equals(stock));
+            BenchStats.check("reopen keeps the sales rollups", rollupsMatch(s));
+            BenchStats.check("ids continue after reopen", s.saveOrder(lines, 643, 39, 682) > after);
+        }
+        s.close();
+    }
+
+    // cut the last record in half: the log must reopen without it and keep accepting writes
+    private static void tornTail(Path file) throws Exception {
+        OrderLogStore log = new OrderLogStore(file, 64 * 1024);
+        log.open();
+        int orders = log.countOrders(null, null);
+        long end = log.sizeBytes();
+        int tx = log.saveOrder(Arrays.asList(new DatabaseManager.OrderLine(1, "Cruller", 1, 189, null, null)), 189, 11, 200);
+        long recordEnd = log.sizeBytes();
+        log.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            // scribble over the second half of the new record's body
+            long mid = end + (recordEnd - end) / 2;
+            raf.seek(mid);
+            for (long p = mid; p < recordEnd; p++) raf.write(0x5A);
+        }
+        log = new OrderLogStore(file, 64 * 1024);
+        log.open();
+        BenchStats.check("torn record is dropped", log.countOrders(null, null) == orders && log.loadOrderLines(tx).isEmpty() && log.sizeBytes() == end);
+        int again = log.saveOrder(Arrays.asList(new DatabaseManager.OrderLine(1, "Cruller", 1, 189, null, null)), 189, 11, 200);
+        log.close();
+        log = new OrderLogStore(file, 64 * 1024);
+        log.open();
+        BenchStats.check("log accepts writes after recovery", log.countOrders(null, null) == orders + 1 && log.loadOrderLines(again).size() == 1);
+        log.close();
+    }
+
+    // the rollup reports agree with a scan of the orders: count and total per day and per hour,
+    // quantity per item (every order of the suite is dated today)
+    private static boolean rollupsMatch(Store s) throws Exception {
+        LocalDate from = LocalDate.now().minusDays(1), to = LocalDate.now().plusDays(2);
+        long[] orders = {0, 0};
+        Map<String, Long> qty = new HashMap<>();
+        s.scanOrders(null, null, (o, l) -> {
+            orders[0]++;
+            orders[1] += o.totalCents;
+            for (DatabaseManager.OrderLine line : l) qty.merge(line.itemName, (long) line.qty, Long::sum);
+        });
+        long[] days = {0, 0}, hours = {0, 0};
+        for (SalesAnalytics.Bucket b : s.dailySales(from, to)) { days[0] += b.orders; days[1] += b.totalCents; }
+        for (SalesAnalytics.Bucket b : s.hourlySales(from, to)) { hours[0] += b.orders; hours[1] += b.totalCents; }
+        Map<String, Long> top = new HashMap<>();
+        for (SalesAnalytics.ItemSales i : s.topItems(from, to, 100)) top.put(i.itemName, i.qty);
+        return Arrays.equals(days, orders) && Arrays.equals(hours, orders) && top.equals(qty)
+                && s.topItems(from, to, 1).size() == 1 && s.dailySales(to, to.plusDays(1)).isEmpty();
+    }
+
+    private static boolean same(DatabaseManager.OrderLine a, DatabaseManager.OrderLine b) {
+        return a.menuItemId == b.menuItemId && a.itemName.equals(b.itemName) && a.qty == b.qty && a.unitPriceCents == b.unitPriceCents
+                && java.util.Objects.equals(a.icing, b.icing) && java.util.Objects.equals(a.filling, b.filling);
+    }
+
+    private static boolean sameMenu(LinkedHashMap<String, DatabaseManager.MenuItem> a, LinkedHashMap<String, DatabaseManager.MenuItem> b) {
+        if (!new ArrayList<>(a.keySet()).equals(new ArrayList<>(b.keySet()))) return false;
+        for (DatabaseManager.MenuItem m : a.values()) {
+            DatabaseManager.MenuItem o = b.get(m.name);
+            if (o.id != m.id || !o.category.equals(m.category) || o.priceCents != m.priceCents) return false;
+        }
+        return true;
+    }
+
+    private static boolean sameOrders(List<DatabaseManager.OrderRow> a, List<DatabaseManager.OrderRow> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            DatabaseManager.OrderRow x = a.get(i), y = b.get(i);
+            if (x.transactionId != y.transactionId || !x.orderDate.equals(y.orderDate) || !x.items.equals(y.items)
+                    || x.subtotalCents != y.subtotalCents || x.taxCents != y.taxCents || x.totalCents != y.totalCents
+                    || x.discountCents != y.discountCents) return false;
+        }
+        return true;
+    }
+}
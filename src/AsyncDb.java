@@ -0,0 +1,129 @@
+import javax.swing.SwingUtilities;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs database calls off the Event Dispatch Thread and hands results back to it.
+ *
+ * Every call goes through submit(), which returns a CompletableFuture; use onEdt() (or the
+ * three-argument submit) to get the result or error delivered on the EDT. Cancelling a future
+ * skips the call if it has not started yet, otherwise its result is dropped - running JDBC
+ * calls are never interrupted since embedded Derby may close the connection on interrupt.
+ *
+ * The number of calls in flight is reported to listeners (on the EDT) for busy indicators.
+ * Setting -Doakdonuts.db.simulatedDelayMs=500 delays every call, to check the UI stays responsive.
+ */
+public class AsyncDb {
+
+    // a database call that may throw
+    public interface Call<T> {
+        T call() throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final long simulatedDelayMillis;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final List<IntConsumer> inFlightListeners = new CopyOnWriteArrayList<>();
+
+    public AsyncDb(int threads, long simulatedDelayMillis) {
+        AtomicInteger n = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "db-io-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.simulatedDelayMillis = simulatedDelayMillis;
+    }
+
+    public static AsyncDb fromSystemProperties() {
+        return new AsyncDb(Integer.getInteger("oakdonuts.db.asyncThreads", 2), Long.getLong("oakdonuts.db.simulatedDelayMs", 0L));
+    }
+
+    // run the call on the database executor
+    public <T> CompletableFuture<T> submit(Call<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        started();
+        Future<?> task = executor.submit(() -> {
+            if (result.isDone()) return;   // cancelled while queued
+            try {
+                if (simulatedDelayMillis > 0) Thread.sleep(simulatedDelayMillis);
+                result.complete(call.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        result.whenComplete((r, t) -> {
+            if (result.isCancelled()) task.cancel(false);
+            finished();
+        });
+        return result;
+    }
+
+    // run the call off the EDT and deliver the outcome on the EDT
+    public <T> CompletableFuture<T> submit(Call<T> call, Consumer<T> onSuccess, Consumer<Throwable> onError) {
+        CompletableFuture<T> f = submit(call);
+        onEdt(f, onSuccess, onError);
+        return f;
+    }
+
+    // count an already running future (e.g. from the order writer) as in flight until it completes
+    public <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+        started();
+        future.whenComplete((r, t) -> finished());
+        return future;
+    }
+
+    // deliver the outcome of a future on the EDT; cancelled futures deliver nothing
+    public static <T> void onEdt(CompletableFuture<T> future, Consumer<T> onSuccess, Consumer<Throwable> onError) {
+        future.whenComplete((r, t) -> {
+            if (future.isCancelled()) return;
+            SwingUtilities.invokeLater(() -> {
+                if (t == null) onSuccess.accept(r);
+                else onError.accept(unwrap(t));
+            });
+        });
+    }
+
+    // strip the CompletionException wrapper CompletableFuture puts around errors
+    public static Throwable unwrap(Throwable t) {
+        return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+    }
+
+    public int inFlight() { return inFlight.get(); }
+
+    // listener is called on the EDT with the new number of calls in flight
+    public void addInFlightListener(IntConsumer listener) {
+        inFlightListeners.add(listener);
+    }
+
+    private void started() {
+        inFlight.incrementAndGet();
+        fireInFlight();
+    }
+
+    private void finished() {
+        inFlight.decrementAndGet();
+        fireInFlight();
+    }
+
+    private void fireInFlight() {
+        if (inFlightListeners.isEmpty()) return;
+        // read the count on delivery so updates posted from different threads cannot arrive stale
+        SwingUtilities.invokeLater(() -> {
+            int n = inFlight.get();
+            for (IntConsumer l : inFlightListeners) l.accept(n);
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
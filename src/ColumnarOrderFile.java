@@ -0,0 +1,300 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compact column-oriented order file for analytics (*.oakc), written by OrderExporter.
+ *
+ * Orders are grouped into blocks of up to 65,536, and inside a block every field is its own
+ * column, so alike values sit together: ids and dates as varint deltas from the previous order,
+ * amounts as zigzag varints, item names, icings and fillings as indexes into the block's
+ * dictionary. Lines are stored flat with a line count per order. A year of orders takes a few
+ * bytes per line, and gzip shrinks that further since the columns are so regular.
+ *
+ * Layout (numbers big-endian):
+ *   header   "OAKC" version
+ *   block    'B' [int length of the rest] [long min date] [long max date] varint orders, varint lines,
+ *            then the 13 columns (id, date, subtotal, tax, total, discount, line count, menu item id,
+ *            item, qty, unit price, icing, filling) as [varint length][bytes], then the dictionary as
+ *            varint count and [varint length][UTF-8] per string (index 0 is null)
+ *   end      'E' varint order count
+ * Dates are epoch milliseconds. A reader can skip a block outside its date range by its length.
+ * Version 1 files have no discount column; they read back with a discount of 0.
+ */
+public final class ColumnarOrderFile {
+    private static final byte[] MAGIC = {'O', 'A', 'K', 'C'};
+    private static final int VERSION = 2;
+    static final int BLOCK_ORDERS = 65_536;
+    private static final int COLUMNS = 13;
+    private static final int ID = 0, DATE = 1, SUBTOTAL = 2, TAX = 3, TOTAL = 4, DISCOUNT = 5, LINE_COUNT = 6,
+            MENU_ITEM = 7, ITEM = 8, QTY = 9, UNIT_PRICE = 10, ICING = 11, FILLING = 12;
+
+    private ColumnarOrderFile() {}
+
+    /**
+     * Writes orders in the order given; one block is held in memory. finish() writes the last
+     * block and the end marker but leaves the channel open.
+     */
+    public static final class Writer implements OrderStore.OrderVisitor {
+        private final WritableByteChannel out;
+        private final Column[] columns = new Column[COLUMNS];
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private int orders, lines;
+        private long minDate, maxDate, prevId, prevDate;
+        private long total;
+
+        public Writer(WritableByteChannel out) throws IOException {
+            this.out = out;
+            for (int i = 0; i < COLUMNS; i++) columns[i] = new Column();
+            ByteBuffer header = ByteBuffer.allocate(5);
+            header.put(MAGIC).put((byte) VERSION).flip();
+            write(header);
+        }
+
+        @Override
+        public void visit(DatabaseManager.OrderRow o, List<DatabaseManager.OrderLine> orderLines) throws IOException {
+            long date = o.orderDate.getTime();
+            if (orders == 0) {   // the first order of a block is stored as a delta from 0
+                minDate = maxDate = date;
+                prevId = prevDate = 0;
+            }
+            minDate = Math.min(minDate, date);
+            maxDate = Math.max(maxDate, date);
+            columns[ID].zigzag(o.transactionId - prevId);
+            columns[DATE].zigzag(date - prevDate);
+            prevId = o.transactionId;
+            prevDate = date;
+            columns[SUBTOTAL].zigzag(o.subtotalCents);
+            columns[TAX].zigzag(o.taxCents);
+            columns[TOTAL].zigzag(o.totalCents);
+            columns[DISCOUNT].zigzag(o.discountCents);
+            columns[LINE_COUNT].varint(orderLines.size());
+            for (DatabaseManager.OrderLine l : orderLines) {
+                columns[MENU_ITEM].varint(Math.max(0, l.menuItemId));
+                columns[ITEM].varint(string(l.itemName));
+                columns[QTY].zigzag(l.qty);
+                columns[UNIT_PRICE].zigzag(l.unitPriceCents);
+                columns[ICING].varint(string(l.icing));
+                columns[FILLING].varint(string(l.filling));
+            }
+            lines += orderLines.size();
+            total++;
+            if (++orders == BLOCK_ORDERS) flushBlock();
+        }
+
+        private int string(String s) {
+            if (s == null) return 0;
+            Integer i = dictionary.get(s);
+            if (i == null) {
+                strings.add(s);
+                i = strings.size();
+                dictionary.put(s, i);
+            }
+            return i;
+        }
+
+        private void flushBlock() throws IOException {
+            if (orders == 0) return;
+            Column dict = new Column();
+            dict.varint(strings.size());
+            for (String s : strings) {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                dict.varint(b.length);
+                dict.bytes(b, b.length);
+            }
+            Column head = new Column();
+            head.varint(orders);
+            head.varint(lines);
+            long length = 16 + head.size + dict.size;
+            Column[] lengths = new Column[COLUMNS];
+            for (int i = 0; i < COLUMNS; i++) {
+                lengths[i] = new Column();
+                lengths[i].varint(columns[i].size);
+                length += lengths[i].size + columns[i].size;
+            }
+            if (length > Integer.MAX_VALUE) throw new IOException("block too large");
+            ByteBuffer start = ByteBuffer.allocate(21);
+            start.put((byte) 'B').putInt((int) length).putLong(minDate).putLong(maxDate).flip();
+            write(start);
+            write(head.buffer());
+            for (int i = 0; i < COLUMNS; i++) {
+                write(lengths[i].buffer());
+                write(columns[i].buffer());
+                columns[i].size = 0;
+            }
+            write(dict.buffer());
+            dictionary.clear();
+            strings.clear();
+            orders = 0;
+            lines = 0;
+        }
+
+        // write the last block and the end marker
+        public void finish() throws IOException {
+            flushBlock();
+            Column end = new Column();
+            end.bytes(new byte[]{'E'}, 1);
+            end.varint(total);
+            write(end.buffer());
+        }
+
+        private void write(ByteBuffer b) throws IOException {
+            while (b.hasRemaining()) out.write(b);
+        }
+    }
+
+    // a growable byte array with varint writers
+    private static final class Column {
+        byte[] data = new byte[256];
+        int size;
+
+        void varint(long v) {
+            if (size + 10 > data.length) data = Arrays.copyOf(data, data.length * 2);
+            while ((v & ~0x7FL) != 0) {
+                data[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            data[size++] = (byte) v;
+        }
+
+        void zigzag(long v) {
+            varint((v << 1) ^ (v >> 63));
+        }
+
+        void bytes(byte[] b, int n) {
+            if (size + n > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, size + n));
+            System.arraycopy(b, 0, data, size, n);
+            size += n;
+        }
+
+        ByteBuffer buffer() {
+            return ByteBuffer.wrap(data, 0, size);
+        }
+    }
+
+    // reads varints back out of one column of a block
+    private static final class Cursor {
+        final byte[] data;
+        int pos;
+        final int end;
+
+        Cursor(byte[] data, int pos, int end) {
+            this.data = data;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        long varint() throws IOException {
+            long v = 0;
+            int shift = 0;
+            while (true) {
+                if (pos >= end) throw new IOException("corrupt column");
+                byte b = data[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return v;
+                shift += 7;
+            }
+        }
+
+        long zigzag() throws IOException {
+            long v = varint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+    }
+
+    // orders dated in [from, to) (either may be null), oldest block first, with their lines;
+    // gzipped files are recognised. Returns how many orders were visited.
+    public static long read(Path file, Timestamp from, Timestamp to, OrderStore.OrderVisitor visitor) throws Exception {
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            raw.mark(2);
+            boolean gzip = raw.read() == 0x1f && raw.read() == 0x8b;
+            raw.reset();
+            InputStream in = gzip ? new BufferedInputStream(new GZIPInputStream(raw, 1 << 16), 1 << 16) : raw;
+            return read(new DataInputStream(in), from, to, visitor);
+        }
+    }
+
+    private static long read(DataInputStream in, Timestamp from, Timestamp to, OrderStore.OrderVisitor visitor) throws Exception {
+        byte[] magic = new byte[4];
+        in.readFully(magic);
+        int version = Arrays.equals(magic, MAGIC) ? in.readUnsignedByte() : -1;
+        if (version != 1 && version != VERSION) throw new IOException("not an order file (version " + VERSION + ")");
+        long fromMillis = from == null ? Long.MIN_VALUE : from.getTime();
+        long toMillis = to == null ? Long.MAX_VALUE : to.getTime();
+        long visited = 0;
+        byte[] block = new byte[0];
+        while (true) {
+            int tag = in.read();
+            if (tag == 'E') return visited;
+            if (tag != 'B') throw new EOFException(tag < 0 ? "order file ends without its end marker" : "corrupt order file");
+            int length = in.readInt();
+            long minDate = in.readLong(), maxDate = in.readLong();
+            int rest = length - 16;
+            if (maxDate < fromMillis || minDate >= toMillis) {
+                in.skipBytes(rest);
+                continue;
+            }
+            if (block.length < rest) block = new byte[rest];
+            in.readFully(block, 0, rest);
+            visited += readBlock(block, rest, version, fromMillis, toMillis, visitor);
+        }
+    }
+
+    private static long readBlock(byte[] b, int length, int version, long fromMillis, long toMillis, OrderStore.OrderVisitor visitor) throws Exception {
+        Cursor head = new Cursor(b, 0, length);
+        int orders = (int) head.varint();
+        head.varint();   // lines
+        Cursor[] col = new Cursor[COLUMNS];
+        int pos = head.pos;
+        boolean discounts = version > 1;
+        for (int i = 0; i < COLUMNS; i++) {
+            if (i == DISCOUNT && !discounts) continue;
+            Cursor len = new Cursor(b, pos, length);
+            int n = (int) len.varint();
+            col[i] = new Cursor(b, len.pos, len.pos + n);
+            pos = len.pos + n;
+        }
+        Cursor dict = new Cursor(b, pos, length);
+        String[] strings = new String[(int) dict.varint() + 1];
+        for (int i = 1; i < strings.length; i++) {
+            int n = (int) dict.varint();
+            strings[i] = new String(b, dict.pos, n, StandardCharsets.UTF_8);
+            dict.pos += n;
+        }
+
+        long visited = 0, id = 0, date = 0;
+        for (int o = 0; o < orders; o++) {
+            id += col[ID].zigzag();
+            date += col[DATE].zigzag();
+            long subtotal = col[SUBTOTAL].zigzag(), tax = col[TAX].zigzag(), total = col[TOTAL].zigzag();
+            long discount = discounts ? col[DISCOUNT].zigzag() : 0;
+            int lineCount = (int) col[LINE_COUNT].varint();
+            List<DatabaseManager.OrderLine> lines = new ArrayList<>(lineCount);
+            for (int i = 0; i < lineCount; i++) {
+                lines.add(new DatabaseManager.OrderLine((int) col[MENU_ITEM].varint(), strings[(int) col[ITEM].varint()],
+                        (int) col[QTY].zigzag(), col[UNIT_PRICE].zigzag(), strings[(int) col[ICING].varint()],
+                        strings[(int) col[FILLING].varint()]));
+            }
+            if (date < fromMillis || date >= toMillis) continue;
+            visitor.visit(new DatabaseManager.OrderRow((int) id, new Timestamp(date),
+                    DatabaseManager.OrderLine.summarize(lines, DatabaseManager.ITEMS_SUMMARY_MAX), subtotal, tax, total, discount), lines);
+            visited++;
+        }
+        return visited;
+    }
+}
@@ -0,0 +1,267 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Small bounded JDBC connection pool used by DatabaseManager.
+ * Connections are opened lazily up to maxSize, each one keeps its own LRU cache of
+ * prepared statements, and connections that sat idle are validated before reuse.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private final String url;
+    private final int maxSize;
+    private final int statementCacheSize;
+    private final long validateAfterIdleMillis;
+    private final long acquireTimeoutMillis;
+
+    private final BlockingQueue<PooledConnection> idle;
+    private final Semaphore permits;
+    private final AtomicInteger open = new AtomicInteger();
+    private volatile boolean closed;
+
+    // metrics
+    private final LongAdder acquires = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+
+    public ConnectionPool(String url, int maxSize, int statementCacheSize, long validateAfterIdleMillis, long acquireTimeoutMillis) {
+        if (maxSize < 1) throw new IllegalArgumentException("maxSize must be >= 1");
+        this.url = url;
+        this.maxSize = maxSize;
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        this.validateAfterIdleMillis = validateAfterIdleMillis;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    // build a pool from system properties (oakdonuts.db.poolSize, oakdonuts.db.statementCacheSize, ...)
+    public static ConnectionPool fromSystemProperties(String url) {
+        int size = Integer.getInteger("oakdonuts.db.poolSize", 4);
+        int stmtCache = Integer.getInteger("oakdonuts.db.statementCacheSize", 32);
+        long validateAfter = Long.getLong("oakdonuts.db.validateAfterIdleMs", 30_000L);
+        long timeout = Long.getLong("oakdonuts.db.acquireTimeoutMs", 10_000L);
+        return new ConnectionPool(url, size, stmtCache, validateAfter, timeout);
+    }
+
+    // borrow a connection; close() on the returned handle gives it back to the pool
+    public PooledConnection acquire() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed");
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLTransientConnectionException("Timed out after " + acquireTimeoutMillis + " ms waiting for a database connection");
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", ie);
+        }
+        try {
+            PooledConnection pc;
+            while ((pc = idle.poll()) != null) {
+                if (isHealthy(pc)) break;
+                discard(pc);
+            }
+            if (pc == null) pc = openConnection();
+            acquires.increment();
+            waitNanos.add(System.nanoTime() - start);
+            return pc;
+        } catch (SQLException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    private boolean isHealthy(PooledConnection pc) {
+        try {
+            if (pc.conn.isClosed()) return false;
+            if (System.currentTimeMillis() - pc.lastReleased < validateAfterIdleMillis) return true;
+            return pc.conn.isValid(2);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private PooledConnection openConnection() throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        open.incrementAndGet();
+        created.increment();
+        return new PooledConnection(conn);
+    }
+
+    private void release(PooledConnection pc) {
+        pc.endBorrow();
+        try {
+            boolean reusable = !closed && !pc.broken && !pc.conn.isClosed();
+            if (reusable && !pc.conn.getAutoCommit()) {
+                // never hand out a connection with a half-finished transaction
+                pc.conn.rollback();
+                pc.conn.setAutoCommit(true);
+            }
+            if (reusable) {
+                pc.conn.clearWarnings();
+                pc.lastReleased = System.currentTimeMillis();
+                if (idle.offer(pc)) return;
+            }
+        } catch (SQLException ignored) {
+        } finally {
+            permits.release();
+        }
+        discard(pc);
+    }
+
+    private void discard(PooledConnection pc) {
+        pc.closeStatements();
+        try { pc.conn.close(); } catch (SQLException ignored) {}
+        open.decrementAndGet();
+        discarded.increment();
+    }
+
+    public Stats stats() {
+        return new Stats(maxSize, open.get(), idle.size(), maxSize - permits.availablePermits(),
+                acquires.sum(), waitNanos.sum(), timeouts.sum(), created.sum(), discarded.sum(),
+                statementHits.sum(), statementMisses.sum());
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PooledConnection pc;
+        while ((pc = idle.poll()) != null) discard(pc);
+    }
+
+    /**
+     * A borrowed connection. Statements returned by prepare() are cached and owned by the
+     * connection - callers close their ResultSets but must not close the statements. Each
+     * prepare() hands the statement back with no parameters and no batch. A statement stays open
+     * until the connection is given back even if the cache drops it meanwhile (or there is no
+     * cache), so one operation may prepare more statements than the cache holds.
+     */
+    public final class PooledConnection implements AutoCloseable {
+        private final Connection conn;
+        private final Map<String, PreparedStatement> statements;
+        // handed out during the current borrow, and the ones among them the cache no longer holds
+        private final Set<PreparedStatement> handedOut = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final List<PreparedStatement> closeOnRelease = new ArrayList<>();
+        private long lastReleased = System.currentTimeMillis();
+        private boolean broken;
+
+        private PooledConnection(Connection conn) {
+            this.conn = conn;
+            this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= statementCacheSize) return false;
+                    // one handed out during this borrow may still be in use (e.g. a batch not executed yet)
+                    PreparedStatement old = eldest.getValue();
+                    if (handedOut.contains(old)) closeOnRelease.add(old);
+                    else closeQuietly(old);
+                    return true;
+                }
+            };
+        }
+
+        public Connection connection() { return conn; }
+
+        public PreparedStatement prepare(String sql) throws SQLException {
+            return prepare(sql, Statement.NO_GENERATED_KEYS);
+        }
+
+        public PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+            String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" + sql : sql;
+            PreparedStatement ps = statements.get(key);
+            if (ps != null && !ps.isClosed()) {
+                statementHits.increment();
+                // a batch left behind by a failed transaction must not run with the next one
+                ps.clearBatch();
+                ps.clearParameters();
+                handedOut.add(ps);
+                return ps;
+            }
+            statementMisses.increment();
+            ps = conn.prepareStatement(sql, autoGeneratedKeys);
+            handedOut.add(ps);
+            if (statementCacheSize > 0) statements.put(key, ps);
+            else closeOnRelease.add(ps);
+            return ps;
+        }
+
+        // mark the connection as unusable so it is closed instead of returned to the pool
+        public void markBroken() { broken = true; }
+
+        // the borrow is over: close the statements the cache did not keep
+        private void endBorrow() {
+            for (PreparedStatement ps : closeOnRelease) closeQuietly(ps);
+            closeOnRelease.clear();
+            handedOut.clear();
+        }
+
+        private void closeStatements() {
+            endBorrow();
+            for (PreparedStatement ps : statements.values()) closeQuietly(ps);
+            statements.clear();
+        }
+
+        private void closeQuietly(PreparedStatement ps) {
+            try { ps.close(); } catch (SQLException ignored) {}
+        }
+
+        @Override
+        public void close() { release(this); }
+    }
+
+    // immutable snapshot of pool metrics
+    public static class Stats {
+        public final int maxSize;
+        public final int open;
+        public final int idle;
+        public final int inUse;
+        public final long acquires;
+        public final long totalWaitNanos;
+        public final long timeouts;
+        public final long created;
+        public final long discarded;
+        public final long statementHits;
+        public final long statementMisses;
+
+        Stats(int maxSize, int open, int idle, int inUse, long acquires, long totalWaitNanos, long timeouts,
+              long created, long discarded, long statementHits, long statementMisses) {
+            this.maxSize = maxSize;
+            this.open = open;
+            this.idle = idle;
+            this.inUse = inUse;
+            this.acquires = acquires;
+            this.totalWaitNanos = totalWaitNanos;
+            this.timeouts = timeouts;
+            this.created = created;
+            this.discarded = discarded;
+            this.statementHits = statementHits;
+            this.statementMisses = statementMisses;
+        }
+
+        public double meanWaitMicros() {
+            return acquires == 0 ? 0.0 : totalWaitNanos / 1000.0 / acquires;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("pool[max=%d open=%d idle=%d inUse=%d acquires=%d meanWait=%.1fus timeouts=%d created=%d discarded=%d stmtHits=%d stmtMisses=%d]",
+                    maxSize, open, idle, inUse, acquires, meanWaitMicros(), timeouts, created, discarded, statementHits, statementMisses);
+        }
+    }
+}
@@ -1,214 +1,1220 @@
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.*;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Simple Database manager using embedded Derby.
  * Provides table creation, menu CRUD, and saving/updating/deleting orders.
+ * All calls share a bounded ConnectionPool so connections and prepared statements are reused.
+ * Checkouts can be journaled before they reach the database (see OrderJournal).
  */
 public class DatabaseManager {
-    private static final String DB_URL = "jdbc:derby:oakdonutsdb;create=true";
+    private static final String DB_URL = System.getProperty("oakdonuts.db.url", "jdbc:derby:oakdonutsdb;create=true");
 
-    // Initialize database and create tables if missing
+    // the orders.items column is only a display summary now; order_lines holds the real data
+    static final int ITEMS_SUMMARY_MAX = 4000;
+    // bump whenever bootstrapSchema learns a new table, column or index; databases that already
+    // record this version in schema_meta skip the metadata probes on startup
+    static final int SCHEMA_VERSION = 7;
+    static final String INSERT_LINE_SQL =
+            "INSERT INTO order_lines (transaction_id, line_no, menu_item_id, item_name, qty, unit_price_cents, icing, filling) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static volatile ConnectionPool pool;
+    private static volatile OrderWriter orderWriter;
+    private static volatile OrderJournal journal;
+    // next order id; orders get their ids here (not from the identity column) so the journal can
+    // hand them out before the row exists. Loaded from MAX(transaction_id) on first use.
+    private static volatile AtomicInteger orderIds;
+
+    // latency of every public call (see Metrics); saveOrderAsync is timed until its future completes
+    private static final Metrics.Timer DB_INIT = Metrics.timer("db.initializeDatabase");
+    private static final Metrics.Timer DB_LOAD_MENU = Metrics.timer("db.loadMenuItems");
+    private static final Metrics.Timer DB_ADD_MENU = Metrics.timer("db.addMenuItem");
+    private static final Metrics.Timer DB_SEED_MENU = Metrics.timer("db.seedMenuItems");
+    private static final Metrics.Timer DB_UPSERT_MENU = Metrics.timer("db.upsertMenuItems");
+    private static final Metrics.Timer DB_UPDATE_MENU = Metrics.timer("db.updateMenuItem");
+    private static final Metrics.Timer DB_DELETE_MENU = Metrics.timer("db.deleteMenuItem");
+    private static final Metrics.Timer DB_SAVE_ORDER = Metrics.timer("db.saveOrder");
+    private static final Metrics.Timer DB_SAVE_ORDER_ITEMS = Metrics.timer("db.saveOrder(items)");
+    private static final Metrics.Timer DB_SAVE_ORDER_ASYNC = Metrics.timer("db.saveOrderAsync");
+    private static final Metrics.Counter DB_SAVE_ORDER_ASYNC_FAILED = Metrics.counter("db.saveOrderAsync.failed");
+    private static final Metrics.Timer DB_LOAD_LINES = Metrics.timer("db.loadOrderLines");
+    private static final Metrics.Timer DB_LOAD_ORDERS = Metrics.timer("db.loadOrders");
+    private static final Metrics.Timer DB_LOAD_PAGE = Metrics.timer("db.loadOrdersBefore");
+    private static final Metrics.Timer DB_COUNT = Metrics.timer("db.countOrders");
+    private static final Metrics.Timer DB_ORDER_ID_AT = Metrics.timer("db.loadOrderIdAt");
+    private static final Metrics.Timer DB_UPDATE_ORDER = Metrics.timer("db.updateOrder");
+    private static final Metrics.Timer DB_DELETE_ORDER = Metrics.timer("db.deleteOrder");
+    private static final Metrics.Timer DB_LOAD_BY_ID = Metrics.timer("db.loadOrdersById");
+    private static final Metrics.Timer DB_SCAN = Metrics.timer("db.scanOrders");
+    private static final Metrics.Timer DB_LOAD_INVENTORY = Metrics.timer("db.loadInventory");
+    private static final Metrics.Timer DB_SAVE_INVENTORY = Metrics.timer("db.saveInventory");
+
+    // rows per executeBatch in upsertMenuItems
+    private static final int MENU_BATCH = Integer.getInteger("oakdonuts.db.menuBatch", 5000);
+    // ids per IN list in loadOrdersById
+    private static final int ID_CHUNK = 50;
+    // rows per round trip when scanning (exports, index builds); more means fewer trips, more memory
+    private static final int SCAN_FETCH_SIZE = Integer.getInteger("oakdonuts.db.scanFetchSize", 1000);
+
+    // told about order changes after they commit (see OrderStore.OrderListener)
+    private static final OrderListeners listeners = new OrderListeners();
+
+    static {
+        Metrics.gauge("db.pool.inUse", () -> { ConnectionPool p = pool; return p == null ? 0 : p.stats().inUse; });
+        Metrics.gauge("db.pool.timeouts", () -> { ConnectionPool p = pool; return p == null ? 0 : p.stats().timeouts; });
+        Metrics.gauge("db.journal.backlogBytes", () -> { OrderJournal j = journal; return j == null ? 0 : j.backlogBytes(); });
+    }
+
+    // lazily created shared pool (size etc. configured via system properties, see ConnectionPool)
+    static ConnectionPool pool() {
+        ConnectionPool p = pool;
+        if (p == null) {
+            synchronized (DatabaseManager.class) {
+                p = pool;
+                if (p == null) pool = p = ConnectionPool.fromSystemProperties(DB_URL);
+            }
+        }
+        return p;
+    }
+
+    // current pool metrics
+    public static ConnectionPool.Stats poolStats() {
+        return pool().stats();
+    }
+
+    // lazily created shared write-behind queue used by saveOrderAsync
+    static OrderWriter orderWriter() {
+        OrderWriter w = orderWriter;
+        if (w == null) {
+            synchronized (DatabaseManager.class) {
+                w = orderWriter;
+                if (w == null) orderWriter = w = OrderWriter.fromSystemProperties(pool());
+            }
+        }
+        return w;
+    }
+
+    // flush queued orders and close pooled connections (e.g. on application exit)
+    public static void shutdown() {
+        synchronized (DatabaseManager.class) {
+            // the journal stops handing orders over first, so none reaches a closed writer (what it
+            // still held is replayed on the next start); then the writer drains, so the journal
+            // checkpoint covers everything it stored
+            if (journal != null) journal.stopHandOff();
+            if (orderWriter != null) {
+                orderWriter.close();
+                orderWriter = null;
+            }
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+            orderIds = null;
+            if (pool != null) {
+                pool.close();
+                pool = null;
+            }
+        }
+    }
+
+    // Initialize database and create tables if missing. The embedded driver registers itself
+    // (JDBC 4), and a database whose schema_meta says it is current costs a single query.
+    // With -Doakdonuts.journal.path set, the order journal is opened and replayed as well.
     public static void initializeDatabase() throws SQLException {
-        // ensure driver loaded (optional)
-        try { Class.forName("org.apache.derby.jdbc.EmbeddedDriver"); } catch (ClassNotFoundException ignored) {}
+        long t0 = System.nanoTime();
+        try {
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                if (schemaVersion(pc) < SCHEMA_VERSION) {
+                    bootstrapSchema(pc);
+                    recordSchemaVersion(pc);
+                }
+            }
+            String journalPath = System.getProperty("oakdonuts.journal.path");
+            if (journalPath != null) openJournal(journalPath);
+        } finally {
+            DB_INIT.recordSince(t0);
+        }
+    }
 
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            DatabaseMetaData md = conn.getMetaData();
+    // open the order journal, store whatever it holds that the orders table is missing (orders
+    // acknowledged before a crash), then route saveOrderAsync through it. Both hand orders to the
+    // writer with put, which waits for room, so neither a big backlog nor a burst is rejected
+    private static synchronized void openJournal(String path) throws SQLException {
+        if (journal != null) return;
+        try {
+            OrderJournal j = OrderJournal.fromSystemProperties(Paths.get(path));
+            try {
+                j.recover((id, date, lines, sub, tax, total, discount) -> orderExists(id)
+                        ? CompletableFuture.completedFuture(id)
+                        : orderWriter().put(id, date, lines, sub, tax, total, discount));
+            } catch (IOException ex) {
+                j.close();
+                throw ex;
+            }
+            j.start(orderWriter()::put);
+            journal = j;
+        } catch (IOException ex) {
+            throw new SQLException("Cannot open order journal " + path + ": " + ex.getMessage(), ex);
+        }
+    }
 
-            // create menu_items table
-            try (ResultSet rs = md.getTables(null, null, "MENU_ITEMS", null)) {
-                if (!rs.next()) {
-                    try (Statement st = conn.createStatement()) {
-                        st.executeUpdate(
-                                "CREATE TABLE menu_items (" +
-                                        "id INT PRIMARY KEY GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1)," +
-                                        "name VARCHAR(200) UNIQUE NOT NULL," +
-                                        "category VARCHAR(50)," +
-                                        "price DOUBLE" +
-                                        ")"
-                        );
+    static OrderJournal journal() {
+        return journal;
+    }
+
+    // true if the orders table has this id (journal replay skips those)
+    private static boolean orderExists(int transactionId) {
+        try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+            PreparedStatement ps = pc.prepare("SELECT 1 FROM orders WHERE transaction_id=?");
+            ps.setInt(1, transactionId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        } catch (SQLException ex) {
+            throw new IllegalStateException("Cannot check order " + transactionId + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    // hand out the next order id
+    static int nextOrderId() throws SQLException {
+        AtomicInteger ids = orderIds;
+        if (ids != null) return ids.getAndIncrement();
+        try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+            return nextOrderId(pc);
+        }
+    }
+
+    private static int nextOrderId(ConnectionPool.PooledConnection pc) throws SQLException {
+        AtomicInteger ids = orderIds;
+        if (ids == null) {
+            synchronized (DatabaseManager.class) {
+                ids = orderIds;
+                if (ids == null) {
+                    try (ResultSet rs = pc.prepare("SELECT MAX(transaction_id) FROM orders").executeQuery()) {
+                        orderIds = ids = new AtomicInteger((rs.next() ? rs.getInt(1) : 0) + 1);
                     }
                 }
             }
+        }
+        return ids.getAndIncrement();
+    }
 
-            // create orders table
-            try (ResultSet rs = md.getTables(null, null, "ORDERS", null)) {
-                if (!rs.next()) {
-                    try (Statement st = conn.createStatement()) {
-                        st.executeUpdate(
-                                "CREATE TABLE orders (" +
-                                        "transaction_id INT PRIMARY KEY GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1)," +
-                                        "order_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
-                                        "items VARCHAR(4000)," +
-                                        "subtotal DOUBLE," +
-                                        "tax DOUBLE," +
-                                        "total DOUBLE" +
-                                        ")"
-                        );
-                    }
+    // version recorded in schema_meta, 0 for a new database or one created before schema_meta existed
+    private static int schemaVersion(ConnectionPool.PooledConnection pc) throws SQLException {
+        try (ResultSet rs = pc.prepare("SELECT MAX(version) FROM schema_meta").executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException ex) {
+            if ("42X05".equals(ex.getSQLState())) return 0;   // table does not exist
+            throw ex;
+        }
+    }
+
+    private static void recordSchemaVersion(ConnectionPool.PooledConnection pc) throws SQLException {
+        PreparedStatement update = pc.prepare("UPDATE schema_meta SET version=?, updated_at=CURRENT_TIMESTAMP");
+        update.setInt(1, SCHEMA_VERSION);
+        if (update.executeUpdate() == 0) {
+            PreparedStatement insert = pc.prepare("INSERT INTO schema_meta (version) VALUES (?)");
+            insert.setInt(1, SCHEMA_VERSION);
+            insert.executeUpdate();
+        }
+    }
+
+    // the slow path: probe the catalog and create or convert whatever is missing (idempotent)
+    private static void bootstrapSchema(ConnectionPool.PooledConnection pc) throws SQLException {
+        Connection conn = pc.connection();
+        DatabaseMetaData md = conn.getMetaData();
+
+        // schema_meta: one row holding the schema version
+        try (ResultSet rs = md.getTables(null, null, "SCHEMA_META", null)) {
+            if (!rs.next()) {
+                try (Statement st = conn.createStatement()) {
+                    st.executeUpdate("CREATE TABLE schema_meta (version INT NOT NULL, updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
                 }
             }
         }
+
+        // create menu_items table
+        try (ResultSet rs = md.getTables(null, null, "MENU_ITEMS", null)) {
+            if (!rs.next()) {
+                try (Statement st = conn.createStatement()) {
+                    st.executeUpdate(
+                            "CREATE TABLE menu_items (" +
+                                    "id INT PRIMARY KEY GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1)," +
+                                    "name VARCHAR(200) UNIQUE NOT NULL," +
+                                    "category VARCHAR(50)," +
+                                    "price_cents BIGINT" +
+                                    ")"
+                    );
+                }
+            }
+        }
+
+        // create orders table
+        try (ResultSet rs = md.getTables(null, null, "ORDERS", null)) {
+            if (!rs.next()) {
+                try (Statement st = conn.createStatement()) {
+                    st.executeUpdate(
+                            "CREATE TABLE orders (" +
+                                    "transaction_id INT PRIMARY KEY GENERATED BY DEFAULT AS IDENTITY (START WITH 1, INCREMENT BY 1)," +
+                                    "order_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                                    "items VARCHAR(4000)," +
+                                    "subtotal_cents BIGINT," +
+                                    "tax_cents BIGINT," +
+                                    "total_cents BIGINT," +
+                                    "discount_cents BIGINT DEFAULT 0 NOT NULL" +
+                                    ")"
+                    );
+                }
+            }
+        }
+
+        // what promotions took off an order (subtotal_cents is after it); older orders had none
+        try (ResultSet rs = md.getColumns(null, null, "ORDERS", "DISCOUNT_CENTS")) {
+            if (!rs.next()) {
+                try (Statement st = conn.createStatement()) {
+                    st.executeUpdate("ALTER TABLE orders ADD COLUMN discount_cents BIGINT DEFAULT 0 NOT NULL");
+                }
+            }
+        }
+
+        // order ids come from nextOrderId, so older databases must accept explicit ids
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("ALTER TABLE orders ALTER COLUMN transaction_id SET GENERATED BY DEFAULT");
+        }
+
+        // databases created before money was kept in cents still have DOUBLE dollar columns
+        convertDollarsToCents(conn, md, "MENU_ITEMS", "PRICE", "PRICE_CENTS");
+        convertDollarsToCents(conn, md, "ORDERS", "SUBTOTAL", "SUBTOTAL_CENTS");
+        convertDollarsToCents(conn, md, "ORDERS", "TAX", "TAX_CENTS");
+        convertDollarsToCents(conn, md, "ORDERS", "TOTAL", "TOTAL_CENTS");
+
+        // index for date-range filters on the order history
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT 1 FROM SYS.SYSCONGLOMERATES WHERE CONGLOMERATENAME = 'ORDERS_DATE_IDX'")) {
+            if (!rs.next()) {
+                try (Statement create = conn.createStatement()) {
+                    create.executeUpdate("CREATE INDEX orders_date_idx ON orders (order_date)");
+                }
+            }
+        }
+
+        // create order_lines table; orders saved before it existed get their items strings migrated
+        try (ResultSet rs = md.getTables(null, null, "ORDER_LINES", null)) {
+            if (!rs.next()) {
+                try (Statement st = conn.createStatement()) {
+                    st.executeUpdate(
+                            "CREATE TABLE order_lines (" +
+                                    "transaction_id INT NOT NULL REFERENCES orders(transaction_id) ON DELETE CASCADE," +
+                                    "line_no SMALLINT NOT NULL," +
+                                    "menu_item_id INT," +
+                                    "item_name VARCHAR(200) NOT NULL," +
+                                    "qty INT NOT NULL," +
+                                    "unit_price_cents BIGINT," +
+                                    "icing VARCHAR(50)," +
+                                    "filling VARCHAR(50)," +
+                                    "PRIMARY KEY (transaction_id, line_no)" +
+                                    ")"
+                    );
+                    st.executeUpdate("CREATE INDEX order_lines_item_idx ON order_lines (menu_item_id)");
+                    st.executeUpdate("CREATE INDEX order_lines_name_idx ON order_lines (item_name)");
+                }
+                migrateItemsToOrderLines(pc);
+            }
+        }
+        convertDollarsToCents(conn, md, "ORDER_LINES", "UNIT_PRICE", "UNIT_PRICE_CENTS");
+
+        // stock levels of tracked SKUs (see Inventory); a SKU without a row is not tracked
+        try (ResultSet rs = md.getTables(null, null, "INVENTORY", null)) {
+            if (!rs.next()) {
+                try (Statement st = conn.createStatement()) {
+                    st.executeUpdate(
+                            "CREATE TABLE inventory (" +
+                                    "sku VARCHAR(100) PRIMARY KEY," +
+                                    "on_hand BIGINT NOT NULL," +
+                                    "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                                    ")"
+                    );
+                }
+            }
+        }
+
+        // sales rollups; existing orders are aggregated into them once
+        if (SalesAnalytics.ensureTables(conn, md)) SalesAnalytics.backfill(pc);
+    }
+
+    // replace a legacy DOUBLE dollars column by a BIGINT cents column (no-op once converted)
+    private static void convertDollarsToCents(Connection conn, DatabaseMetaData md, String table, String dollars, String cents) throws SQLException {
+        try (ResultSet rs = md.getColumns(null, null, table, dollars)) {
+            if (!rs.next()) return;
+        }
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("ALTER TABLE " + table + " ADD COLUMN " + cents + " BIGINT");
+            // stored values came from two-decimal input, so rounding the scaled double is exact
+            st.executeUpdate("UPDATE " + table + " SET " + cents + " = CAST(FLOOR(" + dollars + " * 100 + 0.5) AS BIGINT) WHERE " + dollars + " IS NOT NULL");
+            st.executeUpdate("ALTER TABLE " + table + " DROP COLUMN " + dollars);
+        }
+    }
+
+    // parse the legacy items strings of existing orders into order_lines rows (one transaction)
+    private static void migrateItemsToOrderLines(ConnectionPool.PooledConnection pc) throws SQLException {
+        Connection conn = pc.connection();
+        Map<String, MenuItem> menu = loadMenuItems(pc);
+        conn.setAutoCommit(false);
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT transaction_id, items FROM orders")) {
+            PreparedStatement ps = pc.prepare(INSERT_LINE_SQL);
+            int pending = 0;
+            while (rs.next()) {
+                List<OrderLine> lines = resolveAgainstMenu(parseItemsString(rs.getString("items")), menu);
+                pending += addLineBatch(ps, rs.getInt("transaction_id"), lines);
+                if (pending >= 500) {
+                    ps.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) ps.executeBatch();
+            conn.commit();
+        } catch (SQLException ex) {
+            conn.rollback();
+            throw ex;
+        } finally {
+            conn.setAutoCommit(true);
+        }
     }
 
     // load menu items into a LinkedHashMap (insertion order)
     public static LinkedHashMap<String, MenuItem> loadMenuItems() throws SQLException {
+        long t0 = System.nanoTime();
+        try {
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                return loadMenuItems(pc);
+            }
+        } finally {
+            DB_LOAD_MENU.recordSince(t0);
+        }
+    }
+
+    private static LinkedHashMap<String, MenuItem> loadMenuItems(ConnectionPool.PooledConnection pc) throws SQLException {
         LinkedHashMap<String, MenuItem> map = new LinkedHashMap<>();
-        String sql = "SELECT id, name, category, price FROM menu_items ORDER BY id";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
+        String sql = "SELECT id, name, category, price_cents FROM menu_items ORDER BY id";
+        try (ResultSet rs = pc.prepare(sql).executeQuery()) {
             while (rs.next()) {
                 int id = rs.getInt("id");
                 String name = rs.getString("name");
                 String category = rs.getString("category");
-                double price = rs.getDouble("price");
-                map.put(name, new MenuItem(id, name, category, price));
+                long priceCents = rs.getLong("price_cents");
+                map.put(name, new MenuItem(id, name, category, priceCents));
             }
         }
         return map;
     }
 
-    // add a new menu item, returns the generated id or -1 on error
-    public static int addMenuItem(String name, String category, double price) throws SQLException {
-        String sql = "INSERT INTO menu_items (name, category, price) VALUES (?, ?, ?)";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            ps.setString(1, name);
-            ps.setString(2, category);
-            ps.setDouble(3, price);
-            ps.executeUpdate();
-            try (ResultSet keys = ps.getGeneratedKeys()) {
-                if (keys.next()) return keys.getInt(1);
+    // add a new menu item, returns the generated id or -1 on error; a name that already exists
+    // (ignoring case) updates that item's category and price and returns its id instead
+    public static int addMenuItem(String name, String category, long priceCents) throws SQLException {
+        long t0 = System.nanoTime();
+        try {
+            String sql = "INSERT INTO menu_items (name, category, price_cents) VALUES (?, ?, ?)";
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                PreparedStatement find = pc.prepare("SELECT id FROM menu_items WHERE LOWER(name)=LOWER(?)");
+                find.setString(1, name.trim());
+                try (ResultSet rs = find.executeQuery()) {
+                    if (rs.next()) {
+                        int id = rs.getInt(1);
+                        PreparedStatement up = pc.prepare("UPDATE menu_items SET category=?, price_cents=? WHERE id=?");
+                        up.setString(1, category);
+                        up.setLong(2, priceCents);
+                        up.setInt(3, id);
+                        up.executeUpdate();
+                        return id;
+                    }
+                }
+                PreparedStatement ps = pc.prepare(sql, Statement.RETURN_GENERATED_KEYS);
+                ps.setString(1, name.trim());
+                ps.setString(2, category);
+                ps.setLong(3, priceCents);
+                ps.executeUpdate();
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    if (keys.next()) return keys.getInt(1);
+                }
             }
+            return -1;
+        } finally {
+            DB_ADD_MENU.recordSince(t0);
         }
-        return -1;
     }
 
-    // update menu item by id
-    public static boolean updateMenuItem(int id, String name, String category, double price) throws SQLException {
-        String sql = "UPDATE menu_items SET name=?, category=?, price=? WHERE id=?";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, name);
-            ps.setString(2, category);
-            ps.setDouble(3, price);
-            ps.setInt(4, id);
-            return ps.executeUpdate() > 0;
+    // insert several menu items in one batched transaction (ids of the given items are ignored)
+    public static void seedMenuItems(List<MenuItem> items) throws SQLException {
+        long t0 = System.nanoTime();
+        try {
+            String sql = "INSERT INTO menu_items (name, category, price_cents) VALUES (?, ?, ?)";
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                Connection conn = pc.connection();
+                conn.setAutoCommit(false);
+                try {
+                    PreparedStatement ps = pc.prepare(sql);
+                    for (MenuItem mi : items) {
+                        ps.setString(1, mi.name);
+                        ps.setString(2, mi.category);
+                        ps.setLong(3, mi.priceCents);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                    conn.commit();
+                } catch (SQLException ex) {
+                    conn.rollback();
+                    throw ex;
+                }
+            }
+        } finally {
+            DB_SEED_MENU.recordSince(t0);
+        }
+    }
+
+    // add or update many menu items in one transaction, keyed on the name ignoring case like
+    // addMenuItem; returns how many were new. One scan maps the stored names to ids (Derby has no
+    // index on LOWER(name) for a MERGE to match on), then updates by id and inserts go out in
+    // batches of -Doakdonuts.db.menuBatch. The table is locked, so no add can race the scan.
+    public static int upsertMenuItems(List<MenuItem> items) throws SQLException {
+        long t0 = System.nanoTime();
+        try {
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                Connection conn = pc.connection();
+                conn.setAutoCommit(false);
+                try {
+                    try (Statement st = conn.createStatement()) {
+                        st.execute("LOCK TABLE menu_items IN EXCLUSIVE MODE");
+                    }
+                    Map<String, Integer> idByName = new HashMap<>();
+                    PreparedStatement scan = pc.prepare("SELECT id, name FROM menu_items");
+                    scan.setFetchSize(SCAN_FETCH_SIZE);
+                    try (ResultSet rs = scan.executeQuery()) {
+                        while (rs.next()) idByName.put(MenuCatalog.fold(rs.getString(2)), rs.getInt(1));
+                    }
+                    // a name given twice keeps the last one
+                    Map<String, MenuItem> latest = new LinkedHashMap<>();
+                    for (MenuItem mi : items) latest.put(MenuCatalog.fold(mi.name), mi);
+
+                    PreparedStatement update = pc.prepare("UPDATE menu_items SET category=?, price_cents=? WHERE id=?");
+                    PreparedStatement insert = pc.prepare("INSERT INTO menu_items (name, category, price_cents) VALUES (?, ?, ?)");
+                    int updates = 0, inserts = 0;
+                    for (Map.Entry<String, MenuItem> e : latest.entrySet()) {
+                        MenuItem mi = e.getValue();
+                        Integer id = idByName.get(e.getKey());
+                        if (id != null) {
+                            update.setString(1, mi.category);
+                            update.setLong(2, mi.priceCents);
+                            update.setInt(3, id);
+                            update.addBatch();
+                            if (++updates % MENU_BATCH == 0) update.executeBatch();
+                        } else {
+                            insert.setString(1, mi.name.trim());
+                            insert.setString(2, mi.category);
+                            insert.setLong(3, mi.priceCents);
+                            insert.addBatch();
+                            if (++inserts % MENU_BATCH == 0) insert.executeBatch();
+                        }
+                    }
+                    if (updates % MENU_BATCH != 0) update.executeBatch();
+                    if (inserts % MENU_BATCH != 0) insert.executeBatch();
+                    conn.commit();
+                    return inserts;
+                } catch (SQLException ex) {
+                    conn.rollback();
+                    throw ex;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            }
+        } finally {
+            DB_UPSERT_MENU.recordSince(t0);
+        }
+    }
+
+    // update menu item by id; false when no such item or another item has the name (ignoring case)
+    public static boolean updateMenuItem(int id, String name, String category, long priceCents) throws SQLException {
+        long t0 = System.nanoTime();
+        try {
+            String sql = "UPDATE menu_items SET name=?, category=?, price_cents=? WHERE id=? "
+                    + "AND NOT EXISTS (SELECT 1 FROM menu_items m WHERE LOWER(m.name)=LOWER(?) AND m.id<>?)";
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                PreparedStatement ps = pc.prepare(sql);
+                ps.setString(1, name);
+                ps.setString(2, category);
+                ps.setLong(3, priceCents);
+                ps.setInt(4, id);
+                ps.setString(5, name);
+                ps.setInt(6, id);
+                return ps.executeUpdate() > 0;
+            }
+        } finally {
+            DB_UPDATE_MENU.recordSince(t0);
         }
     }
 
     // delete menu item by id
     public static boolean deleteMenuItem(int id) throws SQLException {
-        String sql = "DELETE FROM menu_items WHERE id=?";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, id);
-            return ps.executeUpdate() > 0;
+        long t0 = System.nanoTime();
+        try {
+            String sql = "DELETE FROM menu_items WHERE id=?";
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                PreparedStatement ps = pc.prepare(sql);
+                ps.setInt(1, id);
+                return ps.executeUpdate() > 0;
+            }
+        } finally {
+            DB_DELETE_MENU.recordSince(t0);
         }
     }
 
-    // save an order; returns generated transaction id or -1 on failure
-    public static int saveOrder(String items, double subtotal, double tax, double total) throws SQLException {
-        String sql = "INSERT INTO orders (items, subtotal, tax, total) VALUES (?, ?, ?, ?)";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            ps.setString(1, items);
-            ps.setDouble(2, subtotal);
-            ps.setDouble(3, tax);
-            ps.setDouble(4, total);
-            ps.executeUpdate();
-            try (ResultSet keys = ps.getGeneratedKeys()) {
-                if (keys.next()) return keys.getInt(1);
+    // save an order and its lines in one transaction; returns generated transaction id or -1 on failure
+    public static int saveOrder(List<OrderLine> lines, long subtotalCents, long taxCents, long totalCents) throws SQLException {
+        return saveOrder(lines, subtotalCents, taxCents, totalCents, 0);
+    }
+
+    // as above for an order promotions took discountCents off (subtotalCents is after the discount)
+    public static int saveOrder(List<OrderLine> lines, long subtotalCents, long taxCents, long totalCents, long discountCents) throws SQLException {
+        long t0 = System.nanoTime();
+        try {
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                Connection conn = pc.connection();
+                conn.setAutoCommit(false);
+                try {
+                    SalesAnalytics.Delta rollup = new SalesAnalytics.Delta();
+                    Timestamp date = new Timestamp(System.currentTimeMillis());
+                    int txId = insertOrder(pc, 0, date, lines, subtotalCents, taxCents, totalCents, discountCents, rollup);
+                    insertOrderLines(pc, txId, lines);
+                    rollup.applyTo(pc);
+                    conn.commit();
+                    orderSaved(txId, date, lines, subtotalCents, taxCents, totalCents, discountCents);
+                    return txId;
+                } catch (SQLException ex) {
+                    conn.rollback();
+                    throw ex;
+                }
             }
+        } finally {
+            DB_SAVE_ORDER.recordSince(t0);
         }
-        return -1;
     }
 
-    // load all orders as a list of OrderRow
-    public static List<OrderRow> loadOrders() throws SQLException {
-        List<OrderRow> list = new ArrayList<>();
-        String sql = "SELECT transaction_id, order_date, items, subtotal, tax, total FROM orders ORDER BY transaction_id DESC";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
+    // legacy entry point taking a pre-built items string; the lines are parsed from it
+    public static int saveOrder(String items, long subtotalCents, long taxCents, long totalCents) throws SQLException {
+        long t0 = System.nanoTime();
+        try {
+            LinkedHashMap<String, MenuItem> menu;
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                menu = loadMenuItems(pc);
+            }
+            return saveOrder(resolveAgainstMenu(parseItemsString(items), menu), subtotalCents, taxCents, totalCents);
+        } finally {
+            DB_SAVE_ORDER_ITEMS.recordSince(t0);
+        }
+    }
+
+    // insert the orders row (items column holds a display summary) and add it to the rollup delta,
+    // which the caller applies before committing; caller owns the transaction.
+    // transactionId 0 takes the next id and a null orderDate means now; returns the id
+    static int insertOrder(ConnectionPool.PooledConnection pc, int transactionId, Timestamp orderDate, List<OrderLine> lines,
+                           long subtotalCents, long taxCents, long totalCents, long discountCents, SalesAnalytics.Delta rollup) throws SQLException {
+        String sql = "INSERT INTO orders (transaction_id, order_date, items, subtotal_cents, tax_cents, total_cents, discount_cents) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        int id = transactionId > 0 ? transactionId : nextOrderId(pc);
+        Timestamp date = orderDate != null ? orderDate : new Timestamp(System.currentTimeMillis());
+        PreparedStatement ps = pc.prepare(sql);
+        ps.setInt(1, id);
+        ps.setTimestamp(2, date);
+        ps.setString(3, OrderLine.summarize(lines, ITEMS_SUMMARY_MAX));
+        ps.setLong(4, subtotalCents);
+        ps.setLong(5, taxCents);
+        ps.setLong(6, totalCents);
+        ps.setLong(7, discountCents);
+        ps.executeUpdate();
+        rollup.add(date, lines, subtotalCents, taxCents, totalCents, 1);
+        return id;
+    }
+
+    // tell the listeners about an order that was just committed (by saveOrder or the OrderWriter)
+    static void orderSaved(int transactionId, Timestamp orderDate, List<OrderLine> lines, long subtotalCents, long taxCents, long totalCents,
+                           long discountCents) {
+        if (listeners.isEmpty()) return;
+        listeners.saved(new OrderRow(transactionId, orderDate, OrderLine.summarize(lines, ITEMS_SUMMARY_MAX),
+                subtotalCents, taxCents, totalCents, discountCents), lines);
+    }
+
+    public static void addOrderListener(OrderStore.OrderListener listener) { listeners.add(listener); }
+    public static void removeOrderListener(OrderStore.OrderListener listener) { listeners.remove(listener); }
+
+    // batch-insert the lines of one order; caller owns the transaction
+    static void insertOrderLines(ConnectionPool.PooledConnection pc, int transactionId, List<OrderLine> lines) throws SQLException {
+        if (lines.isEmpty()) return;
+        PreparedStatement ps = pc.prepare(INSERT_LINE_SQL);
+        addLineBatch(ps, transactionId, lines);
+        ps.executeBatch();
+    }
+
+    static int addLineBatch(PreparedStatement ps, int transactionId, List<OrderLine> lines) throws SQLException {
+        for (int i = 0; i < lines.size(); i++) {
+            OrderLine l = lines.get(i);
+            ps.setInt(1, transactionId);
+            ps.setInt(2, i + 1);
+            if (l.menuItemId > 0) ps.setInt(3, l.menuItemId); else ps.setNull(3, Types.INTEGER);
+            ps.setString(4, l.itemName);
+            ps.setInt(5, l.qty);
+            if (l.unitPriceCents == OrderLine.UNKNOWN_PRICE) ps.setNull(6, Types.BIGINT); else ps.setLong(6, l.unitPriceCents);
+            ps.setString(7, l.icing);
+            ps.setString(8, l.filling);
+            ps.addBatch();
+        }
+        return lines.size();
+    }
+
+    // load the lines of one order in line order
+    public static List<OrderLine> loadOrderLines(int transactionId) throws SQLException {
+        long t0 = System.nanoTime();
+        try {
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                return loadOrderLines(pc, transactionId);
+            }
+        } finally {
+            DB_LOAD_LINES.recordSince(t0);
+        }
+    }
+
+    private static List<OrderLine> loadOrderLines(ConnectionPool.PooledConnection pc, int transactionId) throws SQLException {
+        List<OrderLine> list = new ArrayList<>();
+        String sql = "SELECT menu_item_id, item_name, qty, unit_price_cents, icing, filling FROM order_lines WHERE transaction_id=? ORDER BY line_no";
+        PreparedStatement ps = pc.prepare(sql);
+        ps.setInt(1, transactionId);
+        try (ResultSet rs = ps.executeQuery()) {
             while (rs.next()) {
-                int id = rs.getInt("transaction_id");
-                Timestamp ts = rs.getTimestamp("order_date");
-                String items = rs.getString("items");
-                double subtotal = rs.getDouble("subtotal");
-                double tax = rs.getDouble("tax");
-                double total = rs.getDouble("total");
-                list.add(new OrderRow(id, ts, items, subtotal, tax, total));
+                long unitPriceCents = rs.getLong("unit_price_cents");
+                if (rs.wasNull()) unitPriceCents = OrderLine.UNKNOWN_PRICE;
+                list.add(new OrderLine(rs.getInt("menu_item_id"), rs.getString("item_name"), rs.getInt("qty"),
+                        unitPriceCents, rs.getString("icing"), rs.getString("filling")));
             }
         }
         return list;
     }
 
-    // update an order by transaction_id
-    public static boolean updateOrder(int transactionId, String items, double subtotal, double tax, double total) throws SQLException {
-        String sql = "UPDATE orders SET items=?, subtotal=?, tax=?, total=? WHERE transaction_id=?";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, items);
-            ps.setDouble(2, subtotal);
-            ps.setDouble(3, tax);
-            ps.setDouble(4, total);
-            ps.setInt(5, transactionId);
-            return ps.executeUpdate() > 0;
+    // take an order back out of the rollups (before it is changed or deleted);
+    // returns the order as it was, or null if it does not exist
+    private static OrderRow subtractFromRollup(ConnectionPool.PooledConnection pc, int transactionId, SalesAnalytics.Delta rollup) throws SQLException {
+        PreparedStatement ps = pc.prepare("SELECT transaction_id, order_date, items, subtotal_cents, tax_cents, total_cents, discount_cents"
+                + " FROM orders WHERE transaction_id=? FOR UPDATE");
+        ps.setInt(1, transactionId);
+        try (ResultSet rs = ps.executeQuery()) {
+            if (!rs.next()) return null;
+            OrderRow old = readOrderRow(rs);
+            rollup.add(old.orderDate, loadOrderLines(pc, transactionId), old.subtotalCents, old.taxCents, old.totalCents, -1);
+            return old;
+        }
+    }
+
+    // queue an order for group-committed writing; the future completes with the transaction id
+    // once the order is committed, or exceptionally (RejectedExecutionException when the queue is full).
+    // With the order journal open it completes as soon as the order is journaled instead.
+    public static CompletableFuture<Integer> saveOrderAsync(List<OrderLine> lines, long subtotalCents, long taxCents, long totalCents,
+                                                            long discountCents) {
+        long t0 = System.nanoTime();
+        CompletableFuture<Integer> saved;
+        OrderJournal j = journal;
+        if (j == null) {
+            saved = orderWriter().submit(0, null, lines, subtotalCents, taxCents, totalCents, discountCents);
+        } else {
+            try {
+                saved = j.append(nextOrderId(), new Timestamp(System.currentTimeMillis()), lines, subtotalCents, taxCents, totalCents, discountCents);
+            } catch (IOException | SQLException ex) {
+                saved = new CompletableFuture<>();
+                saved.completeExceptionally(ex);
+            }
+        }
+        saved.whenComplete((id, ex) -> {
+            DB_SAVE_ORDER_ASYNC.recordSince(t0);
+            if (ex != null) DB_SAVE_ORDER_ASYNC_FAILED.inc();
+        });
+        return saved;
+    }
+
+    // load all orders as a list of OrderRow (prefer loadOrdersBefore for anything user facing)
+    public static List<OrderRow> loadOrders() throws SQLException {
+        long t0 = System.nanoTime();
+        try {
+            List<OrderRow> list = new ArrayList<>();
+            String sql = "SELECT transaction_id, order_date, items, subtotal_cents, tax_cents, total_cents, discount_cents FROM orders ORDER BY transaction_id DESC";
+            try (ConnectionPool.PooledConnection pc = pool().acquire();
+                 ResultSet rs = pc.prepare(sql).executeQuery()) {
+                while (rs.next()) list.add(readOrderRow(rs));
+            }
+            return list;
+        } finally {
+            DB_LOAD_ORDERS.recordSince(t0);
+        }
+    }
+
+    // keyset page: up to limit orders with transaction_id < beforeTxId, newest first,
+    // optionally restricted to order_date in [from, to) (either bound may be null)
+    public static List<OrderRow> loadOrdersBefore(int beforeTxId, int limit, Timestamp from, Timestamp to) throws SQLException {
+        long t0 = System.nanoTime();
+        try {
+            List<OrderRow> list = new ArrayList<>(limit);
+            String sql = "SELECT transaction_id, order_date, items, subtotal_cents, tax_cents, total_cents, discount_cents FROM orders WHERE transaction_id < ?"
+                    + dateFilter(from, to) + " ORDER BY transaction_id DESC FETCH FIRST ? ROWS ONLY";
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                PreparedStatement ps = pc.prepare(sql);
+                int i = 1;
+                ps.setInt(i++, beforeTxId);
+                i = bindDateFilter(ps, i, from, to);
+                ps.setInt(i, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) list.add(readOrderRow(rs));
+                }
+            }
+            return list;
+        } finally {
+            DB_LOAD_PAGE.recordSince(t0);
+        }
+    }
+
+    public static List<OrderRow> loadOrdersBefore(int beforeTxId, int limit) throws SQLException {
+        return loadOrdersBefore(beforeTxId, limit, null, null);
+    }
+
+    // number of orders in [from, to)
+    public static int countOrders(Timestamp from, Timestamp to) throws SQLException {
+        long t0 = System.nanoTime();
+        try {
+            String sql = "SELECT COUNT(*) FROM orders WHERE 1=1" + dateFilter(from, to);
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                PreparedStatement ps = pc.prepare(sql);
+                bindDateFilter(ps, 1, from, to);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getInt(1) : 0;
+                }
+            }
+        } finally {
+            DB_COUNT.recordSince(t0);
+        }
+    }
+
+    // transaction id of the order at the given offset (0 = newest) in [from, to), or -1;
+    // used to find a page boundary when the user jumps far down the history
+    public static int loadOrderIdAt(int offset, Timestamp from, Timestamp to) throws SQLException {
+        long t0 = System.nanoTime();
+        try {
+            String sql = "SELECT transaction_id FROM orders WHERE 1=1" + dateFilter(from, to)
+                    + " ORDER BY transaction_id DESC OFFSET ? ROWS FETCH NEXT 1 ROWS ONLY";
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                PreparedStatement ps = pc.prepare(sql);
+                int i = bindDateFilter(ps, 1, from, to);
+                ps.setInt(i, offset);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getInt(1) : -1;
+                }
+            }
+        } finally {
+            DB_ORDER_ID_AT.recordSince(t0);
+        }
+    }
+
+    private static String dateFilter(Timestamp from, Timestamp to) {
+        return (from != null ? " AND order_date >= ?" : "") + (to != null ? " AND order_date < ?" : "");
+    }
+
+    private static int bindDateFilter(PreparedStatement ps, int i, Timestamp from, Timestamp to) throws SQLException {
+        if (from != null) ps.setTimestamp(i++, from);
+        if (to != null) ps.setTimestamp(i++, to);
+        return i;
+    }
+
+    private static OrderRow readOrderRow(ResultSet rs) throws SQLException {
+        return new OrderRow(rs.getInt("transaction_id"), rs.getTimestamp("order_date"), rs.getString("items"),
+                rs.getLong("subtotal_cents"), rs.getLong("tax_cents"), rs.getLong("total_cents"), rs.getLong("discount_cents"));
+    }
+
+    // update an order by transaction_id; its order_lines are rebuilt from the edited items string,
+    // keeping the prices of lines it already had (see resolveEdited); its discount is kept too
+    public static boolean updateOrder(int transactionId, String items, long subtotalCents, long taxCents, long totalCents) throws SQLException {
+        long t0 = System.nanoTime();
+        try {
+            String sql = "UPDATE orders SET items=?, subtotal_cents=?, tax_cents=?, total_cents=? WHERE transaction_id=?";
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                Connection conn = pc.connection();
+                conn.setAutoCommit(false);
+                try {
+                    SalesAnalytics.Delta rollup = new SalesAnalytics.Delta();
+                    OrderRow old = subtractFromRollup(pc, transactionId, rollup);
+                    if (old == null) {
+                        conn.rollback();
+                        return false;
+                    }
+                    PreparedStatement ps = pc.prepare(sql);
+                    ps.setString(1, items);
+                    ps.setLong(2, subtotalCents);
+                    ps.setLong(3, taxCents);
+                    ps.setLong(4, totalCents);
+                    ps.setInt(5, transactionId);
+                    List<OrderLine> sold = loadOrderLines(pc, transactionId);
+                    boolean updated = ps.executeUpdate() > 0;
+                    List<OrderLine> lines = null;
+                    if (updated) {
+                        PreparedStatement del = pc.prepare("DELETE FROM order_lines WHERE transaction_id=?");
+                        del.setInt(1, transactionId);
+                        del.executeUpdate();
+                        lines = resolveEdited(parseItemsString(items), sold, loadMenuItems(pc));
+                        insertOrderLines(pc, transactionId, lines);
+                        rollup.add(old.orderDate, lines, subtotalCents, taxCents, totalCents, 1);
+                        rollup.applyTo(pc);
+                    }
+                    conn.commit();
+                    if (updated) {
+                        listeners.updated(new OrderRow(transactionId, old.orderDate, items, subtotalCents, taxCents, totalCents, old.discountCents), lines);
+                    }
+                    return updated;
+                } catch (SQLException ex) {
+                    conn.rollback();
+                    throw ex;
+                }
+            }
+        } finally {
+            DB_UPDATE_ORDER.recordSince(t0);
         }
     }
 
-    // delete an order by transaction_id
+    // delete an order by transaction_id (its order_lines go with it via ON DELETE CASCADE)
     public static boolean deleteOrder(int transactionId) throws SQLException {
-        String sql = "DELETE FROM orders WHERE transaction_id=?";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, transactionId);
-            return ps.executeUpdate() > 0;
+        long t0 = System.nanoTime();
+        try {
+            String sql = "DELETE FROM orders WHERE transaction_id=?";
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                Connection conn = pc.connection();
+                conn.setAutoCommit(false);
+                try {
+                    SalesAnalytics.Delta rollup = new SalesAnalytics.Delta();
+                    if (subtractFromRollup(pc, transactionId, rollup) == null) {
+                        conn.rollback();
+                        return false;
+                    }
+                    PreparedStatement ps = pc.prepare(sql);
+                    ps.setInt(1, transactionId);
+                    boolean deleted = ps.executeUpdate() > 0;
+                    if (deleted) rollup.applyTo(pc);
+                    conn.commit();
+                    if (deleted) listeners.deleted(transactionId);
+                    return deleted;
+                } catch (SQLException ex) {
+                    conn.rollback();
+                    throw ex;
+                }
+            }
+        } finally {
+            DB_DELETE_ORDER.recordSince(t0);
+        }
+    }
+
+    // the orders among the given ids, in the order given; fetched with IN lists of ID_CHUNK ids
+    // (the last chunk is padded with its last id, so every chunk reuses one prepared statement)
+    public static List<OrderRow> loadOrdersById(int[] transactionIds) throws SQLException {
+        long t0 = System.nanoTime();
+        try {
+            Map<Integer, OrderRow> found = new HashMap<>();
+            StringBuilder sql = new StringBuilder("SELECT transaction_id, order_date, items, subtotal_cents, tax_cents, total_cents, discount_cents FROM orders WHERE transaction_id IN (");
+            for (int i = 0; i < ID_CHUNK; i++) sql.append(i == 0 ? "?" : ", ?");
+            sql.append(")");
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                PreparedStatement ps = pc.prepare(sql.toString());
+                for (int start = 0; start < transactionIds.length; start += ID_CHUNK) {
+                    for (int i = 0; i < ID_CHUNK; i++) ps.setInt(i + 1, transactionIds[Math.min(start + i, transactionIds.length - 1)]);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            OrderRow o = readOrderRow(rs);
+                            found.put(o.transactionId, o);
+                        }
+                    }
+                }
+            }
+            List<OrderRow> list = new ArrayList<>(found.size());
+            for (int id : transactionIds) {
+                OrderRow o = found.get(id);
+                if (o != null) list.add(o);
+            }
+            return list;
+        } finally {
+            DB_LOAD_BY_ID.recordSince(t0);
+        }
+    }
+
+    // every order in [from, to) with its lines, oldest first: one forward-only, read-only query
+    // joining the lines, read as a stream (the visitor gets each order once its last line is read)
+    public static void scanOrders(Timestamp from, Timestamp to, OrderStore.OrderVisitor visitor) throws Exception {
+        long t0 = System.nanoTime();
+        try {
+            String sql = "SELECT o.transaction_id, o.order_date, o.items, o.subtotal_cents, o.tax_cents, o.total_cents, o.discount_cents,"
+                    + " l.menu_item_id, l.item_name, l.qty, l.unit_price_cents, l.icing, l.filling"
+                    + " FROM orders o LEFT JOIN order_lines l ON l.transaction_id = o.transaction_id WHERE 1=1" + dateFilter(from, to)
+                    + " ORDER BY o.transaction_id, l.line_no";
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                PreparedStatement ps = pc.prepare(sql);
+                bindDateFilter(ps, 1, from, to);
+                ps.setFetchSize(SCAN_FETCH_SIZE);
+                try (ResultSet rs = ps.executeQuery()) {
+                    OrderRow order = null;
+                    List<OrderLine> lines = new ArrayList<>();
+                    while (rs.next()) {
+                        int txId = rs.getInt("transaction_id");
+                        if (order == null || order.transactionId != txId) {
+                            if (order != null) visitor.visit(order, lines);
+                            order = readOrderRow(rs);
+                            lines = new ArrayList<>();
+                        }
+                        String name = rs.getString("item_name");
+                        if (name == null) continue;   // an order without lines
+                        long unitPriceCents = rs.getLong("unit_price_cents");
+                        if (rs.wasNull()) unitPriceCents = OrderLine.UNKNOWN_PRICE;
+                        lines.add(new OrderLine(rs.getInt("menu_item_id"), name, rs.getInt("qty"), unitPriceCents,
+                                rs.getString("icing"), rs.getString("filling")));
+                    }
+                    if (order != null) visitor.visit(order, lines);
+                }
+            }
+        } finally {
+            DB_SCAN.recordSince(t0);
+        }
+    }
+
+    // every tracked SKU with its stock on hand
+    public static Map<String, Long> loadInventory() throws SQLException {
+        long t0 = System.nanoTime();
+        try {
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                PreparedStatement ps = pc.prepare("SELECT sku, on_hand FROM inventory ORDER BY sku");
+                Map<String, Long> levels = new LinkedHashMap<>();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) levels.put(rs.getString(1), rs.getLong(2));
+                }
+                return levels;
+            }
+        } finally {
+            DB_LOAD_INVENTORY.recordSince(t0);
+        }
+    }
+
+    // write stock levels in one transaction: a batch of updates, then inserts for the SKUs that
+    // had no row; a null level deletes the row (the SKU is no longer tracked)
+    public static void saveInventory(Map<String, Long> levels) throws SQLException {
+        if (levels.isEmpty()) return;
+        long t0 = System.nanoTime();
+        try {
+            try (ConnectionPool.PooledConnection pc = pool().acquire()) {
+                Connection conn = pc.connection();
+                conn.setAutoCommit(false);
+                try {
+                    PreparedStatement update = pc.prepare("UPDATE inventory SET on_hand=?, updated_at=CURRENT_TIMESTAMP WHERE sku=?");
+                    PreparedStatement delete = pc.prepare("DELETE FROM inventory WHERE sku=?");
+                    List<String> updated = new ArrayList<>();
+                    boolean deletes = false;
+                    for (Map.Entry<String, Long> e : levels.entrySet()) {
+                        if (e.getValue() == null) {
+                            delete.setString(1, e.getKey());
+                            delete.addBatch();
+                            deletes = true;
+                        } else {
+                            update.setLong(1, e.getValue());
+                            update.setString(2, e.getKey());
+                            update.addBatch();
+                            updated.add(e.getKey());
+                        }
+                    }
+                    if (deletes) delete.executeBatch();
+                    if (!updated.isEmpty()) {
+                        int[] counts = update.executeBatch();
+                        PreparedStatement insert = pc.prepare("INSERT INTO inventory (sku, on_hand) VALUES (?, ?)");
+                        boolean inserts = false;
+                        for (int i = 0; i < counts.length; i++) {
+                            if (counts[i] != 0) continue;
+                            insert.setString(1, updated.get(i));
+                            insert.setLong(2, levels.get(updated.get(i)));
+                            insert.addBatch();
+                            inserts = true;
+                        }
+                        if (inserts) insert.executeBatch();
+                    }
+                    conn.commit();
+                } catch (SQLException ex) {
+                    conn.rollback();
+                    throw ex;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            }
+        } finally {
+            DB_SAVE_INVENTORY.recordSince(t0);
+        }
+    }
+
+    // parse an items string such as "Glazed Donut x2 [Icing: Chocolate]; Latte x1" into lines
+    // (menu ids and prices are unknown at this point, see resolveAgainstMenu)
+    public static List<OrderLine> parseItemsString(String items) {
+        List<OrderLine> lines = new ArrayList<>();
+        if (items == null) return lines;
+        for (String part : items.split(";")) {
+            String p = part.trim();
+            if (p.isEmpty()) continue;
+            String icing = null, filling = null;
+            int bracket = p.indexOf('[');
+            if (bracket >= 0) {
+                int end = p.lastIndexOf(']');
+                String opts = p.substring(bracket + 1, end > bracket ? end : p.length());
+                for (String opt : opts.split(",")) {
+                    int colon = opt.indexOf(':');
+                    if (colon < 0) continue;
+                    String key = opt.substring(0, colon).trim();
+                    String value = opt.substring(colon + 1).trim();
+                    if (key.equalsIgnoreCase("Icing")) icing = value;
+                    else if (key.equalsIgnoreCase("Filling")) filling = value;
+                }
+                p = p.substring(0, bracket).trim();
+            }
+            int qty = 1;
+            int x = p.lastIndexOf(" x");
+            if (x > 0) {
+                try {
+                    qty = Integer.parseInt(p.substring(x + 2).trim());
+                    p = p.substring(0, x).trim();
+                } catch (NumberFormatException ignore) {}
+            }
+            lines.add(new OrderLine(0, p, qty, OrderLine.UNKNOWN_PRICE, icing, filling));
+        }
+        return lines;
+    }
+
+    // lines for an edited order: a line already on it (same item and options) keeps the price it
+    // was sold at, whatever its new quantity; new lines are priced from the menu
+    static List<OrderLine> resolveEdited(List<OrderLine> edited, List<OrderLine> sold, Map<String, MenuItem> menu) {
+        Map<String, OrderLine> soldByKey = new HashMap<>();
+        if (sold != null) for (OrderLine l : sold) soldByKey.putIfAbsent(l.itemName + '\0' + l.icing + '\0' + l.filling, l);
+        List<OrderLine> kept = new ArrayList<>(edited.size());
+        for (OrderLine l : edited) {
+            OrderLine was = l.unitPriceCents == OrderLine.UNKNOWN_PRICE ? soldByKey.get(l.itemName + '\0' + l.icing + '\0' + l.filling) : null;
+            kept.add(was == null ? l : new OrderLine(was.menuItemId, l.itemName, l.qty, was.unitPriceCents, l.icing, l.filling));
+        }
+        return resolveAgainstMenu(kept, menu);
+    }
+
+    // fill in menu ids and current prices by item name where the line does not have them
+    static List<OrderLine> resolveAgainstMenu(List<OrderLine> lines, Map<String, MenuItem> menu) {
+        List<OrderLine> out = new ArrayList<>(lines.size());
+        for (OrderLine l : lines) {
+            MenuItem mi = menu.get(l.itemName);
+            boolean unknown = l.unitPriceCents == OrderLine.UNKNOWN_PRICE;
+            if (mi == null || (l.menuItemId > 0 && !unknown)) out.add(l);
+            else out.add(new OrderLine(mi.id, l.itemName, l.qty, unknown ? mi.priceCents : l.unitPriceCents, l.icing, l.filling));
         }
+        return out;
     }
 
-    // small helper class to hold menu item data (id included)
+    // small helper class to hold menu item data (id included); instances are shared by the
+    // in-memory stores, so they are never modified
     public static class MenuItem {
         public final int id;
-        public String name;
-        public String category;
-        public double price;
+        public final String name;
+        public final String category;
+        public final long priceCents;
 
-        public MenuItem(int id, String name, String category, double price) {
+        public MenuItem(int id, String name, String category, long priceCents) {
             this.id = id;
             this.name = name;
             this.category = category;
-            this.price = price;
+            this.priceCents = priceCents;
         }
 
         @Override
         public String toString() {
-            return name + " (" + category + ") - " + price;
+            return name + " (" + category + ") - " + Money.format(priceCents);
         }
     }
 
-    // helper class to represent orders
+    // one line of an order; unitPriceCents is UNKNOWN_PRICE and menuItemId 0 when not known (e.g. migrated rows)
+    public static class OrderLine {
+        public static final long UNKNOWN_PRICE = -1;
+
+        public final int menuItemId;
+        public final String itemName;
+        public final int qty;
+        public final long unitPriceCents;
+        public final String icing;
+        public final String filling;
+
+        public OrderLine(int menuItemId, String itemName, int qty, long unitPriceCents, String icing, String filling) {
+            this.menuItemId = menuItemId;
+            this.itemName = itemName;
+            this.qty = qty;
+            this.unitPriceCents = unitPriceCents;
+            this.icing = icing;
+            this.filling = filling;
+        }
+
+        // "Icing: Chocolate, Filling: Jam" or "" when there are no options
+        public String optionsLabel() {
+            String options = "";
+            if (icing != null) options += "Icing: " + icing;
+            if (filling != null) {
+                if (!options.isEmpty()) options += ", ";
+                options += "Filling: " + filling;
+            }
+            return options;
+        }
+
+        // the legacy items string format, cut at maxLength characters
+        public static String summarize(List<OrderLine> lines, int maxLength) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < lines.size(); i++) {
+                OrderLine l = lines.get(i);
+                sb.append(l.itemName).append(" x").append(l.qty);
+                String opts = l.optionsLabel();
+                if (!opts.isEmpty()) sb.append(" [").append(opts).append("]");
+                if (i < lines.size() - 1) sb.append("; ");
+            }
+            if (sb.length() > maxLength) {
+                sb.setLength(maxLength - 1);
+                sb.append('…');
+            }
+            return sb.toString();
+        }
+    }
+
+    // helper class to represent orders (never modified, like MenuItem)
     public static class OrderRow {
         public final int transactionId;
         public final Timestamp orderDate;
-        public String items;
-        public double subtotal;
-        public double tax;
-        public double total;
+        public final String items;
+        public final long subtotalCents;
+        public final long taxCents;
+        public final long totalCents;
+        // what promotions took off; subtotalCents is after it, the lines add up to subtotal + discount
+        public final long discountCents;
+
+        public OrderRow(int transactionId, Timestamp orderDate, String items, long subtotalCents, long taxCents, long totalCents) {
+            this(transactionId, orderDate, items, subtotalCents, taxCents, totalCents, 0);
+        }
 
-        public OrderRow(int transactionId, Timestamp orderDate, String items, double subtotal, double tax, double total) {
+        public OrderRow(int transactionId, Timestamp orderDate, String items, long subtotalCents, long taxCents, long totalCents,
+                        long discountCents) {
             this.transactionId = transactionId;
             this.orderDate = orderDate;
             this.items = items;
-            this.subtotal = subtotal;
-            this.tax = tax;
-            this.total = total;
+            this.subtotalCents = subtotalCents;
+            this.taxCents = taxCents;
+            this.totalCents = totalCents;
+            this.discountCents = discountCents;
         }
     }
 }
@@ -0,0 +1,66 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The embedded Derby backend. DatabaseManager keeps one pool per JVM, so this is only a thin
+ * adapter over its static calls.
+ */
+public class DerbyStore implements Store {
+
+    @Override public void open() throws SQLException { DatabaseManager.initializeDatabase(); }
+    @Override public void close() { DatabaseManager.shutdown(); }
+
+    @Override public LinkedHashMap<String, DatabaseManager.MenuItem> loadMenuItems() throws SQLException { return DatabaseManager.loadMenuItems(); }
+    @Override public int addMenuItem(String name, String category, long priceCents) throws SQLException { return DatabaseManager.addMenuItem(name, category, priceCents); }
+    @Override public void seedMenuItems(List<DatabaseManager.MenuItem> items) throws SQLException { DatabaseManager.seedMenuItems(items); }
+    @Override public int upsertMenuItems(List<DatabaseManager.MenuItem> items) throws SQLException { return DatabaseManager.upsertMenuItems(items); }
+    @Override public boolean updateMenuItem(int id, String name, String category, long priceCents) throws SQLException { return DatabaseManager.updateMenuItem(id, name, category, priceCents); }
+    @Override public boolean deleteMenuItem(int id) throws SQLException { return DatabaseManager.deleteMenuItem(id); }
+
+    @Override
+    public int saveOrder(List<DatabaseManager.OrderLine> lines, long subtotalCents, long taxCents, long totalCents, long discountCents) throws SQLException {
+        return DatabaseManager.saveOrder(lines, subtotalCents, taxCents, totalCents, discountCents);
+    }
+
+    @Override
+    public CompletableFuture<Integer> saveOrderAsync(List<DatabaseManager.OrderLine> lines, long subtotalCents, long taxCents, long totalCents,
+                                                     long discountCents) {
+        return DatabaseManager.saveOrderAsync(lines, subtotalCents, taxCents, totalCents, discountCents);
+    }
+
+    @Override public List<DatabaseManager.OrderLine> loadOrderLines(int transactionId) throws SQLException { return DatabaseManager.loadOrderLines(transactionId); }
+    @Override public List<DatabaseManager.OrderRow> loadOrders() throws SQLException { return DatabaseManager.loadOrders(); }
+
+    @Override
+    public List<DatabaseManager.OrderRow> loadOrdersBefore(int beforeTxId, int limit, Timestamp from, Timestamp to) throws SQLException {
+        return DatabaseManager.loadOrdersBefore(beforeTxId, limit, from, to);
+    }
+
+    @Override public int countOrders(Timestamp from, Timestamp to) throws SQLException { return DatabaseManager.countOrders(from, to); }
+    @Override public int loadOrderIdAt(int offset, Timestamp from, Timestamp to) throws SQLException { return DatabaseManager.loadOrderIdAt(offset, from, to); }
+
+    @Override
+    public boolean updateOrder(int transactionId, String items, long subtotalCents, long taxCents, long totalCents) throws SQLException {
+        return DatabaseManager.updateOrder(transactionId, items, subtotalCents, taxCents, totalCents);
+    }
+
+    @Override public boolean deleteOrder(int transactionId) throws SQLException { return DatabaseManager.deleteOrder(transactionId); }
+    @Override public List<DatabaseManager.OrderRow> loadOrdersById(int[] transactionIds) throws SQLException { return DatabaseManager.loadOrdersById(transactionIds); }
+    @Override public void scanOrders(Timestamp from, Timestamp to, OrderVisitor visitor) throws Exception { DatabaseManager.scanOrders(from, to, visitor); }
+
+    @Override public List<SalesAnalytics.Bucket> hourlySales(LocalDate from, LocalDate to) throws SQLException { return SalesAnalytics.hourlySales(from, to); }
+    @Override public List<SalesAnalytics.Bucket> dailySales(LocalDate from, LocalDate to) throws SQLException { return SalesAnalytics.dailySales(from, to); }
+    @Override public List<SalesAnalytics.ItemSales> topItems(LocalDate from, LocalDate to, int limit) throws SQLException { return SalesAnalytics.topItems(from, to, limit); }
+
+    // the listeners are per JVM, like the pool: every DerbyStore reports every change
+    @Override public void addOrderListener(OrderListener listener) { DatabaseManager.addOrderListener(listener); }
+    @Override public void removeOrderListener(OrderListener listener) { DatabaseManager.removeOrderListener(listener); }
+
+    @Override public Map<String, Long> loadInventory() throws SQLException { return DatabaseManager.loadInventory(); }
+    @Override public void saveInventory(Map<String, Long> levels) throws SQLException { DatabaseManager.saveInventory(levels); }
+}
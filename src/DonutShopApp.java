@@ -1,26 +1,42 @@
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.event.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*;
-import java.text.NumberFormat;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 /**
- * DonutShopApp - single-file demo application.
+ * DonutShopApp - ordering and menu management UI.
  *
- * Note: This file includes a simple in-memory DatabaseManager so it can be compiled/run standalone.
- * Replace DatabaseManager with your actual implementation if you have one.
+ * Storage goes through a Store picked at startup with -Doakdonuts.store=derby|memory|log
+ * (see Store); Derby is the default.
  */
 public class DonutShopApp {
 
     // ----- class fields (must NOT be inside a method) -----
-    private LinkedHashMap<String, DatabaseManager.MenuItem> itemMap = new LinkedHashMap<>();
-    private final NumberFormat money = NumberFormat.getCurrencyInstance(Locale.US);
+    private MenuSearchPipeline<DatabaseManager.MenuItem> menuSearch;
+    // every database call goes through here so the EDT never waits on disk
+    private final AsyncDb db = AsyncDb.fromSystemProperties();
+    private final Store store = Store.fromSystemProperties();
+    // menu reads and edits; views follow its change events
+    private final MenuCache menuCache = new MenuCache(store);
+    // menu item id -> its index in menuSearch's catalog (EDT only)
+    private final Map<Integer, Integer> menuSlots = new HashMap<>();
+    // saved orders on their way to the kitchen displays
+    private final KitchenRing kitchen = KitchenRing.fromSystemProperties();
+    private int kitchenDisplays;
+    // stock levels; order lines hold their units from the moment they are added
+    private final Inventory inventory = new Inventory(store);
+    // promotions from the promotions file, compiled against the menu (EDT)
+    private volatile List<Promotion> promotions = Collections.emptyList();
+    private PromotionEngine promotionEngine;
+    private javax.swing.Timer promotionCompile;
+    // search over the order history, built in the background once the store is open
+    private volatile OrderSearchIndex orderIndex;
 
     // UI components
     private final JFrame frame;
@@ -29,23 +45,29 @@ public class DonutShopApp {
     private final JSpinner qtySpinner;
     private final JComboBox<String> icingBox;
     private final JComboBox<String> fillingBox;
-    private final DefaultTableModel orderTableModel;
+    private final OrderTableModel orderTableModel;
     private final JLabel subtotalLabel;
+    private final JLabel discountLabel;
     private final JLabel taxLabel;
     private final JLabel totalLabel;
-
-    private static final double TAX_RATE = 0.06;
+    private final JLabel busyLabel;
+    // EDT only: the order is being saved, so the cart stays as it was captured until the save ends
+    private boolean checkoutPending;
+
+    // 6% sales tax on the subtotal, rounded half up to the cent
+    static final Money.TaxRule SALES_TAX = new Money.TaxRule(600, RoundingMode.HALF_UP);
+    private static final int HISTORY_PAGE_SIZE = 200;
+    private static final Metrics.Timer CHECKOUT = Metrics.timer("ui.checkout");
+    // choices offered for each line ("None" is stored as null); bench/RegisterLoadSimulator picks from these too
+    static final String[] ICINGS = {"None", "Chocolate", "Vanilla", "Maple"};
+    static final String[] FILLINGS = {"None", "Custard", "Jam", "Cream"};
 
     // ----- main - single entry point -----
     public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> {
-            try {
-                DatabaseManager.initializeDatabase();
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(null, "DB initialize failed: " + ex.getMessage(), "DB Error", JOptionPane.ERROR_MESSAGE);
-            }
-            new DonutShopApp().show();
-        });
+        StartupTrace.mark("main");
+        EdtMonitor.install();
+        // the database is opened in the background by the constructor, so the frame comes up first
+        SwingUtilities.invokeLater(() -> new DonutShopApp().show());
     }
 
     // ----- constructor - build UI here -----
@@ -55,14 +77,14 @@ public class DonutShopApp {
         menuList = new JList<>(new DefaultListModel<>());
         unitPriceLabel = new JLabel("Unit: $0.00");
         qtySpinner = new JSpinner(new SpinnerNumberModel(1, 1, 100, 1));
-        icingBox = new JComboBox<>(new String[]{"None", "Chocolate", "Vanilla", "Maple"});
-        fillingBox = new JComboBox<>(new String[]{"None", "Custard", "Jam", "Cream"});
-        orderTableModel = new DefaultTableModel(new Object[]{"Item", "Options", "Qty", "Price", "Total"}, 0) {
-            @Override public boolean isCellEditable(int row, int column) { return false; }
-        };
-        subtotalLabel = new JLabel("Subtotal: " + money.format(0.0));
-        taxLabel = new JLabel("Tax (6%): " + money.format(0.0));
-        totalLabel = new JLabel("<html><b>Total: " + money.format(0.0) + "</b></html>");
+        icingBox = new JComboBox<>(ICINGS);
+        fillingBox = new JComboBox<>(FILLINGS);
+        orderTableModel = new OrderTableModel();
+        subtotalLabel = new JLabel("Subtotal: " + Money.format(0));
+        discountLabel = new JLabel(" ");
+        taxLabel = new JLabel("Tax (" + SALES_TAX.percentLabel() + "): " + Money.format(0));
+        totalLabel = new JLabel("<html><b>Total: " + Money.format(0) + "</b></html>");
+        busyLabel = new JLabel(" ");
 
         // frame setup
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -78,10 +100,21 @@ public class DonutShopApp {
         topPanel.add(title, BorderLayout.WEST);
 
         JPanel rightTop = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        rightTop.add(busyLabel);
+        db.addInFlightListener(n -> busyLabel.setText(n > 0 ? "Working… (" + n + ")" : " "));
         JButton manageMenuBtn = new JButton("Manage Menu");
         manageMenuBtn.addActionListener(e -> openManageMenuDialog());
         JButton orderHistoryBtn = new JButton("Order History");
         orderHistoryBtn.addActionListener(e -> openOrderHistoryDialog());
+        JButton diagnosticsBtn = new JButton("Diagnostics");
+        diagnosticsBtn.addActionListener(e -> openDiagnosticsDialog());
+        JButton kitchenBtn = new JButton("Kitchen Display");
+        kitchenBtn.addActionListener(e -> openKitchenDisplay());
+        JButton inventoryBtn = new JButton("Inventory");
+        inventoryBtn.addActionListener(e -> openInventoryDialog());
+        rightTop.add(kitchenBtn);
+        rightTop.add(inventoryBtn);
+        rightTop.add(diagnosticsBtn);
         rightTop.add(orderHistoryBtn);
         rightTop.add(manageMenuBtn);
         topPanel.add(rightTop, BorderLayout.EAST);
@@ -163,6 +196,7 @@ public class DonutShopApp {
         rightPanel.add(orderLabel, BorderLayout.NORTH);
 
         JTable orderTable = new JTable(orderTableModel);
+        orderTable.setDefaultRenderer(Long.class, new OrderTableModel.CentsRenderer());
         orderTable.setFillsViewportHeight(true);
         orderTable.setRowHeight(22);
         JScrollPane orderScroll = new JScrollPane(orderTable);
@@ -172,11 +206,14 @@ public class DonutShopApp {
         summaryPanel.setLayout(new BoxLayout(summaryPanel, BoxLayout.Y_AXIS));
         summaryPanel.setBorder(new EmptyBorder(8, 8, 8, 8));
         subtotalLabel.setAlignmentX(Component.RIGHT_ALIGNMENT);
+        discountLabel.setAlignmentX(Component.RIGHT_ALIGNMENT);
         taxLabel.setAlignmentX(Component.RIGHT_ALIGNMENT);
         totalLabel.setAlignmentX(Component.RIGHT_ALIGNMENT);
         summaryPanel.add(Box.createVerticalGlue());
         summaryPanel.add(subtotalLabel);
         summaryPanel.add(Box.createRigidArea(new Dimension(0,4)));
+        summaryPanel.add(discountLabel);
+        summaryPanel.add(Box.createRigidArea(new Dimension(0,4)));
         summaryPanel.add(taxLabel);
         summaryPanel.add(Box.createRigidArea(new Dimension(0,6)));
         summaryPanel.add(totalLabel);
@@ -194,41 +231,47 @@ public class DonutShopApp {
         rightPanel.add(rightBottom, BorderLayout.SOUTH);
         frame.add(rightPanel, BorderLayout.EAST);
 
-        // load menu from DB (or seed if empty)
-        try {
-            itemMap = DatabaseManager.loadMenuItems();
-            if (itemMap.isEmpty()) {
-                seedDefaultMenu();
-                itemMap = DatabaseManager.loadMenuItems();
-            }
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(frame, "Failed to load menu: " + ex.getMessage(), "DB Error", JOptionPane.ERROR_MESSAGE);
-        }
-
-        // refresh menu runnable
-        Runnable refreshMenu = () -> {
-            String selectedCategory = (String) categoryBox.getSelectedItem();
-            String q = searchField.getText().trim().toLowerCase();
-            DefaultListModel<String> model = (DefaultListModel<String>) menuList.getModel();
-            model.clear();
-            for (Map.Entry<String, DatabaseManager.MenuItem> e : itemMap.entrySet()) {
-                String name = e.getKey();
-                DatabaseManager.MenuItem mi = e.getValue();
-                String cat = mi.category == null ? "All" : mi.category;
-                boolean catMatch = "All".equals(selectedCategory) || selectedCategory.equalsIgnoreCase(cat);
-                boolean searchMatch = q.isEmpty() || name.toLowerCase().contains(q);
-                if (catMatch && searchMatch) {
-                    model.addElement(String.format("%s — %s", name, money.format(mi.price)));
-                }
+        // menu filtering: searched off the EDT once typing pauses, then only the rows that changed are applied
+        menuSearch = MenuSearchPipeline.fromSystemProperties(menuModel, () -> (String) categoryBox.getSelectedItem(),
+                searchField::getText, () -> { if (!menuModel.isEmpty()) menuList.setSelectedIndex(0); });
+        menuSearch.setSelection(menuList.getSelectionModel());
+
+        setMenu(Collections.emptyList());
+        // menu edits and the clock (promotion hours) both call for compiling the promotions again;
+        // a burst of menu edits compiles once
+        promotionCompile = new javax.swing.Timer(200, e -> compilePromotions());
+        promotionCompile.setRepeats(false);
+        new javax.swing.Timer(30_000, e -> {
+            if (promotionEngine != null && !promotionEngine.sameActiveAt(LocalDateTime.now())) compilePromotions();
+        }).start();
+        menuCache.addListener(change -> SwingUtilities.invokeLater(() -> applyMenuChange(change)));
+
+        // open the database, then load the menu (or seed it if empty) in the background;
+        // the list fills in when the cache publishes it
+        db.submit(() -> {
+            store.open();
+            StartupTrace.mark("schema-ready");
+            store.addOrderListener(kitchen);
+            inventory.open();
+            try {
+                promotions = Promotion.fromSystemProperties();
+            } catch (Exception ex) {
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(frame, "Promotions not loaded: " + ex.getMessage(),
+                        "Promotions", JOptionPane.WARNING_MESSAGE));
             }
-            if (!model.isEmpty()) menuList.setSelectedIndex(0);
-        };
-
-        refreshMenu.run();
+            orderIndex = OrderSearchIndex.buildInBackground(store);
+            menuCache.reload(defaultMenu());
+            return null;
+        }, ignored -> startupPhaseDone(StartupTrace.MENU_READY), ex -> JOptionPane.showMessageDialog(frame, "Failed to load menu: " + ex.getMessage(), "DB Error", JOptionPane.ERROR_MESSAGE));
+        frame.addWindowListener(new WindowAdapter() {
+            @Override public void windowOpened(WindowEvent e) { startupPhaseDone(StartupTrace.FIRST_FRAME); }
+            // runs before EXIT_ON_CLOSE exits: flush queued orders and release the store
+            @Override public void windowClosing(WindowEvent e) { closeStore(); }
+        });
 
-        categoryBox.addActionListener(e -> refreshMenu.run());
+        categoryBox.addActionListener(e -> menuSearch.refreshNow());
         searchField.getDocument().addDocumentListener(new DocumentListener() {
-            void upd(){ refreshMenu.run(); }
+            void upd(){ menuSearch.requestRefresh(); }
             public void insertUpdate(DocumentEvent e){ upd(); }
             public void removeUpdate(DocumentEvent e){ upd(); }
             public void changedUpdate(DocumentEvent e){ upd(); }
@@ -237,8 +280,9 @@ public class DonutShopApp {
         menuList.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
                 String selected = getSelectedItemName();
-                if (selected != null && itemMap.containsKey(selected)) {
-                    unitPriceLabel.setText("Unit: " + money.format(itemMap.get(selected).price));
+                DatabaseManager.MenuItem mi = menuCache.byName(selected);
+                if (mi != null) {
+                    unitPriceLabel.setText("Unit: " + Money.format(mi.priceCents));
                 } else {
                     unitPriceLabel.setText("Unit: $0.00");
                 }
@@ -248,35 +292,54 @@ public class DonutShopApp {
         addToOrderBtn.addActionListener(e -> addSelectedToOrder());
         menuList.addMouseListener(new MouseAdapter() { public void mouseClicked(MouseEvent e) { if (e.getClickCount()==2) addSelectedToOrder(); } });
 
-        clearButton.addActionListener(e -> { orderTableModel.setRowCount(0); updateTotals(); });
+        clearButton.addActionListener(e -> {
+            if (cartLocked()) return;
+            releaseOrder();
+            orderTableModel.clear();
+            updateTotals();
+        });
 
         checkoutButton.addActionListener(e -> {
             if (orderTableModel.getRowCount() == 0) {
                 JOptionPane.showMessageDialog(frame, "No items selected.");
                 return;
             }
-            double subtotal = computeSubtotal();
-            double tax = subtotal * TAX_RATE;
-            double grand = subtotal + tax;
+            long subtotal = computeSubtotal();
+            long tax = SALES_TAX.taxOn(subtotal);
+            long grand = Money.plus(subtotal, tax);
 
-            String itemsStr = buildItemsStringFromTable();
+            List<DatabaseManager.OrderLine> lines = orderTableModel.orderLines();
 
-            String message = String.format("Subtotal: %s\nTax (6%%): %s\nTotal Due: %s\n\nProceed to checkout?",
-                    money.format(subtotal), money.format(tax), money.format(grand));
+            long discount = orderTableModel.discountCents();
+            String message = String.format("Subtotal: %s\n%sTax (%s): %s\nTotal Due: %s\n\nProceed to checkout?",
+                    Money.format(orderTableModel.subtotalCents()), discount > 0 ? "Promotions: -" + Money.format(discount) + "\n" : "",
+                    SALES_TAX.percentLabel(), Money.format(tax), Money.format(grand));
             int choice = JOptionPane.showConfirmDialog(frame, message, "Confirm Checkout", JOptionPane.YES_NO_OPTION);
             if (choice == JOptionPane.YES_OPTION) {
-                try {
-                    int txId = DatabaseManager.saveOrder(itemsStr, subtotal, tax, grand);
+                // the order is written by the background writer; never wait for the commit on the EDT.
+                // ui.checkout times confirm-to-acknowledged, as the cashier sees it
+                long t0 = System.nanoTime();
+                checkoutButton.setEnabled(false);
+                setCheckoutPending(true, addToOrderBtn, clearButton);
+                CompletableFuture<Integer> saved = db.submit(() -> store.saveOrderAsync(lines, subtotal, tax, grand, discount))
+                        .thenCompose(f -> db.track(f));
+                AsyncDb.onEdt(saved, txId -> {
+                    CHECKOUT.recordSince(t0);
+                    checkoutButton.setEnabled(true);
+                    setCheckoutPending(false, addToOrderBtn, clearButton);
                     if (txId > 0) {
-                        JOptionPane.showMessageDialog(frame, "Checkout complete!\nTransaction ID: " + txId + "\nAmount: " + money.format(grand));
-                        orderTableModel.setRowCount(0);
+                        JOptionPane.showMessageDialog(frame, "Checkout complete!\nTransaction ID: " + txId + "\nAmount: " + Money.format(grand));
+                        orderTableModel.clear();
                         updateTotals();
                     } else {
                         JOptionPane.showMessageDialog(frame, "Failed to save order to DB.", "DB Error", JOptionPane.ERROR_MESSAGE);
                     }
-                } catch (Exception ex) {
+                }, ex -> {
+                    CHECKOUT.recordSince(t0);
+                    checkoutButton.setEnabled(true);
+                    setCheckoutPending(false, addToOrderBtn, clearButton);
                     JOptionPane.showMessageDialog(frame, "Failed to save order: " + ex.getMessage(), "DB Error", JOptionPane.ERROR_MESSAGE);
-                }
+                });
             }
         });
 
@@ -297,7 +360,7 @@ public class DonutShopApp {
                     JMenuItem remove = new JMenuItem("Remove");
                     remove.addActionListener(a -> {
                         int sel = orderTable.getSelectedRow();
-                        if (sel >= 0) { orderTableModel.removeRow(sel); updateTotals(); }
+                        if (sel >= 0 && !cartLocked()) { releaseLine(orderTableModel.line(sel), orderTableModel.line(sel).qty()); orderTableModel.remove(sel); updateTotals(); }
                     });
                     popup.add(remove);
                     popup.show(orderTable, e.getX(), e.getY());
@@ -308,32 +371,122 @@ public class DonutShopApp {
 
     private void show() { frame.setVisible(true); }
 
-    private void seedDefaultMenu() {
+    // startup tracing; with -Doakdonuts.exitAfterStartup=true the app quits once traced (see bench/StartupBenchmark)
+    private void startupPhaseDone(String phase) {
+        StartupTrace.mark(phase);
+        if (StartupTrace.reportIfComplete() && Boolean.getBoolean("oakdonuts.exitAfterStartup")) {
+            closeStore();
+            frame.dispose();
+            System.exit(0);
+        }
+    }
+
+    private void closeStore() {
+        // units held by an order that was never checked out go back before the last flush. A cart
+        // whose checkout is still saving keeps them: the order may be stored as sold already
+        if (!checkoutPending) releaseOrder();
+        try {
+            inventory.close();
+        } catch (Exception ex) {
+            System.err.println("Failed to save inventory: " + ex.getMessage());
+        }
+        db.shutdown();
         try {
-            DatabaseManager.addMenuItem("Glazed Donut", "Donuts", 1.49);
-            DatabaseManager.addMenuItem("Chocolate Sprinkle Donut", "Donuts", 1.79);
-            DatabaseManager.addMenuItem("Boston Creme Donut", "Donuts", 1.99);
-            DatabaseManager.addMenuItem("Iced Coffee", "Drinks", 2.00);
-            DatabaseManager.addMenuItem("Latte", "Drinks", 3.00);
-            DatabaseManager.addMenuItem("Tomato & Mozzarella Sandwich", "Sandwiches", 4.50);
-            itemMap = DatabaseManager.loadMenuItems();
+            store.close();
         } catch (Exception ex) {
-            JOptionPane.showMessageDialog(frame, "Failed seeding menu: " + ex.getMessage(), "DB Error", JOptionPane.ERROR_MESSAGE);
+            System.err.println("Failed to close store: " + ex.getMessage());
+        }
+    }
+
+    // swap in a freshly loaded menu, rebuild the search index over it and refresh the list
+    private void setMenu(List<DatabaseManager.MenuItem> menu) {
+        menuSlots.clear();
+        for (int i = 0; i < menu.size(); i++) menuSlots.put(menu.get(i).id, i);
+        menuSearch.setCatalog(new MenuCatalog<>(menu, mi -> mi.name, mi -> mi.category,
+                mi -> String.format("%s — %s", mi.name, Money.format(mi.priceCents))));
+    }
+
+    // a menu edit: patch the one catalog entry and list row it touches (EDT)
+    private void applyMenuChange(MenuCache.Change change) {
+        switch (change.kind) {
+            case RELOADED:
+                setMenu(change.menu);
+                break;
+            case ADDED:
+            case UPDATED:
+                Integer slot = menuSlots.get(change.after.id);
+                if (slot == null) {
+                    slot = menuSearch.catalog().size();
+                    menuSlots.put(change.after.id, slot);
+                }
+                menuSearch.applyChange(slot, change.after);
+                break;
+            case REMOVED:
+                Integer removed = menuSlots.remove(change.before.id);
+                if (removed != null) menuSearch.applyChange(removed, null);
+                break;
         }
+        promotionCompile.restart();
+    }
+
+    // compile the promotions against the current menu and reprice the open order with them (EDT)
+    private void compilePromotions() {
+        promotionEngine = PromotionEngine.compile(promotions, menuCache.items(), LocalDateTime.now());
+        orderTableModel.setPromotions(promotionEngine);
+        updateTotals();
+    }
+
+    // the menu a new shop starts with
+    static List<DatabaseManager.MenuItem> defaultMenu() {
+        return Arrays.asList(
+                new DatabaseManager.MenuItem(0, "Glazed Donut", "Donuts", 149),
+                new DatabaseManager.MenuItem(0, "Chocolate Sprinkle Donut", "Donuts", 179),
+                new DatabaseManager.MenuItem(0, "Boston Creme Donut", "Donuts", 199),
+                new DatabaseManager.MenuItem(0, "Iced Coffee", "Drinks", 200),
+                new DatabaseManager.MenuItem(0, "Latte", "Drinks", 300),
+                new DatabaseManager.MenuItem(0, "Tomato & Mozzarella Sandwich", "Sandwiches", 450));
     }
 
     private void openManageMenuDialog() {
         JDialog dlg = new JDialog(frame, "Manage Menu", true);
-        dlg.setSize(700, 420);
+        dlg.setSize(700, 460);
         dlg.setLocationRelativeTo(frame);
         dlg.setLayout(new BorderLayout());
 
+        // rows holds the listed items in id order, next to the list model; menu change events
+        // patch both one row at a time (events at or below the snapshot's version are already in it)
+        long snapshot = menuCache.version();
+        List<DatabaseManager.MenuItem> rows = menuCache.items();
         DefaultListModel<String> model = new DefaultListModel<>();
-        for (DatabaseManager.MenuItem mi : itemMap.values())
-            model.addElement(String.format("%d: %s — %s", mi.id, mi.name, money.format(mi.price)));
+        for (DatabaseManager.MenuItem mi : rows) model.addElement(manageMenuRow(mi));
         JList<String> list = new JList<>(model);
         list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         dlg.add(new JScrollPane(list), BorderLayout.CENTER);
+        MenuCache.Listener follow = change -> SwingUtilities.invokeLater(() -> {
+            if (change.version <= snapshot) return;
+            if (change.kind == MenuCache.Kind.RELOADED) {
+                rows.clear();
+                rows.addAll(change.menu);
+                model.clear();
+                for (DatabaseManager.MenuItem mi : rows) model.addElement(manageMenuRow(mi));
+                return;
+            }
+            DatabaseManager.MenuItem mi = change.after != null ? change.after : change.before;
+            int row = rowOfMenuItem(rows, mi.id);
+            if (change.kind == MenuCache.Kind.REMOVED) {
+                if (row >= 0) {
+                    rows.remove(row);
+                    model.remove(row);
+                }
+            } else if (row >= 0) {
+                rows.set(row, mi);
+                model.set(row, manageMenuRow(mi));
+            } else {
+                rows.add(-row - 1, mi);
+                model.add(-row - 1, manageMenuRow(mi));
+            }
+        });
+        menuCache.addListener(follow);
 
         JPanel right = new JPanel();
         right.setLayout(new BoxLayout(right, BoxLayout.Y_AXIS));
@@ -361,28 +514,24 @@ public class DonutShopApp {
         btnRow.add(deleteBtn);
         right.add(btnRow);
 
+        // whole menus at once, from and to CSV or JSON (see MenuFile)
+        JButton importBtn = new JButton("Import...");
+        JButton exportBtn = new JButton("Export...");
+        JPanel fileRow = new JPanel(new FlowLayout());
+        fileRow.add(importBtn);
+        fileRow.add(exportBtn);
+        right.add(fileRow);
+
         dlg.add(right, BorderLayout.EAST);
 
         list.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
-                String sel = list.getSelectedValue();
-                if (sel != null) {
-                    int colon = sel.indexOf(':');
-                    int dash = sel.indexOf('—');
-                    if (colon >= 0 && dash > colon) {
-                        String idStr = sel.substring(0, colon).trim();
-                        try {
-                            int id = Integer.parseInt(idStr);
-                            DatabaseManager.MenuItem mi = null;
-                            for (DatabaseManager.MenuItem m : itemMap.values())
-                                if (m.id == id) mi = m;
-                            if (mi != null) {
-                                nameField.setText(mi.name);
-                                categoryField.setText(mi.category);
-                                priceField.setText(String.valueOf(mi.price));
-                            }
-                        } catch (Exception ignore) {}
-                    }
+                int row = list.getSelectedIndex();
+                if (row >= 0) {
+                    DatabaseManager.MenuItem mi = rows.get(row);
+                    nameField.setText(mi.name);
+                    categoryField.setText(mi.category);
+                    priceField.setText(Money.toPlainString(mi.priceCents));
                 }
             }
         });
@@ -392,124 +541,264 @@ public class DonutShopApp {
             String cat = categoryField.getText().trim();
             String priceS = priceField.getText().trim();
             if (name.isEmpty() || priceS.isEmpty()) { JOptionPane.showMessageDialog(dlg, "Name and price required."); return; }
+            long p;
             try {
-                double p = Double.parseDouble(priceS);
-                int newId = DatabaseManager.addMenuItem(name, cat.isEmpty() ? "Donuts" : cat, p);
+                p = Money.parse(priceS);
+            } catch (NumberFormatException nfe) {
+                JOptionPane.showMessageDialog(dlg, "Invalid price.");
+                return;
+            }
+            addBtn.setEnabled(false);
+            db.submit(() -> menuCache.add(name, cat.isEmpty() ? "Donuts" : cat, p), newId -> {
+                addBtn.setEnabled(true);
                 if (newId > 0) {
-                    DatabaseManager.MenuItem mi = new DatabaseManager.MenuItem(newId, name, cat, p);
-                    itemMap.put(name, mi);
-                    model.addElement(String.format("%d: %s — %s", mi.id, mi.name, money.format(mi.price)));
                     JOptionPane.showMessageDialog(dlg, "Added.");
                 } else {
                     JOptionPane.showMessageDialog(dlg, "Failed to add item.", "DB Error", JOptionPane.ERROR_MESSAGE);
                 }
-            } catch (NumberFormatException nfe) {
-                JOptionPane.showMessageDialog(dlg, "Invalid price.");
-            } catch (Exception ex) {
+            }, ex -> {
+                addBtn.setEnabled(true);
                 JOptionPane.showMessageDialog(dlg, "Error adding item: " + ex.getMessage(), "DB Error", JOptionPane.ERROR_MESSAGE);
-            }
+            });
         });
 
         updateBtn.addActionListener(e -> {
-            String sel = list.getSelectedValue();
-            if (sel == null) { JOptionPane.showMessageDialog(dlg, "Select an item to update."); return; }
-            int colon = sel.indexOf(':');
-            if (colon < 0) return;
+            int row = list.getSelectedIndex();
+            if (row < 0) { JOptionPane.showMessageDialog(dlg, "Select an item to update."); return; }
+            int id = rows.get(row).id;
+            long p;
+            String name = nameField.getText().trim();
+            String cat = categoryField.getText().trim();
             try {
-                int id = Integer.parseInt(sel.substring(0, colon).trim());
-                String name = nameField.getText().trim();
-                String cat = categoryField.getText().trim();
-                double p = Double.parseDouble(priceField.getText().trim());
-                boolean ok = DatabaseManager.updateMenuItem(id, name, cat, p);
+                p = Money.parse(priceField.getText().trim());
+            } catch (Exception ex) {
+                JOptionPane.showMessageDialog(dlg, "Error updating: " + ex.getMessage(), "DB Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            updateBtn.setEnabled(false);
+            db.submit(() -> menuCache.update(id, name, cat, p), ok -> {
+                updateBtn.setEnabled(true);
                 if (ok) {
-                    DatabaseManager.MenuItem toRemove = null;
-                    for (DatabaseManager.MenuItem m : itemMap.values()) if (m.id == id) { toRemove = m; break; }
-                    if (toRemove != null) itemMap.remove(toRemove.name);
-                    DatabaseManager.MenuItem updated = new DatabaseManager.MenuItem(id, name, cat, p);
-                    itemMap.put(name, updated);
-                    model.clear();
-                    for (DatabaseManager.MenuItem mi : itemMap.values()) model.addElement(String.format("%d: %s — %s", mi.id, mi.name, money.format(mi.price)));
                     JOptionPane.showMessageDialog(dlg, "Updated.");
                 } else {
                     JOptionPane.showMessageDialog(dlg, "Failed to update.", "DB Error", JOptionPane.ERROR_MESSAGE);
                 }
-            } catch (Exception ex) {
+            }, ex -> {
+                updateBtn.setEnabled(true);
                 JOptionPane.showMessageDialog(dlg, "Error updating: " + ex.getMessage(), "DB Error", JOptionPane.ERROR_MESSAGE);
-            }
+            });
         });
 
         deleteBtn.addActionListener(e -> {
-            String sel = list.getSelectedValue();
-            if (sel == null) { JOptionPane.showMessageDialog(dlg, "Select an item to delete."); return; }
-            int colon = sel.indexOf(':');
-            if (colon < 0) return;
-            try {
-                int id = Integer.parseInt(sel.substring(0, colon).trim());
-                int confirm = JOptionPane.showConfirmDialog(dlg, "Delete this item?", "Confirm", JOptionPane.YES_NO_OPTION);
-                if (confirm == JOptionPane.YES_OPTION) {
-                    boolean ok = DatabaseManager.deleteMenuItem(id);
-                    if (ok) {
-                        DatabaseManager.MenuItem toRemove = null;
-                        for (DatabaseManager.MenuItem m : itemMap.values()) if (m.id == id) { toRemove = m; break; }
-                        if (toRemove != null) itemMap.remove(toRemove.name);
-                        model.clear();
-                        for (DatabaseManager.MenuItem mi : itemMap.values()) model.addElement(String.format("%d: %s — %s", mi.id, mi.name, money.format(mi.price)));
-                        JOptionPane.showMessageDialog(dlg, "Deleted.");
-                    } else {
-                        JOptionPane.showMessageDialog(dlg, "Failed to delete.", "DB Error", JOptionPane.ERROR_MESSAGE);
-                    }
+            int row = list.getSelectedIndex();
+            if (row < 0) { JOptionPane.showMessageDialog(dlg, "Select an item to delete."); return; }
+            int id = rows.get(row).id;
+            int confirm = JOptionPane.showConfirmDialog(dlg, "Delete this item?", "Confirm", JOptionPane.YES_NO_OPTION);
+            if (confirm != JOptionPane.YES_OPTION) return;
+            deleteBtn.setEnabled(false);
+            db.submit(() -> menuCache.delete(id), ok -> {
+                deleteBtn.setEnabled(true);
+                if (ok) {
+                    JOptionPane.showMessageDialog(dlg, "Deleted.");
+                } else {
+                    JOptionPane.showMessageDialog(dlg, "Failed to delete.", "DB Error", JOptionPane.ERROR_MESSAGE);
                 }
-            } catch (Exception ex) {
+            }, ex -> {
+                deleteBtn.setEnabled(true);
                 JOptionPane.showMessageDialog(dlg, "Error deleting: " + ex.getMessage(), "DB Error", JOptionPane.ERROR_MESSAGE);
-            }
+            });
+        });
+
+        importBtn.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setDialogTitle("Import menu items (.csv, .json)");
+            if (chooser.showOpenDialog(dlg) != JFileChooser.APPROVE_OPTION) return;
+            java.nio.file.Path file = chooser.getSelectedFile().toPath();
+            importBtn.setEnabled(false);
+            db.submit(() -> MenuFile.importFile(menuCache, file), summary -> {
+                importBtn.setEnabled(true);
+                JOptionPane.showMessageDialog(dlg, String.format("Imported %,d items from %s (%,d added, %,d updated) in %.1f s: %.1f s reading, %.1f s saving.",
+                        summary.items, file.getFileName(), summary.added, summary.updated, (summary.readNanos + summary.storeNanos) / 1e9,
+                        summary.readNanos / 1e9, summary.storeNanos / 1e9));
+            }, ex -> {
+                importBtn.setEnabled(true);
+                JOptionPane.showMessageDialog(dlg, "Import failed: " + ex.getMessage(), "Import Error", JOptionPane.ERROR_MESSAGE);
+            });
+        });
+
+        exportBtn.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setSelectedFile(new java.io.File("menu-" + java.time.LocalDate.now() + ".csv"));
+            chooser.setDialogTitle("Export menu items (.csv, .json)");
+            if (chooser.showSaveDialog(dlg) != JFileChooser.APPROVE_OPTION) return;
+            java.nio.file.Path file = chooser.getSelectedFile().toPath();
+            List<DatabaseManager.MenuItem> items = menuCache.items();
+            exportBtn.setEnabled(false);
+            db.submit(() -> MenuFile.export(items, file), count -> {
+                exportBtn.setEnabled(true);
+                JOptionPane.showMessageDialog(dlg, String.format("Exported %,d items to %s.", count, file.getFileName()));
+            }, ex -> {
+                exportBtn.setEnabled(true);
+                JOptionPane.showMessageDialog(dlg, "Export failed: " + ex.getMessage(), "Export Error", JOptionPane.ERROR_MESSAGE);
+            });
         });
 
         dlg.setVisible(true);
-        try { itemMap = DatabaseManager.loadMenuItems(); } catch (Exception ex) { JOptionPane.showMessageDialog(frame, "Failed to refresh menu after manage: " + ex.getMessage(), "DB Error", JOptionPane.ERROR_MESSAGE); }
+        menuCache.removeListener(follow);
+    }
+
+    private static String manageMenuRow(DatabaseManager.MenuItem mi) {
+        return String.format("%d: %s — %s", mi.id, mi.name, Money.format(mi.priceCents));
+    }
+
+    // index of the item with this id in rows (sorted by id), or -(insertion point) - 1
+    private static int rowOfMenuItem(List<DatabaseManager.MenuItem> rows, int id) {
+        int lo = 0, hi = rows.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int midId = rows.get(mid).id;
+            if (midId < id) lo = mid + 1;
+            else if (midId > id) hi = mid - 1;
+            else return mid;
+        }
+        return -lo - 1;
     }
 
     private void openOrderHistoryDialog() {
         JDialog dlg = new JDialog(frame, "Order History", true);
-        dlg.setSize(900, 450);
+        dlg.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        dlg.setSize(1150, 450);
         dlg.setLocationRelativeTo(frame);
         dlg.setLayout(new BorderLayout());
 
-        DefaultTableModel model = new DefaultTableModel(new Object[]{"Transaction ID", "Date", "Items", "Subtotal", "Tax", "Total"}, 0) {
-            @Override public boolean isCellEditable(int row, int col) { return false; }
-        };
+        // rows are fetched page by page as the table scrolls; no row sorter, since sorting
+        // would force every order to be loaded (the list is already newest first)
+        PagedTableModel<DatabaseManager.OrderRow> model = new PagedTableModel<>(
+                new String[]{"Transaction ID", "Date", "Items", "Subtotal", "Tax", "Total"},
+                (o, col) -> {
+                    switch (col) {
+                        case 0: return o.transactionId;
+                        case 1: return o.orderDate.toString();
+                        case 2: return o.items;
+                        case 3: return Money.format(o.subtotalCents);
+                        case 4: return Money.format(o.taxCents);
+                        default: return Money.format(o.totalCents);
+                    }
+                },
+                o -> o.transactionId, HISTORY_PAGE_SIZE, 8, db);
+        model.setOnLoadError(ex -> JOptionPane.showMessageDialog(dlg, "Failed to load orders: " + ex.getMessage(), "DB Error", JOptionPane.ERROR_MESSAGE));
         JTable table = new JTable(model);
-        table.setAutoCreateRowSorter(true);
         table.setFillsViewportHeight(true);
         JScrollPane scroll = new JScrollPane(table);
         dlg.add(scroll, BorderLayout.CENTER);
 
+        // optional search and date range filter (inclusive days)
+        JPanel filterRow = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JTextField searchField = new JTextField(24);
+        searchField.setToolTipText("<html>Item words, one order line per ';' &nbsp; e.g. <b>boston creme filling:jam time:7-9 days:7 total&gt;20</b><br>"
+                + "Filters: icing:x filling:x time:7-9 today yesterday days:N from:yyyy-mm-dd to:yyyy-mm-dd total&gt;20 total:10-20</html>");
+        JTextField fromField = new JTextField(10);
+        JTextField toField = new JTextField(10);
+        JButton applyBtn = new JButton("Apply");
+        JLabel searchStatus = new JLabel();
+        filterRow.add(new JLabel("Search:"));
+        filterRow.add(searchField);
+        filterRow.add(new JLabel("From (yyyy-mm-dd):"));
+        filterRow.add(fromField);
+        filterRow.add(new JLabel("To:"));
+        filterRow.add(toField);
+        filterRow.add(applyBtn);
+        filterRow.add(searchStatus);
+        dlg.add(filterRow, BorderLayout.NORTH);
+
         Runnable loadOrders = () -> {
-            model.setRowCount(0);
             try {
-                List<DatabaseManager.OrderRow> orders = DatabaseManager.loadOrders();
-                for (DatabaseManager.OrderRow o : orders) {
-                    model.addRow(new Object[]{o.transactionId, o.orderDate.toString(), o.items, money.format(o.subtotal), money.format(o.tax), money.format(o.total)});
+                java.sql.Timestamp from = startOfDay(fromField, 0);
+                java.sql.Timestamp to = startOfDay(toField, 1);
+                OrderSearchIndex index = orderIndex;
+                String text = searchField.getText().trim();
+                if (!text.isEmpty() && index != null) {
+                    model.setSource(new SearchResults(index, OrderSearchIndex.Query.parse(text).between(from, to), store, searchStatus));
+                    return;
                 }
+                searchStatus.setText(text.isEmpty() ? "" : "Order search is not available yet");
+                model.setSource(new PagedTableModel.Source<DatabaseManager.OrderRow>() {
+                    public int count() throws Exception { return store.countOrders(from, to); }
+                    public List<DatabaseManager.OrderRow> pageBefore(int beforeKey, int limit) throws Exception { return store.loadOrdersBefore(beforeKey, limit, from, to); }
+                    public int keyAt(int offset) throws Exception { return store.loadOrderIdAt(offset, from, to); }
+                });
+            } catch (java.time.format.DateTimeParseException ex) {
+                JOptionPane.showMessageDialog(dlg, "Dates must look like 2025-11-15.", "Invalid date", JOptionPane.ERROR_MESSAGE);
+            } catch (IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(dlg, ex.getMessage(), "Invalid search", JOptionPane.ERROR_MESSAGE);
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(dlg, "Failed to load orders: " + ex.getMessage(), "DB Error", JOptionPane.ERROR_MESSAGE);
             }
         };
         loadOrders.run();
+        applyBtn.addActionListener(e -> loadOrders.run());
+        searchField.addActionListener(e -> loadOrders.run());
 
         JPanel bottom = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JButton salesBtn = new JButton("Sales Report...");
+        JButton exportBtn = new JButton("Export...");
         JButton editBtn = new JButton("Edit");
         JButton delBtn = new JButton("Delete");
         JButton closeBtn = new JButton("Close");
+        bottom.add(salesBtn);
+        bottom.add(exportBtn);
         bottom.add(editBtn);
         bottom.add(delBtn);
         bottom.add(closeBtn);
         dlg.add(bottom, BorderLayout.SOUTH);
 
+        // sales for the date range (the last 7 days when it is empty; the search does not apply)
+        salesBtn.addActionListener(e -> {
+            java.time.LocalDate from, to;
+            try {
+                String f = fromField.getText().trim(), t = toField.getText().trim();
+                to = t.isEmpty() ? java.time.LocalDate.now().plusDays(1) : java.time.LocalDate.parse(t).plusDays(1);
+                from = f.isEmpty() ? to.minusDays(7) : java.time.LocalDate.parse(f);
+            } catch (java.time.format.DateTimeParseException ex) {
+                JOptionPane.showMessageDialog(dlg, "Dates must look like 2025-11-15.", "Invalid date", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            openSalesReport(dlg, from, to);
+        });
+
+        // export the orders in the date range (the search does not apply): CSV, or columnar for
+        // analytics when the name ends in .oakc; a .gz suffix compresses either
+        exportBtn.addActionListener(e -> {
+            java.sql.Timestamp from, to;
+            try {
+                from = startOfDay(fromField, 0);
+                to = startOfDay(toField, 1);
+            } catch (java.time.format.DateTimeParseException ex) {
+                JOptionPane.showMessageDialog(dlg, "Dates must look like 2025-11-15.", "Invalid date", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            JFileChooser chooser = new JFileChooser();
+            chooser.setSelectedFile(new java.io.File("orders-" + java.time.LocalDate.now() + ".csv"));
+            chooser.setDialogTitle("Export orders (.csv, .csv.gz, .oakc, .oakc.gz)");
+            if (chooser.showSaveDialog(dlg) != JFileChooser.APPROVE_OPTION) return;
+            java.nio.file.Path file = chooser.getSelectedFile().toPath();
+            exportBtn.setEnabled(false);
+            db.submit(() -> OrderExporter.export(store, from, to, file), summary -> {
+                exportBtn.setEnabled(true);
+                JOptionPane.showMessageDialog(dlg, String.format("Exported %,d orders (%,d KB) to %s in %.1f s.", summary.orders,
+                        summary.bytes / 1024, file.getFileName(), summary.nanos / 1e9));
+            }, ex -> {
+                exportBtn.setEnabled(true);
+                JOptionPane.showMessageDialog(dlg, "Export failed: " + ex.getMessage(), "Export Error", JOptionPane.ERROR_MESSAGE);
+            });
+        });
+
         // edit selected order
         editBtn.addActionListener(e -> {
             int sel = table.getSelectedRow();
             if (sel < 0) { JOptionPane.showMessageDialog(dlg, "Select an order to edit."); return; }
             int modelIndex = table.convertRowIndexToModel(sel);
+            if (model.getRow(modelIndex) == null) return;   // page still loading
             int txId = (Integer) model.getValueAt(modelIndex, 0);
             String dateStr = (String) model.getValueAt(modelIndex, 1);
             String items = (String) model.getValueAt(modelIndex, 2);
@@ -559,15 +848,22 @@ public class DonutShopApp {
                 String sSub = subtField.getText().trim();
                 String sTax = taxField.getText().trim();
                 String sTotal = totalField.getText().trim();
+                long newSub, newTax, newTotal;
                 try {
-                    double newSub = parseCurrencyOrNumber(sSub);
-                    double newTax = parseCurrencyOrNumber(sTax);
-                    double newTotal = parseCurrencyOrNumber(sTotal);
-                    if (Math.abs((newSub + newTax) - newTotal) > 0.5) {
-                        int ok = JOptionPane.showConfirmDialog(editDlg, "Subtotal + Tax does not equal Total. Save anyway?", "Validation", JOptionPane.YES_NO_OPTION);
-                        if (ok != JOptionPane.YES_OPTION) return;
-                    }
-                    boolean updated = DatabaseManager.updateOrder(txId, newItems, newSub, newTax, newTotal);
+                    newSub = Money.parse(sSub);
+                    newTax = Money.parse(sTax);
+                    newTotal = Money.parse(sTotal);
+                } catch (NumberFormatException | ArithmeticException ex) {
+                    JOptionPane.showMessageDialog(editDlg, "Invalid numeric values: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                if (newSub + newTax != newTotal) {
+                    int ok = JOptionPane.showConfirmDialog(editDlg, "Subtotal + Tax does not equal Total. Save anyway?", "Validation", JOptionPane.YES_NO_OPTION);
+                    if (ok != JOptionPane.YES_OPTION) return;
+                }
+                saveBtn.setEnabled(false);
+                db.submit(() -> store.updateOrder(txId, newItems, newSub, newTax, newTotal), updated -> {
+                    saveBtn.setEnabled(true);
                     if (updated) {
                         JOptionPane.showMessageDialog(editDlg, "Order updated.");
                         editDlg.dispose();
@@ -575,9 +871,10 @@ public class DonutShopApp {
                     } else {
                         JOptionPane.showMessageDialog(editDlg, "Failed to update order.", "DB Error", JOptionPane.ERROR_MESSAGE);
                     }
-                } catch (Exception ex) {
-                    JOptionPane.showMessageDialog(editDlg, "Invalid numeric values: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-                }
+                }, ex -> {
+                    saveBtn.setEnabled(true);
+                    JOptionPane.showMessageDialog(editDlg, "Failed to update order: " + ex.getMessage(), "DB Error", JOptionPane.ERROR_MESSAGE);
+                });
             });
 
             cancelBtn.addActionListener(a -> editDlg.dispose());
@@ -590,32 +887,286 @@ public class DonutShopApp {
             int sel = table.getSelectedRow();
             if (sel < 0) { JOptionPane.showMessageDialog(dlg, "Select an order to delete."); return; }
             int modelIndex = table.convertRowIndexToModel(sel);
+            if (model.getRow(modelIndex) == null) return;   // page still loading
             int txId = (Integer) model.getValueAt(modelIndex, 0);
             int confirm = JOptionPane.showConfirmDialog(dlg, "Delete order #" + txId + " ? This cannot be undone.", "Confirm Delete", JOptionPane.YES_NO_OPTION);
             if (confirm == JOptionPane.YES_OPTION) {
-                try {
-                    boolean ok = DatabaseManager.deleteOrder(txId);
+                db.submit(() -> store.deleteOrder(txId), ok -> {
                     if (ok) {
                         JOptionPane.showMessageDialog(dlg, "Deleted order #" + txId);
                         loadOrders.run();
                     } else {
                         JOptionPane.showMessageDialog(dlg, "Failed to delete order.", "DB Error", JOptionPane.ERROR_MESSAGE);
                     }
-                } catch (Exception ex) {
-                    JOptionPane.showMessageDialog(dlg, "Error deleting order: " + ex.getMessage(), "DB Error", JOptionPane.ERROR_MESSAGE);
-                }
+                }, ex -> JOptionPane.showMessageDialog(dlg, "Error deleting order: " + ex.getMessage(), "DB Error", JOptionPane.ERROR_MESSAGE));
             }
         });
 
         closeBtn.addActionListener(e -> dlg.dispose());
+        // stop fetching pages nobody will look at
+        dlg.addWindowListener(new WindowAdapter() {
+            @Override public void windowClosed(WindowEvent e) { model.cancelPending(); }
+        });
 
         dlg.setVisible(true);
     }
 
-    private double parseCurrencyOrNumber(String s) throws Exception {
-        if (s == null) throw new Exception("empty");
-        String cleaned = s.replaceAll("[,$]", "").trim();
-        return Double.parseDouble(cleaned.replaceAll("[^0-9.\\-]", ""));
+    // sales per day, per hour and the best sellers for the days in [from, to), read from the
+    // store's rollups, so the cost does not grow with the number of orders
+    private void openSalesReport(JDialog owner, java.time.LocalDate from, java.time.LocalDate to) {
+        JDialog dlg = new JDialog(owner, "Sales " + from + " to " + to.minusDays(1), true);
+        dlg.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        dlg.setSize(700, 420);
+        dlg.setLocationRelativeTo(owner);
+        dlg.setLayout(new BorderLayout());
+
+        javax.swing.table.DefaultTableModel days = reportModel("Day", "Orders", "Subtotal", "Tax", "Total");
+        javax.swing.table.DefaultTableModel hours = reportModel("Hour", "Orders", "Subtotal", "Tax", "Total");
+        // item revenue is at the lines' prices: promotion discounts come off the order subtotals only
+        javax.swing.table.DefaultTableModel items = reportModel("Item", "Quantity", "Revenue (before discounts)");
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab("By day", new JScrollPane(new JTable(days)));
+        tabs.addTab("By hour", new JScrollPane(new JTable(hours)));
+        tabs.addTab("Best sellers", new JScrollPane(new JTable(items)));
+        dlg.add(tabs, BorderLayout.CENTER);
+
+        java.util.function.Consumer<Throwable> failed = ex ->
+                JOptionPane.showMessageDialog(dlg, "Failed to load sales: " + ex.getMessage(), "DB Error", JOptionPane.ERROR_MESSAGE);
+        db.submit(() -> store.dailySales(from, to), rows -> {
+            for (SalesAnalytics.Bucket b : rows) days.addRow(new Object[]{b.start.toLocalDate(), b.orders,
+                    Money.format(b.subtotalCents), Money.format(b.taxCents), Money.format(b.totalCents)});
+        }, failed);
+        db.submit(() -> store.hourlySales(from, to), rows -> {
+            for (SalesAnalytics.Bucket b : rows) hours.addRow(new Object[]{String.format("%s %02d:00", b.start.toLocalDate(), b.start.getHour()),
+                    b.orders, Money.format(b.subtotalCents), Money.format(b.taxCents), Money.format(b.totalCents)});
+        }, failed);
+        db.submit(() -> store.topItems(from, to, 50), rows -> {
+            for (SalesAnalytics.ItemSales s : rows) items.addRow(new Object[]{s.itemName, s.qty, Money.format(s.revenueCents)});
+        }, failed);
+
+        JPanel btnRow = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JButton closeBtn = new JButton("Close");
+        closeBtn.addActionListener(e -> dlg.dispose());
+        btnRow.add(closeBtn);
+        dlg.add(btnRow, BorderLayout.SOUTH);
+        dlg.setVisible(true);
+    }
+
+    private static javax.swing.table.DefaultTableModel reportModel(String... columns) {
+        return new javax.swing.table.DefaultTableModel(columns, 0) {
+            @Override public boolean isCellEditable(int row, int column) { return false; }
+        };
+    }
+
+    // the start of the day typed into a yyyy-mm-dd field plus some days, or null when it is empty
+    private static java.sql.Timestamp startOfDay(JTextField field, int plusDays) {
+        String text = field.getText().trim();
+        return text.isEmpty() ? null : java.sql.Timestamp.valueOf(java.time.LocalDate.parse(text).plusDays(plusDays).atStartOfDay());
+    }
+
+    // order search results as rows for the history table: the index finds the ids (once, on the
+    // database executor like every Source call), the store loads the rows of each page
+    private static final class SearchResults implements PagedTableModel.Source<DatabaseManager.OrderRow> {
+        private final OrderSearchIndex index;
+        private final OrderSearchIndex.Query query;
+        private final Store store;
+        private final JLabel status;
+        private int[] ids;   // newest first
+
+        SearchResults(OrderSearchIndex index, OrderSearchIndex.Query query, Store store, JLabel status) {
+            this.index = index;
+            this.query = query;
+            this.store = store;
+            this.status = status;
+        }
+
+        private synchronized int[] ids() {
+            if (ids == null) {
+                long t0 = System.nanoTime();
+                ids = index.search(query);
+                String text = String.format("%,d orders found in %.1f ms%s", ids.length, (System.nanoTime() - t0) / 1e6,
+                        index.ready() ? "" : " (still indexing older orders)");
+                SwingUtilities.invokeLater(() -> status.setText(text));
+            }
+            return ids;
+        }
+
+        public int count() { return ids().length; }
+
+        public List<DatabaseManager.OrderRow> pageBefore(int beforeKey, int limit) throws Exception {
+            int[] r = ids();
+            int lo = 0, hi = r.length;   // first id below beforeKey
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (r[mid] >= beforeKey) lo = mid + 1; else hi = mid;
+            }
+            return store.loadOrdersById(Arrays.copyOfRange(r, lo, Math.min(r.length, lo + limit)));
+        }
+
+        public int keyAt(int offset) {
+            int[] r = ids();
+            return offset < r.length ? r[offset] : -1;
+        }
+    }
+
+    // a kitchen screen; several may be open, each its own consumer of the kitchen ring
+    private void openKitchenDisplay() {
+        JDialog dlg = new JDialog(frame, "Kitchen Display", false);
+        dlg.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        dlg.setSize(640, 480);
+        dlg.setLocationRelativeTo(frame);
+        dlg.setLayout(new BorderLayout());
+
+        KitchenDisplay display = new KitchenDisplay(kitchen, "display-" + (++kitchenDisplays));
+        JList<String> tickets = new JList<>(display.model());
+        tickets.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        tickets.setFont(tickets.getFont().deriveFont(16f));
+        dlg.add(new JScrollPane(tickets), BorderLayout.CENTER);
+
+        JPanel btnRow = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JButton bumpBtn = new JButton("Bump");
+        bumpBtn.addActionListener(e -> {
+            int row = tickets.getSelectedIndex() >= 0 ? tickets.getSelectedIndex() : 0;
+            display.bump(row);
+            if (!display.model().isEmpty()) tickets.setSelectedIndex(Math.min(row, display.model().size() - 1));
+        });
+        btnRow.add(bumpBtn);
+        dlg.add(btnRow, BorderLayout.SOUTH);
+
+        display.start();
+        dlg.addWindowListener(new WindowAdapter() {
+            @Override public void windowClosed(WindowEvent e) { display.stop(); }
+        });
+        dlg.setVisible(true);
+    }
+
+    // stock levels of the menu items and the icing and filling options; a blank level means not tracked
+    private void openInventoryDialog() {
+        JDialog dlg = new JDialog(frame, "Inventory", true);
+        dlg.setSize(520, 460);
+        dlg.setLocationRelativeTo(frame);
+        dlg.setLayout(new BorderLayout());
+
+        List<String> skus = new ArrayList<>();
+        javax.swing.table.DefaultTableModel model = new javax.swing.table.DefaultTableModel(new String[]{"Stock", "On hand"}, 0) {
+            @Override public boolean isCellEditable(int row, int column) { return column == 1; }
+        };
+        for (DatabaseManager.MenuItem mi : menuCache.items()) {
+            skus.add(Inventory.itemSku(mi.id));
+            model.addRow(new Object[]{mi.name, ""});
+        }
+        for (String icing : ICINGS) {
+            if ("None".equals(icing)) continue;
+            skus.add(Inventory.icingSku(icing));
+            model.addRow(new Object[]{"Icing: " + icing, ""});
+        }
+        for (String filling : FILLINGS) {
+            if ("None".equals(filling)) continue;
+            skus.add(Inventory.fillingSku(filling));
+            model.addRow(new Object[]{"Filling: " + filling, ""});
+        }
+        List<Long> shown = new ArrayList<>();
+        for (int r = 0; r < skus.size(); r++) {
+            Long level = inventory.level(skus.get(r));
+            shown.add(level);
+            model.setValueAt(level == null ? "" : String.valueOf(level), r, 1);
+        }
+        JTable table = new JTable(model);
+        table.setFillsViewportHeight(true);
+        dlg.add(new JScrollPane(table), BorderLayout.CENTER);
+
+        JPanel btnRow = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        btnRow.add(new JLabel("Blank = not tracked"));
+        JButton saveBtn = new JButton("Save");
+        JButton cancelBtn = new JButton("Cancel");
+        btnRow.add(saveBtn);
+        btnRow.add(cancelBtn);
+        dlg.add(btnRow, BorderLayout.SOUTH);
+
+        cancelBtn.addActionListener(e -> dlg.dispose());
+        saveBtn.addActionListener(e -> {
+            if (table.isEditing()) table.getCellEditor().stopCellEditing();
+            Map<String, Long> edits = new HashMap<>();
+            for (int r = 0; r < skus.size(); r++) {
+                String text = String.valueOf(model.getValueAt(r, 1)).trim();
+                Long level;
+                try {
+                    level = text.isEmpty() ? null : Long.valueOf(text);
+                    if (level != null && level < 0) throw new NumberFormatException();
+                } catch (NumberFormatException nfe) {
+                    JOptionPane.showMessageDialog(dlg, "Invalid level for " + model.getValueAt(r, 0) + ".");
+                    return;
+                }
+                // rows left alone keep what registers took meanwhile
+                if (!Objects.equals(level, shown.get(r))) edits.put(skus.get(r), level);
+            }
+            for (Map.Entry<String, Long> edit : edits.entrySet()) inventory.setLevel(edit.getKey(), edit.getValue());
+            saveBtn.setEnabled(false);
+            db.submit(() -> { inventory.flush(); return null; }, ignored -> dlg.dispose(), ex -> {
+                saveBtn.setEnabled(true);
+                JOptionPane.showMessageDialog(dlg, "Failed to save inventory: " + ex.getMessage(), "DB Error", JOptionPane.ERROR_MESSAGE);
+            });
+        });
+        dlg.setVisible(true);
+    }
+
+    // live view of Metrics (timers, counters, gauges), refreshed every second while open
+    private void openDiagnosticsDialog() {
+        JDialog dlg = new JDialog(frame, "Diagnostics", false);
+        dlg.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        dlg.setSize(820, 480);
+        dlg.setLocationRelativeTo(frame);
+        dlg.setLayout(new BorderLayout());
+
+        javax.swing.table.DefaultTableModel model = new javax.swing.table.DefaultTableModel(
+                new String[]{"Metric", "Count / value", "Mean (us)", "p50 (us)", "p99 (us)", "p99.9 (us)", "Max (us)"}, 0) {
+            @Override public boolean isCellEditable(int row, int column) { return false; }
+        };
+        JTable table = new JTable(model);
+        table.setFillsViewportHeight(true);
+        table.getColumnModel().getColumn(0).setPreferredWidth(220);
+        dlg.add(new JScrollPane(table), BorderLayout.CENTER);
+
+        Runnable refresh = () -> {
+            List<Object[]> rows = new ArrayList<>();
+            for (Map.Entry<String, Metrics.Timer> e : Metrics.timers().entrySet()) {
+                Metrics.Snapshot s = e.getValue().snapshot();
+                rows.add(new Object[]{e.getKey(), s.count, micros(s.meanMicros()), micros(s.percentileMicros(50)),
+                        micros(s.percentileMicros(99)), micros(s.percentileMicros(99.9)), micros(s.maxMicros())});
+            }
+            for (Map.Entry<String, Metrics.Counter> e : Metrics.counters().entrySet()) rows.add(new Object[]{e.getKey(), e.getValue().getCount()});
+            for (Map.Entry<String, Metrics.Gauge> e : Metrics.gauges().entrySet()) rows.add(new Object[]{e.getKey(), e.getValue().getValue()});
+            // update in place so the selection and scroll position survive a refresh
+            if (model.getRowCount() != rows.size()) model.setRowCount(rows.size());
+            for (int r = 0; r < rows.size(); r++) {
+                Object[] row = rows.get(r);
+                for (int c = 0; c < model.getColumnCount(); c++) {
+                    Object v = c < row.length ? row[c] : "";
+                    if (!Objects.equals(model.getValueAt(r, c), v)) model.setValueAt(v, r, c);
+                }
+            }
+        };
+        refresh.run();
+        javax.swing.Timer timer = new javax.swing.Timer(1000, e -> refresh.run());
+        timer.start();
+
+        JPanel btnRow = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JButton copyBtn = new JButton("Copy as JSON");
+        copyBtn.addActionListener(e -> Toolkit.getDefaultToolkit().getSystemClipboard()
+                .setContents(new java.awt.datatransfer.StringSelection(Metrics.dumpJson()), null));
+        JButton closeBtn = new JButton("Close");
+        closeBtn.addActionListener(e -> dlg.dispose());
+        btnRow.add(copyBtn);
+        btnRow.add(closeBtn);
+        dlg.add(btnRow, BorderLayout.SOUTH);
+        dlg.addWindowListener(new WindowAdapter() {
+            @Override public void windowClosed(WindowEvent e) { timer.stop(); }
+        });
+        dlg.setVisible(true);
+    }
+
+    private static String micros(double us) {
+        return String.format("%.1f", us);
     }
 
     private String getSelectedItemName() {
@@ -626,199 +1177,97 @@ public class DonutShopApp {
         return raw.trim();
     }
 
+    // lock the cart while its order is saved, so clearing it afterwards drops only what was saved
+    private void setCheckoutPending(boolean pending, JButton... cartButtons) {
+        checkoutPending = pending;
+        for (JButton b : cartButtons) b.setEnabled(!pending);
+    }
+
+    // true (and the cashier told) while a checkout is saving the cart
+    private boolean cartLocked() {
+        if (checkoutPending) JOptionPane.showMessageDialog(frame, "The order is still being saved.");
+        return checkoutPending;
+    }
+
     private void addSelectedToOrder() {
+        if (cartLocked()) return;
         String item = getSelectedItemName();
         if (item == null) { JOptionPane.showMessageDialog(frame, "Please select an item from the menu."); return; }
-        DatabaseManager.MenuItem mi = itemMap.get(item);
+        DatabaseManager.MenuItem mi = menuCache.byName(item);
         if (mi == null) { JOptionPane.showMessageDialog(frame, "Selected item not found."); return; }
         int qty = (Integer) qtySpinner.getValue();
-        double unitPrice = mi.price;
         String icing = (String) icingBox.getSelectedItem();
         String filling = (String) fillingBox.getSelectedItem();
-        String options = "";
-        if (!"None".equals(icing)) options += "Icing: " + icing;
-        if (!"None".equals(filling)) {
-            if (!options.isEmpty()) options += ", ";
-            options += "Filling: " + filling;
+        icing = "None".equals(icing) ? null : icing;
+        filling = "None".equals(filling) ? null : filling;
+        String shortSku = inventory.reserveLine(mi.id, icing, filling, qty);
+        if (shortSku != null) {
+            Long left = inventory.level(shortSku);
+            JOptionPane.showMessageDialog(frame, "Out of stock: " + Inventory.describe(shortSku, mi.name)
+                    + (left != null && left > 0 ? " (" + left + " left)" : ""), "Out of Stock", JOptionPane.WARNING_MESSAGE);
+            return;
         }
-        if (options.isEmpty()) options = "-";
-        double total = unitPrice * qty;
-        orderTableModel.addRow(new Object[]{mi.name, options, qty, money.format(unitPrice), money.format(total)});
+        orderTableModel.add(mi.id, mi.name, icing, filling, qty, mi.priceCents);
         updateTotals();
     }
 
-    private double computeSubtotal() {
-        double subtotal = 0.0;
-        for (int r = 0; r < orderTableModel.getRowCount(); r++) {
-            Object totalObj = orderTableModel.getValueAt(r, 4);
-            if (totalObj != null) {
-                try {
-                    Number n = money.parse(totalObj.toString());
-                    subtotal += n.doubleValue();
-                } catch (Exception ex) {
-                    try {
-                        subtotal += Double.parseDouble(totalObj.toString().replaceAll("[^0-9.\\-]", ""));
-                    } catch (Exception ignore) {}
-                }
-            }
-        }
-        return subtotal;
+    // give back the units an order line holds
+    private void releaseLine(OrderTableModel.Line l, int qty) {
+        inventory.releaseLine(l.menuItemId, l.icing, l.filling, qty);
     }
 
-    private String buildItemsStringFromTable() {
-        StringBuilder sb = new StringBuilder();
-        for (int r = 0; r < orderTableModel.getRowCount(); r++) {
-            String item = (String) orderTableModel.getValueAt(r, 0);
-            String opts = (String) orderTableModel.getValueAt(r, 1);
-            int qty = (Integer) orderTableModel.getValueAt(r, 2);
-            sb.append(item).append(" x").append(qty);
-            if (opts != null && !opts.equals("-")) sb.append(" [").append(opts).append("]");
-            if (r < orderTableModel.getRowCount() - 1) sb.append("; ");
-        }
-        return sb.toString();
+    // give back everything the current order holds (it is being cleared, not sold)
+    private void releaseOrder() {
+        for (OrderTableModel.Line l : orderTableModel.lines()) releaseLine(l, l.qty());
+    }
+
+    // what the customer pays before tax: the lines less what promotions take off
+    private long computeSubtotal() {
+        return orderTableModel.subtotalCents() - orderTableModel.discountCents();
     }
 
     private void updateTotals() {
-        double subtotal = computeSubtotal();
-        double tax = subtotal * TAX_RATE;
-        double grand = subtotal + tax;
-        subtotalLabel.setText("Subtotal: " + money.format(subtotal));
-        taxLabel.setText("Tax (6%): " + money.format(tax));
-        totalLabel.setText("<html><b>Total: " + money.format(grand) + "</b></html>");
+        long discount = orderTableModel.discountCents();
+        long subtotal = computeSubtotal();
+        long tax = SALES_TAX.taxOn(subtotal);
+        long grand = Money.plus(subtotal, tax);
+        subtotalLabel.setText("Subtotal: " + Money.format(orderTableModel.subtotalCents()));
+        if (discount == 0) {
+            discountLabel.setText(" ");
+        } else {
+            StringBuilder names = new StringBuilder();
+            for (PromotionEngine.Applied a : orderTableModel.promotionsApplied()) {
+                if (names.length() > 0) names.append(", ");
+                names.append(a.name).append(a.times > 1 ? " x" + a.times : "");
+            }
+            discountLabel.setText("Promotions: -" + Money.format(discount) + " (" + names + ")");
+        }
+        taxLabel.setText("Tax (" + SALES_TAX.percentLabel() + "): " + Money.format(tax));
+        totalLabel.setText("<html><b>Total: " + Money.format(grand) + "</b></html>");
     }
 
     private void editOrderRowQuantity(int row) {
-        Object qtyObj = orderTableModel.getValueAt(row, 2);
-        int current = (qtyObj instanceof Integer) ? (Integer) qtyObj : Integer.parseInt(qtyObj.toString());
+        if (cartLocked()) return;
+        int current = orderTableModel.line(row).qty();
         String input = JOptionPane.showInputDialog(frame, "Enter new quantity:", current);
         if (input == null) return;
         try {
             int newQty = Integer.parseInt(input.trim());
             if (newQty < 1) throw new NumberFormatException();
-            String priceStr = (String) orderTableModel.getValueAt(row, 3);
-            Number pnum = money.parse(priceStr);
-            double unitPrice = pnum.doubleValue();
-            double newTotal = unitPrice * newQty;
-            orderTableModel.setValueAt(newQty, row, 2);
-            orderTableModel.setValueAt(money.format(newTotal), row, 4);
+            OrderTableModel.Line l = orderTableModel.line(row);
+            if (newQty > current) {
+                String shortSku = inventory.reserveLine(l.menuItemId, l.icing, l.filling, newQty - current);
+                if (shortSku != null) {
+                    JOptionPane.showMessageDialog(frame, "Out of stock: " + Inventory.describe(shortSku, l.name), "Out of Stock", JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
+            } else if (newQty < current) {
+                releaseLine(l, current - newQty);
+            }
+            orderTableModel.setQuantity(row, newQty);
             updateTotals();
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(frame, "Invalid quantity.", "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
-
-    // -------------------------
-    // Simple in-memory DatabaseManager (for demo/testing)
-    // -------------------------
-    public static class DatabaseManager {
-        private static final Map<Integer, MenuItem> menuById = new LinkedHashMap<>();
-        private static final Map<String, MenuItem> menuByName = new LinkedHashMap<>();
-        private static final Map<Integer, OrderRow> ordersById = new LinkedHashMap<>();
-        private static final AtomicInteger menuIdGen = new AtomicInteger(1);
-        private static final AtomicInteger orderIdGen = new AtomicInteger(1000);
-
-        public static void initializeDatabase() {
-            // no-op for in-memory demo
-        }
-
-        public static LinkedHashMap<String, MenuItem> loadMenuItems() {
-            LinkedHashMap<String, MenuItem> copy = new LinkedHashMap<>();
-            for (MenuItem m : menuById.values()) copy.put(m.name, new MenuItem(m.id, m.name, m.category, m.price));
-            return copy;
-        }
-
-        public static int addMenuItem(String name, String category, double price) {
-            // prevent duplicate names: if exists, update price/category
-            for (MenuItem mi : menuById.values()) {
-                if (mi.name.equalsIgnoreCase(name)) {
-                    mi.category = category;
-                    mi.price = price;
-                    menuByName.put(mi.name, mi);
-                    return mi.id;
-                }
-            }
-            int id = menuIdGen.getAndIncrement();
-            MenuItem mi = new MenuItem(id, name, category, price);
-            menuById.put(id, mi);
-            menuByName.put(name, mi);
-            return id;
-        }
-
-        public static boolean updateMenuItem(int id, String name, String category, double price) {
-            MenuItem mi = menuById.get(id);
-            if (mi == null) return false;
-            // remove old name mapping
-            menuByName.remove(mi.name);
-            mi.name = name;
-            mi.category = category;
-            mi.price = price;
-            menuByName.put(name, mi);
-            return true;
-        }
-
-        public static boolean deleteMenuItem(int id) {
-            MenuItem mi = menuById.remove(id);
-            if (mi == null) return false;
-            menuByName.remove(mi.name);
-            return true;
-        }
-
-        public static int saveOrder(String items, double subtotal, double tax, double total) {
-            int tx = orderIdGen.getAndIncrement();
-            OrderRow o = new OrderRow(tx, new Date(), items, subtotal, tax, total);
-            ordersById.put(tx, o);
-            return tx;
-        }
-
-        public static List<OrderRow> loadOrders() {
-            List<OrderRow> out = new ArrayList<>();
-            for (OrderRow o : ordersById.values()) out.add(o);
-            // sort by transaction id descending (recent first)
-            out.sort((a,b) -> Integer.compare(b.transactionId, a.transactionId));
-            return out;
-        }
-
-        public static boolean updateOrder(int txId, String items, double subtotal, double tax, double total) {
-            OrderRow o = ordersById.get(txId);
-            if (o == null) return false;
-            o.items = items;
-            o.subtotal = subtotal;
-            o.tax = tax;
-            o.total = total;
-            o.orderDate = new Date(); // update timestamp to now
-            return true;
-        }
-
-        public static boolean deleteOrder(int txId) {
-            return ordersById.remove(txId) != null;
-        }
-
-        // nested data classes
-        public static class MenuItem {
-            public int id;
-            public String name;
-            public String category;
-            public double price;
-            public MenuItem(int id, String name, String category, double price) {
-                this.id = id; this.name = name; this.category = category; this.price = price;
-            }
-        }
-
-        public static class OrderRow {
-            public int transactionId;
-            public Date orderDate;
-            public String items;
-            public double subtotal;
-            public double tax;
-            public double total;
-            public OrderRow(int transactionId, Date orderDate, String items, double subtotal, double tax, double total) {
-                this.transactionId = transactionId;
-                this.orderDate = orderDate;
-                this.items = items;
-                this.subtotal = subtotal;
-                this.tax = tax;
-                this.total = total;
-            }
-        }
-    }
 }
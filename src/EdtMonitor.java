@@ -0,0 +1,239 @@
+import java.awt.AWTEvent;
+import java.awt.Component;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.swing.AbstractButton;
+
+/**
+ * Watches the EDT. An EventQueue pushed over the system queue times every event it dispatches,
+ * and a watchdog thread looks for events that keep the EDT busy for too long.
+ *
+ * Metrics (see Metrics):
+ *  - edt.event: dispatch time per event. Time in a nested loop inside it, such as a modal dialog
+ *    waiting for the cashier and the events that dialog handles, is left out.
+ *  - edt.slowEvents: events over 100 ms.
+ *  - edt.stall and edt.stalls: duration and number of stalls, i.e. the EDT busy in one event
+ *    for longer than -Doakdonuts.edt.stallMs (default 250).
+ *  - edt.stalls.<listener>: stalls per listener, e.g. edt.stalls.DonutShopApp.lambda$new$12.
+ *
+ * For each stall the watchdog captures the EDT stack while it is stuck. It logs the event, its
+ * source (e.g. the Checkout button), the listener that was running and the stack, then logs the
+ * total duration once the EDT moves on. The log is stderr, or -Doakdonuts.edt.log=file. A hard
+ * freeze is still logged, since the stack is captured while the EDT is stuck.
+ */
+public final class EdtMonitor extends EventQueue {
+    private static final long SLOW_NANOS = 100_000_000L;
+    private static final long STALL_NANOS = Long.getLong("oakdonuts.edt.stallMs", 250) * 1_000_000L;
+    private static final int MAX_DEPTH = 32;
+    private static final Metrics.Timer EVENTS = Metrics.timer("edt.event");
+    private static final Metrics.Counter SLOW = Metrics.counter("edt.slowEvents");
+    private static final Metrics.Timer STALL = Metrics.timer("edt.stall");
+    private static final Metrics.Counter STALLS = Metrics.counter("edt.stalls");
+    private static boolean installed;
+
+    // a stall the watchdog caught; the EDT hands it back once it gets past that event
+    private static final class Stall {
+        final long busySince;
+        final String event;
+        final String listener;
+        volatile long endedAt;
+
+        Stall(long busySince, String event, String listener) {
+            this.busySince = busySince;
+            this.event = event;
+            this.listener = listener;
+        }
+    }
+
+    // written on the EDT, read by the watchdog
+    private volatile Thread edt;
+    private volatile long busySince;   // when the EDT last started or resumed an event; 0 when idle
+    private volatile AWTEvent current;
+    private volatile Stall stall;
+    private final ConcurrentLinkedQueue<Stall> ended = new ConcurrentLinkedQueue<>();
+
+    // EDT only: nested dispatches (modal dialogs) and the time spent in them
+    private final AWTEvent[] events = new AWTEvent[MAX_DEPTH];
+    private final long[] nestedNanos = new long[MAX_DEPTH];
+    private int depth;
+
+    private final PrintStream log;
+
+    private EdtMonitor(PrintStream log) {
+        this.log = log;
+    }
+
+    // replace the system event queue and start the watchdog once; safe to call from any thread
+    public static synchronized void install() {
+        if (installed) return;
+        installed = true;
+        EdtMonitor monitor = new EdtMonitor(openLog());
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(monitor);
+        Thread watchdog = new Thread(monitor::watch, "edt-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    private static PrintStream openLog() {
+        String path = System.getProperty("oakdonuts.edt.log");
+        if (path == null) return System.err;
+        try {
+            return new PrintStream(new FileOutputStream(path, true), true, "UTF-8");
+        } catch (IOException ex) {
+            System.err.println("Cannot open EDT log " + path + ", using stderr: " + ex.getMessage());
+            return System.err;
+        }
+    }
+
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        long t0 = System.nanoTime();
+        int d = depth++;
+        if (d == 0) edt = Thread.currentThread();
+        if (d < MAX_DEPTH) {
+            events[d] = event;
+            nestedNanos[d] = 0;
+        }
+        // publish the new busySince before taking the stall, so the watchdog can tell it came too late
+        busySince = t0;
+        current = event;
+        endStall(t0);
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            long now = System.nanoTime();
+            long inclusive = now - t0;
+            depth = d;
+            long own = d < MAX_DEPTH ? inclusive - nestedNanos[d] : inclusive;
+            if (d > 0 && d - 1 < MAX_DEPTH) nestedNanos[d - 1] += inclusive;
+            EVENTS.record(own);
+            if (own > SLOW_NANOS) SLOW.inc();
+            if (d > 0) {
+                // back in the outer event (e.g. the listener that opened a modal dialog)
+                current = d - 1 < MAX_DEPTH ? events[d - 1] : null;
+                busySince = now;
+            } else {
+                current = null;
+                busySince = 0;
+            }
+            endStall(now);
+            if (d < MAX_DEPTH) events[d] = null;
+        }
+    }
+
+    // A modal dialog's secondary loop waits for events here while the outer event is still being
+    // dispatched; that wait is the cashier's time, not the EDT's, so it is neither work nor a stall
+    @Override
+    public AWTEvent getNextEvent() throws InterruptedException {
+        int d = depth;
+        if (d == 0 || Thread.currentThread() != edt) return super.getNextEvent();
+        long t0 = System.nanoTime();
+        AWTEvent outer = current;
+        busySince = 0;
+        endStall(t0);
+        try {
+            return super.getNextEvent();
+        } finally {
+            long now = System.nanoTime();
+            if (d - 1 < MAX_DEPTH) nestedNanos[d - 1] += now - t0;
+            current = outer;
+            busySince = now;
+        }
+    }
+
+    // the EDT got to a dispatch boundary, so any stall it was in is over
+    private void endStall(long now) {
+        Stall s = stall;
+        if (s != null) {
+            stall = null;
+            s.endedAt = now;
+            ended.add(s);
+        }
+    }
+
+    private void watch() {
+        long period = Math.max(10_000_000L, STALL_NANOS / 4);
+        while (true) {
+            try {
+                Thread.sleep(period / 1_000_000L);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            for (Stall s; (s = ended.poll()) != null; ) report(s);
+            long since = busySince;
+            Thread thread = edt;
+            if (since == 0 || thread == null || System.nanoTime() - since < STALL_NANOS) continue;
+            Stall open = stall;
+            if (open != null && open.busySince == since) continue;   // already caught this one
+            AWTEvent event = current;
+            StackTraceElement[] stack = thread.getStackTrace();
+            if (since != busySince) continue;   // moved on while we looked
+            Stall s = new Stall(since, describe(event), listener(stack));
+            stall = s;
+            if (since != busySince) {
+                // the EDT moved on meanwhile and may have missed it; if it did take it, it is reported as over
+                if (stall == s) stall = null;
+                continue;
+            }
+            StringBuilder sb = new StringBuilder();
+            sb.append(timestamp()).append(" EDT stalled for over ").append(STALL_NANOS / 1_000_000).append(" ms in ")
+                    .append(s.event).append(", listener ").append(s.listener).append(System.lineSeparator());
+            for (StackTraceElement f : stack) sb.append("\tat ").append(f).append(System.lineSeparator());
+            log.print(sb);
+        }
+    }
+
+    private void report(Stall s) {
+        long nanos = s.endedAt - s.busySince;
+        STALL.record(nanos);
+        STALLS.inc();
+        Metrics.counter("edt.stalls." + s.listener).inc();
+        log.println(timestamp() + " EDT stall over after " + nanos / 1_000_000 + " ms in " + s.event + ", listener " + s.listener);
+    }
+
+    // the application code the innermost event was handed to: the first non-JDK frame above
+    // the innermost dispatchEvent of this queue
+    private static String listener(StackTraceElement[] stack) {
+        int dispatch = -1;
+        for (int i = 0; i < stack.length; i++) {
+            if (stack[i].getClassName().equals(EdtMonitor.class.getName()) && stack[i].getMethodName().equals("dispatchEvent")) {
+                dispatch = i;
+                break;
+            }
+        }
+        for (int i = (dispatch < 0 ? stack.length : dispatch) - 1; i >= 0; i--) {
+            String cls = stack[i].getClassName();
+            if (!isJdk(cls) && !cls.contains("$$Lambda")) return cls + "." + stack[i].getMethodName();
+        }
+        return "unknown";
+    }
+
+    private static boolean isJdk(String className) {
+        return className.startsWith("java.") || className.startsWith("javax.") || className.startsWith("sun.")
+                || className.startsWith("jdk.") || className.startsWith("com.sun.");
+    }
+
+    // "ActionEvent from JButton "Checkout"", "InvocationEvent", ...
+    private static String describe(AWTEvent event) {
+        if (event == null) return "unknown event";
+        String s = event.getClass().getSimpleName();
+        Object source = event.getSource();
+        if (source instanceof AbstractButton && ((AbstractButton) source).getText() != null) {
+            s += " from " + source.getClass().getSimpleName() + " \"" + ((AbstractButton) source).getText() + "\"";
+        } else if (source instanceof Component) {
+            String name = ((Component) source).getName();
+            s += " from " + source.getClass().getSimpleName() + (name != null ? " \"" + name + "\"" : "");
+        }
+        return s;
+    }
+
+    private static String timestamp() {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date());
+    }
+}
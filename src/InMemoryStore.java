@@ -0,0 +1,442 @@
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread-safe in-memory store, usable from many registers at once (-Doakdonuts.store=memory).
+ * Menu items are indexed by id and by case-folded name; menu writes are rare and take one
+ * write lock, so loadMenuItems always sees a consistent menu. Orders are guarded by striped
+ * read/write locks: a write locks only the stripe of its transaction id, while snapshot reads
+ * (loadOrders, countOrders, paging) lock every stripe for reading. Ids come from atomic
+ * counters, and stored rows are never modified in place (updates replace them), so a row
+ * handed to a reader cannot change under it. Every order change is also added to in-memory
+ * sales rollups (SalesAnalytics.Rollup, behind its own monitor) for the sales reports.
+ *
+ * OrderLogStore keeps its state in one of these and uses the package-private put/remove
+ * calls to replay its log. Those calls do not notify OrderListeners; the public ones do, while
+ * still holding the order's stripe lock, so a listener sees the changes to one order in order.
+ */
+public class InMemoryStore implements Store {
+    private static final int STRIPES = 16;   // power of two
+
+    private final ConcurrentSkipListMap<Integer, DatabaseManager.MenuItem> menuById = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, Integer> menuIdByName = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock menuLock = new ReentrantReadWriteLock();
+    private final ConcurrentSkipListMap<Integer, DatabaseManager.OrderRow> ordersById = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<Integer, List<DatabaseManager.OrderLine>> linesById = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock[] orderLocks = new ReentrantReadWriteLock[STRIPES];
+    private final AtomicInteger menuIdGen = new AtomicInteger(1);
+    private final AtomicInteger orderIdGen = new AtomicInteger(1000);
+    private final ConcurrentHashMap<String, Long> inventory = new ConcurrentHashMap<>();
+    private final OrderListeners listeners = new OrderListeners();
+    private final SalesAnalytics.Rollup rollup = new SalesAnalytics.Rollup();
+
+    public InMemoryStore() {
+        for (int i = 0; i < STRIPES; i++) orderLocks[i] = new ReentrantReadWriteLock();
+    }
+
+    @Override public void open() {}
+    @Override public void close() {}
+
+    private static String fold(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private Lock orderWriteLock(int txId) {
+        return orderLocks[txId & (STRIPES - 1)].writeLock();
+    }
+
+    // read-lock every stripe (always in the same order) for a consistent view of all orders
+    private void lockAllOrders() {
+        for (ReentrantReadWriteLock l : orderLocks) l.readLock().lock();
+    }
+
+    private void unlockAllOrders() {
+        for (int i = STRIPES - 1; i >= 0; i--) orderLocks[i].readLock().unlock();
+    }
+
+    @Override
+    public LinkedHashMap<String, DatabaseManager.MenuItem> loadMenuItems() {
+        menuLock.readLock().lock();
+        try {
+            LinkedHashMap<String, DatabaseManager.MenuItem> copy = new LinkedHashMap<>();
+            for (DatabaseManager.MenuItem m : menuById.values()) copy.put(m.name, m);
+            return copy;
+        } finally {
+            menuLock.readLock().unlock();
+        }
+    }
+
+    // the item addMenuItem would store: the existing one (ignoring case) with the new category/price, or a new id
+    DatabaseManager.MenuItem itemToAdd(String name, String category, long priceCents) {
+        Integer existing = menuIdByName.get(fold(name));
+        if (existing != null) return new DatabaseManager.MenuItem(existing, menuById.get(existing).name, category, priceCents);
+        return new DatabaseManager.MenuItem(menuIdGen.getAndIncrement(), name, category, priceCents);
+    }
+
+    // true when the item exists and no other item has the name
+    boolean canUpdate(int id, String name) {
+        Integer owner = menuIdByName.get(fold(name));
+        return menuById.containsKey(id) && (owner == null || owner == id);
+    }
+
+    @Override
+    public int addMenuItem(String name, String category, long priceCents) {
+        menuLock.writeLock().lock();
+        try {
+            DatabaseManager.MenuItem mi = itemToAdd(name, category, priceCents);
+            putMenuItem(mi);
+            return mi.id;
+        } finally {
+            menuLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void seedMenuItems(List<DatabaseManager.MenuItem> items) {
+        for (DatabaseManager.MenuItem mi : items) addMenuItem(mi.name, mi.category, mi.priceCents);
+    }
+
+    @Override
+    public int upsertMenuItems(List<DatabaseManager.MenuItem> items) {
+        menuLock.writeLock().lock();
+        try {
+            return putMenuItems(itemsToUpsert(items));
+        } finally {
+            menuLock.writeLock().unlock();
+        }
+    }
+
+    // the items upsertMenuItems would store, as itemToAdd; a name given twice keeps the last one
+    List<DatabaseManager.MenuItem> itemsToUpsert(List<DatabaseManager.MenuItem> items) {
+        Map<String, DatabaseManager.MenuItem> byName = new LinkedHashMap<>();
+        int nextId = menuIdGen.get();
+        for (DatabaseManager.MenuItem mi : items) {
+            String key = fold(mi.name);
+            DatabaseManager.MenuItem seen = byName.get(key);
+            Integer existing = menuIdByName.get(key);
+            if (seen != null) byName.put(key, new DatabaseManager.MenuItem(seen.id, seen.name, mi.category, mi.priceCents));
+            else if (existing != null) byName.put(key, new DatabaseManager.MenuItem(existing, menuById.get(existing).name, mi.category, mi.priceCents));
+            else byName.put(key, new DatabaseManager.MenuItem(nextId++, mi.name, mi.category, mi.priceCents));
+        }
+        return new ArrayList<>(byName.values());
+    }
+
+    // store items from itemsToUpsert (or a replayed log); returns how many were new
+    int putMenuItems(List<DatabaseManager.MenuItem> items) {
+        menuLock.writeLock().lock();
+        try {
+            int added = 0;
+            for (DatabaseManager.MenuItem mi : items) {
+                if (!menuById.containsKey(mi.id)) added++;
+                putMenuItem(mi);
+            }
+            return added;
+        } finally {
+            menuLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean updateMenuItem(int id, String name, String category, long priceCents) {
+        menuLock.writeLock().lock();
+        try {
+            if (!canUpdate(id, name)) return false;
+            putMenuItem(new DatabaseManager.MenuItem(id, name, category, priceCents));
+            return true;
+        } finally {
+            menuLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteMenuItem(int id) {
+        menuLock.writeLock().lock();
+        try {
+            DatabaseManager.MenuItem mi = menuById.remove(id);
+            if (mi == null) return false;
+            menuIdByName.remove(fold(mi.name));
+            return true;
+        } finally {
+            menuLock.writeLock().unlock();
+        }
+    }
+
+    // store an item under its own id, replacing any item with that id
+    void putMenuItem(DatabaseManager.MenuItem mi) {
+        menuLock.writeLock().lock();
+        try {
+            DatabaseManager.MenuItem old = menuById.put(mi.id, mi);
+            if (old != null) menuIdByName.remove(fold(old.name));
+            menuIdByName.put(fold(mi.name), mi.id);
+            menuIdUsed(mi.id);
+        } finally {
+            menuLock.writeLock().unlock();
+        }
+    }
+
+    DatabaseManager.MenuItem menuItem(int id) {
+        return menuById.get(id);
+    }
+
+    int nextOrderId() {
+        return orderIdGen.getAndIncrement();
+    }
+
+    DatabaseManager.OrderRow order(int txId) {
+        return ordersById.get(txId);
+    }
+
+    // the order row saveOrder would store under txId
+    static DatabaseManager.OrderRow newOrderRow(int txId, Timestamp date, List<DatabaseManager.OrderLine> lines,
+                                               long subtotalCents, long taxCents, long totalCents, long discountCents) {
+        return new DatabaseManager.OrderRow(txId, date, DatabaseManager.OrderLine.summarize(lines, DatabaseManager.ITEMS_SUMMARY_MAX),
+                subtotalCents, taxCents, totalCents, discountCents);
+    }
+
+    // lines for an edited items string: lines the order already had keep their prices, new ones
+    // are priced from the current menu (as the Derby store does)
+    List<DatabaseManager.OrderLine> linesFor(int txId, String items) {
+        return DatabaseManager.resolveEdited(DatabaseManager.parseItemsString(items), linesById.get(txId), loadMenuItems());
+    }
+
+    // store an order and its lines under the row's id, replacing any order with that id
+    void putOrder(DatabaseManager.OrderRow o, List<DatabaseManager.OrderLine> lines) {
+        List<DatabaseManager.OrderLine> copy = Collections.unmodifiableList(new ArrayList<>(lines));
+        Lock lock = orderWriteLock(o.transactionId);
+        lock.lock();
+        try {
+            List<DatabaseManager.OrderLine> oldLines = linesById.put(o.transactionId, copy);
+            rolledUp(ordersById.put(o.transactionId, o), oldLines, o, copy);
+        } finally {
+            lock.unlock();
+        }
+        orderIdUsed(o.transactionId);
+    }
+
+    // take the replaced order (if any) out of the rollups and add its replacement (if any);
+    // called under the order's stripe lock
+    private void rolledUp(DatabaseManager.OrderRow old, List<DatabaseManager.OrderLine> oldLines,
+                          DatabaseManager.OrderRow o, List<DatabaseManager.OrderLine> lines) {
+        synchronized (rollup) {
+            if (old != null && oldLines != null) rollup.add(old.orderDate, oldLines, old.subtotalCents, old.taxCents, old.totalCents, -1);
+            if (o != null) rollup.add(o.orderDate, lines, o.subtotalCents, o.taxCents, o.totalCents, 1);
+        }
+    }
+
+    // ids handed out later stay above txId (also for orders that were deleted since)
+    void orderIdUsed(int txId) {
+        orderIdGen.accumulateAndGet(txId + 1, Math::max);
+    }
+
+    void menuIdUsed(int id) {
+        menuIdGen.accumulateAndGet(id + 1, Math::max);
+    }
+
+    // narrowed: nothing here throws
+    @Override
+    public int saveOrder(List<DatabaseManager.OrderLine> lines, long subtotalCents, long taxCents, long totalCents) {
+        return saveOrder(lines, subtotalCents, taxCents, totalCents, 0);
+    }
+
+    @Override
+    public int saveOrder(List<DatabaseManager.OrderLine> lines, long subtotalCents, long taxCents, long totalCents, long discountCents) {
+        int tx = nextOrderId();
+        DatabaseManager.OrderRow o = newOrderRow(tx, new Timestamp(System.currentTimeMillis()), lines, subtotalCents, taxCents, totalCents, discountCents);
+        Lock lock = orderWriteLock(tx);
+        lock.lock();
+        try {
+            putOrder(o, lines);
+            listeners.saved(o, linesById.get(tx));
+        } finally {
+            lock.unlock();
+        }
+        return tx;
+    }
+
+    @Override
+    public CompletableFuture<Integer> saveOrderAsync(List<DatabaseManager.OrderLine> lines, long subtotalCents, long taxCents, long totalCents,
+                                                     long discountCents) {
+        // nothing to wait for in memory
+        return CompletableFuture.completedFuture(saveOrder(lines, subtotalCents, taxCents, totalCents, discountCents));
+    }
+
+    @Override
+    public List<DatabaseManager.OrderLine> loadOrderLines(int txId) {
+        List<DatabaseManager.OrderLine> lines = linesById.get(txId);
+        return lines == null ? new ArrayList<>() : new ArrayList<>(lines);
+    }
+
+    // all orders, most recent first
+    @Override
+    public List<DatabaseManager.OrderRow> loadOrders() {
+        lockAllOrders();
+        try {
+            return new ArrayList<>(ordersById.descendingMap().values());
+        } finally {
+            unlockAllOrders();
+        }
+    }
+
+    @Override
+    public List<DatabaseManager.OrderRow> loadOrdersBefore(int beforeTxId, int limit, Timestamp from, Timestamp to) {
+        List<DatabaseManager.OrderRow> out = new ArrayList<>();
+        lockAllOrders();
+        try {
+            for (DatabaseManager.OrderRow o : ordersById.headMap(beforeTxId, false).descendingMap().values()) {
+                if (out.size() == limit) break;
+                if (inRange(o, from, to)) out.add(o);
+            }
+        } finally {
+            unlockAllOrders();
+        }
+        return out;
+    }
+
+    @Override
+    public int countOrders(Timestamp from, Timestamp to) {
+        lockAllOrders();
+        try {
+            if (from == null && to == null) return ordersById.size();
+            int n = 0;
+            for (DatabaseManager.OrderRow o : ordersById.values()) if (inRange(o, from, to)) n++;
+            return n;
+        } finally {
+            unlockAllOrders();
+        }
+    }
+
+    @Override
+    public int loadOrderIdAt(int offset, Timestamp from, Timestamp to) {
+        lockAllOrders();
+        try {
+            int i = 0;
+            for (DatabaseManager.OrderRow o : ordersById.descendingMap().values()) {
+                if (!inRange(o, from, to)) continue;
+                if (i++ == offset) return o.transactionId;
+            }
+            return -1;
+        } finally {
+            unlockAllOrders();
+        }
+    }
+
+    private static boolean inRange(DatabaseManager.OrderRow o, Timestamp from, Timestamp to) {
+        return (from == null || !o.orderDate.before(from)) && (to == null || o.orderDate.before(to));
+    }
+
+    @Override
+    public boolean updateOrder(int txId, String items, long subtotalCents, long taxCents, long totalCents) {
+        Lock lock = orderWriteLock(txId);
+        lock.lock();
+        try {
+            DatabaseManager.OrderRow old = ordersById.get(txId);
+            if (old == null) return false;
+            List<DatabaseManager.OrderLine> lines = linesFor(txId, items);
+            List<DatabaseManager.OrderLine> copy = Collections.unmodifiableList(lines);
+            DatabaseManager.OrderRow o = new DatabaseManager.OrderRow(txId, old.orderDate, items, subtotalCents, taxCents, totalCents, old.discountCents);
+            rolledUp(old, linesById.put(txId, copy), o, copy);
+            ordersById.put(txId, o);
+            listeners.updated(o, copy);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteOrder(int txId) {
+        Lock lock = orderWriteLock(txId);
+        lock.lock();
+        try {
+            List<DatabaseManager.OrderLine> lines = linesById.remove(txId);
+            DatabaseManager.OrderRow old = ordersById.remove(txId);
+            if (old == null) return false;
+            rolledUp(old, lines, null, null);
+            listeners.deleted(txId);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<DatabaseManager.OrderRow> loadOrdersById(int[] transactionIds) {
+        List<DatabaseManager.OrderRow> out = new ArrayList<>(transactionIds.length);
+        for (int txId : transactionIds) {
+            DatabaseManager.OrderRow o = ordersById.get(txId);
+            if (o != null) out.add(o);
+        }
+        return out;
+    }
+
+    // walks the orders without a global lock, so writers are not held up for the whole scan;
+    // each order is read under its stripe lock, so its row and lines always match
+    @Override
+    public void scanOrders(Timestamp from, Timestamp to, OrderVisitor visitor) throws Exception {
+        for (Integer txId : ordersById.keySet()) {
+            DatabaseManager.OrderRow o;
+            List<DatabaseManager.OrderLine> lines;
+            Lock lock = orderLocks[txId & (STRIPES - 1)].readLock();
+            lock.lock();
+            try {
+                o = ordersById.get(txId);
+                lines = linesById.get(txId);
+            } finally {
+                lock.unlock();
+            }
+            if (o != null && lines != null && inRange(o, from, to)) visitor.visit(o, lines);
+        }
+    }
+
+    @Override
+    public List<SalesAnalytics.Bucket> hourlySales(LocalDate from, LocalDate to) {
+        synchronized (rollup) {
+            return rollup.hourlySales(from, to);
+        }
+    }
+
+    @Override
+    public List<SalesAnalytics.Bucket> dailySales(LocalDate from, LocalDate to) {
+        synchronized (rollup) {
+            return rollup.dailySales(from, to);
+        }
+    }
+
+    @Override
+    public List<SalesAnalytics.ItemSales> topItems(LocalDate from, LocalDate to, int limit) {
+        synchronized (rollup) {
+            return rollup.topItems(from, to, limit);
+        }
+    }
+
+    @Override public void addOrderListener(OrderListener listener) { listeners.add(listener); }
+    @Override public void removeOrderListener(OrderListener listener) { listeners.remove(listener); }
+
+    // ---- InventoryStore ----
+
+    @Override
+    public Map<String, Long> loadInventory() {
+        return new TreeMap<>(inventory);
+    }
+
+    @Override
+    public void saveInventory(Map<String, Long> levels) {
+        for (Map.Entry<String, Long> e : levels.entrySet()) {
+            if (e.getValue() == null) inventory.remove(e.getKey());
+            else inventory.put(e.getKey(), e.getValue());
+        }
+    }
+}
@@ -0,0 +1,286 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Stock on hand per SKU, shared by every register: a menu item ("item:12") or an option
+ * ("icing:Maple", "filling:Custard"). Adding a line to an order reserves its units at once and
+ * removing the line (or clearing the order) gives them back; a checked-out order keeps them, as
+ * they are sold. A SKU that has no level is not tracked and never runs out.
+ *
+ * The level of a SKU is split over a few cells, each on its own cache line, and a thread
+ * reserves from the cell its id hashes to with one compare-and-set, moving on to the other cells
+ * when that one is short, so registers selling the same donut rarely touch the same cell.
+ * (A LongAdder spreads increments the same way but cannot refuse a decrement that would go
+ * below zero, which a reservation must.) Only when no single cell holds enough does a reserve
+ * take the SKU's lock, gather every cell and decide on the total; the level never goes negative.
+ * Reading a level takes the same lock, so a flush never sees the cells emptied by a gather.
+ *
+ * Levels reach the store in the background: every change marks the SKU dirty and a flusher
+ * saves the dirty levels every -Doakdonuts.inventory.flushMs (default 500) and on close. A crash
+ * loses at most the changes since the last flush, and units held by open orders stay taken out.
+ * A failed flush is logged, counted (inventory.flushErrors) and retried on the next one.
+ */
+public final class Inventory implements AutoCloseable {
+    private static final int STRIDE = 8;   // longs per cell: one 64 byte cache line
+    private static final int CELLS = Math.min(64, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) << 1);
+    private static final Metrics.Counter SHORTAGES = Metrics.counter("inventory.shortages");
+    private static final Metrics.Counter GATHERS = Metrics.counter("inventory.slowPathGathers");
+    private static final Metrics.Counter FLUSH_ERRORS = Metrics.counter("inventory.flushErrors");
+    private static final Metrics.Timer FLUSH = Metrics.timer("inventory.flush");
+
+    // the SKUs an order line draws on
+    public static String itemSku(int menuItemId) { return "item:" + menuItemId; }
+    public static String icingSku(String icing) { return "icing:" + icing; }
+    public static String fillingSku(String filling) { return "filling:" + filling; }
+
+    // "Custard filling", "Maple icing", or the item name for an item SKU (for messages)
+    public static String describe(String sku, String itemName) {
+        int colon = sku.indexOf(':');
+        if (sku.startsWith("item:")) return itemName != null ? itemName : sku;
+        return sku.substring(colon + 1) + " " + sku.substring(0, colon);
+    }
+
+    // the level of one SKU, striped over cells
+    static final class Stock {
+        private final AtomicLongArray cells;
+        private final int mask;
+        volatile boolean dirty;
+
+        Stock(int cellCount, long level) {
+            this.cells = new AtomicLongArray(cellCount * STRIDE);
+            this.mask = cellCount - 1;
+            spread(level);
+        }
+
+        // synchronized with gathers and sets, which empty the cells for a moment
+        synchronized long level() {
+            long sum = 0;
+            for (int i = 0; i <= mask; i++) sum += cells.get(i * STRIDE);
+            return sum;
+        }
+
+        boolean reserve(long qty) {
+            int home = home();
+            for (int n = 0; n <= mask; n++) {
+                int i = ((home + n) & mask) * STRIDE;
+                for (long v; (v = cells.get(i)) >= qty; ) {
+                    if (cells.compareAndSet(i, v, v - qty)) {
+                        dirty = true;
+                        return true;
+                    }
+                }
+            }
+            return reserveGathered(qty);
+        }
+
+        // no cell holds qty on its own: take every cell and decide on the total
+        private synchronized boolean reserveGathered(long qty) {
+            GATHERS.inc();
+            long total = 0;
+            for (int i = 0; i <= mask; i++) total += cells.getAndSet(i * STRIDE, 0);
+            boolean ok = total >= qty;
+            if (ok) total -= qty;
+            // spread the rest out again so the next reserves find it in their own cells
+            long each = total / (mask + 1), extra = total % (mask + 1);
+            for (int i = 0; i <= mask; i++) cells.getAndAdd(i * STRIDE, each + (i < extra ? 1 : 0));
+            if (ok) dirty = true;
+            return ok;
+        }
+
+        void release(long qty) {
+            cells.getAndAdd((home() & mask) * STRIDE, qty);
+            dirty = true;
+        }
+
+        synchronized void set(long level) {
+            for (int i = 0; i <= mask; i++) cells.getAndSet(i * STRIDE, 0);
+            spread(level);
+            dirty = true;
+        }
+
+        private void spread(long level) {
+            long each = level / (mask + 1), extra = level % (mask + 1);
+            for (int i = 0; i <= mask; i++) cells.getAndAdd(i * STRIDE, each + (i < extra ? 1 : 0));
+        }
+
+        private static int home() {
+            long id = Thread.currentThread().getId();
+            return (int) ((id * 0x9E3779B97F4A7C15L) >>> 40);
+        }
+    }
+
+    private final InventoryStore store;
+    private final int cellCount;
+    private final ConcurrentHashMap<String, Stock> stocks = new ConcurrentHashMap<>();
+    private final Set<String> untracked = ConcurrentHashMap.newKeySet();   // to delete on the next flush
+    private final Object flushLock = new Object();
+    private ScheduledExecutorService flusher;
+
+    public Inventory(InventoryStore store) {
+        this(store, CELLS);
+    }
+
+    // cellCount is rounded up to a power of two; 1 makes every SKU a single atomic counter
+    public Inventory(InventoryStore store, int cellCount) {
+        this.store = store;
+        this.cellCount = Integer.highestOneBit(Math.max(1, cellCount) * 2 - 1);
+        Metrics.gauge("inventory.trackedSkus", () -> stocks.size());
+    }
+
+    // load the levels from the store and start flushing every flushMillis (0: only on flush() and close())
+    public void open(long flushMillis) throws Exception {
+        for (Map.Entry<String, Long> e : store.loadInventory().entrySet()) stocks.put(e.getKey(), new Stock(cellCount, e.getValue()));
+        if (flushMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "inventory-flush");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void open() throws Exception {
+        open(Long.getLong("oakdonuts.inventory.flushMs", 500L));
+    }
+
+    // null when the SKU is not tracked
+    public Long level(String sku) {
+        Stock s = stocks.get(sku);
+        return s == null ? null : s.level();
+    }
+
+    // every tracked SKU with its level, sorted by SKU
+    public Map<String, Long> levels() {
+        Map<String, Long> out = new TreeMap<>();
+        for (Map.Entry<String, Stock> e : stocks.entrySet()) out.put(e.getKey(), e.getValue().level());
+        return out;
+    }
+
+    // set the level of a SKU (units held by open orders are already taken out); null stops tracking it
+    public void setLevel(String sku, Long level) {
+        if (level == null) {
+            if (stocks.remove(sku) != null) untracked.add(sku);
+            return;
+        }
+        untracked.remove(sku);
+        Stock s = stocks.get(sku);
+        if (s != null) {
+            s.set(Math.max(0, level));
+        } else {
+            Stock created = new Stock(cellCount, Math.max(0, level));
+            created.dirty = true;
+            Stock raced = stocks.putIfAbsent(sku, created);
+            if (raced != null) raced.set(Math.max(0, level));
+        }
+    }
+
+    // take qty units of a SKU; false (and nothing taken) when fewer are left. Untracked SKUs always succeed
+    public boolean reserve(String sku, int qty) {
+        Stock s = stocks.get(sku);
+        if (s == null || qty <= 0 || s.reserve(qty)) return true;
+        SHORTAGES.inc();
+        return false;
+    }
+
+    public void release(String sku, int qty) {
+        Stock s = stocks.get(sku);
+        if (s != null && qty > 0) s.release(qty);
+    }
+
+    /**
+     * Reserve everything an order line needs: the item and its icing and filling (null = none),
+     * qty of each. Returns null when all were reserved, otherwise the SKU that ran short, in
+     * which case nothing stays reserved.
+     */
+    public String reserveLine(int menuItemId, String icing, String filling, int qty) {
+        List<String> skus = lineSkus(menuItemId, icing, filling);
+        for (int i = 0; i < skus.size(); i++) {
+            if (!reserve(skus.get(i), qty)) {
+                for (int j = 0; j < i; j++) release(skus.get(j), qty);
+                return skus.get(i);
+            }
+        }
+        return null;
+    }
+
+    // give back what reserveLine took
+    public void releaseLine(int menuItemId, String icing, String filling, int qty) {
+        for (String sku : lineSkus(menuItemId, icing, filling)) release(sku, qty);
+    }
+
+    private static List<String> lineSkus(int menuItemId, String icing, String filling) {
+        List<String> skus = new ArrayList<>(3);
+        if (menuItemId > 0) skus.add(itemSku(menuItemId));
+        if (icing != null) skus.add(icingSku(icing));
+        if (filling != null) skus.add(fillingSku(filling));
+        return skus;
+    }
+
+    // save every changed level now
+    public void flush() throws Exception {
+        synchronized (flushLock) {
+            Map<String, Long> changed = new HashMap<>();
+            for (String sku : untracked) changed.put(sku, null);
+            for (Map.Entry<String, Stock> e : stocks.entrySet()) {
+                Stock s = e.getValue();
+                if (!s.dirty) continue;
+                s.dirty = false;   // before reading, so a change made meanwhile is saved next time
+                changed.put(e.getKey(), s.level());
+            }
+            if (changed.isEmpty()) return;
+            long t0 = System.nanoTime();
+            try {
+                store.saveInventory(changed);
+                for (Map.Entry<String, Long> e : changed.entrySet()) if (e.getValue() == null) untracked.remove(e.getKey());
+            } catch (Exception ex) {
+                for (String sku : changed.keySet()) {
+                    Stock s = stocks.get(sku);
+                    if (s != null) s.dirty = true;
+                }
+                throw ex;
+            } finally {
+                FLUSH.recordSince(t0);
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception ex) {
+            FLUSH_ERRORS.inc();
+            System.err.println("Failed to save inventory: " + ex.getMessage());
+        }
+    }
+
+    // stop the flusher and save what is left
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();   // still save below; flush() waits for a running flush
+            }
+        }
+        try {
+            flush();
+        } catch (IOException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException("Failed to save inventory: " + ex.getMessage(), ex);
+        }
+    }
+}
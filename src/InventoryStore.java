@@ -0,0 +1,15 @@
+import java.util.Map;
+
+/**
+ * Stock levels, implemented by every storage backend (see Store and Inventory).
+ * A SKU is a string such as "item:12" or "filling:Custard"; a SKU without a level is not
+ * tracked and never runs out.
+ */
+public interface InventoryStore {
+
+    // every tracked SKU with its stock on hand
+    Map<String, Long> loadInventory() throws Exception;
+
+    // write the given levels together; a null level stops tracking that SKU
+    void saveInventory(Map<String, Long> levels) throws Exception;
+}
@@ -0,0 +1,84 @@
+import javax.swing.DefaultListModel;
+import javax.swing.SwingUtilities;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One kitchen screen: a consumer of the KitchenRing that lists open tickets, oldest first, until
+ * they are bumped. The consumer thread formats each ticket as it arrives and, at the end of each
+ * batch, schedules one EDT update for everything that came in (never more than one pending), so
+ * a burst of orders costs the EDT one list update rather than one per order. At most
+ * MAX_TICKETS stay listed; the oldest fall off.
+ */
+public final class KitchenDisplay {
+    static final int MAX_TICKETS = 200;
+    private static final Metrics.Timer SHOWN = Metrics.timer("kitchen.checkoutToDisplay");
+
+    private final KitchenRing ring;
+    private final String name;
+    private final DefaultListModel<String> model = new DefaultListModel<>();
+    private final ConcurrentLinkedQueue<String> arrived = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final SimpleDateFormat time = new SimpleDateFormat("HH:mm");   // consumer thread only
+    private final StringBuilder text = new StringBuilder(128);            // consumer thread only
+    private volatile long batchPublishNanos;
+    private KitchenRing.Consumer consumer;
+
+    public KitchenDisplay(KitchenRing ring, String name) {
+        this.ring = ring;
+        this.name = name;
+    }
+
+    // the listed tickets (EDT)
+    public DefaultListModel<String> model() { return model; }
+
+    public void start() {
+        consumer = ring.startConsumer(name, this::onTicket, 256);
+    }
+
+    public void stop() {
+        if (consumer != null) ring.stopConsumer(consumer);
+        consumer = null;
+    }
+
+    // remove a ticket that has been made (EDT)
+    public void bump(int row) {
+        if (row >= 0 && row < model.size()) model.remove(row);
+    }
+
+    private void onTicket(KitchenRing.Ticket t, long sequence, boolean endOfBatch) {
+        arrived.add(format(t));
+        if (!endOfBatch) return;
+        batchPublishNanos = t.publishNanos;
+        if (scheduled.compareAndSet(false, true)) SwingUtilities.invokeLater(this::show);
+    }
+
+    // #1042  10:42  2x Glazed Donut (Maple, Jam) · 1x Latte
+    private String format(KitchenRing.Ticket t) {
+        text.setLength(0);
+        text.append('#').append(t.transactionId).append("  ").append(time.format(new Date(t.orderMillis))).append("  ");
+        for (int i = 0; i < t.lineCount; i++) {
+            if (i > 0) text.append(" · ");
+            text.append(t.qty[i]).append("x ").append(t.item[i]);
+            if (t.icing[i] != null || t.filling[i] != null) {
+                text.append(" (");
+                if (t.icing[i] != null) text.append(t.icing[i]);
+                if (t.icing[i] != null && t.filling[i] != null) text.append(", ");
+                if (t.filling[i] != null) text.append(t.filling[i]);
+                text.append(')');
+            }
+        }
+        if (t.moreLines > 0) text.append(" · +").append(t.moreLines).append(" more");
+        return text.toString();
+    }
+
+    private void show() {
+        scheduled.set(false);
+        long publishNanos = batchPublishNanos;
+        for (String ticket; (ticket = arrived.poll()) != null; ) model.addElement(ticket);
+        if (model.size() > MAX_TICKETS) model.removeRange(0, model.size() - MAX_TICKETS - 1);
+        SHOWN.recordSince(publishNanos);
+    }
+}
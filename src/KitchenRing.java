@@ -0,0 +1,214 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands completed orders from the store to the kitchen displays: a preallocated ring of
+ * tickets, one producer side and any number of consumers, in the style of the LMAX Disruptor.
+ *
+ * A ticket slot is filled in place (item names and options are the order's own String
+ * references, so nothing is allocated per order) and published by writing its sequence number,
+ * a volatile write that makes the rest of the slot visible. Each consumer runs on its own
+ * thread, takes everything published since it last looked as one batch (up to maxBatch) and
+ * then advances its own sequence; consumers never wait for each other. The producer only waits
+ * when the slowest consumer is a whole ring behind. Claiming a slot is one atomic increment, so
+ * a store that saves orders from several threads may publish from all of them.
+ *
+ * An idle consumer spins briefly (not on a single CPU), then parks; the producer unparks it after publishing, and it
+ * never sleeps longer than maxStaleness, which bounds how old a ticket can be when it is picked
+ * up even if a wake-up were missed. kitchen.handoff times publish-to-consumer for every ticket.
+ */
+public final class KitchenRing implements OrderStore.OrderListener {
+    // lines kept per ticket; the rest are counted in moreLines
+    public static final int MAX_LINES = 16;
+    // spinning only pays when another core is running the producer
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 2_000 : 0;
+    private static final Metrics.Timer HANDOFF = Metrics.timer("kitchen.handoff");
+    private static final Metrics.Counter PRODUCER_WAITS = Metrics.counter("kitchen.producerWaits");
+    private static final Metrics.Counter ERRORS = Metrics.counter("kitchen.handlerErrors");
+
+    // one slot of the ring; valid inside Handler.onTicket only, copy what you keep
+    public static final class Ticket {
+        volatile long sequence = -1;
+        public int transactionId;
+        public long orderMillis;
+        public long totalCents;
+        public long publishNanos;
+        public int lineCount;
+        public int moreLines;
+        public final String[] item = new String[MAX_LINES];
+        public final int[] qty = new int[MAX_LINES];
+        public final String[] icing = new String[MAX_LINES];
+        public final String[] filling = new String[MAX_LINES];
+    }
+
+    public interface Handler {
+        void onTicket(Ticket ticket, long sequence, boolean endOfBatch) throws Exception;
+    }
+
+    private final Ticket[] slots;
+    private final int mask;
+    private final long maxStalenessNanos;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private volatile Consumer[] consumers = new Consumer[0];
+    private volatile long gate = -1;   // a recent minimum of the consumers' sequences
+
+    // capacity is rounded up to a power of two
+    public KitchenRing(int capacity, long maxStalenessNanos) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Ticket[size];
+        for (int i = 0; i < size; i++) slots[i] = new Ticket();
+        this.mask = size - 1;
+        this.maxStalenessNanos = maxStalenessNanos;
+    }
+
+    // -Doakdonuts.kitchen.ringSize (default 1024) and -Doakdonuts.kitchen.maxStalenessMicros (default 500)
+    public static KitchenRing fromSystemProperties() {
+        return new KitchenRing(Integer.getInteger("oakdonuts.kitchen.ringSize", 1024),
+                Long.getLong("oakdonuts.kitchen.maxStalenessMicros", 500L) * 1000);
+    }
+
+    public int capacity() { return slots.length; }
+
+    // registered with the store: every saved order goes to the kitchen
+    @Override
+    public void orderSaved(DatabaseManager.OrderRow order, List<DatabaseManager.OrderLine> lines) {
+        publish(order, lines);
+    }
+
+    // publish an order for every consumer; waits only while the slowest consumer is a ring behind
+    public void publish(DatabaseManager.OrderRow order, List<DatabaseManager.OrderLine> lines) {
+        long seq = claimed.incrementAndGet();
+        long wrap = seq - slots.length;
+        if (wrap > gate) {
+            long min;
+            boolean waited = false;
+            while (wrap > (min = minSequence(seq - 1))) {
+                if (!waited) PRODUCER_WAITS.inc();
+                waited = true;
+                wakeConsumers();
+                LockSupport.parkNanos(1_000);
+            }
+            gate = min;
+        }
+        Ticket t = slots[(int) seq & mask];
+        t.transactionId = order.transactionId;
+        t.orderMillis = order.orderDate == null ? 0 : order.orderDate.getTime();
+        t.totalCents = order.totalCents;
+        int n = Math.min(lines.size(), MAX_LINES);
+        for (int i = 0; i < n; i++) {
+            DatabaseManager.OrderLine l = lines.get(i);
+            t.item[i] = l.itemName;
+            t.qty[i] = l.qty;
+            t.icing[i] = l.icing;
+            t.filling[i] = l.filling;
+        }
+        for (int i = n; i < t.lineCount; i++) t.item[i] = t.icing[i] = t.filling[i] = null;   // drop the old order's references
+        t.lineCount = n;
+        t.moreLines = lines.size() - n;
+        t.publishNanos = System.nanoTime();
+        t.sequence = seq;
+        wakeConsumers();
+    }
+
+    private void wakeConsumers() {
+        for (Consumer c : consumers) if (c.sleeping) LockSupport.unpark(c.thread);
+    }
+
+    private long minSequence(long ceiling) {
+        long min = ceiling;
+        for (Consumer c : consumers) min = Math.min(min, c.sequence);
+        return min;
+    }
+
+    /**
+     * Start a consumer thread that sees every ticket published from now on, in order. The
+     * handler is called on that thread; endOfBatch marks the last ticket available for now,
+     * the moment to push work elsewhere (a repaint, a flush). A handler that throws is logged
+     * and counted (kitchen.handlerErrors) and the ticket is skipped.
+     */
+    public synchronized Consumer startConsumer(String name, Handler handler, int maxBatch) {
+        Consumer c = new Consumer(name, handler, Math.max(1, maxBatch), claimed.get());
+        Consumer[] next = Arrays.copyOf(consumers, consumers.length + 1);
+        next[next.length - 1] = c;
+        consumers = next;
+        c.thread.start();
+        return c;
+    }
+
+    // stop the consumer; it finishes the ticket in hand and takes no more
+    public synchronized void stopConsumer(Consumer c) {
+        c.running = false;
+        LockSupport.unpark(c.thread);
+        Consumer[] next = new Consumer[consumers.length];
+        int n = 0;
+        for (Consumer x : consumers) if (x != c) next[n++] = x;
+        consumers = Arrays.copyOf(next, n);
+    }
+
+    // fields that the producer reads are kept apart from the slots and from each other
+    abstract static class Padding {
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    abstract static class Sequence extends Padding {
+        volatile long sequence;
+        volatile boolean sleeping;
+    }
+
+    public final class Consumer extends Sequence {
+        long q1, q2, q3, q4, q5, q6, q7;
+        private final String name;
+        private final Handler handler;
+        private final int maxBatch;
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        Consumer(String name, Handler handler, int maxBatch, long start) {
+            this.name = name;
+            this.handler = handler;
+            this.maxBatch = maxBatch;
+            this.sequence = start;
+            this.thread = new Thread(this::run, "kitchen-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        // tickets published but not yet consumed here
+        public long lag() { return Math.max(0, claimed.get() - sequence); }
+
+        private void run() {
+            long next = sequence + 1;
+            while (running) {
+                long last = next - 1;
+                while (last - next + 1 < maxBatch && slots[(int) (last + 1) & mask].sequence == last + 1) last++;
+                if (last < next) {
+                    idle(next);
+                    continue;
+                }
+                long now = System.nanoTime();
+                for (long s = next; s <= last; s++) {
+                    Ticket t = slots[(int) s & mask];
+                    HANDOFF.record(now - t.publishNanos);
+                    try {
+                        handler.onTicket(t, s, s == last);
+                    } catch (Exception ex) {
+                        ERRORS.inc();
+                        System.err.println("Kitchen consumer " + name + " failed on order " + t.transactionId + ": " + ex);
+                    }
+                }
+                sequence = last;
+                next = last + 1;
+            }
+        }
+
+        // spin, then park until the producer unparks us or maxStaleness passes
+        private void idle(long next) {
+            Ticket t = slots[(int) next & mask];
+            for (int i = 0; i < SPINS; i++) if (t.sequence == next || !running) return;
+            sleeping = true;
+            if (t.sequence != next && running) LockSupport.parkNanos(this, maxStalenessNanos);
+            sleeping = false;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The menu as the UI sees it: indexed by id and by name (ignoring case, like MenuStore), with
+ * a version that goes up by one on every change.
+ *
+ * Edits go through the cache, which writes to the store and then publishes one Change per
+ * item (added, updated or removed, with the item before and after), so views patch the one row
+ * that changed instead of reloading the menu. reload() replaces everything and publishes a
+ * RELOADED change carrying the whole menu, as does a bulk upsert (one change, not one per item). Writes are serialized and listeners are called on
+ * the writing thread before the write returns, in version order; a listener that updates Swing
+ * hands the change to the EDT with invokeLater, which keeps that order. Reads take no lock.
+ * A listener that throws is logged and counted (menu.listenerErrors).
+ */
+public final class MenuCache {
+    private static final Metrics.Counter ERRORS = Metrics.counter("menu.listenerErrors");
+    private static final Comparator<DatabaseManager.MenuItem> BY_ID = Comparator.comparingInt(mi -> mi.id);
+
+    public enum Kind { ADDED, UPDATED, REMOVED, RELOADED }
+
+    // one change to the menu; before is null for ADDED, after is null for REMOVED, both are null for RELOADED
+    public static final class Change {
+        public final Kind kind;
+        public final long version;
+        public final DatabaseManager.MenuItem before;
+        public final DatabaseManager.MenuItem after;
+        public final List<DatabaseManager.MenuItem> menu;   // RELOADED only: every item in id order
+
+        Change(Kind kind, long version, DatabaseManager.MenuItem before, DatabaseManager.MenuItem after, List<DatabaseManager.MenuItem> menu) {
+            this.kind = kind;
+            this.version = version;
+            this.before = before;
+            this.after = after;
+            this.menu = menu;
+        }
+    }
+
+    public interface Listener {
+        void menuChanged(Change change);
+    }
+
+    private final MenuStore store;
+    private final Map<Integer, DatabaseManager.MenuItem> byId = new ConcurrentHashMap<>();
+    private final Map<String, DatabaseManager.MenuItem> byName = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Object writeLock = new Object();
+    private volatile long version;
+
+    public MenuCache(MenuStore store) {
+        this.store = store;
+    }
+
+    public void addListener(Listener l) { listeners.addIfAbsent(l); }
+    public void removeListener(Listener l) { listeners.remove(l); }
+
+    public long version() { return version; }
+    public int size() { return byId.size(); }
+
+    // null when there is no such item
+    public DatabaseManager.MenuItem byId(int id) { return byId.get(id); }
+    public DatabaseManager.MenuItem byName(String name) { return name == null ? null : byName.get(MenuCatalog.fold(name)); }
+
+    // every item in id order (a copy; for building a view from scratch)
+    public List<DatabaseManager.MenuItem> items() {
+        List<DatabaseManager.MenuItem> items = new ArrayList<>(byId.values());
+        items.sort(BY_ID);
+        return items;
+    }
+
+    // load the menu from the store, seeding it with the given items when it is empty
+    public void reload(List<DatabaseManager.MenuItem> seedIfEmpty) throws Exception {
+        synchronized (writeLock) {
+            Map<String, DatabaseManager.MenuItem> loaded = store.loadMenuItems();
+            if (loaded.isEmpty() && seedIfEmpty != null && !seedIfEmpty.isEmpty()) {
+                store.seedMenuItems(seedIfEmpty);
+                loaded = store.loadMenuItems();
+            }
+            byId.clear();
+            byName.clear();
+            for (DatabaseManager.MenuItem mi : loaded.values()) index(mi);
+            List<DatabaseManager.MenuItem> menu = new ArrayList<>(loaded.values());
+            menu.sort(BY_ID);
+            publish(new Change(Kind.RELOADED, ++version, null, null, Collections.unmodifiableList(menu)));
+        }
+    }
+
+    public void reload() throws Exception {
+        reload(null);
+    }
+
+    // add or update many items as one transaction (see MenuStore.upsertMenuItems), then reload; returns how many were new
+    public int upsert(List<DatabaseManager.MenuItem> items) throws Exception {
+        synchronized (writeLock) {
+            int added = store.upsertMenuItems(items);
+            reload();
+            return added;
+        }
+    }
+
+    // add an item, or update the one that already has the name (see MenuStore.addMenuItem); returns the id
+    public int add(String name, String category, long priceCents) throws Exception {
+        synchronized (writeLock) {
+            int id = store.addMenuItem(name, category, priceCents);
+            if (id <= 0) return id;
+            DatabaseManager.MenuItem before = byId.get(id);
+            // an existing item keeps its stored name
+            DatabaseManager.MenuItem after = new DatabaseManager.MenuItem(id, before != null ? before.name : name, category, priceCents);
+            replace(before, after);
+            publish(new Change(before == null ? Kind.ADDED : Kind.UPDATED, ++version, before, after, null));
+            return id;
+        }
+    }
+
+    public boolean update(int id, String name, String category, long priceCents) throws Exception {
+        synchronized (writeLock) {
+            if (!store.updateMenuItem(id, name, category, priceCents)) return false;
+            DatabaseManager.MenuItem before = byId.get(id);
+            DatabaseManager.MenuItem after = new DatabaseManager.MenuItem(id, name, category, priceCents);
+            replace(before, after);
+            publish(new Change(before == null ? Kind.ADDED : Kind.UPDATED, ++version, before, after, null));
+            return true;
+        }
+    }
+
+    public boolean delete(int id) throws Exception {
+        synchronized (writeLock) {
+            if (!store.deleteMenuItem(id)) return false;
+            DatabaseManager.MenuItem before = byId.remove(id);
+            if (before != null) {
+                byName.remove(MenuCatalog.fold(before.name), before);
+                publish(new Change(Kind.REMOVED, ++version, before, null, null));
+            }
+            return true;
+        }
+    }
+
+    private void replace(DatabaseManager.MenuItem before, DatabaseManager.MenuItem after) {
+        if (before != null) byName.remove(MenuCatalog.fold(before.name), before);
+        index(after);
+    }
+
+    private void index(DatabaseManager.MenuItem mi) {
+        byId.put(mi.id, mi);
+        byName.put(MenuCatalog.fold(mi.name), mi);
+    }
+
+    private void publish(Change change) {
+        for (Listener l : listeners) {
+            try {
+                l.menuChanged(change);
+            } catch (RuntimeException ex) {
+                ERRORS.inc();
+                System.err.println("Menu listener " + l.getClass().getName() + " failed on " + change.kind + " (version "
+                        + change.version + "): " + ex);
+            }
+        }
+    }
+}
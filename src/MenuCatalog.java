@@ -0,0 +1,423 @@
+import javax.swing.DefaultListModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Immutable, indexed snapshot of the menu for the category filter and the search box.
+ *
+ * Names are case-folded once and indexed by character bigrams and trigrams, categories get
+ * their own posting lists, and the display text of every entry is formatted up front.
+ * A query is answered by intersecting the posting lists of its n-grams and confirming the
+ * few survivors with String.contains, so the cost depends on the number of matches rather
+ * than on the size of the menu. Matching keeps the old semantics: case-insensitive substring.
+ *
+ * with() derives the next snapshot after one entry is added, changed or removed. Only the
+ * posting lists of the n-grams that changed are copied; they are layered over this snapshot's,
+ * and the layers are flattened every MAX_LAYERS edits. The entries, names, display texts and
+ * categories are kept in Slots, which share every chunk but the edited one with the previous
+ * snapshot. Every other entry keeps its index (a removed entry leaves an empty slot), so what
+ * a Searcher has shown stays valid.
+ */
+public final class MenuCatalog<T> {
+    public static final String ALL = "All";
+    private static final int MAX_LAYERS = 32;
+    private static final int[] NONE = new int[0];
+
+    private final Function<T, String> name;
+    private final Function<T, String> category;
+    private final Function<T, String> displayText;
+    private final Slots<T> items;   // null in removed slots
+    private final Slots<String> folded;
+    private final Slots<String> display;
+    private final Slots<String> cats;
+    private final int[] all;
+    private final Map<String, int[]> byCategory;
+    private final Map<Long, int[]> grams;   // every n-gram, or only those changed since parent
+    private final MenuCatalog<T> parent;
+    private final int layers;
+
+    public MenuCatalog(Collection<T> source, Function<T, String> name, Function<T, String> category, Function<T, String> displayText) {
+        this.name = name;
+        this.category = category;
+        this.displayText = displayText;
+        int n = source.size();
+        List<T> list = new ArrayList<>(source);
+        String[] folded = new String[n];
+        String[] display = new String[n];
+        String[] cats = new String[n];
+        this.all = new int[n];
+        for (int i = 0; i < n; i++) {
+            T item = list.get(i);
+            all[i] = i;
+            folded[i] = fold(name.apply(item));
+            display[i] = displayText.apply(item);
+            cats[i] = foldCategory(category.apply(item));
+        }
+        this.items = new Slots<>(list.toArray());
+        this.folded = new Slots<>(folded);
+        this.display = new Slots<>(display);
+        this.cats = new Slots<>(cats);
+        this.byCategory = categories(cats);
+        this.grams = allGrams(folded);
+        this.parent = null;
+        this.layers = 0;
+    }
+
+    private MenuCatalog(MenuCatalog<T> from, Slots<T> items, Slots<String> folded, Slots<String> display, Slots<String> cats, int[] all,
+                        Map<String, int[]> byCategory, Map<Long, int[]> changedGrams) {
+        this.name = from.name;
+        this.category = from.category;
+        this.displayText = from.displayText;
+        this.items = items;
+        this.folded = folded;
+        this.display = display;
+        this.cats = cats;
+        this.all = all;
+        this.byCategory = byCategory;
+        if (from.layers + 1 >= MAX_LAYERS) {
+            // flatten: the full index with every layer's changes applied, oldest first
+            List<Map<Long, int[]>> layered = new ArrayList<>();
+            layered.add(changedGrams);
+            MenuCatalog<T> c = from;
+            for (; c.parent != null; c = c.parent) layered.add(c.grams);
+            Map<Long, int[]> merged = new HashMap<>(c.grams);
+            for (int i = layered.size() - 1; i >= 0; i--) merged.putAll(layered.get(i));
+            this.grams = merged;
+            this.parent = null;
+            this.layers = 0;
+        } else {
+            this.grams = changedGrams;
+            this.parent = from;
+            this.layers = from.layers + 1;
+        }
+    }
+
+    private static Map<String, int[]> categories(String[] cats) {
+        Map<String, IntList> lists = new HashMap<>();
+        for (int i = 0; i < cats.length; i++) if (cats[i] != null) lists.computeIfAbsent(cats[i], k -> new IntList()).add(i);
+        Map<String, int[]> out = new HashMap<>();
+        lists.forEach((k, v) -> out.put(k, v.toArray()));
+        return out;
+    }
+
+    private static Map<Long, int[]> allGrams(String[] folded) {
+        Map<Long, IntList> g = new HashMap<>();
+        for (int i = 0; i < folded.length; i++) {
+            String f = folded[i];
+            if (f == null) continue;
+            for (int k = 0; k + 2 <= f.length(); k++) {
+                addPosting(g, gram(f, k, 2), i);
+                if (k + 3 <= f.length()) addPosting(g, gram(f, k, 3), i);
+            }
+        }
+        Map<Long, int[]> out = new HashMap<>();
+        g.forEach((k, v) -> out.put(k, v.toArray()));
+        return out;
+    }
+
+    // the distinct bigrams and trigrams of a folded name (none for a removed slot)
+    private static Set<Long> gramsOf(String f) {
+        Set<Long> out = new HashSet<>();
+        if (f == null) return out;
+        for (int k = 0; k + 2 <= f.length(); k++) {
+            out.add(gram(f, k, 2));
+            if (k + 3 <= f.length()) out.add(gram(f, k, 3));
+        }
+        return out;
+    }
+
+    // posting list of an n-gram, looking through the layers of edits down to the full index
+    private int[] postings(long key) {
+        for (MenuCatalog<T> c = this; c != null; c = c.parent) {
+            int[] p = c.grams.get(key);
+            if (p != null) return p;
+        }
+        return NONE;
+    }
+
+    /**
+     * The catalog with the entry at index replaced by item: index == size() appends, and a null
+     * item removes the entry. All other entries keep their indices.
+     */
+    public MenuCatalog<T> with(int index, T item) {
+        if (index < 0 || index > size()) throw new IndexOutOfBoundsException("index " + index + ", size " + size());
+        boolean append = index == size();
+        String oldFolded = append ? null : folded.get(index), oldCat = append ? null : cats.get(index);
+        String newFolded = item == null ? null : fold(name.apply(item));
+        String newCat = item == null ? null : foldCategory(category.apply(item));
+        Slots<T> nextItems = items.with(index, item);
+        Slots<String> nextFolded = folded.with(index, newFolded);
+        Slots<String> nextDisplay = display.with(index, item == null ? null : displayText.apply(item));
+        Slots<String> nextCats = cats.with(index, newCat);
+
+        boolean wasLive = oldFolded != null, isLive = item != null;
+        int[] nextAll = wasLive == isLive ? all : isLive ? insert(all, index) : remove(all, index);
+        Map<String, int[]> nextByCategory = byCategory;
+        if (!Objects.equals(oldCat, newCat)) {
+            nextByCategory = new HashMap<>(byCategory);
+            if (oldCat != null) nextByCategory.put(oldCat, remove(nextByCategory.get(oldCat), index));
+            if (newCat != null) nextByCategory.put(newCat, insert(nextByCategory.getOrDefault(newCat, NONE), index));
+        }
+        Set<Long> before = gramsOf(oldFolded), after = gramsOf(newFolded);
+        Map<Long, int[]> changed = new HashMap<>();
+        for (Long k : before) if (!after.contains(k)) changed.put(k, remove(postings(k), index));
+        for (Long k : after) if (!before.contains(k)) changed.put(k, insert(postings(k), index));
+        return new MenuCatalog<>(this, nextItems, nextFolded, nextDisplay, nextCats, nextAll, nextByCategory, changed);
+    }
+
+    // a copy of the ascending array with v added (if missing)
+    private static int[] insert(int[] a, int v) {
+        int at = Arrays.binarySearch(a, v);
+        if (at >= 0) return a;
+        at = -at - 1;
+        int[] out = new int[a.length + 1];
+        System.arraycopy(a, 0, out, 0, at);
+        out[at] = v;
+        System.arraycopy(a, at, out, at + 1, a.length - at);
+        return out;
+    }
+
+    // a copy of the ascending array without v
+    private static int[] remove(int[] a, int v) {
+        int at = Arrays.binarySearch(a, v);
+        if (at < 0) return a;
+        int[] out = new int[a.length - 1];
+        System.arraycopy(a, 0, out, 0, at);
+        System.arraycopy(a, at + 1, out, at, a.length - at - 1);
+        return out;
+    }
+
+    private static void addPosting(Map<Long, IntList> g, long key, int i) {
+        IntList list = g.computeIfAbsent(key, k -> new IntList());
+        // a name can contain the same n-gram twice; postings stay unique and ascending
+        if (list.size == 0 || list.data[list.size - 1] != i) list.add(i);
+    }
+
+    // pack up to three chars of s starting at k (with the length) into one key
+    private static long gram(String s, int k, int len) {
+        long key = len;
+        for (int j = 0; j < len; j++) key = (key << 16) | s.charAt(k + j);
+        return key;
+    }
+
+    public static String fold(String s) {
+        return s == null ? "" : s.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String foldCategory(String cat) {
+        return cat == null ? fold(ALL) : fold(cat);
+    }
+
+    // number of slots, including removed ones; see with()
+    public int size() { return items.size(); }
+    public T item(int index) { return items.get(index); }
+    public String display(int index) { return display.get(index); }
+
+    // indices (ascending) of entries in the category (ALL for every entry) whose name contains the query
+    public int[] search(String category, String query) {
+        return filter(categoryPostings(category), fold(query));
+    }
+
+    private int[] categoryPostings(String category) {
+        if (category == null || ALL.equalsIgnoreCase(category)) return all;
+        int[] p = byCategory.get(fold(category));
+        return p == null ? NONE : p;
+    }
+
+    private int[] filter(int[] candidates, String q) {
+        if (q.isEmpty()) return candidates;
+        if (q.length() >= 2) {
+            int glen = Math.min(3, q.length());
+            // start from the rarest n-gram of the query, then intersect the rest
+            int[] best = null;
+            List<int[]> lists = new ArrayList<>();
+            for (int k = 0; k + glen <= q.length(); k++) {
+                int[] p = postings(gram(q, k, glen));
+                if (p.length == 0) return NONE;
+                lists.add(p);
+                if (best == null || p.length < best.length) best = p;
+            }
+            int[] acc = best;
+            for (int[] p : lists) if (p != best) acc = intersect(acc, p);
+            if (candidates != all) acc = intersect(acc, candidates);
+            candidates = acc;
+            // n-grams can match out of order; trigram hits of a 3-char query are already exact
+            if (q.length() <= 3) return candidates;
+        }
+        return scan(candidates, q);
+    }
+
+    private int[] scan(int[] candidates, String q) {
+        int[] out = new int[candidates.length];
+        int n = 0;
+        for (int i : candidates) if (folded.get(i).contains(q)) out[n++] = i;
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else { out[n++] = a[i]; i++; j++; }
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Search state for one list view. Typing more characters refines the previous result
+     * instead of searching the whole catalog, and applyTo() only inserts and removes the
+     * rows that changed rather than clearing the list model. update() and applyTo() keep
+     * separate state, so one thread may search while the EDT applies (see MenuSearchPipeline).
+     */
+    public final class Searcher {
+        private String lastCategory;
+        private String lastQuery;
+        private int[] lastResult;
+        private int[] shown;
+        private BitSet restyled = new BitSet();   // shown entries whose display text changed
+
+        public int[] update(String category, String query) {
+            String q = fold(query);
+            int[] result;
+            boolean refines = lastResult != null && !lastQuery.isEmpty() && q.contains(lastQuery);
+            if (refines && category != null && category.equals(lastCategory)) {
+                result = q.equals(lastQuery) ? lastResult : scan(lastResult, q);
+            } else {
+                result = search(category, q);
+            }
+            lastCategory = category;
+            lastQuery = q;
+            lastResult = result;
+            return result;
+        }
+
+        public int[] current() { return lastResult; }
+
+        // catalog index of a row the model shows, or -1
+        public int indexAt(int row) {
+            return shown == null || row < 0 || row >= shown.length ? -1 : shown[row];
+        }
+
+        // row the model shows the catalog index at, or -1
+        public int rowOf(int index) {
+            int row = shown == null ? -1 : Arrays.binarySearch(shown, index);
+            return row < 0 ? -1 : row;
+        }
+
+        // bring the model from what it showed last time to the current result with minimal edits
+        public void applyTo(DefaultListModel<String> model) {
+            applyTo(model, lastResult);
+        }
+
+        // same, for a result update() returned earlier
+        public void applyTo(DefaultListModel<String> model, int[] result) {
+            int[] next = result == null ? new int[0] : result;
+            if (shown == null || model.size() != shown.length) {
+                model.clear();
+                List<String> rows = new ArrayList<>(next.length);
+                for (int i : next) rows.add(display.get(i));
+                model.addAll(rows);
+            } else {
+                // both arrays are ascending catalog indices: merge-walk them
+                int i = 0, j = 0, row = 0;
+                while (i < shown.length || j < next.length) {
+                    if (j == next.length || (i < shown.length && shown[i] < next[j])) {
+                        int start = row;
+                        while (i < shown.length && (j == next.length || shown[i] < next[j])) { i++; row++; }
+                        model.removeRange(start, row - 1);
+                        row = start;
+                    } else if (i == shown.length || next[j] < shown[i]) {
+                        model.add(row++, display.get(next[j++]));
+                    } else {
+                        if (restyled.get(next[j])) model.set(row, display.get(next[j]));
+                        i++; j++; row++;
+                    }
+                }
+            }
+            shown = next;
+            restyled.clear();
+        }
+    }
+
+    public Searcher newSearcher() {
+        return new Searcher();
+    }
+
+    /**
+     * A searcher for this catalog, made by with(changed, ...) from the one previous belongs to,
+     * that starts from what previous showed: its next applyTo() only touches the changed row
+     * (and any others the query now matches or misses). Call on the thread that calls applyTo().
+     */
+    public Searcher newSearcher(MenuCatalog<T>.Searcher previous, int changed) {
+        Searcher s = new Searcher();
+        s.shown = previous.shown;
+        s.restyled = (BitSet) previous.restyled.clone();
+        s.restyled.set(changed);
+        return s;
+    }
+
+    /**
+     * Fixed-size array that is never changed in place, stored in chunks of CHUNK slots. with()
+     * copies the chunk holding the index and the table of chunks, and shares all other chunks,
+     * so an edit costs CHUNK + size / CHUNK slot copies rather than size.
+     */
+    private static final class Slots<E> {
+        private static final int SHIFT = 8, CHUNK = 1 << SHIFT, MASK = CHUNK - 1;
+        private final Object[][] chunks;
+        private final int size;
+
+        Slots(Object[] values) {
+            this.size = values.length;
+            this.chunks = new Object[(size + MASK) >>> SHIFT][];
+            for (int c = 0; c < chunks.length; c++) chunks[c] = Arrays.copyOfRange(values, c << SHIFT, (c + 1) << SHIFT);
+        }
+
+        private Slots(Object[][] chunks, int size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+        int size() { return size; }
+
+        @SuppressWarnings("unchecked")
+        E get(int index) {
+            if (index >= size) throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+            return (E) chunks[index >>> SHIFT][index & MASK];
+        }
+
+        // this array with value at index; index == size() appends
+        Slots<E> with(int index, E value) {
+            int c = index >>> SHIFT;
+            Object[][] next = Arrays.copyOf(chunks, Math.max(chunks.length, c + 1));
+            Object[] chunk = c < chunks.length ? chunks[c].clone() : new Object[CHUNK];
+            chunk[index & MASK] = value;
+            next[c] = chunk;
+            return new Slots<>(next, Math.max(size, index + 1));
+        }
+    }
+
+    // growable int array used while building posting lists
+    private static final class IntList {
+        int[] data = new int[4];
+        int size;
+
+        void add(int v) {
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = v;
+        }
+
+        int[] toArray() { return Arrays.copyOf(data, size); }
+    }
+}
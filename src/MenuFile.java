@@ -0,0 +1,422 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Menus in bulk: a whole seasonal menu read from a file and stored in one go, or the menu
+ * written out to one. Two formats, chosen by the file name (*.json is JSON, anything else CSV):
+ *
+ *   name,category,price                       [ {"name": "Glazed Donut", "category": "Donuts", "price": 1.49},
+ *   Glazed Donut,Donuts,1.49                    {"name": "Latte", "category": "Drinks", "price": "3.00"} ]
+ *   "Tomato, Basil Sandwich",Sandwiches,4.50
+ *
+ * CSV takes its columns from the header row (in any order; other columns are ignored) and
+ * quotes fields as usual. The file is read as a stream and every item is checked (a name of at
+ * most 200 characters, given once ignoring case; a category of at most 50, Donuts when empty; a
+ * price that Money.parse reads and that is not negative) before anything is stored; the errors
+ * of a bad file are reported together, with their line numbers, and nothing is imported. The
+ * items then go to MenuCache.upsert: one transaction, keyed on the name, added or updated.
+ *
+ * An export is written under a temporary name (file.part) and renamed when complete.
+ */
+public final class MenuFile {
+    private static final int MAX_NAME = 200, MAX_CATEGORY = 50;   // the menu_items columns
+    private static final int MAX_ERRORS = 10;                     // reported; the rest are counted
+    private static final Metrics.Timer IMPORT = Metrics.timer("import.menu");
+
+    public enum Format {
+        CSV, JSON;
+
+        public static Format forFile(Path file) {
+            return file.getFileName().toString().toLowerCase().endsWith(".json") ? JSON : CSV;
+        }
+    }
+
+    // what an import did
+    public static final class Summary {
+        public final int items;
+        public final int added;
+        public final int updated;
+        public final long readNanos;    // parsing and checking the file
+        public final long storeNanos;   // the upsert and the menu reload after it
+
+        Summary(int items, int added, long readNanos, long storeNanos) {
+            this.items = items;
+            this.added = added;
+            this.updated = items - added;
+            this.readNanos = readNanos;
+            this.storeNanos = storeNanos;
+        }
+    }
+
+    private MenuFile() {}
+
+    // read and check a file, then add or update its items; IllegalArgumentException lists what is wrong with a bad file
+    public static Summary importFile(MenuCache menu, Path file) throws Exception {
+        long t0 = System.nanoTime();
+        try {
+            List<DatabaseManager.MenuItem> items = read(file);
+            long t1 = System.nanoTime();
+            int added = items.isEmpty() ? 0 : menu.upsert(items);
+            return new Summary(items.size(), added, t1 - t0, System.nanoTime() - t1);
+        } finally {
+            IMPORT.recordSince(t0);
+        }
+    }
+
+    public static List<DatabaseManager.MenuItem> read(Path file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return read(in, Format.forFile(file), file.getFileName().toString());
+        }
+    }
+
+    // the items of a menu file (ids are 0); source names the file in error messages
+    public static List<DatabaseManager.MenuItem> read(Reader in, Format format, String source) throws IOException {
+        Checker checker = new Checker(source);
+        Chars chars = new Chars(in);
+        if (chars.peek() == '\uFEFF') chars.read();   // a byte order mark, as spreadsheets write
+        if (format == Format.JSON) new JsonReader(chars, checker).read();
+        else readCsv(chars, checker);
+        return checker.finish();
+    }
+
+    // write items (in the order given) to a file; returns how many
+    public static int export(Collection<DatabaseManager.MenuItem> items, Path file) throws IOException {
+        Format format = Format.forFile(file);
+        Path part = file.resolveSibling(file.getFileName() + ".part");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(part, StandardCharsets.UTF_8)) {
+                if (format == Format.JSON) writeJson(items, out);
+                else writeCsv(items, out);
+            }
+            Files.move(part, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(part);
+        }
+        return items.size();
+    }
+
+    // ---- checking ----
+
+    // checks one item at a time and keeps the good ones; finish() throws when any were bad
+    private static final class Checker {
+        private final String source;
+        private final List<DatabaseManager.MenuItem> items = new ArrayList<>();
+        private final Map<String, Integer> lineOfName = new HashMap<>();
+        private final List<String> errors = new ArrayList<>();
+        private int errorCount;
+
+        Checker(String source) {
+            this.source = source;
+        }
+
+        void item(int line, String name, String category, String price) {
+            name = name == null ? "" : name.trim();
+            category = category == null || category.trim().isEmpty() ? "Donuts" : category.trim();
+            if (name.isEmpty()) {
+                error(line, "missing name");
+                return;
+            }
+            if (name.length() > MAX_NAME) error(line, "name longer than " + MAX_NAME + " characters");
+            if (category.length() > MAX_CATEGORY) error(line, "category longer than " + MAX_CATEGORY + " characters");
+            Integer first = lineOfName.putIfAbsent(MenuCatalog.fold(name), line);
+            if (first != null) error(line, "\"" + name + "\" is already on line " + first);
+            long cents = -1;
+            if (price == null || price.trim().isEmpty()) {
+                error(line, "missing price for \"" + name + "\"");
+            } else {
+                try {
+                    cents = Money.parse(price.trim());
+                    if (cents < 0) error(line, "negative price for \"" + name + "\"");
+                } catch (NumberFormatException nfe) {
+                    error(line, "bad price \"" + price.trim() + "\" for \"" + name + "\"");
+                }
+            }
+            if (errorCount == 0) items.add(new DatabaseManager.MenuItem(0, name, category, cents));
+        }
+
+        void error(int line, String message) {
+            if (errorCount++ < MAX_ERRORS) errors.add("line " + line + ": " + message);
+        }
+
+        List<DatabaseManager.MenuItem> finish() {
+            if (errorCount == 0) return items;
+            StringBuilder sb = new StringBuilder(source).append(": ").append(errorCount).append(errorCount == 1 ? " problem" : " problems");
+            for (String e : errors) sb.append('\n').append(e);
+            if (errorCount > errors.size()) sb.append("\n...");
+            throw new IllegalArgumentException(sb.toString());
+        }
+    }
+
+    // ---- reading ----
+
+    // characters with one of lookahead and the current line number
+    private static final class Chars {
+        private final Reader in;
+        private int next = -2;
+        int line = 1;
+
+        Chars(Reader in) {
+            this.in = in;
+        }
+
+        int peek() throws IOException {
+            if (next == -2) next = in.read();
+            return next;
+        }
+
+        int read() throws IOException {
+            int c = peek();
+            next = -2;
+            if (c == '\n') line++;
+            return c;
+        }
+    }
+
+    private static void readCsv(Chars in, Checker checker) throws IOException {
+        List<String> header = csvRecord(in, checker);
+        if (header == null) return;
+        int name = -1, category = -1, price = -1;
+        for (int i = 0; i < header.size(); i++) {
+            switch (MenuCatalog.fold(header.get(i))) {
+                case "name": name = i; break;
+                case "category": category = i; break;
+                case "price": price = i; break;
+                default: break;
+            }
+        }
+        if (name < 0 || price < 0) {
+            checker.error(1, "the header row must name the columns name, category and price");
+            return;
+        }
+        for (int line = in.line; ; line = in.line) {
+            List<String> record = csvRecord(in, checker);
+            if (record == null) return;
+            if (record.size() == 1 && record.get(0).trim().isEmpty()) continue;   // blank line
+            checker.item(line, field(record, name), field(record, category), field(record, price));
+        }
+    }
+
+    private static String field(List<String> record, int column) {
+        return column >= 0 && column < record.size() ? record.get(column) : null;
+    }
+
+    // the fields of one record, or null at the end; a quoted field may hold commas, "" and line breaks
+    private static List<String> csvRecord(Chars in, Checker checker) throws IOException {
+        if (in.peek() < 0) return null;
+        int line = in.line;
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            int c = in.read();
+            if (quoted) {
+                if (c < 0) {
+                    checker.error(line, "quoted field is never closed");
+                    fields.add(field.toString());
+                    return fields;
+                }
+                if (c != '"') field.append((char) c);
+                else if (in.peek() == '"') field.append((char) in.read());
+                else quoted = false;
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c < 0) {
+                fields.add(field.toString());
+                return fields;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+        }
+    }
+
+    // an array of objects with name, category and price (a string or a number); other keys are ignored
+    private static final class JsonReader {
+        private final Chars in;
+        private final Checker checker;
+
+        JsonReader(Chars in, Checker checker) {
+            this.in = in;
+            this.checker = checker;
+        }
+
+        void read() throws IOException {
+            space();
+            if (in.peek() < 0) return;
+            expect('[');
+            space();
+            if (in.peek() == ']') {
+                in.read();
+            } else {
+                while (true) {
+                    item();
+                    space();
+                    int c = in.read();
+                    if (c == ']') break;
+                    if (c != ',') throw syntax("expected , or ] after an item");
+                }
+            }
+            space();
+            if (in.peek() >= 0) throw syntax("more after the closing ]");
+        }
+
+        private void item() throws IOException {
+            space();
+            int line = in.line;
+            expect('{');
+            String name = null, category = null, price = null;
+            space();
+            if (in.peek() == '}') {
+                in.read();
+            } else {
+                while (true) {
+                    space();
+                    String key = string();
+                    space();
+                    expect(':');
+                    space();
+                    String value = value();
+                    switch (key) {
+                        case "name": name = value; break;
+                        case "category": category = value; break;
+                        case "price": price = value; break;
+                        default: break;
+                    }
+                    space();
+                    int c = in.read();
+                    if (c == '}') break;
+                    if (c != ',') throw syntax("expected , or } in an item");
+                }
+            }
+            checker.item(line, name, category, price);
+        }
+
+        // a string, a number as written, or null
+        private String value() throws IOException {
+            int c = in.peek();
+            if (c == '"') return string();
+            if (c == 'n') {
+                for (char ch : "null".toCharArray()) if (in.read() != ch) throw syntax("expected a string, a number or null");
+                return null;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (; c >= 0 && (Character.isDigit(c) || "+-.eE".indexOf(c) >= 0); c = in.peek()) sb.append((char) in.read());
+            if (sb.length() == 0) throw syntax("expected a string, a number or null");
+            return sb.toString();
+        }
+
+        private String string() throws IOException {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                int c = in.read();
+                if (c < 0 || c == '\n') throw syntax("string is never closed");
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append((char) c);
+                    continue;
+                }
+                int e = in.read();
+                switch (e) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(in.read(), 16);
+                            if (digit < 0) throw syntax("bad \\u escape");
+                            code = code * 16 + digit;
+                        }
+                        sb.append((char) code);
+                        break;
+                    case '"': case '\\': case '/': sb.append((char) e); break;
+                    default: throw syntax("bad escape in a string");
+                }
+            }
+        }
+
+        private void space() throws IOException {
+            while (in.peek() >= 0 && Character.isWhitespace(in.peek())) in.read();
+        }
+
+        private void expect(char c) throws IOException {
+            if (in.read() != c) throw syntax("expected " + c);
+        }
+
+        // the structure is broken, so there is nothing more to check
+        private IllegalArgumentException syntax(String message) {
+            return new IllegalArgumentException(checker.source + ": line " + in.line + ": " + message);
+        }
+    }
+
+    // ---- writing ----
+
+    private static void writeCsv(Collection<DatabaseManager.MenuItem> items, Writer out) throws IOException {
+        out.write("name,category,price\n");
+        for (DatabaseManager.MenuItem mi : items) {
+            out.write(csv(mi.name));
+            out.write(',');
+            out.write(csv(mi.category == null ? "" : mi.category));
+            out.write(',');
+            out.write(Money.toPlainString(mi.priceCents));
+            out.write('\n');
+        }
+    }
+
+    private static String csv(String s) {
+        boolean quote = !s.equals(s.trim());
+        for (int i = 0; i < s.length() && !quote; i++) quote = ",\"\r\n".indexOf(s.charAt(i)) >= 0;
+        return quote ? '"' + s.replace("\"", "\"\"") + '"' : s;
+    }
+
+    private static void writeJson(Collection<DatabaseManager.MenuItem> items, Writer out) throws IOException {
+        out.write('[');
+        boolean first = true;
+        for (DatabaseManager.MenuItem mi : items) {
+            out.write(first ? "\n  " : ",\n  ");
+            first = false;
+            out.write("{\"name\": ");
+            json(mi.name, out);
+            out.write(", \"category\": ");
+            if (mi.category == null) out.write("null");
+            else json(mi.category, out);
+            out.write(", \"price\": ");
+            out.write(Money.toPlainString(mi.priceCents));
+            out.write('}');
+        }
+        out.write("\n]\n");
+    }
+
+    private static void json(String s, Writer out) throws IOException {
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format("\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,145 @@
+import javax.swing.DefaultListModel;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a list model in step with a search box and category filter without doing the matching
+ * on the EDT.
+ *
+ * Keystrokes restart a debounce timer (-Doakdonuts.search.debounceMs, default 60; 0 searches on
+ * every keystroke), so a paste or a burst of typing becomes one search. The search runs on a
+ * single worker thread against the current MenuCatalog, which is an immutable snapshot, so
+ * nothing is shared with the EDT while matching. Every request gets a generation number, and
+ * results from a superseded request or an older catalog are dropped. Only the latest result is
+ * diffed into the list model, back on the EDT. A menu edit (applyChange) swaps in the next
+ * catalog snapshot the same way, so the list changes by the edited row rather than being rebuilt.
+ * afterApply runs only once a query or category refresh is shown; after a menu edit the entry
+ * that was selected stays selected (by catalog index, which is stable across edits).
+ *
+ * Everything except the worker's matching runs on the EDT.
+ */
+public final class MenuSearchPipeline<T> {
+    private static final Metrics.Timer SEARCH = Metrics.timer("ui.menuSearch");
+    private static final Metrics.Timer APPLY = Metrics.timer("ui.refreshMenu");
+    private static final Metrics.Counter STALE = Metrics.counter("ui.menuSearch.stale");
+
+    private final DefaultListModel<String> model;
+    private final Supplier<String> category;
+    private final Supplier<String> query;
+    private final Runnable afterApply;
+    private ListSelectionModel selection;   // kept on the same entry across menu edits, if set
+    private final Timer debounce;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "menu-search");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private MenuCatalog<T> catalog;
+    private MenuCatalog<T>.Searcher searcher;   // update() on the worker, applyTo() on the EDT
+    private volatile long generation;
+    private long published;   // generation whose result the model shows
+    private boolean requeried;   // a query or category refresh is waiting to be shown
+
+    public MenuSearchPipeline(DefaultListModel<String> model, Supplier<String> category, Supplier<String> query,
+                              Runnable afterApply, int debounceMillis) {
+        this.model = model;
+        this.category = category;
+        this.query = query;
+        this.afterApply = afterApply;
+        this.debounce = debounceMillis > 0 ? new Timer(debounceMillis, e -> refreshNow()) : null;
+        if (debounce != null) debounce.setRepeats(false);
+    }
+
+    public static <T> MenuSearchPipeline<T> fromSystemProperties(DefaultListModel<String> model, Supplier<String> category,
+                                                                 Supplier<String> query, Runnable afterApply) {
+        return new MenuSearchPipeline<>(model, category, query, afterApply, Integer.getInteger("oakdonuts.search.debounceMs", 60));
+    }
+
+    // a new menu was loaded: search it right away, dropping anything still running on the old one
+    public void setCatalog(MenuCatalog<T> catalog) {
+        this.catalog = catalog;
+        this.searcher = catalog.newSearcher();
+        refreshNow();
+    }
+
+    // one entry was added, changed or removed (see MenuCatalog.with): search the next snapshot and
+    // patch the rows that differ, keeping the rest of the list as it is
+    public void applyChange(int index, T item) {
+        MenuCatalog<T> next = catalog.with(index, item);
+        MenuCatalog<T>.Searcher s = next.newSearcher(searcher, index);
+        catalog = next;
+        searcher = s;
+        refresh();
+    }
+
+    public MenuCatalog<T> catalog() { return catalog; }
+
+    // the list's selection, so a menu edit leaves the selected entry selected
+    public void setSelection(ListSelectionModel selection) { this.selection = selection; }
+
+    // a keystroke: search once typing pauses
+    public void requestRefresh() {
+        if (debounce == null) refreshNow();
+        else debounce.restart();
+    }
+
+    // search now (e.g. the category changed)
+    public void refreshNow() {
+        requeried = true;
+        refresh();
+    }
+
+    private void refresh() {
+        if (debounce != null) debounce.stop();
+        if (searcher == null) return;
+        long gen = ++generation;
+        MenuCatalog<T>.Searcher s = searcher;
+        String cat = category.get(), q = query.get();
+        worker.execute(() -> {
+            if (gen != generation) {   // a newer request is already queued
+                STALE.inc();
+                return;
+            }
+            long t0 = System.nanoTime();
+            int[] result = s.update(cat, q);
+            SEARCH.recordSince(t0);
+            SwingUtilities.invokeLater(() -> publish(gen, s, result));
+        });
+    }
+
+    private void publish(long gen, MenuCatalog<T>.Searcher s, int[] result) {
+        if (gen != generation || s != searcher) {
+            STALE.inc();
+            return;
+        }
+        long t0 = System.nanoTime();
+        int row = selection == null || requeried ? -1 : selection.getMinSelectionIndex();
+        int selected = row < 0 ? -1 : s.indexAt(row);
+        s.applyTo(model, result);
+        published = gen;
+        if (requeried) {
+            requeried = false;
+            afterApply.run();
+        } else if (selected >= 0) {
+            int now = s.rowOf(selected);
+            if (now >= 0) selection.setSelectionInterval(now, now);
+            else selection.clearSelection();
+        }
+        APPLY.recordSince(t0);
+    }
+
+    // true when no search is waiting or running; for tests and benchmarks (EDT)
+    public boolean idle() {
+        return (debounce == null || !debounce.isRunning()) && published == generation;
+    }
+
+    public void shutdown() {
+        if (debounce != null) debounce.stop();
+        worker.shutdownNow();
+    }
+}
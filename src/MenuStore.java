@@ -0,0 +1,27 @@
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Menu persistence, implemented by every storage backend (see Store).
+ * Menu names are unique ignoring case.
+ */
+public interface MenuStore {
+
+    // all menu items in id order, keyed by name
+    LinkedHashMap<String, DatabaseManager.MenuItem> loadMenuItems() throws Exception;
+
+    // add an item and return its id; a name that already exists (ignoring case) updates that item instead
+    int addMenuItem(String name, String category, long priceCents) throws Exception;
+
+    // add several items at once (ids of the given items are ignored)
+    void seedMenuItems(List<DatabaseManager.MenuItem> items) throws Exception;
+
+    // add or update several items as one transaction, each keyed on its name like addMenuItem
+    // (ids of the given items are ignored); returns how many were new, the rest updated an item
+    int upsertMenuItems(List<DatabaseManager.MenuItem> items) throws Exception;
+
+    // false when the id does not exist or another item already has the name
+    boolean updateMenuItem(int id, String name, String category, long priceCents) throws Exception;
+
+    boolean deleteMenuItem(int id) throws Exception;
+}
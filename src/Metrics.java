@@ -0,0 +1,277 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide metrics: counters, gauges and latency timers, looked up by name and kept for the
+ * life of the JVM. Recording is lock-free and allocation-free (a LongAdder, or a few atomic adds
+ * into a fixed histogram), so it is cheap enough for every database call and every EDT event.
+ *
+ * Timers keep an HDR-style log-linear histogram of nanoseconds: exact below 32 ns, then 32
+ * buckets per power of two, so any percentile is within about 3% of the true value.
+ *
+ * Everything is visible through JMX (oakdonuts:type=Timer|Counter|Gauge,name=...) unless
+ * -Doakdonuts.metrics.jmx=false, and in the app's Diagnostics dialog. With
+ * -Doakdonuts.metrics.dump=metrics.txt (or .json) a report is written there every
+ * oakdonuts.metrics.dumpSeconds (default 60) seconds.
+ */
+public final class Metrics {
+    private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private static final boolean JMX = !"false".equals(System.getProperty("oakdonuts.metrics.jmx"));
+    private static boolean jmxFailed;
+
+    static {
+        String dump = System.getProperty("oakdonuts.metrics.dump");
+        if (dump != null) startDumper(Paths.get(dump), Integer.getInteger("oakdonuts.metrics.dumpSeconds", 60));
+    }
+
+    private Metrics() {}
+
+    public static Counter counter(String name) {
+        Counter c = counters.get(name);
+        if (c == null) {
+            Counter created = new Counter();
+            c = counters.putIfAbsent(name, created);
+            if (c == null) {
+                c = created;
+                register("Counter", name, c);
+            }
+        }
+        return c;
+    }
+
+    public static Timer timer(String name) {
+        Timer t = timers.get(name);
+        if (t == null) {
+            Timer created = new Timer();
+            t = timers.putIfAbsent(name, created);
+            if (t == null) {
+                t = created;
+                register("Timer", name, t);
+            }
+        }
+        return t;
+    }
+
+    // a value read when reported (pool in use, queue depth, ...); registering a name again replaces it
+    public static void gauge(String name, LongSupplier value) {
+        Gauge g = gauges.get(name);
+        if (g == null) {
+            Gauge created = new Gauge();
+            g = gauges.putIfAbsent(name, created);
+            if (g == null) {
+                g = created;
+                register("Gauge", name, g);
+            }
+        }
+        g.value = value;
+    }
+
+    public interface CounterMXBean {
+        long getCount();
+    }
+
+    public interface GaugeMXBean {
+        long getValue();
+    }
+
+    public interface TimerMXBean {
+        long getCount();
+        double getMeanMicros();
+        double getP50Micros();
+        double getP99Micros();
+        double getP999Micros();
+        double getMaxMicros();
+    }
+
+    public static final class Counter implements CounterMXBean {
+        private final LongAdder count = new LongAdder();
+
+        public void inc() { count.increment(); }
+        public void add(long n) { count.add(n); }
+        @Override public long getCount() { return count.sum(); }
+    }
+
+    public static final class Gauge implements GaugeMXBean {
+        private volatile LongSupplier value = () -> 0;
+
+        @Override
+        public long getValue() {
+            try {
+                return value.getAsLong();
+            } catch (RuntimeException ex) {
+                return -1;
+            }
+        }
+    }
+
+    public static final class Timer implements TimerMXBean {
+        private static final int SUB_BITS = 5;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int MAX_EXPONENT = 42;   // 2^42 ns is over an hour; longer times land in the last bucket
+        private static final int BUCKETS = SUB + (MAX_EXPONENT - SUB_BITS + 1) * SUB;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            buckets.incrementAndGet(index(nanos));
+            count.increment();
+            sum.add(nanos);
+            long m;
+            while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) { }
+        }
+
+        // record the time since a System.nanoTime() taken at the start
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        static int index(long v) {
+            if (v < SUB) return (int) v;
+            int exponent = 63 - Long.numberOfLeadingZeros(v);
+            if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+            int shift = exponent - SUB_BITS;
+            return SUB + shift * SUB + (int) (v >>> shift) - SUB;
+        }
+
+        // largest value that falls into bucket i
+        static long upperBound(int i) {
+            if (i < SUB) return i;
+            int shift = (i - SUB) / SUB, sub = (i - SUB) % SUB;
+            return ((long) (SUB + sub + 1) << shift) - 1;
+        }
+
+        public Snapshot snapshot() {
+            long[] copy = new long[BUCKETS];
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) n += copy[i] = buckets.get(i);
+            return new Snapshot(copy, n, sum.sum(), max.get());
+        }
+
+        @Override public long getCount() { return count.sum(); }
+        @Override public double getMeanMicros() { return snapshot().meanMicros(); }
+        @Override public double getP50Micros() { return snapshot().percentileMicros(50); }
+        @Override public double getP99Micros() { return snapshot().percentileMicros(99); }
+        @Override public double getP999Micros() { return snapshot().percentileMicros(99.9); }
+        @Override public double getMaxMicros() { return max.get() / 1000.0; }
+    }
+
+    // a consistent-enough copy of a timer (buckets are read one by one while others record)
+    public static final class Snapshot {
+        private final long[] buckets;
+        public final long count;
+        private final long sumNanos;
+        private final long maxNanos;
+
+        Snapshot(long[] buckets, long count, long sumNanos, long maxNanos) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sumNanos = sumNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public double meanMicros() { return count == 0 ? 0 : sumNanos / (double) count / 1000.0; }
+        public double maxMicros() { return maxNanos / 1000.0; }
+
+        // p in [0, 100]; the upper edge of the bucket holding that rank, never above the max seen
+        public double percentileMicros(double p) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) return Math.min(Timer.upperBound(i), maxNanos) / 1000.0;
+            }
+            return maxMicros();
+        }
+    }
+
+    public static Map<String, Timer> timers() { return new TreeMap<>(timers); }
+    public static Map<String, Counter> counters() { return new TreeMap<>(counters); }
+    public static Map<String, Gauge> gauges() { return new TreeMap<>(gauges); }
+
+    public static String dumpText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-32s %10s %10s %10s %10s %10s %10s%n", "timer (us)", "count", "mean", "p50", "p99", "p99.9", "max"));
+        for (Map.Entry<String, Timer> e : timers().entrySet()) {
+            Snapshot s = e.getValue().snapshot();
+            sb.append(String.format(Locale.ROOT, "%-32s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", e.getKey(), s.count,
+                    s.meanMicros(), s.percentileMicros(50), s.percentileMicros(99), s.percentileMicros(99.9), s.maxMicros()));
+        }
+        for (Map.Entry<String, Counter> e : counters().entrySet()) sb.append(String.format("%-32s %10d%n", e.getKey(), e.getValue().getCount()));
+        for (Map.Entry<String, Gauge> e : gauges().entrySet()) sb.append(String.format("%-32s %10d%n", e.getKey(), e.getValue().getValue()));
+        return sb.toString();
+    }
+
+    public static String dumpJson() {
+        List<String> parts = new ArrayList<>();
+        for (Map.Entry<String, Timer> e : timers().entrySet()) {
+            Snapshot s = e.getValue().snapshot();
+            parts.add(String.format(Locale.ROOT, "\"%s\": {\"count\": %d, \"meanUs\": %.1f, \"p50Us\": %.1f, \"p99Us\": %.1f, \"p999Us\": %.1f, \"maxUs\": %.1f}",
+                    e.getKey(), s.count, s.meanMicros(), s.percentileMicros(50), s.percentileMicros(99), s.percentileMicros(99.9), s.maxMicros()));
+        }
+        List<String> values = new ArrayList<>();
+        for (Map.Entry<String, Counter> e : counters().entrySet()) values.add("\"" + e.getKey() + "\": " + e.getValue().getCount());
+        for (Map.Entry<String, Gauge> e : gauges().entrySet()) values.add("\"" + e.getKey() + "\": " + e.getValue().getValue());
+        return "{\"timestamp\": " + System.currentTimeMillis() + ",\n \"timers\": {\n  " + String.join(",\n  ", parts)
+                + "\n },\n \"values\": {\n  " + String.join(",\n  ", values) + "\n }\n}\n";
+    }
+
+    // rewrite the file periodically; written to a temp file first so readers never see half a report
+    private static void startDumper(Path file, int seconds) {
+        ScheduledExecutorService ses = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        boolean json = file.toString().endsWith(".json");
+        ses.scheduleAtFixedRate(() -> {
+            try {
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.write(tmp, (json ? dumpJson() : dumpText()).getBytes(StandardCharsets.UTF_8));
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ex) {
+                System.err.println("Failed to write metrics to " + file + ": " + ex.getMessage());
+            }
+        }, seconds, Math.max(1, seconds), TimeUnit.SECONDS);
+    }
+
+    private static void register(String type, String name, Object bean) {
+        if (!JMX) return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = new ObjectName("oakdonuts:type=" + type + ",name=" + ObjectName.quote(name));
+            if (!server.isRegistered(on)) server.registerMBean(bean, on);
+        } catch (Exception ex) {
+            synchronized (Metrics.class) {
+                if (!jmxFailed) System.err.println("Metrics not available over JMX: " + ex);
+                jmxFailed = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point money: amounts are plain {@code long} cents and every operation here is a static
+ * method on primitives, so totals, tax and aggregation never allocate and never round the way
+ * binary doubles do. Only format() creates objects (the display string).
+ */
+public final class Money {
+    private Money() {}
+
+    // cents for a dollar amount given as a double (legacy values), rounded half up
+    public static long ofDollars(double dollars) {
+        return Math.round(dollars * 100.0);
+    }
+
+    // unitCents * qty, failing loudly instead of overflowing
+    public static long times(long unitCents, int qty) {
+        return Math.multiplyExact(unitCents, (long) qty);
+    }
+
+    public static long plus(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    // numerator / denominator rounded with the given mode (denominator > 0)
+    public static long divide(long numerator, long denominator, RoundingMode mode) {
+        long q = numerator / denominator;
+        long r = numerator % denominator;
+        if (r == 0) return q;
+        int sign = numerator < 0 ? -1 : 1;
+        long twice = Math.abs(r) * 2;
+        boolean awayFromZero;
+        switch (mode) {
+            case UP: awayFromZero = true; break;
+            case DOWN: awayFromZero = false; break;
+            case CEILING: awayFromZero = sign > 0; break;
+            case FLOOR: awayFromZero = sign < 0; break;
+            case HALF_UP: awayFromZero = twice >= denominator; break;
+            case HALF_DOWN: awayFromZero = twice > denominator; break;
+            case HALF_EVEN: awayFromZero = twice > denominator || (twice == denominator && (q & 1) != 0); break;
+            default: throw new ArithmeticException("Rounding necessary");
+        }
+        return awayFromZero ? q + sign : q;
+    }
+
+    /**
+     * Parse "$1,234.56", "1234.5", "-0.99" and the like into cents. More than two decimals are
+     * rounded half up. Anything that is not a plain decimal amount throws NumberFormatException.
+     */
+    public static long parse(String s) {
+        if (s == null) throw new NumberFormatException("empty amount");
+        String t = s.trim();
+        boolean negative = false;
+        int i = 0, n = t.length();
+        if (i < n && (t.charAt(i) == '-' || t.charAt(i) == '(')) { negative = true; i++; }
+        if (i < n && t.charAt(i) == '$') i++;
+        if (i < n && t.charAt(i) == '-' && !negative) { negative = true; i++; }
+        if (n > 0 && t.charAt(n - 1) == ')') n--;
+        long whole = 0, frac = 0;
+        int fracDigits = 0;
+        boolean digits = false, dot = false, roundUp = false;
+        for (; i < n; i++) {
+            char c = t.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits = true;
+                if (!dot) whole = Math.addExact(Math.multiplyExact(whole, 10), c - '0');
+                else if (fracDigits < 2) { frac = frac * 10 + (c - '0'); fracDigits++; }
+                else if (fracDigits++ == 2) roundUp = c >= '5';
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else if (c == ',' && !dot) {
+                // thousands separator
+            } else {
+                throw new NumberFormatException("Not an amount: " + s);
+            }
+        }
+        if (!digits) throw new NumberFormatException("Not an amount: " + s);
+        if (fracDigits == 1) frac *= 10;
+        long cents = Math.addExact(Math.multiplyExact(whole, 100), frac + (roundUp ? 1 : 0));
+        return negative ? -cents : cents;
+    }
+
+    // "$1,234.56" / "-$0.99"
+    public static String format(long cents) {
+        StringBuilder sb = new StringBuilder(16);
+        if (cents < 0) sb.append('-');
+        sb.append('$');
+        appendPlain(sb, Math.abs(cents), true);
+        return sb.toString();
+    }
+
+    // "1234.56" / "-0.99" (for edit fields)
+    public static String toPlainString(long cents) {
+        StringBuilder sb = new StringBuilder(16);
+        if (cents < 0) sb.append('-');
+        appendPlain(sb, Math.abs(cents), false);
+        return sb.toString();
+    }
+
+    private static void appendPlain(StringBuilder sb, long abs, boolean grouping) {
+        String whole = Long.toString(abs / 100);
+        if (grouping) {
+            for (int i = 0; i < whole.length(); i++) {
+                if (i > 0 && (whole.length() - i) % 3 == 0) sb.append(',');
+                sb.append(whole.charAt(i));
+            }
+        } else {
+            sb.append(whole);
+        }
+        long frac = abs % 100;
+        sb.append('.').append((char) ('0' + frac / 10)).append((char) ('0' + frac % 10));
+    }
+
+    /**
+     * A percentage tax, in basis points (600 = 6%), with the rounding rule used to get
+     * from fractional cents back to whole cents.
+     */
+    public static final class TaxRule {
+        private final int basisPoints;
+        private final RoundingMode rounding;
+
+        public TaxRule(int basisPoints, RoundingMode rounding) {
+            if (basisPoints < 0) throw new IllegalArgumentException("negative tax rate");
+            this.basisPoints = basisPoints;
+            this.rounding = rounding;
+        }
+
+        public long taxOn(long taxableCents) {
+            return divide(Math.multiplyExact(taxableCents, (long) basisPoints), 10_000L, rounding);
+        }
+
+        public int basisPoints() { return basisPoints; }
+        public RoundingMode rounding() { return rounding; }
+
+        // "6%" / "6.25%"
+        public String percentLabel() {
+            return java.math.BigDecimal.valueOf(basisPoints, 2).stripTrailingZeros().toPlainString() + "%";
+        }
+    }
+}
@@ -0,0 +1,479 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal for checkouts (-Doakdonuts.journal.path=orders.journal).
+ *
+ * An order is appended to a memory-mapped ring file and acknowledged once the record is durable;
+ * the sink (the OrderWriter) then inserts it into Derby in the background, and the checkpoint in
+ * the file header moves past it once the sink's future completes. Records are handed to the sink
+ * by one thread, in journal order and outside the journal lock, and the sink may block while it is
+ * full: a burst larger than the sink's queue waits in the ring instead of failing. Only an order
+ * the sink could not store stops the checkpoint (until the next start replays it). On startup, recover() hands
+ * every record past the checkpoint to a replay sink, so orders acknowledged before a crash or a
+ * kill -9 are never lost; replay may repeat orders the sink already has, so it must skip them.
+ *
+ * Durability (-Doakdonuts.journal.sync):
+ *  - BATCH (default): acknowledge after an fsync. One syncer thread forces everything appended
+ *    so far, so checkouts arriving during an fsync share the next one.
+ *  - NONE: acknowledge once the record is in the mapped file. Survives the process dying, not
+ *    the machine losing power.
+ *
+ * File layout: a 32 byte header (magic, version, ring size, checkpoint offset and sequence), then
+ * a ring of 8-byte aligned records [int body length][int crc32 of body][body]. The body starts
+ * with a sequence number, so recovery stops at the first record that is torn, fails its CRC or
+ * is left over from an earlier lap. A record that does not fit before the end of the ring is
+ * preceded by a wrap marker (length -1). Offsets are logical (only ever grow); a record lives at
+ * offset mod ring size. Appends wait when the ring is full of records the sink has not applied.
+ */
+public class OrderJournal implements AutoCloseable {
+
+    public enum Sync { BATCH, NONE }
+
+    // where journaled orders go; the future completes once the order is safely stored elsewhere.
+    // Called from one thread at a time, in journal order; may block while the sink is full
+    public interface Sink {
+        CompletableFuture<?> submit(int transactionId, Timestamp orderDate, List<DatabaseManager.OrderLine> lines,
+                                    long subtotalCents, long taxCents, long totalCents, long discountCents);
+    }
+
+    private static final int MAGIC = 0x4F414B4A;   // "OAKJ"
+    private static final int VERSION = 2;          // 2 added the discount; version 1 files are replayed and upgraded
+    private static final int HEADER_BYTES = 32;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int WRAP = -1;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final long ringBytes;
+    private final Sync sync;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer scratch = ByteBuffer.allocate(1024);
+
+    private int fileVersion = VERSION;   // of the records past the checkpoint until recover() has replayed them
+    private Sink sink;
+    private Thread syncer;
+    private Thread handOff;
+    private boolean closed;        // no more appends or hand-offs
+    private boolean fileClosed;
+    private boolean stalled;
+    private long writePos;     // logical offset of the next record
+    private long nextSeq;
+    private long appliedPos;   // checkpoint: first record the sink has not confirmed
+    private long appliedSeq;
+    private final TreeMap<Long, Long> appliedOutOfOrder = new TreeMap<>();   // seq -> end offset
+    private final ArrayDeque<Ack> unsynced = new ArrayDeque<>();
+    private final ArrayDeque<Record> toHandOff = new ArrayDeque<>();   // bounded by the ring
+
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+
+    // open or create the journal; an existing file keeps the ring size it was created with
+    public OrderJournal(Path path, long ringBytes, Sync sync) throws IOException {
+        this.path = path;
+        this.sync = sync;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean fresh = channel.size() == 0;
+        if (!fresh) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            channel.read(header, 0);
+            if (header.getInt(0) != MAGIC || header.getInt(4) < 1 || header.getInt(4) > VERSION) {
+                channel.close();
+                throw new IOException(path + " is not an order journal (version " + VERSION + ")");
+            }
+            fileVersion = header.getInt(4);
+            ringBytes = header.getLong(8);
+        }
+        this.ringBytes = ringBytes & ~7L;
+        if (this.ringBytes < 4096 || this.ringBytes > Integer.MAX_VALUE - HEADER_BYTES) {
+            channel.close();
+            throw new IOException("journal ring size out of range: " + ringBytes);
+        }
+        this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + this.ringBytes);
+        if (fresh) {
+            map.putInt(0, MAGIC);
+            map.putInt(4, VERSION);
+            map.putLong(8, this.ringBytes);
+            writeCheckpoint();
+            map.force();
+        }
+        appliedPos = map.getLong(16);
+        appliedSeq = map.getLong(24);
+    }
+
+    // journal from system properties (oakdonuts.journal.sizeMb, oakdonuts.journal.sync)
+    public static OrderJournal fromSystemProperties(Path path) throws IOException {
+        long size = Long.getLong("oakdonuts.journal.sizeMb", 64L) << 20;
+        return new OrderJournal(path, size, Sync.valueOf(System.getProperty("oakdonuts.journal.sync", Sync.BATCH.name())));
+    }
+
+    /**
+     * Hand every record past the checkpoint to replay, wait for all of them, then move the
+     * checkpoint to the end of the journal. Must be called once, before start().
+     * Returns the number of records replayed.
+     */
+    public synchronized int recover(Sink replay) throws IOException {
+        long pos = appliedPos;
+        long seq = -1;
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        while (pos - appliedPos < ringBytes) {
+            int phys = (int) (pos % ringBytes);
+            int at = HEADER_BYTES + phys;
+            int length = map.getInt(at);
+            if (length == WRAP) {
+                pos += ringBytes - phys;
+                continue;
+            }
+            if (length < 8 || phys + RECORD_HEADER_BYTES + (long) length > ringBytes) break;
+            ByteBuffer body = map.duplicate();
+            body.position(at + RECORD_HEADER_BYTES).limit(at + RECORD_HEADER_BYTES + length);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != map.getInt(at + 4)) break;
+            body = body.slice();
+            long recordSeq = body.getLong();
+            // the first record may be ahead of the checkpoint sequence (see writeCheckpoint), the rest follow on
+            if (seq < 0 ? recordSeq < appliedSeq : recordSeq != seq) break;
+            seq = recordSeq + 1;
+            int txId = body.getInt();
+            Timestamp date = new Timestamp(body.getLong());
+            long sub = body.getLong(), tax = body.getLong(), total = body.getLong();
+            long discount = fileVersion >= 2 ? body.getLong() : 0;
+            int n = body.getInt();
+            List<DatabaseManager.OrderLine> lines = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                int menuItemId = body.getInt(), qty = body.getInt();
+                long unitPriceCents = body.getLong();
+                lines.add(new DatabaseManager.OrderLine(menuItemId, getString(body), qty, unitPriceCents, getString(body), getString(body)));
+            }
+            pending.add(replay.submit(txId, date, lines, sub, tax, total, discount));
+            pos += align(RECORD_HEADER_BYTES + length);
+        }
+        for (CompletableFuture<?> f : pending) {
+            try {
+                f.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("journal replay interrupted", ie);
+            } catch (ExecutionException ex) {
+                // leave the checkpoint alone so the next start tries again
+                throw new IOException("journal replay failed: " + ex.getCause().getMessage(), ex.getCause());
+            }
+        }
+        writePos = appliedPos = pos;
+        nextSeq = appliedSeq = seq < 0 ? appliedSeq : seq;
+        writeCheckpoint();
+        // nothing of the old version is left past the checkpoint, so appends may use the current one
+        fileVersion = VERSION;
+        map.putInt(4, VERSION);
+        map.force();
+        return pending.size();
+    }
+
+    // start accepting appends; journaled orders are passed on to sink in journal order
+    public synchronized void start(Sink sink) {
+        this.sink = sink;
+        handOff = new Thread(this::handOffLoop, "order-journal-handoff");
+        handOff.setDaemon(true);
+        handOff.start();
+        if (sync == Sync.BATCH) {
+            syncer = new Thread(this::syncLoop, "order-journal-sync");
+            syncer.setDaemon(true);
+            syncer.start();
+        }
+    }
+
+    /**
+     * Journal an order and pass it on to the sink. The returned future completes with the
+     * transaction id once the record is durable (see Sync). Waits while the ring is full.
+     */
+    public CompletableFuture<Integer> append(int transactionId, Timestamp orderDate, List<DatabaseManager.OrderLine> lines,
+                                             long subtotalCents, long taxCents, long totalCents, long discountCents) throws IOException {
+        CompletableFuture<Integer> ack = new CompletableFuture<>();
+        synchronized (this) {
+            if (sink == null || closed) throw new IllegalStateException("order journal is not running");
+            int recordBytes;
+            long skip;
+            while (true) {
+                encode(nextSeq, transactionId, orderDate, lines, subtotalCents, taxCents, totalCents, discountCents);
+                recordBytes = align(RECORD_HEADER_BYTES + scratch.remaining());
+                if (recordBytes > ringBytes / 2) throw new IOException("order too large for the journal (" + recordBytes + " bytes)");
+                long phys = writePos % ringBytes;
+                skip = phys + recordBytes > ringBytes ? ringBytes - phys : 0;
+                if (writePos + skip + recordBytes - appliedPos <= ringBytes) break;
+                if (stalled) throw new IOException("order journal " + path + " is full of orders that could not be stored; restart to replay them");
+                try {
+                    wait(100);   // for the sink to catch up (scratch may be reused meanwhile, so encode again)
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while the order journal was full", ie);
+                }
+                if (closed) throw new IllegalStateException("order journal is not running");
+            }
+            if (skip > 0) {
+                map.putInt(HEADER_BYTES + (int) (writePos % ringBytes), WRAP);
+                writePos += skip;
+            }
+            int at = HEADER_BYTES + (int) (writePos % ringBytes);
+            int length = scratch.remaining();
+            crc.reset();
+            crc.update(scratch.duplicate());
+            ByteBuffer target = map.duplicate();
+            target.position(at + RECORD_HEADER_BYTES);
+            target.put(scratch);
+            map.putInt(at + 4, (int) crc.getValue());
+            map.putInt(at, length);   // last: until now the record is not there
+            long seq = nextSeq++;
+            long end = writePos += recordBytes;
+            appended.increment();
+            if (sync == Sync.NONE) ack.complete(transactionId);
+            else unsynced.add(new Ack(end, transactionId, ack));
+            // queued in journal order; handOffLoop passes it on without holding the lock
+            toHandOff.add(new Record(seq, end, transactionId, orderDate, lines, subtotalCents, taxCents, totalCents, discountCents));
+            notifyAll();
+        }
+        return ack;
+    }
+
+    // pass journaled orders on to the sink one at a time. A full sink blocks only this thread,
+    // so appends carry on into the ring and wait only when the ring itself is full
+    private void handOffLoop() {
+        while (true) {
+            Record r;
+            synchronized (this) {
+                while (toHandOff.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+                // what is left at close stays past the checkpoint and is replayed on the next start
+                if (closed) return;
+                r = toHandOff.poll();
+            }
+            CompletableFuture<?> stored;
+            try {
+                stored = sink.submit(r.transactionId, r.orderDate, r.lines, r.subtotalCents, r.taxCents, r.totalCents, r.discountCents);
+            } catch (RuntimeException ex) {
+                CompletableFuture<Integer> failed = new CompletableFuture<>();
+                failed.completeExceptionally(ex);
+                stored = failed;
+            }
+            stored.whenComplete((x, t) -> applied(r.seq, r.end, r.transactionId, t));
+        }
+    }
+
+    // the sink stored (or failed to store) the record with this sequence number. The sink waits
+    // out backpressure instead of failing, so an error here is an order it could not store
+    private synchronized void applied(long seq, long end, int transactionId, Throwable error) {
+        if (error != null) {
+            if (!stalled) {
+                System.err.println("order journal: order " + transactionId + " was not stored (" + error.getMessage()
+                        + "); it stays in " + path + " and is replayed on the next start");
+            }
+            stalled = true;
+        }
+        if (stalled) return;
+        appliedOutOfOrder.put(seq, end);
+        Long next;
+        while ((next = appliedOutOfOrder.remove(appliedSeq)) != null) {
+            appliedPos = next;
+            appliedSeq++;
+        }
+        writeCheckpoint();
+        notifyAll();
+    }
+
+    // offset before sequence: a reader that sees a new offset with an old sequence still finds the
+    // right record (recover accepts a first sequence at or above the checkpoint's)
+    private void writeCheckpoint() {
+        map.putLong(16, appliedPos);
+        map.putLong(24, appliedSeq);
+    }
+
+    private void syncLoop() {
+        List<Ack> done = new ArrayList<>();
+        while (true) {
+            long target;
+            synchronized (this) {
+                while (unsynced.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+                if (unsynced.isEmpty()) return;
+                target = writePos;
+            }
+            // appends carry on while the force runs and are covered by the next one
+            map.force();
+            syncs.increment();
+            synchronized (this) {
+                while (!unsynced.isEmpty() && unsynced.peek().end <= target) done.add(unsynced.poll());
+            }
+            for (Ack a : done) a.future.complete(a.transactionId);
+            done.clear();
+        }
+    }
+
+    public long appended() { return appended.sum(); }
+    public long syncs() { return syncs.sum(); }
+    public Sync sync() { return sync; }
+
+    // bytes of records the sink has not confirmed yet
+    public synchronized long backlogBytes() {
+        return writePos - appliedPos;
+    }
+
+    /**
+     * Stop accepting appends and stop passing records on to the sink; returns once the hand-off
+     * thread has finished its current record. Records it had not passed on stay past the
+     * checkpoint and are replayed on the next start. Call before closing the sink, so nothing is
+     * handed to a sink that is already closed; close() afterwards.
+     */
+    public void stopHandOff() {
+        Thread h;
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+            h = handOff;
+        }
+        join(h);
+    }
+
+    // stop accepting appends, acknowledge what is journaled and force the file
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (fileClosed) return;
+            fileClosed = true;
+        }
+        stopHandOff();
+        Thread s;
+        synchronized (this) {
+            s = syncer;
+        }
+        join(s);
+        synchronized (this) {
+            map.force();
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    private static void join(Thread t) {
+        if (t == null) return;
+        try {
+            t.join(10_000);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int align(int n) {
+        return (n + 7) & ~7;
+    }
+
+    // body: seq, txId, date, amounts (subtotal, tax, total, discount), then the lines
+    private void encode(long seq, int transactionId, Timestamp orderDate, List<DatabaseManager.OrderLine> lines,
+                        long subtotalCents, long taxCents, long totalCents, long discountCents) {
+        scratch.clear();
+        ensure(60);
+        scratch.putLong(seq).putInt(transactionId).putLong(orderDate.getTime())
+                .putLong(subtotalCents).putLong(taxCents).putLong(totalCents).putLong(discountCents).putInt(lines.size());
+        for (DatabaseManager.OrderLine l : lines) {
+            ensure(16);
+            scratch.putInt(l.menuItemId).putInt(l.qty).putLong(l.unitPriceCents);
+            putString(l.itemName);
+            putString(l.icing);
+            putString(l.filling);
+        }
+        scratch.flip();
+    }
+
+    private void ensure(int n) {
+        if (scratch.remaining() >= n) return;
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(scratch.capacity() * 2, scratch.position() + n));
+        scratch.flip();
+        bigger.put(scratch);
+        scratch = bigger;
+    }
+
+    // length-prefixed UTF-8, -1 for null
+    private void putString(String s) {
+        if (s == null) {
+            ensure(2);
+            scratch.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        ensure(2 + bytes.length);
+        scratch.putShort((short) bytes.length);
+        scratch.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        short n = in.getShort();
+        if (n < 0) return null;
+        byte[] bytes = new byte[n];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // a journaled order waiting to be handed to the sink
+    private static final class Record {
+        final long seq;
+        final long end;
+        final int transactionId;
+        final Timestamp orderDate;
+        final List<DatabaseManager.OrderLine> lines;
+        final long subtotalCents;
+        final long taxCents;
+        final long totalCents;
+        final long discountCents;
+
+        Record(long seq, long end, int transactionId, Timestamp orderDate, List<DatabaseManager.OrderLine> lines,
+               long subtotalCents, long taxCents, long totalCents, long discountCents) {
+            this.seq = seq;
+            this.end = end;
+            this.transactionId = transactionId;
+            this.orderDate = orderDate;
+            this.lines = lines;
+            this.subtotalCents = subtotalCents;
+            this.taxCents = taxCents;
+            this.totalCents = totalCents;
+            this.discountCents = discountCents;
+        }
+    }
+
+    private static final class Ack {
+        final long end;
+        final int transactionId;
+        final CompletableFuture<Integer> future;
+
+        Ack(long end, int transactionId, CompletableFuture<Integer> future) {
+            this.end = end;
+            this.transactionId = transactionId;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The OrderListeners registered with one store. Registration is rare and events are frequent,
+ * hence the copy-on-write list: firing an event takes no lock. A listener that throws is logged
+ * and counted (store.listenerErrors), and the others still hear about the change.
+ */
+final class OrderListeners {
+    private static final Metrics.Counter ERRORS = Metrics.counter("store.listenerErrors");
+
+    private final CopyOnWriteArrayList<OrderStore.OrderListener> listeners = new CopyOnWriteArrayList<>();
+
+    void add(OrderStore.OrderListener l) { listeners.addIfAbsent(l); }
+    void remove(OrderStore.OrderListener l) { listeners.remove(l); }
+
+    // lets callers skip building the event when nobody listens
+    boolean isEmpty() { return listeners.isEmpty(); }
+
+    void saved(DatabaseManager.OrderRow order, List<DatabaseManager.OrderLine> lines) {
+        for (OrderStore.OrderListener l : listeners) {
+            try {
+                l.orderSaved(order, lines);
+            } catch (RuntimeException ex) {
+                failed(l, "save of order " + order.transactionId, ex);
+            }
+        }
+    }
+
+    void updated(DatabaseManager.OrderRow order, List<DatabaseManager.OrderLine> lines) {
+        for (OrderStore.OrderListener l : listeners) {
+            try {
+                l.orderUpdated(order, lines);
+            } catch (RuntimeException ex) {
+                failed(l, "update of order " + order.transactionId, ex);
+            }
+        }
+    }
+
+    void deleted(int transactionId) {
+        for (OrderStore.OrderListener l : listeners) {
+            try {
+                l.orderDeleted(transactionId);
+            } catch (RuntimeException ex) {
+                failed(l, "delete of order " + transactionId, ex);
+            }
+        }
+    }
+
+    private static void failed(OrderStore.OrderListener l, String what, RuntimeException ex) {
+        ERRORS.inc();
+        System.err.println("Order listener " + l.getClass().getName() + " failed on " + what + ": " + ex);
+    }
+}
@@ -0,0 +1,467 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped log backend (-Doakdonuts.store=log).
+ *
+ * Every change is appended as one record holding the new state (menu item put/delete, a bulk
+ * menu import, order put/delete, stock level) and then applied to an InMemoryStore, which answers all reads; open() replays
+ * the log into it. Writers are serialized on the store, so the log order is the apply order.
+ * Appends are copies into a mapped window of the file (-Doakdonuts.log.mapChunkMb, default 64),
+ * so a write never makes a system call except when the window is moved forward.
+ *
+ * File layout: an 8 byte header (magic, version), then records of
+ *   [int length][int crc32 of body][body = type byte + payload]
+ * A zero length marks the end. The length is written last, so a record cut short by a crash is
+ * never seen, and one whose body does not match its CRC ends the replay there.
+ * Records reach the OS page cache at once and survive the process dying; flush() or close()
+ * forces them to disk. OrderListeners hear about a change once its record is appended (replay
+ * on open is not reported).
+ */
+public class OrderLogStore implements Store {
+    private static final int MAGIC = 0x4F414B4C;   // "OAKL"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    private static final byte MENU_PUT = 1;
+    private static final byte MENU_DELETE = 2;
+    private static final byte ORDER_PUT = 3;
+    private static final byte ORDER_DELETE = 4;
+    private static final byte INVENTORY_PUT = 5;
+    private static final byte MENU_PUTS = 6;   // several menu puts as one record (a bulk import)
+    private static final byte ORDER_PUT_DISCOUNTED = 7;   // ORDER_PUT with the promotion discount after the total
+
+    private final Path path;
+    private final int chunkBytes;
+    private final InMemoryStore state = new InMemoryStore();
+    private final OrderListeners listeners = new OrderListeners();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer scratch = ByteBuffer.allocate(4096);
+
+    private FileChannel channel;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long end;   // file offset of the next record
+    private long records;
+
+    public OrderLogStore(String path) {
+        this(Paths.get(path), Integer.getInteger("oakdonuts.log.mapChunkMb", 64) << 20);
+    }
+
+    public OrderLogStore(Path path, int chunkBytes) {
+        this.path = path;
+        this.chunkBytes = chunkBytes;
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean fresh = channel.size() == 0;
+        map(0, HEADER_BYTES);
+        if (fresh) {
+            window.putInt(0, MAGIC);
+            window.putInt(4, VERSION);
+        } else if (window.getInt(0) != MAGIC || window.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException(path + " is not an order log (version " + VERSION + ")");
+        }
+        end = HEADER_BYTES;
+        replay();
+    }
+
+    // file offset just past the last record
+    public synchronized long sizeBytes() {
+        return end;
+    }
+
+    // records replayed plus records appended since open
+    public synchronized long recordCount() {
+        return records;
+    }
+
+    // force appended records to disk
+    public synchronized void flush() {
+        if (window != null) window.force();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (channel == null) return;
+        try {
+            window.force();
+            channel.close();
+        } catch (IOException ignore) {
+        } finally {
+            window = null;
+            channel = null;
+        }
+    }
+
+    // make [pos, pos + n) addressable through the window, mapping a new one at pos if needed
+    // (mapping past the end grows the file with zeros)
+    private void map(long pos, int n) throws IOException {
+        if (window != null && pos >= windowStart && pos + n <= windowStart + window.capacity()) return;
+        window = channel.map(FileChannel.MapMode.READ_WRITE, pos, Math.max(chunkBytes, n));
+        windowStart = pos;
+    }
+
+    private void replay() throws IOException {
+        long fileSize = channel.size();
+        while (end + RECORD_HEADER_BYTES <= fileSize) {
+            map(end, RECORD_HEADER_BYTES);
+            int off = (int) (end - windowStart);
+            int length = window.getInt(off);
+            int sum = window.getInt(off + 4);
+            if (length == 0) break;
+            ByteBuffer body = null;
+            if (length > 0 && end + RECORD_HEADER_BYTES + length <= fileSize) {
+                map(end, RECORD_HEADER_BYTES + length);
+                off = (int) (end - windowStart);
+                body = window.duplicate();
+                body.position(off + RECORD_HEADER_BYTES).limit(off + RECORD_HEADER_BYTES + length);
+                crc.reset();
+                crc.update(body.duplicate());
+            }
+            if (body == null || (int) crc.getValue() != sum) {
+                // torn tail: drop it so new records do not follow garbage
+                window = null;
+                channel.truncate(end);
+                break;
+            }
+            apply(body.slice());
+            end += RECORD_HEADER_BYTES + length;
+            records++;
+        }
+    }
+
+    private void apply(ByteBuffer in) {
+        byte type = in.get();
+        switch (type) {
+            case MENU_PUT:
+                state.putMenuItem(new DatabaseManager.MenuItem(in.getInt(), getString(in), getString(in), in.getLong()));
+                break;
+            case MENU_PUTS: {
+                int n = in.getInt();
+                List<DatabaseManager.MenuItem> items = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) items.add(new DatabaseManager.MenuItem(in.getInt(), getString(in), getString(in), in.getLong()));
+                state.putMenuItems(items);
+                break;
+            }
+            case MENU_DELETE: {
+                int id = in.getInt();
+                state.deleteMenuItem(id);
+                state.menuIdUsed(id);
+                break;
+            }
+            case ORDER_PUT:
+            case ORDER_PUT_DISCOUNTED: {
+                int txId = in.getInt();
+                Timestamp date = new Timestamp(in.getLong());
+                String items = getString(in);
+                long sub = in.getLong(), tax = in.getLong(), total = in.getLong();
+                long discount = type == ORDER_PUT_DISCOUNTED ? in.getLong() : 0;
+                int n = in.getInt();
+                List<DatabaseManager.OrderLine> lines = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    lines.add(new DatabaseManager.OrderLine(in.getInt(), getString(in), in.getInt(), in.getLong(), getString(in), getString(in)));
+                }
+                state.putOrder(new DatabaseManager.OrderRow(txId, date, items, sub, tax, total, discount), lines);
+                break;
+            }
+            case ORDER_DELETE: {
+                int txId = in.getInt();
+                state.deleteOrder(txId);
+                state.orderIdUsed(txId);
+                break;
+            }
+            case INVENTORY_PUT: {
+                String sku = getString(in);
+                Long level = in.get() != 0 ? in.getLong() : null;
+                state.saveInventory(Collections.singletonMap(sku, level));
+                break;
+            }
+            default:
+                throw new IllegalStateException("unknown record type " + type + " at offset " + end + " in " + path);
+        }
+    }
+
+    // ---- appending (callers hold the store lock) ----
+
+    private void begin(byte type) {
+        if (channel == null) throw new IllegalStateException("order log is not open");
+        scratch.clear();
+        scratch.put(type);
+    }
+
+    private void ensure(int n) {
+        if (scratch.remaining() >= n) return;
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(scratch.capacity() * 2, scratch.position() + n));
+        scratch.flip();
+        bigger.put(scratch);
+        scratch = bigger;
+    }
+
+    private void putInt(int v) { ensure(4); scratch.putInt(v); }
+    private void putLong(long v) { ensure(8); scratch.putLong(v); }
+
+    // length-prefixed UTF-8, -1 for null
+    private void putString(String s) {
+        if (s == null) {
+            putInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        ensure(bytes.length);
+        scratch.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int n = in.getInt();
+        if (n < 0) return null;
+        byte[] bytes = new byte[n];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // write the record in scratch at the end of the log: body and CRC first, then the length
+    private void commit() throws IOException {
+        scratch.flip();
+        int length = scratch.remaining();
+        crc.reset();
+        crc.update(scratch.duplicate());
+        map(end, RECORD_HEADER_BYTES + length);
+        int off = (int) (end - windowStart);
+        ByteBuffer target = window.duplicate();
+        target.position(off + RECORD_HEADER_BYTES);
+        target.put(scratch);
+        window.putInt(off + 4, (int) crc.getValue());
+        window.putInt(off, length);
+        end += RECORD_HEADER_BYTES + length;
+        records++;
+    }
+
+    private void appendMenuPut(DatabaseManager.MenuItem mi) throws IOException {
+        begin(MENU_PUT);
+        putInt(mi.id);
+        putString(mi.name);
+        putString(mi.category);
+        putLong(mi.priceCents);
+        commit();
+    }
+
+    // one record, so a crash keeps all of the items or none
+    private void appendMenuPuts(List<DatabaseManager.MenuItem> items) throws IOException {
+        begin(MENU_PUTS);
+        putInt(items.size());
+        for (DatabaseManager.MenuItem mi : items) {
+            putInt(mi.id);
+            putString(mi.name);
+            putString(mi.category);
+            putLong(mi.priceCents);
+        }
+        commit();
+    }
+
+    // an order without a discount is written as a plain ORDER_PUT
+    private void appendOrderPut(DatabaseManager.OrderRow o, List<DatabaseManager.OrderLine> lines) throws IOException {
+        begin(o.discountCents != 0 ? ORDER_PUT_DISCOUNTED : ORDER_PUT);
+        putInt(o.transactionId);
+        putLong(o.orderDate.getTime());
+        putString(o.items);
+        putLong(o.subtotalCents);
+        putLong(o.taxCents);
+        putLong(o.totalCents);
+        if (o.discountCents != 0) putLong(o.discountCents);
+        putInt(lines.size());
+        for (DatabaseManager.OrderLine l : lines) {
+            putInt(l.menuItemId);
+            putString(l.itemName);
+            putInt(l.qty);
+            putLong(l.unitPriceCents);
+            putString(l.icing);
+            putString(l.filling);
+        }
+        commit();
+    }
+
+    // a null level is written as a delete flag and no value
+    private void appendInventoryPut(String sku, Long level) throws IOException {
+        begin(INVENTORY_PUT);
+        putString(sku);
+        ensure(9);
+        scratch.put((byte) (level != null ? 1 : 0));
+        if (level != null) scratch.putLong(level);
+        commit();
+    }
+
+    private void appendDelete(byte type, int id) throws IOException {
+        begin(type);
+        putInt(id);
+        commit();
+    }
+
+    // ---- MenuStore ----
+
+    @Override
+    public LinkedHashMap<String, DatabaseManager.MenuItem> loadMenuItems() {
+        return state.loadMenuItems();
+    }
+
+    @Override
+    public synchronized int addMenuItem(String name, String category, long priceCents) throws IOException {
+        DatabaseManager.MenuItem mi = state.itemToAdd(name, category, priceCents);
+        appendMenuPut(mi);
+        state.putMenuItem(mi);
+        return mi.id;
+    }
+
+    @Override
+    public synchronized void seedMenuItems(List<DatabaseManager.MenuItem> items) throws IOException {
+        for (DatabaseManager.MenuItem mi : items) addMenuItem(mi.name, mi.category, mi.priceCents);
+    }
+
+    @Override
+    public synchronized int upsertMenuItems(List<DatabaseManager.MenuItem> items) throws IOException {
+        List<DatabaseManager.MenuItem> puts = state.itemsToUpsert(items);
+        if (puts.isEmpty()) return 0;
+        appendMenuPuts(puts);
+        return state.putMenuItems(puts);
+    }
+
+    @Override
+    public synchronized boolean updateMenuItem(int id, String name, String category, long priceCents) throws IOException {
+        if (!state.canUpdate(id, name)) return false;
+        DatabaseManager.MenuItem mi = new DatabaseManager.MenuItem(id, name, category, priceCents);
+        appendMenuPut(mi);
+        state.putMenuItem(mi);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean deleteMenuItem(int id) throws IOException {
+        if (state.menuItem(id) == null) return false;
+        appendDelete(MENU_DELETE, id);
+        return state.deleteMenuItem(id);
+    }
+
+    // ---- OrderStore ----
+
+    @Override
+    public synchronized int saveOrder(List<DatabaseManager.OrderLine> lines, long subtotalCents, long taxCents, long totalCents,
+                                      long discountCents) throws IOException {
+        DatabaseManager.OrderRow o = InMemoryStore.newOrderRow(state.nextOrderId(), new Timestamp(System.currentTimeMillis()),
+                lines, subtotalCents, taxCents, totalCents, discountCents);
+        appendOrderPut(o, lines);
+        state.putOrder(o, lines);
+        listeners.saved(o, lines);
+        return o.transactionId;
+    }
+
+    @Override
+    public CompletableFuture<Integer> saveOrderAsync(List<DatabaseManager.OrderLine> lines, long subtotalCents, long taxCents, long totalCents,
+                                                     long discountCents) {
+        // an append is a memory copy, so there is nothing worth handing to another thread
+        CompletableFuture<Integer> f = new CompletableFuture<>();
+        try {
+            f.complete(saveOrder(lines, subtotalCents, taxCents, totalCents, discountCents));
+        } catch (IOException | RuntimeException ex) {
+            f.completeExceptionally(ex);
+        }
+        return f;
+    }
+
+    @Override
+    public List<DatabaseManager.OrderLine> loadOrderLines(int transactionId) {
+        return state.loadOrderLines(transactionId);
+    }
+
+    @Override
+    public List<DatabaseManager.OrderRow> loadOrders() {
+        return state.loadOrders();
+    }
+
+    @Override
+    public List<DatabaseManager.OrderRow> loadOrdersBefore(int beforeTxId, int limit, Timestamp from, Timestamp to) {
+        return state.loadOrdersBefore(beforeTxId, limit, from, to);
+    }
+
+    @Override
+    public int countOrders(Timestamp from, Timestamp to) {
+        return state.countOrders(from, to);
+    }
+
+    @Override
+    public int loadOrderIdAt(int offset, Timestamp from, Timestamp to) {
+        return state.loadOrderIdAt(offset, from, to);
+    }
+
+    @Override
+    public synchronized boolean updateOrder(int transactionId, String items, long subtotalCents, long taxCents, long totalCents) throws IOException {
+        DatabaseManager.OrderRow old = state.order(transactionId);
+        if (old == null) return false;
+        DatabaseManager.OrderRow o = new DatabaseManager.OrderRow(transactionId, old.orderDate, items, subtotalCents, taxCents, totalCents,
+                old.discountCents);
+        List<DatabaseManager.OrderLine> lines = state.linesFor(transactionId, items);
+        appendOrderPut(o, lines);
+        state.putOrder(o, lines);
+        listeners.updated(o, lines);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean deleteOrder(int transactionId) throws IOException {
+        if (state.order(transactionId) == null) return false;
+        appendDelete(ORDER_DELETE, transactionId);
+        state.deleteOrder(transactionId);
+        listeners.deleted(transactionId);
+        return true;
+    }
+
+    @Override
+    public List<DatabaseManager.OrderRow> loadOrdersById(int[] transactionIds) {
+        return state.loadOrdersById(transactionIds);
+    }
+
+    @Override
+    public void scanOrders(Timestamp from, Timestamp to, OrderVisitor visitor) throws Exception {
+        state.scanOrders(from, to, visitor);
+    }
+
+    @Override public List<SalesAnalytics.Bucket> hourlySales(LocalDate from, LocalDate to) { return state.hourlySales(from, to); }
+    @Override public List<SalesAnalytics.Bucket> dailySales(LocalDate from, LocalDate to) { return state.dailySales(from, to); }
+    @Override public List<SalesAnalytics.ItemSales> topItems(LocalDate from, LocalDate to, int limit) { return state.topItems(from, to, limit); }
+
+    @Override public void addOrderListener(OrderListener listener) { listeners.add(listener); }
+    @Override public void removeOrderListener(OrderListener listener) { listeners.remove(listener); }
+
+    // ---- InventoryStore ----
+
+    @Override
+    public Map<String, Long> loadInventory() {
+        return state.loadInventory();
+    }
+
+    // one record per level: a crash between them keeps the levels already written
+    @Override
+    public synchronized void saveInventory(Map<String, Long> levels) throws IOException {
+        for (Map.Entry<String, Long> e : levels.entrySet()) appendInventoryPut(e.getKey(), e.getValue());
+        state.saveInventory(levels);
+    }
+}
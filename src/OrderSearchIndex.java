@@ -0,0 +1,746 @@
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntUnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory search index over the order history, kept current through OrderStore.OrderListener.
+ *
+ * Every order version gets a slot (slots are only appended; an update takes a new slot and the
+ * old one is marked dead), and every order line a line number, with the lines of a slot kept
+ * together. The index holds:
+ *  - postings per term (line numbers, delta/varint coded): the words of the item name, plus
+ *    "icing:x" and "filling:x" for the options. Terms are matched on the same line, so
+ *    "boston creme filling:jam" does not match a Boston Creme next to a jam-filled Cruller.
+ *  - columns per slot: id, date and total, for checking candidates exactly.
+ *  - range indexes: slots by hour of the order date and by whole dollars of the total.
+ * A query takes the slots of whichever range index selects fewer of them, when that is a small
+ * part of the index; since slots are roughly in date order, the text terms then only need to
+ * be decoded over that stretch of lines (postings have skip pointers). Whatever is left is
+ * checked against the columns. Dead slots are squeezed out once they make up a quarter of the
+ * index.
+ *
+ * Queries share a read lock and changes take the write lock, so a change waits for at most
+ * one query. See Query.parse for the search box syntax.
+ */
+public final class OrderSearchIndex implements OrderStore.OrderListener {
+    private static final long HOUR_MILLIS = 3_600_000L;
+    private static final Metrics.Timer QUERY = Metrics.timer("search.orderQuery");
+    private static final Metrics.Timer BUILD = Metrics.timer("search.build");
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TimeZone zone = TimeZone.getDefault();
+
+    // slots (0..slots-1); the lines of slot s are lineStart[s] .. lineStart[s+1]-1
+    private int slots;
+    private int[] txIds = new int[1024];
+    private long[] dates = new long[1024];
+    private long[] totals = new long[1024];
+    private int[] lineStart = new int[1025];
+    private BitSet live = new BitSet();
+    private volatile int liveCount;
+    private final IntIntMap slotOf = new IntIntMap();   // transaction id -> live slot
+
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final TreeMap<Long, Postings> byHour = new TreeMap<>();
+    private final TreeMap<Long, Postings> byDollar = new TreeMap<>();
+    // item names and option values repeat endlessly, so their postings are looked up once
+    private final Map<String, Postings[]> nameTerms = new HashMap<>();
+    private final Map<String, Postings[]> icingTerms = new HashMap<>();
+    private final Map<String, Postings[]> fillingTerms = new HashMap<>();
+
+    // ids changed by events while the initial scan runs; the scan must not put back older data
+    private Set<Integer> touched;
+    private volatile boolean ready;
+    private volatile Exception failure;
+
+    public OrderSearchIndex() {
+        Metrics.gauge("search.indexedOrders", () -> liveCount);
+    }
+
+    // an index of everything in the store, built on the calling thread
+    public static OrderSearchIndex build(OrderStore store) throws Exception {
+        OrderSearchIndex index = new OrderSearchIndex();
+        index.load(store);
+        return index;
+    }
+
+    // an index that fills itself from the store on a daemon thread; queries before ready()
+    // only see part of the history
+    public static OrderSearchIndex buildInBackground(OrderStore store) {
+        OrderSearchIndex index = new OrderSearchIndex();
+        Thread t = new Thread(() -> {
+            try {
+                index.load(store);
+            } catch (Exception ex) {
+                index.failure = ex;
+                System.err.println("Order search index could not be built: " + ex);
+            }
+        }, "order-index");
+        t.setDaemon(true);
+        t.start();
+        return index;
+    }
+
+    // follow the store's changes and index what it holds. Listening starts before the scan, so
+    // nothing saved meanwhile is missed; an order the events already covered is skipped by the scan
+    private void load(OrderStore store) throws Exception {
+        long t0 = System.nanoTime();
+        lock.writeLock().lock();
+        touched = new HashSet<>();
+        lock.writeLock().unlock();
+        store.addOrderListener(this);
+        try {
+            store.scanOrders(null, null, (o, lines) -> {
+                lock.writeLock().lock();
+                try {
+                    if (!touched.contains(o.transactionId)) add(o, lines);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            });
+        } catch (Exception ex) {
+            store.removeOrderListener(this);
+            throw ex;
+        } finally {
+            lock.writeLock().lock();
+            touched = null;
+            lock.writeLock().unlock();
+        }
+        ready = true;
+        BUILD.recordSince(t0);
+    }
+
+    // true once the whole history is indexed
+    public boolean ready() { return ready; }
+
+    // why the background build stopped, or null
+    public Exception failure() { return failure; }
+
+    // orders in the index
+    public int size() { return liveCount; }
+
+    // ---- OrderListener ----
+
+    @Override
+    public void orderSaved(DatabaseManager.OrderRow order, List<DatabaseManager.OrderLine> lines) {
+        put(order, lines);
+    }
+
+    @Override
+    public void orderUpdated(DatabaseManager.OrderRow order, List<DatabaseManager.OrderLine> lines) {
+        put(order, lines);
+    }
+
+    @Override
+    public void orderDeleted(int transactionId) {
+        lock.writeLock().lock();
+        try {
+            if (touched != null) touched.add(transactionId);
+            remove(transactionId);
+            maybeCompact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void put(DatabaseManager.OrderRow order, List<DatabaseManager.OrderLine> lines) {
+        lock.writeLock().lock();
+        try {
+            if (touched != null) touched.add(order.transactionId);
+            remove(order.transactionId);
+            add(order, lines);
+            maybeCompact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ---- writing (write lock held) ----
+
+    private void add(DatabaseManager.OrderRow o, List<DatabaseManager.OrderLine> lines) {
+        int s = slots;
+        if (s == txIds.length) {
+            int n = s * 2;
+            txIds = Arrays.copyOf(txIds, n);
+            dates = Arrays.copyOf(dates, n);
+            totals = Arrays.copyOf(totals, n);
+            lineStart = Arrays.copyOf(lineStart, n + 1);
+        }
+        txIds[s] = o.transactionId;
+        dates[s] = o.orderDate.getTime();
+        totals[s] = o.totalCents;
+        int line = lineStart[s];
+        for (DatabaseManager.OrderLine l : lines) {
+            for (Postings p : termsOf(nameTerms, "", l.itemName)) p.add(line);
+            if (l.icing != null) for (Postings p : termsOf(icingTerms, "icing:", l.icing)) p.add(line);
+            if (l.filling != null) for (Postings p : termsOf(fillingTerms, "filling:", l.filling)) p.add(line);
+            line++;
+        }
+        lineStart[s + 1] = line;
+        slots = s + 1;
+        live.set(s);
+        liveCount++;
+        slotOf.put(o.transactionId, s);
+        byHour.computeIfAbsent(Math.floorDiv(dates[s], HOUR_MILLIS), k -> new Postings()).add(s);
+        byDollar.computeIfAbsent(Math.floorDiv(totals[s], 100L), k -> new Postings()).add(s);
+    }
+
+    private void remove(int transactionId) {
+        int s = slotOf.get(transactionId);
+        if (s < 0) return;
+        slotOf.put(transactionId, -1);
+        live.clear(s);
+        liveCount--;
+    }
+
+    private Postings[] termsOf(Map<String, Postings[]> cache, String prefix, String text) {
+        Postings[] p = cache.get(text);
+        if (p == null) {
+            List<String> words = words(text);
+            p = new Postings[words.size()];
+            for (int i = 0; i < p.length; i++) p[i] = terms.computeIfAbsent(prefix + words.get(i), k -> new Postings());
+            cache.put(text, p);
+        }
+        return p;
+    }
+
+    // lower-case words of a name or option ("Boston Creme" -> boston, creme)
+    static List<String> words(String text) {
+        List<String> out = new ArrayList<>(4);
+        String t = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= t.length(); i++) {
+            boolean letter = i < t.length() && Character.isLetterOrDigit(t.charAt(i));
+            if (letter && start < 0) start = i;
+            if (!letter && start >= 0) {
+                out.add(t.substring(start, i));
+                start = -1;
+            }
+        }
+        return out;
+    }
+
+    private void maybeCompact() {
+        int dead = slots - liveCount;
+        if (dead > 1024 && dead > slots / 4) compact();
+    }
+
+    // drop dead slots and their lines, renumbering everything that is left (order is kept, so
+    // every postings list stays ascending)
+    private void compact() {
+        int[] newSlot = new int[slots];
+        int[] newLineStart = new int[Math.max(1024, liveCount) + 1];
+        int n = 0;
+        for (int s = 0; s < slots; s++) {
+            if (!live.get(s)) {
+                newSlot[s] = -1;
+                continue;
+            }
+            newSlot[s] = n;
+            newLineStart[n + 1] = newLineStart[n] + lineStart[s + 1] - lineStart[s];
+            n++;
+        }
+        for (Postings p : terms.values()) {
+            int[] cursor = {0};   // slot of the previous line; lines come in ascending order
+            p.remap(line -> {
+                int s = slotOfLine(line, cursor[0]);
+                cursor[0] = s;
+                return newSlot[s] < 0 ? -1 : newLineStart[newSlot[s]] + line - lineStart[s];
+            });
+        }
+        IntUnaryOperator slotMap = s -> newSlot[s];
+        byHour.values().removeIf(p -> p.remap(slotMap) == 0);
+        byDollar.values().removeIf(p -> p.remap(slotMap) == 0);
+
+        int[] newTx = new int[newLineStart.length - 1];
+        long[] newDates = new long[newTx.length];
+        long[] newTotals = new long[newTx.length];
+        for (int s = 0; s < slots; s++) {
+            int t = newSlot[s];
+            if (t < 0) continue;
+            newTx[t] = txIds[s];
+            newDates[t] = dates[s];
+            newTotals[t] = totals[s];
+            slotOf.put(txIds[s], t);
+        }
+        slotOf.retainValues();
+        txIds = newTx;
+        dates = newDates;
+        totals = newTotals;
+        lineStart = newLineStart;
+        slots = n;
+        live = new BitSet(n);
+        live.set(0, n);
+    }
+
+    // the slot holding a line at or after slot 'from': the last slot starting at or before it.
+    // Galloping first, since the next hit is usually close by
+    private int slotOfLine(int line, int from) {
+        int lo = from, hi = from + 1, step = 1;
+        while (hi < slots && lineStart[hi] <= line) {
+            lo = hi;
+            hi = Math.min(slots, hi + step);
+            step <<= 1;
+        }
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (lineStart[mid] <= line) lo = mid; else hi = mid;
+        }
+        return lo;
+    }
+
+    // ---- queries ----
+
+    // matching transaction ids, newest first
+    public int[] search(Query q) {
+        long t0 = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            // a selective date or total range narrows the lines the text terms are decoded over
+            BitSet candidates = rangeCandidates(q, q.lines.isEmpty() ? Long.MAX_VALUE : liveCount / 8);
+            int fromLine = 0, toLine = lineStart[slots];
+            if (candidates != null && !candidates.isEmpty()) {
+                fromLine = lineStart[candidates.nextSetBit(0)];
+                toLine = lineStart[candidates.length()];
+            }
+            for (List<String> clause : q.lines) {
+                BitSet b = clauseSlots(clause, fromLine, toLine);
+                if (candidates == null) candidates = b; else candidates.and(b);
+            }
+            if (candidates == null) candidates = (BitSet) live.clone(); else candidates.and(live);
+
+            int[] out = new int[Math.min(candidates.cardinality(), 1024)];
+            int n = 0;
+            for (int s = candidates.nextSetBit(0); s >= 0; s = candidates.nextSetBit(s + 1)) {
+                if (!matches(q, s)) continue;
+                if (n == out.length) out = Arrays.copyOf(out, n * 2);
+                out[n++] = txIds[s];
+            }
+            Arrays.sort(out, 0, n);
+            int[] newestFirst = new int[n];
+            for (int i = 0; i < n; i++) newestFirst[i] = out[n - 1 - i];
+            return newestFirst;
+        } finally {
+            lock.readLock().unlock();
+            QUERY.recordSince(t0);
+        }
+    }
+
+    // slots with a line in [fromLine, toLine) carrying every term of the clause; each term is a prefix
+    private BitSet clauseSlots(List<String> clause, int fromLine, int toLine) {
+        List<List<Postings>> expanded = new ArrayList<>(clause.size());
+        for (String term : clause) {
+            List<Postings> matches = expand(term);
+            if (matches.isEmpty()) return new BitSet();
+            expanded.add(matches);
+        }
+        // the rarest term first, so the running set only shrinks
+        expanded.sort(Comparator.comparingLong(OrderSearchIndex::count));
+        BitSet lineBits = null;
+        for (List<Postings> term : expanded) {
+            BitSet b = new BitSet(toLine);
+            for (Postings p : term) p.orInto(b, fromLine, toLine);
+            if (lineBits == null) lineBits = b; else lineBits.and(b);
+            if (lineBits.isEmpty()) return lineBits;
+        }
+        BitSet result = new BitSet(slots);
+        int s = slotOfLine(lineBits.nextSetBit(0), 0);
+        for (int line = lineBits.nextSetBit(0); line >= 0; line = lineBits.nextSetBit(line + 1)) {
+            s = slotOfLine(line, s);
+            result.set(s);
+            line = lineStart[s + 1] - 1;   // one hit per order is enough
+        }
+        return result;
+    }
+
+    // postings of every indexed term starting with the given one; plain words only match item
+    // name words, "icing:" and "filling:" terms only options
+    private List<Postings> expand(String term) {
+        List<Postings> out = new ArrayList<>();
+        boolean option = term.indexOf(':') >= 0;
+        for (Map.Entry<String, Postings> e : terms.subMap(term, true, term + Character.MAX_VALUE, false).entrySet()) {
+            if (option || e.getKey().indexOf(':') < 0) out.add(e.getValue());
+        }
+        return out;
+    }
+
+    private static long count(List<Postings> postings) {
+        long n = 0;
+        for (Postings p : postings) n += p.count;
+        return n;
+    }
+
+    // slots from the date or total index, whichever picks fewer; null when neither is bounded
+    // or the better one would still pick more than maxSlots
+    private BitSet rangeCandidates(Query q, long maxSlots) {
+        if (q.fromMillis >= q.toMillis || q.minTotalCents > q.maxTotalCents) return new BitSet();
+        NavigableMap<Long, Postings> hours = q.fromMillis == Long.MIN_VALUE && q.toMillis == Long.MAX_VALUE ? null
+                : byHour.subMap(Math.floorDiv(q.fromMillis, HOUR_MILLIS), true, Math.floorDiv(q.toMillis - 1, HOUR_MILLIS), true);
+        NavigableMap<Long, Postings> dollars = q.minTotalCents == Long.MIN_VALUE && q.maxTotalCents == Long.MAX_VALUE ? null
+                : byDollar.subMap(Math.floorDiv(q.minTotalCents, 100L), true, Math.floorDiv(q.maxTotalCents, 100L), true);
+        NavigableMap<Long, Postings> pick = hours == null ? dollars
+                : dollars == null || count(hours) <= count(dollars) ? hours : dollars;
+        if (pick == null || count(pick) > maxSlots) return null;
+        BitSet b = new BitSet(slots);
+        for (Postings p : pick.values()) p.orInto(b, 0, Integer.MAX_VALUE);
+        return b;
+    }
+
+    private static long count(NavigableMap<Long, Postings> buckets) {
+        long n = 0;
+        for (Postings p : buckets.values()) n += p.count;
+        return n;
+    }
+
+    private boolean matches(Query q, int s) {
+        long date = dates[s], total = totals[s];
+        if (date < q.fromMillis || date >= q.toMillis) return false;
+        if (total < q.minTotalCents || total > q.maxTotalCents) return false;
+        if (q.fromMinute >= 0) {
+            int minute = (int) Math.floorMod(date + zone.getOffset(date), 86_400_000L) / 60_000;
+            boolean in = q.fromMinute <= q.toMinute
+                    ? minute >= q.fromMinute && minute < q.toMinute
+                    : minute >= q.fromMinute || minute < q.toMinute;   // wraps past midnight
+            if (!in) return false;
+        }
+        return true;
+    }
+
+    /**
+     * What to look for; every part that is set has to match. Built in code, or parsed from the
+     * order history's search box.
+     */
+    public static final class Query {
+        final List<List<String>> lines = new ArrayList<>();
+        long fromMillis = Long.MIN_VALUE;   // order date, inclusive
+        long toMillis = Long.MAX_VALUE;     // exclusive
+        long minTotalCents = Long.MIN_VALUE;
+        long maxTotalCents = Long.MAX_VALUE;
+        int fromMinute = -1;                // time of day, minutes from midnight; -1 = any
+        int toMinute = -1;
+
+        // one line of the order has to match all of the terms: words of the item name (each
+        // word a prefix, so "bost cr" finds Boston Creme), "icing:x" and "filling:x"
+        public Query line(String... terms) {
+            List<String> clause = new ArrayList<>();
+            for (String term : terms) {
+                String t = term.toLowerCase(Locale.ROOT).trim();
+                String prefix = t.startsWith("icing:") ? "icing:" : t.startsWith("filling:") ? "filling:" : "";
+                for (String w : words(t.substring(prefix.length()))) clause.add(prefix + w);
+            }
+            if (!clause.isEmpty()) lines.add(clause);
+            return this;
+        }
+
+        // orders dated in [from, to); either may be null. Narrows any range set before.
+        public Query between(Timestamp from, Timestamp to) {
+            if (from != null) fromMillis = Math.max(fromMillis, from.getTime());
+            if (to != null) toMillis = Math.min(toMillis, to.getTime());
+            return this;
+        }
+
+        // orders placed from fromMinute (inclusive) to toMinute (exclusive) on any day; a range
+        // such as 22:00-02:00 goes past midnight
+        public Query timeOfDay(int fromMinute, int toMinute) {
+            if (fromMinute < 0 || fromMinute > 1440 || toMinute < 0 || toMinute > 1440) throw new IllegalArgumentException("minutes of the day are 0 to 1440");
+            this.fromMinute = fromMinute;
+            this.toMinute = toMinute;
+            return this;
+        }
+
+        // totals in [minCents, maxCents], both inclusive. Narrows any range set before.
+        public Query totalBetween(long minCents, long maxCents) {
+            minTotalCents = Math.max(minTotalCents, minCents);
+            maxTotalCents = Math.min(maxTotalCents, maxCents);
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return lines.isEmpty() && fromMillis == Long.MIN_VALUE && toMillis == Long.MAX_VALUE && fromMinute < 0
+                    && minTotalCents == Long.MIN_VALUE && maxTotalCents == Long.MAX_VALUE;
+        }
+
+        private static final Pattern TOTAL = Pattern.compile("total(>=|<=|>|<|=|:)(.+)");
+        private static final Pattern TIME = Pattern.compile("(\\d{1,2})(?::(\\d{2}))?(am|pm)?");
+
+        public static Query parse(String text) {
+            return parse(text, System.currentTimeMillis());
+        }
+
+        /*
+         * Search box syntax: words are matched against item names, ';' starts the next line to
+         * match, and the rest are filters, all of which apply to the whole order. For example
+         * "boston creme filling:jam time:7-9 days:7 total>20".
+         *   icing:chocolate filling:jam   options of the same line
+         *   time:7-9 time:7:30am-2pm      time of day, end exclusive
+         *   today yesterday days:7        dates, days:N being the last N days including today
+         *   from:2025-11-01 to:2025-11-15 dates, both days included
+         *   total>20 total<=9.99 total:10-20 total=4.50
+         */
+        static Query parse(String text, long now) {
+            Query q = new Query();
+            ZoneId zone = ZoneId.systemDefault();
+            LocalDate today = java.time.Instant.ofEpochMilli(now).atZone(zone).toLocalDate();
+            for (String clause : text.split(";")) {
+                List<String> terms = new ArrayList<>();
+                for (String token : clause.trim().toLowerCase(Locale.ROOT).split("\\s+")) {
+                    if (token.isEmpty()) continue;
+                    Matcher total = TOTAL.matcher(token);
+                    int colon = token.indexOf(':');
+                    String key = colon > 0 ? token.substring(0, colon) : token;
+                    String value = colon > 0 ? token.substring(colon + 1) : "";
+                    if (total.matches()) {
+                        totalFilter(q, total.group(1), total.group(2));
+                    } else if (token.equals("today")) {
+                        q.between(startOf(today, zone), startOf(today.plusDays(1), zone));
+                    } else if (token.equals("yesterday")) {
+                        q.between(startOf(today.minusDays(1), zone), startOf(today, zone));
+                    } else if (key.equals("days")) {
+                        q.between(startOf(today.minusDays(number(value, token) - 1), zone), null);
+                    } else if (key.equals("from")) {
+                        q.between(startOf(date(value), zone), null);
+                    } else if (key.equals("to")) {
+                        q.between(null, startOf(date(value).plusDays(1), zone));
+                    } else if (key.equals("time")) {
+                        int dash = value.indexOf('-');
+                        if (dash < 0) throw new IllegalArgumentException("Time of day looks like time:7-9 or time:7:30am-2pm, not " + token);
+                        q.timeOfDay(minute(value.substring(0, dash)), minute(value.substring(dash + 1)));
+                    } else if (key.equals("icing") || key.equals("filling")) {
+                        terms.add(token);
+                    } else if (colon > 0) {
+                        throw new IllegalArgumentException("Unknown search filter " + key + ": (try icing, filling, time, days, from, to, total)");
+                    } else {
+                        terms.add(token);
+                    }
+                }
+                q.line(terms.toArray(new String[0]));
+            }
+            return q;
+        }
+
+        private static void totalFilter(Query q, String op, String amount) {
+            try {
+                switch (op) {
+                    case ">": q.totalBetween(Money.parse(amount) + 1, Long.MAX_VALUE); break;
+                    case ">=": q.totalBetween(Money.parse(amount), Long.MAX_VALUE); break;
+                    case "<": q.totalBetween(Long.MIN_VALUE, Money.parse(amount) - 1); break;
+                    case "<=": q.totalBetween(Long.MIN_VALUE, Money.parse(amount)); break;
+                    case "=": q.totalBetween(Money.parse(amount), Money.parse(amount)); break;
+                    default:
+                        int dash = amount.indexOf('-', 1);
+                        if (dash < 0) throw new IllegalArgumentException("A total range looks like total:10-20");
+                        q.totalBetween(Money.parse(amount.substring(0, dash)), Money.parse(amount.substring(dash + 1)));
+                }
+            } catch (NumberFormatException | ArithmeticException ex) {
+                throw new IllegalArgumentException("Not an amount: " + amount);
+            }
+        }
+
+        private static int number(String value, String token) {
+            try {
+                int n = Integer.parseInt(value);
+                if (n > 0) return n;
+            } catch (NumberFormatException ignored) {
+                // reported below
+            }
+            throw new IllegalArgumentException("Expected a number of days in " + token);
+        }
+
+        private static LocalDate date(String value) {
+            try {
+                return LocalDate.parse(value);
+            } catch (DateTimeParseException ex) {
+                throw new IllegalArgumentException("Dates look like 2025-11-15, not " + value);
+            }
+        }
+
+        private static Timestamp startOf(LocalDate day, ZoneId zone) {
+            return new Timestamp(day.atStartOfDay(zone).toInstant().toEpochMilli());
+        }
+
+        // "7" "7:30" "7am" "12pm" "19" "24" -> minutes from midnight
+        private static int minute(String s) {
+            Matcher m = TIME.matcher(s);
+            if (!m.matches()) throw new IllegalArgumentException("Not a time of day: " + s);
+            int hour = Integer.parseInt(m.group(1));
+            int minute = m.group(2) == null ? 0 : Integer.parseInt(m.group(2));
+            if (m.group(3) != null) {
+                if (hour < 1 || hour > 12) throw new IllegalArgumentException("Not a time of day: " + s);
+                hour = hour % 12 + (m.group(3).equals("pm") ? 12 : 0);
+            }
+            int total = hour * 60 + minute;
+            if (minute > 59 || total > 1440) throw new IllegalArgumentException("Not a time of day: " + s);
+            return total;
+        }
+    }
+
+    // ascending ints stored as varint gaps; most gaps take a single byte. Every SKIP values a
+    // skip pointer (the value before and the byte offset) lets a decode start part way in.
+    private static final class Postings {
+        private static final int SKIP = 128;
+
+        private byte[] data = new byte[8];
+        private int bytes;
+        private int count;
+        private int last = -1;
+        private int[] skipBase = new int[0];
+        private int[] skipOffset = new int[0];
+
+        // values have to come in ascending order; a repeat of the last one is ignored
+        void add(int v) {
+            if (v <= last) return;
+            if (count % SKIP == 0 && count > 0) {
+                int k = count / SKIP - 1;
+                if (k == skipBase.length) {
+                    skipBase = Arrays.copyOf(skipBase, Math.max(4, k * 2));
+                    skipOffset = Arrays.copyOf(skipOffset, skipBase.length);
+                }
+                skipBase[k] = last;
+                skipOffset[k] = bytes;
+            }
+            int gap = v - last;
+            last = v;
+            count++;
+            if (bytes + 5 > data.length) data = Arrays.copyOf(data, data.length * 2);
+            while ((gap & ~0x7F) != 0) {
+                data[bytes++] = (byte) ((gap & 0x7F) | 0x80);
+                gap >>>= 7;
+            }
+            data[bytes++] = (byte) gap;
+        }
+
+        // set the bits of the values in [from, to)
+        void orInto(BitSet bits, int from, int to) {
+            int v = -1, i = 0;
+            // the last skip pointer still below from
+            int lo = 0, hi = count > 0 ? (count - 1) / SKIP : 0;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (skipBase[mid] < from) lo = mid + 1; else hi = mid;
+            }
+            if (lo > 0) {
+                v = skipBase[lo - 1];
+                i = skipOffset[lo - 1];
+            }
+            while (i < bytes) {
+                int gap = 0, shift = 0, b;
+                do {
+                    b = data[i++];
+                    gap |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                v += gap;
+                if (v >= to) return;
+                if (v >= from) bits.set(v);
+            }
+        }
+
+        // replace every value by map(value), dropping those mapped to -1; the mapping has to
+        // keep the order. Returns how many are left.
+        int remap(IntUnaryOperator map) {
+            byte[] old = data;
+            int oldBytes = bytes;
+            data = new byte[Math.max(8, oldBytes)];
+            bytes = 0;
+            count = 0;
+            last = -1;
+            skipBase = new int[0];
+            skipOffset = new int[0];
+            int v = -1;
+            for (int i = 0; i < oldBytes; ) {
+                int gap = 0, shift = 0, b;
+                do {
+                    b = old[i++];
+                    gap |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                v += gap;
+                int m = map.applyAsInt(v);
+                if (m >= 0) add(m);
+            }
+            return count;
+        }
+    }
+
+    // int -> int hash map with open addressing; get returns -1 for a missing key. Keys are never
+    // removed (the index stores -1 instead); retainValues() rebuilds the map without those.
+    private static final class IntIntMap {
+        private static final int FREE = Integer.MIN_VALUE;
+        private int[] keys = newKeys(1024);
+        private int[] values = new int[1024];
+        private int size;
+
+        private static int[] newKeys(int n) {
+            int[] k = new int[n];
+            Arrays.fill(k, FREE);
+            return k;
+        }
+
+        private int indexOf(int key) {
+            int mask = keys.length - 1;
+            int i = (key * 0x9E3779B9) >>> 7 & mask;
+            while (keys[i] != FREE && keys[i] != key) i = (i + 1) & mask;
+            return i;
+        }
+
+        int get(int key) {
+            int i = indexOf(key);
+            return keys[i] == key ? values[i] : -1;
+        }
+
+        void put(int key, int value) {
+            int i = indexOf(key);
+            if (keys[i] != key) {
+                if ((size + 1) * 2 > keys.length) {
+                    grow(keys.length * 2, false);
+                    i = indexOf(key);
+                }
+                keys[i] = key;
+                size++;
+            }
+            values[i] = value;
+        }
+
+        void retainValues() {
+            grow(keys.length, true);
+        }
+
+        private void grow(int capacity, boolean dropMissing) {
+            int[] oldKeys = keys, oldValues = values;
+            int live = 0;
+            if (dropMissing) {
+                for (int i = 0; i < oldKeys.length; i++) if (oldKeys[i] != FREE && oldValues[i] >= 0) live++;
+                capacity = 1024;
+                while (capacity < live * 2) capacity *= 2;
+            }
+            keys = newKeys(capacity);
+            values = new int[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == FREE || (dropMissing && oldValues[i] < 0)) continue;
+                int j = indexOf(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+                size++;
+            }
+        }
+    }
+}
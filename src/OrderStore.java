@@ -0,0 +1,79 @@
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Order persistence, implemented by every storage backend (see Store).
+ * Transaction ids are positive and increase with every saved order; lists come newest first.
+ * The date filters are optional (null = open ended), from inclusive and to exclusive.
+ */
+public interface OrderStore {
+
+    // save an order and its lines, returns the new transaction id. discountCents is what promotions
+    // took off: the lines are sold at their prices and subtotalCents is after the discount
+    int saveOrder(List<DatabaseManager.OrderLine> lines, long subtotalCents, long taxCents, long totalCents, long discountCents) throws Exception;
+
+    // save without waiting where the backend can (the future completes with the transaction id)
+    CompletableFuture<Integer> saveOrderAsync(List<DatabaseManager.OrderLine> lines, long subtotalCents, long taxCents, long totalCents,
+                                              long discountCents);
+
+    default int saveOrder(List<DatabaseManager.OrderLine> lines, long subtotalCents, long taxCents, long totalCents) throws Exception {
+        return saveOrder(lines, subtotalCents, taxCents, totalCents, 0);
+    }
+
+    default CompletableFuture<Integer> saveOrderAsync(List<DatabaseManager.OrderLine> lines, long subtotalCents, long taxCents, long totalCents) {
+        return saveOrderAsync(lines, subtotalCents, taxCents, totalCents, 0);
+    }
+
+    // lines of an order in line order, empty when the order does not exist
+    List<DatabaseManager.OrderLine> loadOrderLines(int transactionId) throws Exception;
+
+    List<DatabaseManager.OrderRow> loadOrders() throws Exception;
+
+    // one page of at most limit orders with ids below beforeTxId
+    List<DatabaseManager.OrderRow> loadOrdersBefore(int beforeTxId, int limit, Timestamp from, Timestamp to) throws Exception;
+
+    int countOrders(Timestamp from, Timestamp to) throws Exception;
+
+    // id of the order at the given offset (newest first), -1 past the end
+    int loadOrderIdAt(int offset, Timestamp from, Timestamp to) throws Exception;
+
+    // replace an order's items and amounts (its lines are rebuilt from the items string, the date and discount are kept)
+    boolean updateOrder(int transactionId, String items, long subtotalCents, long taxCents, long totalCents) throws Exception;
+
+    boolean deleteOrder(int transactionId) throws Exception;
+
+    // the orders that exist among the given ids, in the order given (missing ids are skipped)
+    List<DatabaseManager.OrderRow> loadOrdersById(int[] transactionIds) throws Exception;
+
+    // every order in [from, to) with its lines, oldest first, one at a time (for indexing and
+    // export; nothing is collected in memory). Orders saved during the scan may or may not be seen.
+    void scanOrders(Timestamp from, Timestamp to, OrderVisitor visitor) throws Exception;
+
+    interface OrderVisitor {
+        void visit(DatabaseManager.OrderRow order, List<DatabaseManager.OrderLine> lines) throws Exception;
+    }
+
+    // sales per hour and per day, and the best sellers by quantity, for days in [from, to). Read
+    // from rollups kept up to date with every change (see SalesAnalytics), not from the orders
+    List<SalesAnalytics.Bucket> hourlySales(LocalDate from, LocalDate to) throws Exception;
+
+    List<SalesAnalytics.Bucket> dailySales(LocalDate from, LocalDate to) throws Exception;
+
+    List<SalesAnalytics.ItemSales> topItems(LocalDate from, LocalDate to, int limit) throws Exception;
+
+    // told about every saved, updated and deleted order once the change is stored. Called on the
+    // thread that made the change (a register, the order writer, ...), so it has to be quick;
+    // an exception thrown here is logged and does not undo or fail the change.
+    void addOrderListener(OrderListener listener);
+
+    void removeOrderListener(OrderListener listener);
+
+    interface OrderListener {
+        default void orderSaved(DatabaseManager.OrderRow order, List<DatabaseManager.OrderLine> lines) {}
+        // order holds the new items and amounts (same id and date), lines the rebuilt lines
+        default void orderUpdated(DatabaseManager.OrderRow order, List<DatabaseManager.OrderLine> lines) {}
+        default void orderDeleted(int transactionId) {}
+    }
+}
@@ -0,0 +1,161 @@
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.SwingConstants;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Table model for the order being rung up. Lines are kept as typed values with prices in
+ * cents, and the subtotal is maintained as lines are added, edited and removed, so reading
+ * it is O(1) and nothing is ever parsed back out of formatted cells. Price columns hold
+ * Long cents; CentsRenderer formats them for display. With promotions set, every change is
+ * passed on to a PromotionEngine.Cart, which reprices only what the change touches.
+ */
+public class OrderTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMNS = {"Item", "Options", "Qty", "Price", "Total"};
+    public static final int PRICE_COLUMN = 3;
+    public static final int TOTAL_COLUMN = 4;
+
+    // one row of the order
+    public static final class Line {
+        public final int menuItemId;
+        public final String name;
+        public final String icing;     // null = none
+        public final String filling;   // null = none
+        public final long unitCents;
+        public final String optionsLabel;
+        int qty;
+
+        Line(int menuItemId, String name, String icing, String filling, int qty, long unitCents) {
+            this.menuItemId = menuItemId;
+            this.name = name;
+            this.icing = icing;
+            this.filling = filling;
+            this.qty = qty;
+            this.unitCents = unitCents;
+            this.optionsLabel = optionsLabel(icing, filling);
+        }
+
+        public int qty() { return qty; }
+        public long totalCents() { return Money.times(unitCents, qty); }
+    }
+
+    private final List<Line> lines = new ArrayList<>();
+    private long subtotalCents;
+    private PromotionEngine.Cart promotions;   // null = no promotions
+
+    // "Icing: Maple, Filling: Jam", or "-" without options (the label shown in the Options column)
+    public static String optionsLabel(String icing, String filling) {
+        String options = "";
+        if (icing != null) options += "Icing: " + icing;
+        if (filling != null) {
+            if (!options.isEmpty()) options += ", ";
+            options += "Filling: " + filling;
+        }
+        return options.isEmpty() ? "-" : options;
+    }
+
+    public void add(int menuItemId, String name, String icing, String filling, int qty, long unitCents) {
+        Line l = new Line(menuItemId, name, icing, filling, qty, unitCents);
+        lines.add(l);
+        subtotalCents += l.totalCents();
+        if (promotions != null) promotions.change(menuItemId, unitCents, qty);
+        int row = lines.size() - 1;
+        fireTableRowsInserted(row, row);
+    }
+
+    public void setQuantity(int row, int qty) {
+        Line l = lines.get(row);
+        subtotalCents -= l.totalCents();
+        if (promotions != null) promotions.change(l.menuItemId, l.unitCents, qty - l.qty);
+        l.qty = qty;
+        subtotalCents += l.totalCents();
+        fireTableRowsUpdated(row, row);
+    }
+
+    public void remove(int row) {
+        Line l = lines.remove(row);
+        subtotalCents -= l.totalCents();
+        if (promotions != null) promotions.change(l.menuItemId, l.unitCents, -l.qty);
+        fireTableRowsDeleted(row, row);
+    }
+
+    public void clear() {
+        int n = lines.size();
+        if (n == 0) return;
+        lines.clear();
+        subtotalCents = 0;
+        if (promotions != null) promotions.clear();
+        fireTableRowsDeleted(0, n - 1);
+    }
+
+    public Line line(int row) { return lines.get(row); }
+    public List<Line> lines() { return Collections.unmodifiableList(lines); }
+    public long subtotalCents() { return subtotalCents; }
+
+    // price the order with these promotions from now on (null: none); the current lines carry over
+    public void setPromotions(PromotionEngine engine) {
+        promotions = engine == null ? null : engine.newCart();
+        if (promotions != null) for (Line l : lines) promotions.change(l.menuItemId, l.unitCents, l.qty);
+    }
+
+    // what promotions take off subtotalCents()
+    public long discountCents() {
+        return promotions == null ? 0 : promotions.discountCents();
+    }
+
+    public List<PromotionEngine.Applied> promotionsApplied() {
+        return promotions == null ? Collections.emptyList() : promotions.applied();
+    }
+
+    // the lines as they are saved at checkout, at the prices they were sold for; the discount
+    // is saved with the order (see OrderStore.saveOrder), so these add up to subtotalCents()
+    public List<DatabaseManager.OrderLine> orderLines() {
+        List<DatabaseManager.OrderLine> out = new ArrayList<>(lines.size());
+        for (Line l : lines) out.add(new DatabaseManager.OrderLine(l.menuItemId, l.name, l.qty, l.unitCents, l.icing, l.filling));
+        return out;
+    }
+
+    @Override public int getRowCount() { return lines.size(); }
+    @Override public int getColumnCount() { return COLUMNS.length; }
+    @Override public String getColumnName(int column) { return COLUMNS[column]; }
+    @Override public boolean isCellEditable(int row, int column) { return false; }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        switch (column) {
+            case 2: return Integer.class;
+            case PRICE_COLUMN:
+            case TOTAL_COLUMN: return Long.class;
+            default: return String.class;
+        }
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Line l = lines.get(row);
+        switch (column) {
+            case 0: return l.name;
+            case 1: return l.optionsLabel;
+            case 2: return l.qty;
+            case PRICE_COLUMN: return l.unitCents;
+            default: return l.totalCents();
+        }
+    }
+
+    // renders a Long cents cell as currency; formatting happens only for visible cells
+    public static class CentsRenderer extends DefaultTableCellRenderer {
+        private static final long serialVersionUID = 1L;
+
+        public CentsRenderer() {
+            setHorizontalAlignment(SwingConstants.RIGHT);
+        }
+
+        @Override
+        protected void setValue(Object value) {
+            setText(value instanceof Long ? Money.format((Long) value) : "");
+        }
+    }
+}
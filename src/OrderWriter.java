@@ -0,0 +1,255 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write-behind queue for orders. Callers get a future for the transaction id right away;
+ * a single writer thread drains the bounded queue and inserts everything that is pending
+ * in one transaction, so many checkouts share a single commit (group commit).
+ * Order rows are inserted one by one with ids from DatabaseManager.nextOrderId (or the id the
+ * order journal fixed already); the order_lines rows of the whole group go out as a single
+ * JDBC batch.
+ */
+public class OrderWriter implements AutoCloseable {
+
+    // how often the writer commits
+    public enum Durability {
+        PER_ORDER,     // one commit per order (same guarantees as the synchronous saveOrder)
+        GROUP_COMMIT   // one commit per drained batch
+    }
+
+    private final ConnectionPool pool;
+    private final BlockingQueue<PendingOrder> queue;
+    private final int maxBatch;
+    private final long offerTimeoutMillis;
+    private final Durability durability;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public OrderWriter(ConnectionPool pool, int queueCapacity, int maxBatch, long offerTimeoutMillis, Durability durability) {
+        this.pool = pool;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatch = Math.max(1, maxBatch);
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.durability = durability;
+        this.writer = new Thread(this::run, "order-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // build a writer from system properties (oakdonuts.orders.queueCapacity, ...batchSize, ...offerTimeoutMs, ...durability)
+    public static OrderWriter fromSystemProperties(ConnectionPool pool) {
+        int capacity = Integer.getInteger("oakdonuts.orders.queueCapacity", 1024);
+        int batch = Integer.getInteger("oakdonuts.orders.batchSize", 64);
+        long timeout = Long.getLong("oakdonuts.orders.offerTimeoutMs", 100L);
+        Durability d = Durability.valueOf(System.getProperty("oakdonuts.orders.durability", Durability.GROUP_COMMIT.name()));
+        return new OrderWriter(pool, capacity, batch, timeout, d);
+    }
+
+    /**
+     * Queue an order for writing. If the queue stays full for offerTimeoutMillis the returned
+     * future fails with RejectedExecutionException (backpressure) instead of blocking the caller.
+     */
+    public CompletableFuture<Integer> submit(List<DatabaseManager.OrderLine> lines, long subtotalCents, long taxCents, long totalCents) {
+        return submit(0, null, lines, subtotalCents, taxCents, totalCents, 0);
+    }
+
+    // queue an order whose id and date may be fixed already (by the order journal; 0 and null otherwise)
+    public CompletableFuture<Integer> submit(int transactionId, Timestamp orderDate, List<DatabaseManager.OrderLine> lines,
+                                             long subtotalCents, long taxCents, long totalCents, long discountCents) {
+        PendingOrder o = new PendingOrder(transactionId, orderDate, lines, subtotalCents, taxCents, totalCents, discountCents);
+        if (!running) {
+            o.result.completeExceptionally(new RejectedExecutionException("Order writer is closed"));
+            return o.result;
+        }
+        try {
+            if (!queue.offer(o, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                rejected.increment();
+                o.result.completeExceptionally(new RejectedExecutionException("Order queue is full (" + queue.size() + " pending)"));
+            } else {
+                failIfLeftBehind(o);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            o.result.completeExceptionally(ie);
+        }
+        return o.result;
+    }
+
+    /**
+     * Queue an order, waiting for as long as the queue is full instead of rejecting it. This is
+     * the order journal's hand-off: its orders are acknowledged already, so backpressure has to
+     * slow the journal down, not fail them. The future fails only if the writer is closed.
+     */
+    public CompletableFuture<Integer> put(int transactionId, Timestamp orderDate, List<DatabaseManager.OrderLine> lines,
+                                          long subtotalCents, long taxCents, long totalCents, long discountCents) {
+        PendingOrder o = new PendingOrder(transactionId, orderDate, lines, subtotalCents, taxCents, totalCents, discountCents);
+        try {
+            // in slices, so a writer closed meanwhile is noticed
+            boolean queued = false;
+            while (running && !queued) queued = queue.offer(o, 100, TimeUnit.MILLISECONDS);
+            if (!queued) o.result.completeExceptionally(new RejectedExecutionException("Order writer is closed"));
+            else failIfLeftBehind(o);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            o.result.completeExceptionally(ie);
+        }
+        return o.result;
+    }
+
+    // an offer can land after close() has stopped the writer and drained the queue: nobody would
+    // complete that order. Whoever takes it out of the queue (the writer, close() or this) owns it
+    private void failIfLeftBehind(PendingOrder o) {
+        if (!running && queue.remove(o)) o.result.completeExceptionally(new RejectedExecutionException("Order writer is closed"));
+    }
+
+    public int pending() { return queue.size(); }
+    public long written() { return written.sum(); }
+    public long commits() { return commits.sum(); }
+    public long rejected() { return rejected.sum(); }
+    public Durability durability() { return durability; }
+
+    private void run() {
+        List<PendingOrder> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingOrder first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+                writeBatch(batch);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException ex) {
+                // fail this batch (the pool rolls its transaction back) but keep the writer alive,
+                // or every later order would wait on a thread that is gone
+                for (PendingOrder o : batch) o.result.completeExceptionally(ex);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingOrder> batch) {
+        try (ConnectionPool.PooledConnection pc = pool.acquire()) {
+            Connection conn = pc.connection();
+            conn.setAutoCommit(false);
+            try {
+                PreparedStatement lines = pc.prepare(DatabaseManager.INSERT_LINE_SQL);
+                int[] ids = new int[batch.size()];
+                Timestamp now = new Timestamp(System.currentTimeMillis());
+                SalesAnalytics.Delta rollup = new SalesAnalytics.Delta();
+                for (int i = 0; i < batch.size(); i++) {
+                    PendingOrder o = batch.get(i);
+                    if (durability == Durability.PER_ORDER) rollup = new SalesAnalytics.Delta();
+                    ids[i] = DatabaseManager.insertOrder(pc, o.transactionId, o.dateOr(now), o.lines, o.subtotalCents, o.taxCents, o.totalCents, o.discountCents, rollup);
+                    DatabaseManager.addLineBatch(lines, ids[i], o.lines);
+                    if (durability == Durability.PER_ORDER) {
+                        lines.executeBatch();
+                        rollup.applyTo(pc);
+                        conn.commit();
+                        commits.increment();
+                        DatabaseManager.orderSaved(ids[i], o.dateOr(now), o.lines, o.subtotalCents, o.taxCents, o.totalCents, o.discountCents);
+                        o.result.complete(ids[i]);
+                    }
+                }
+                if (durability == Durability.GROUP_COMMIT) {
+                    // the lines of every order in the group go out as one JDBC batch, and the
+                    // rollups get one update per touched hour/day/item rather than one per order
+                    lines.executeBatch();
+                    rollup.applyTo(pc);
+                    conn.commit();
+                    commits.increment();
+                    // only acknowledge once the whole group is durable
+                    for (int i = 0; i < batch.size(); i++) {
+                        PendingOrder o = batch.get(i);
+                        DatabaseManager.orderSaved(ids[i], o.dateOr(now), o.lines, o.subtotalCents, o.taxCents, o.totalCents, o.discountCents);
+                        o.result.complete(ids[i]);
+                    }
+                }
+                written.add(batch.size());
+            } catch (SQLException ex) {
+                conn.rollback();
+                // one bad order must not fail the rest of the group: retry them one at a time
+                if (batch.size() > 1) writeIndividually(pc, batch);
+                else batch.get(0).result.completeExceptionally(ex);
+            }
+        } catch (SQLException ex) {
+            for (PendingOrder o : batch) o.result.completeExceptionally(ex);
+        }
+    }
+
+    private void writeIndividually(ConnectionPool.PooledConnection pc, List<PendingOrder> batch) throws SQLException {
+        Connection conn = pc.connection();
+        for (PendingOrder o : batch) {
+            if (o.result.isDone()) continue;
+            try {
+                SalesAnalytics.Delta rollup = new SalesAnalytics.Delta();
+                Timestamp date = o.dateOr(new Timestamp(System.currentTimeMillis()));
+                int id = DatabaseManager.insertOrder(pc, o.transactionId, date, o.lines, o.subtotalCents, o.taxCents, o.totalCents, o.discountCents, rollup);
+                DatabaseManager.insertOrderLines(pc, id, o.lines);
+                rollup.applyTo(pc);
+                conn.commit();
+                commits.increment();
+                written.increment();
+                DatabaseManager.orderSaved(id, date, o.lines, o.subtotalCents, o.taxCents, o.totalCents, o.discountCents);
+                o.result.complete(id);
+            } catch (SQLException ex) {
+                conn.rollback();
+                o.result.completeExceptionally(ex);
+            }
+        }
+    }
+
+    // stop accepting orders, flush whatever is queued and stop the writer thread
+    @Override
+    public void close() {
+        // the writer notices within one poll interval; it is not interrupted because
+        // Derby treats an interrupt during I/O as a reason to close the connection
+        running = false;
+        try {
+            writer.join(10_000);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        PendingOrder o;
+        while ((o = queue.poll()) != null) o.result.completeExceptionally(new RejectedExecutionException("Order writer closed"));
+    }
+
+    private static final class PendingOrder {
+        final int transactionId;   // 0: take the next id when written
+        final Timestamp orderDate; // null: now
+        final List<DatabaseManager.OrderLine> lines;
+        final long subtotalCents;
+        final long taxCents;
+        final long totalCents;
+        final long discountCents;
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        PendingOrder(int transactionId, Timestamp orderDate, List<DatabaseManager.OrderLine> lines, long subtotalCents, long taxCents, long totalCents,
+                     long discountCents) {
+            this.transactionId = transactionId;
+            this.orderDate = orderDate;
+            this.lines = lines;
+            this.subtotalCents = subtotalCents;
+            this.taxCents = taxCents;
+            this.totalCents = totalCents;
+            this.discountCents = discountCents;
+        }
+
+        Timestamp dateOr(Timestamp now) {
+            return orderDate != null ? orderDate : now;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Read-only table model that pulls rows from a keyset-paginated source as the table asks for them.
+ * Only a bounded number of pages is held in memory (least recently used pages are dropped),
+ * so memory stays flat no matter how many rows the source has.
+ *
+ * Rows are expected in descending key order; page p is fetched as "keys below the last key of
+ * page p-1". Page anchors are remembered once seen, otherwise looked up by offset.
+ *
+ * With an AsyncDb the source is only called on the database executor: rows of a page that is
+ * still loading read as null and the rows are repainted once the page arrives. Without one
+ * (e.g. in benchmarks) pages are loaded synchronously. All other methods are EDT-only.
+ * A page that fails to load is reported once and its rows stay empty until the next reload(),
+ * so repaints behind an error dialog do not ask for it again.
+ */
+public class PagedTableModel<T> extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    // where the rows come from
+    public interface Source<T> {
+        int count() throws Exception;
+        // up to limit rows with key < beforeKey, in descending key order
+        List<T> pageBefore(int beforeKey, int limit) throws Exception;
+        // key of the row at the given offset (0 = newest)
+        int keyAt(int offset) throws Exception;
+    }
+
+    // cell values of a row
+    public interface Columns<T> {
+        Object valueAt(T row, int column);
+    }
+
+    private final String[] columnNames;
+    private final Columns<T> columns;
+    private final ToIntFunction<T> keyOf;
+    private final int pageSize;
+    private final int maxCachedPages;
+    private final AsyncDb async;
+
+    private Source<T> source;
+    private int generation;
+    private int rowCount;
+    private int[] anchors = new int[0];    // anchors[p] = beforeKey for page p, 0 = unknown
+    private final Map<Integer, List<T>> pages;
+    private final Map<Integer, CompletableFuture<?>> loading = new HashMap<>();
+    private final Set<Integer> failedPages = new HashSet<>();
+    private CompletableFuture<Integer> counting;
+    private Consumer<Throwable> onLoadError = t -> {};
+
+    public PagedTableModel(String[] columnNames, Columns<T> columns, ToIntFunction<T> keyOf, int pageSize, int maxCachedPages, AsyncDb async) {
+        this.columnNames = columnNames.clone();
+        this.columns = columns;
+        this.keyOf = keyOf;
+        this.pageSize = pageSize;
+        this.maxCachedPages = maxCachedPages;
+        this.async = async;
+        this.pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Integer, List<T>> eldest) {
+                return size() > PagedTableModel.this.maxCachedPages;
+            }
+        };
+    }
+
+    // called (on the EDT) when a count or page load fails
+    public void setOnLoadError(Consumer<Throwable> onLoadError) {
+        this.onLoadError = onLoadError;
+    }
+
+    // switch to a (possibly re-filtered) source and start over from the newest row
+    public void setSource(Source<T> source) throws Exception {
+        this.source = source;
+        reload();
+    }
+
+    // drop all cached pages and recount, e.g. after an edit or delete
+    public void reload() throws Exception {
+        cancelPending();
+        generation++;
+        pages.clear();
+        failedPages.clear();
+        if (source == null) {
+            applyCount(0);
+        } else if (async == null) {
+            applyCount(source.count());
+        } else {
+            Source<T> src = source;
+            int gen = generation;
+            counting = async.submit(src::count);
+            AsyncDb.onEdt(counting, n -> { if (gen == generation) applyCount(n); }, this::failed);
+        }
+    }
+
+    private void applyCount(int n) {
+        rowCount = n;
+        anchors = new int[(rowCount + pageSize - 1) / pageSize];
+        if (anchors.length > 0) anchors[0] = Integer.MAX_VALUE;
+        fireTableDataChanged();
+    }
+
+    // cancel outstanding loads, e.g. when the dialog showing this model closes
+    public void cancelPending() {
+        if (counting != null) counting.cancel(false);
+        for (CompletableFuture<?> f : loading.values()) f.cancel(false);
+        loading.clear();
+    }
+
+    public boolean isLoading() {
+        return !loading.isEmpty() || (counting != null && !counting.isDone());
+    }
+
+    // row object at the given index, or null while its page is still loading
+    public T getRow(int row) {
+        List<T> page = page(row / pageSize);
+        if (page == null) return null;
+        int idx = row % pageSize;
+        return idx < page.size() ? page.get(idx) : null;
+    }
+
+    public int cachedPageCount() { return pages.size(); }
+
+    private List<T> page(int p) {
+        List<T> page = pages.get(p);
+        if (page != null) return page;
+        int knownAnchor = knownAnchor(p);
+        if (async == null) {
+            try {
+                int anchor = knownAnchor != 0 ? knownAnchor : source.keyAt(p * pageSize - 1);
+                return storePage(p, anchor, source.pageBefore(anchor, pageSize));
+            } catch (Exception ex) {
+                throw new IllegalStateException("Failed to load rows: " + ex.getMessage(), ex);
+            }
+        }
+        if (!loading.containsKey(p) && !failedPages.contains(p)) {
+            Source<T> src = source;
+            int gen = generation;
+            CompletableFuture<Object[]> f = async.submit(() -> {
+                int anchor = knownAnchor != 0 ? knownAnchor : src.keyAt(p * pageSize - 1);
+                return new Object[]{anchor, src.pageBefore(anchor, pageSize)};
+            });
+            loading.put(p, f);
+            AsyncDb.onEdt(f, r -> {
+                if (gen != generation) return;
+                loading.remove(p);
+                @SuppressWarnings("unchecked") List<T> rows = (List<T>) r[1];
+                storePage(p, (Integer) r[0], rows);
+                int first = p * pageSize;
+                fireTableRowsUpdated(first, Math.min(rowCount, first + pageSize) - 1);
+            }, err -> {
+                if (gen != generation) return;
+                loading.remove(p);
+                failedPages.add(p);
+                failed(err);
+            });
+        }
+        return null;
+    }
+
+    private int knownAnchor(int p) {
+        if (anchors[p] == 0) {
+            List<T> prev = pages.get(p - 1);
+            if (prev != null && !prev.isEmpty()) anchors[p] = keyOf.applyAsInt(prev.get(prev.size() - 1));
+        }
+        return anchors[p];
+    }
+
+    private List<T> storePage(int p, int anchor, List<T> page) {
+        anchors[p] = anchor;
+        pages.put(p, page instanceof ArrayList ? page : new ArrayList<>(page));
+        if (!page.isEmpty() && p + 1 < anchors.length) anchors[p + 1] = keyOf.applyAsInt(page.get(page.size() - 1));
+        return page;
+    }
+
+    private void failed(Throwable t) {
+        onLoadError.accept(t);
+    }
+
+    @Override public int getRowCount() { return rowCount; }
+    @Override public int getColumnCount() { return columnNames.length; }
+    @Override public String getColumnName(int column) { return columnNames[column]; }
+    @Override public boolean isCellEditable(int row, int column) { return false; }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        T r = getRow(row);
+        return r == null ? null : columns.valueAt(r, column);
+    }
+}
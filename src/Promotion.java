@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * One promotion as written in the promotions file (-Doakdonuts.promotions, default
+ * promotions.txt; none when the file is missing), one per line, highest priority first:
+ *
+ *   # name            | what                          | deal      | when (optional)
+ *   Dozen Donuts      | 12 Donuts                     | for 14.99
+ *   Coffee & Donut    | 1 Drinks + 1 Donuts           | off 0.50
+ *   Latte Happy Hour  | 1 "Latte" or "Iced Coffee"    | 20% off   | Mon-Fri 14:00-16:00
+ *
+ * "what" is one or more slots joined by '+', each a unit count and the items that fill it: a
+ * category, or an item name in quotes, several joined by "or" (names ignore case). The deal is
+ * what one filled set of slots costs ("for"), how much comes off it ("off") or a percentage off
+ * it. "when" is days (Mon-Fri, Sat,Sun, daily) and/or a time range. PromotionEngine compiles a
+ * list of these against the menu.
+ */
+public final class Promotion {
+    public enum Deal { PRICE, AMOUNT_OFF, PERCENT_OFF }
+
+    // count units, each from one of the categories or items (folded names)
+    public static final class Slot {
+        public final int count;
+        public final Set<String> categories;
+        public final Set<String> items;
+
+        public Slot(int count, Set<String> categories, Set<String> items) {
+            this.count = count;
+            this.categories = categories;
+            this.items = items;
+        }
+
+        // takes folded names (see MenuCatalog.fold); category may be null
+        public boolean accepts(String itemName, String category) {
+            return items.contains(itemName) || (category != null && categories.contains(category));
+        }
+    }
+
+    public final String name;
+    public final List<Slot> slots;
+    public final Deal deal;
+    public final long amount;   // cents for PRICE and AMOUNT_OFF, basis points for PERCENT_OFF
+    private final Set<DayOfWeek> days;   // null = every day
+    private final LocalTime from, to;     // null = all day; to is exclusive
+
+    public Promotion(String name, List<Slot> slots, Deal deal, long amount, Set<DayOfWeek> days, LocalTime from, LocalTime to) {
+        if (slots.isEmpty()) throw new IllegalArgumentException("a promotion needs at least one slot");
+        this.name = name;
+        this.slots = Collections.unmodifiableList(new ArrayList<>(slots));
+        this.deal = deal;
+        this.amount = amount;
+        this.days = days;
+        this.from = from;
+        this.to = to;
+    }
+
+    public boolean activeAt(LocalDateTime t) {
+        if (days != null && !days.contains(t.getDayOfWeek())) return false;
+        if (from == null) return true;
+        LocalTime now = t.toLocalTime();
+        // a range such as 22:00-02:00 runs past midnight
+        return from.isBefore(to) ? !now.isBefore(from) && now.isBefore(to) : !now.isBefore(from) || now.isBefore(to);
+    }
+
+    // the discount on one filled set of slots whose units cost sumCents together (never negative)
+    public long discountOn(long sumCents) {
+        switch (deal) {
+            case PRICE: return Math.max(0, sumCents - amount);
+            case AMOUNT_OFF: return Math.min(amount, sumCents);
+            default: return Money.divide(Math.multiplyExact(sumCents, amount), 10_000L, RoundingMode.HALF_UP);
+        }
+    }
+
+    // -Doakdonuts.promotions (default promotions.txt); no promotions when the file does not exist
+    public static List<Promotion> fromSystemProperties() throws IOException {
+        Path file = Paths.get(System.getProperty("oakdonuts.promotions", "promotions.txt"));
+        return Files.exists(file) ? load(file) : Collections.emptyList();
+    }
+
+    public static List<Promotion> load(Path file) throws IOException {
+        return parseAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    // blank lines and # comments are skipped; a bad line throws IllegalArgumentException with its number
+    public static List<Promotion> parseAll(List<String> lines) {
+        List<Promotion> out = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            try {
+                out.add(parse(line));
+            } catch (RuntimeException ex) {
+                throw new IllegalArgumentException("promotions line " + (i + 1) + ": " + ex.getMessage(), ex);
+            }
+        }
+        return out;
+    }
+
+    public static Promotion parse(String line) {
+        String[] parts = line.split("\\|");
+        if (parts.length < 3 || parts.length > 4) throw new IllegalArgumentException("expected name | what | deal [| when]");
+        String name = parts[0].trim();
+        if (name.isEmpty()) throw new IllegalArgumentException("missing name");
+
+        List<Slot> slots = new ArrayList<>();
+        for (String slot : parts[1].split("\\+")) slots.add(parseSlot(slot.trim()));
+
+        String deal = parts[2].trim().toLowerCase(Locale.ROOT);
+        Deal kind;
+        long amount;
+        if (deal.startsWith("for ")) {
+            kind = Deal.PRICE;
+            amount = Money.parse(deal.substring(4).trim());
+        } else if (deal.startsWith("off ")) {
+            kind = Deal.AMOUNT_OFF;
+            amount = Money.parse(deal.substring(4).trim());
+        } else if (deal.endsWith("% off")) {
+            kind = Deal.PERCENT_OFF;
+            amount = Money.parse(deal.substring(0, deal.length() - 5).trim());   // percent with two decimals = basis points
+            if (amount > 10_000) throw new IllegalArgumentException("more than 100% off");
+        } else {
+            throw new IllegalArgumentException("deal must be \"for <price>\", \"off <amount>\" or \"<n>% off\": " + parts[2].trim());
+        }
+        if (amount < 0) throw new IllegalArgumentException("negative amount");
+
+        Set<DayOfWeek> days = null;
+        LocalTime from = null, to = null;
+        if (parts.length == 4) {
+            for (String word : parts[3].trim().split("\\s+")) {
+                if (word.isEmpty()) continue;
+                if (Character.isDigit(word.charAt(0))) {
+                    String[] range = word.split("-");
+                    if (range.length != 2) throw new IllegalArgumentException("time range must be HH:mm-HH:mm: " + word);
+                    from = LocalTime.parse(range[0].length() == 4 ? "0" + range[0] : range[0]);
+                    to = LocalTime.parse(range[1].length() == 4 ? "0" + range[1] : range[1]);
+                } else if (!word.equalsIgnoreCase("daily")) {
+                    days = parseDays(word);
+                }
+            }
+        }
+        return new Promotion(name, slots, kind, amount, days, from, to);
+    }
+
+    // 12 Donuts / 1 "Latte" or "Iced Coffee" or Sandwiches
+    private static Slot parseSlot(String s) {
+        int space = s.indexOf(' ');
+        if (space < 0) throw new IllegalArgumentException("slot must be a count and what fills it: " + s);
+        int count;
+        try {
+            count = Integer.parseInt(s.substring(0, space));
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("slot must start with a count: " + s);
+        }
+        if (count < 1) throw new IllegalArgumentException("slot count must be positive: " + s);
+        Set<String> categories = new HashSet<>(), items = new HashSet<>();
+        for (String choice : s.substring(space + 1).split("(?i)\\s+or\\s+")) {
+            choice = choice.trim();
+            if (choice.length() >= 2 && choice.startsWith("\"") && choice.endsWith("\"")) items.add(MenuCatalog.fold(choice.substring(1, choice.length() - 1)));
+            else if (!choice.isEmpty()) categories.add(MenuCatalog.fold(choice));
+        }
+        if (categories.isEmpty() && items.isEmpty()) throw new IllegalArgumentException("slot names no items: " + s);
+        return new Slot(count, categories, items);
+    }
+
+    // Mon-Fri, Sat,Sun, Tue
+    private static Set<DayOfWeek> parseDays(String word) {
+        Set<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+        for (String part : word.split(",")) {
+            String[] range = part.split("-");
+            DayOfWeek first = day(range[0]), last = range.length > 1 ? day(range[1]) : first;
+            for (DayOfWeek d = first; ; d = d.plus(1)) {
+                days.add(d);
+                if (d == last) break;
+            }
+        }
+        return days;
+    }
+
+    private static DayOfWeek day(String s) {
+        String p = s.trim().toUpperCase(Locale.ROOT);
+        for (DayOfWeek d : DayOfWeek.values()) if (p.length() >= 3 && d.name().startsWith(p)) return d;
+        throw new IllegalArgumentException("unknown day: " + s);
+    }
+}
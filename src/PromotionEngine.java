@@ -0,0 +1,350 @@
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Promotions compiled against the menu, for pricing an order as it is rung up.
+ *
+ * compile() keeps the promotions active at the given time (their order is their priority) and
+ * resolves every category and item name to menu items once, into lookup tables: for each menu
+ * item the promotions it can take part in, and for each promotion slot the set of items that
+ * fill it. Promotions that share an item can compete for the same units, so they are grouped
+ * into components (connected through shared items); an item belongs to at most one component.
+ *
+ * A Cart follows the order line by line. A change only touches the promotions of that item,
+ * and the next discountCents() reprices only the components that changed. Within a component,
+ * promotions are applied in priority order, each as many times as it can be filled, taking the
+ * dearest eligible units first; a unit counts towards one promotion at most, and a promotion
+ * is only applied where it takes something off.
+ */
+public final class PromotionEngine {
+    // a promotion and what it took off the order
+    public static final class Applied {
+        public final String name;
+        public final int times;
+        public final long discountCents;
+
+        Applied(String name, int times, long discountCents) {
+            this.name = name;
+            this.times = times;
+            this.discountCents = discountCents;
+        }
+    }
+
+    // what a menu item takes part in
+    private static final class ItemRules {
+        final int dense;        // the item's index in the slot bit sets
+        final int component;
+        final int[] slots;      // every slot (numbered across all rules) the item can fill
+
+        ItemRules(int dense, int component, int[] slots) {
+            this.dense = dense;
+            this.component = component;
+            this.slots = slots;
+        }
+    }
+
+    private final Promotion[] rules;
+    private final BitSet active;             // indexes into the full list given to compile()
+    private final List<Promotion> compiledFrom;
+    private final BitSet[][] slotItems;      // [rule][slot] -> dense item indexes
+    private final int[][] slotCounts;
+    private final int[] firstSlot;           // rule -> number of its first slot
+    private final int slotTotal;
+    private final int[] setUnits;            // rule -> units in one filled set (all slots)
+    private final int[] shapeOf;             // rule -> rules with the same slots (items and counts) share a shape
+    private final int shapeCount;
+    private final int maxSetUnits;
+    private final Map<Integer, ItemRules> byItem = new HashMap<>();
+    private final int[][] componentRules;
+
+    private PromotionEngine(List<Promotion> all, LocalDateTime now, Collection<DatabaseManager.MenuItem> menu) {
+        compiledFrom = all;
+        active = activeAt(all, now);
+        List<Promotion> live = new ArrayList<>();
+        for (int i = active.nextSetBit(0); i >= 0; i = active.nextSetBit(i + 1)) live.add(all.get(i));
+        rules = live.toArray(new Promotion[0]);
+
+        int n = rules.length;
+        slotItems = new BitSet[n][];
+        slotCounts = new int[n][];
+        firstSlot = new int[n];
+        setUnits = new int[n];
+        int maxSet = 1, slotNo = 0;
+        for (int r = 0; r < n; r++) {
+            List<Promotion.Slot> slots = rules[r].slots;
+            slotItems[r] = new BitSet[slots.size()];
+            slotCounts[r] = new int[slots.size()];
+            firstSlot[r] = slotNo;
+            slotNo += slots.size();
+            int set = 0;
+            for (int s = 0; s < slots.size(); s++) {
+                slotItems[r][s] = new BitSet();
+                slotCounts[r][s] = slots.get(s).count;
+                set += slots.get(s).count;
+            }
+            setUnits[r] = set;
+            maxSet = Math.max(maxSet, set);
+        }
+        maxSetUnits = maxSet;
+        slotTotal = slotNo;
+
+        // the decision table: for every menu item, the rules (and slots) it can fill
+        int[] parent = new int[n];
+        for (int r = 0; r < n; r++) parent[r] = r;
+        Map<Integer, int[]> slotsOfItem = new HashMap<>();
+        Map<Integer, Integer> denseOfItem = new HashMap<>();
+        int[] matched = new int[slotTotal];
+        for (DatabaseManager.MenuItem mi : menu) {
+            String name = MenuCatalog.fold(mi.name), category = mi.category == null ? null : MenuCatalog.fold(mi.category);
+            int m = 0, dense = denseOfItem.size();
+            for (int r = 0; r < n; r++) {
+                List<Promotion.Slot> slots = rules[r].slots;
+                for (int s = 0; s < slots.size(); s++) {
+                    if (slots.get(s).accepts(name, category)) {
+                        slotItems[r][s].set(dense);
+                        matched[m++] = firstSlot[r] + s;
+                        union(parent, ruleOfSlot(matched[0]), r);
+                    }
+                }
+            }
+            if (m == 0) continue;
+            denseOfItem.put(mi.id, dense);
+            slotsOfItem.put(mi.id, Arrays.copyOf(matched, m));
+        }
+
+        // rules with the same slots fill or fail together, whatever their deal
+        shapeOf = new int[n];
+        Map<List<Object>, Integer> shapes = new HashMap<>();
+        for (int r = 0; r < n; r++) {
+            List<Object> key = new ArrayList<>();
+            for (int sl = 0; sl < slotItems[r].length; sl++) {
+                key.add(slotCounts[r][sl]);
+                key.add(slotItems[r][sl]);
+            }
+            Integer shape = shapes.get(key);
+            if (shape == null) shapes.put(key, shape = shapes.size());
+            shapeOf[r] = shape;
+        }
+        shapeCount = shapes.size();
+
+        // components: rules connected through shared items, each listed in priority order
+        int[] componentOfRoot = new int[n];
+        Arrays.fill(componentOfRoot, -1);
+        List<List<Integer>> components = new ArrayList<>();
+        for (int r = 0; r < n; r++) {
+            int root = find(parent, r);
+            if (componentOfRoot[root] < 0) {
+                componentOfRoot[root] = components.size();
+                components.add(new ArrayList<>());
+            }
+            components.get(componentOfRoot[root]).add(r);
+        }
+        componentRules = new int[components.size()][];
+        for (int c = 0; c < componentRules.length; c++) {
+            List<Integer> rs = components.get(c);
+            componentRules[c] = new int[rs.size()];
+            for (int i = 0; i < rs.size(); i++) componentRules[c][i] = rs.get(i);
+        }
+        for (Map.Entry<Integer, int[]> e : slotsOfItem.entrySet()) {
+            int[] slots = e.getValue();
+            byItem.put(e.getKey(), new ItemRules(denseOfItem.get(e.getKey()), componentOfRoot[find(parent, ruleOfSlot(slots[0]))], slots));
+        }
+    }
+
+    // the rule a slot number belongs to (every rule has at least one slot, so firstSlot is strictly increasing)
+    private int ruleOfSlot(int slot) {
+        int r = Arrays.binarySearch(firstSlot, slot);
+        return r >= 0 ? r : -r - 2;
+    }
+
+    // the promotions in priority order, compiled for those active at now
+    public static PromotionEngine compile(List<Promotion> promotions, Collection<DatabaseManager.MenuItem> menu, LocalDateTime now) {
+        return new PromotionEngine(new ArrayList<>(promotions), now, menu);
+    }
+
+    // false once the clock has moved into or out of a promotion's hours (time to compile again)
+    public boolean sameActiveAt(LocalDateTime now) {
+        return activeAt(compiledFrom, now).equals(active);
+    }
+
+    public int activeCount() { return rules.length; }
+    public int componentCount() { return componentRules.length; }
+
+    public Cart newCart() {
+        return new Cart();
+    }
+
+    private static BitSet activeAt(List<Promotion> all, LocalDateTime now) {
+        BitSet on = new BitSet(all.size());
+        for (int i = 0; i < all.size(); i++) if (all.get(i).activeAt(now)) on.set(i);
+        return on;
+    }
+
+    private static int find(int[] parent, int x) {
+        while (parent[x] != x) x = parent[x] = parent[parent[x]];
+        return x;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int ra = find(parent, a), rb = find(parent, b);
+        if (ra != rb) parent[Math.max(ra, rb)] = Math.min(ra, rb);
+    }
+
+    /**
+     * The promotions on one order: feed it every change to the order's lines (change with the
+     * quantity added or, negative, removed) and ask for the discount. Not thread-safe; one per
+     * order, used on the EDT.
+     */
+    public final class Cart {
+        // units of one item at one price; only items that some promotion can use are kept
+        private final class Entry {
+            final ItemRules item;
+            final long unitCents;
+            int qty;
+            int left;   // while repricing: units not yet used by a promotion
+
+            Entry(ItemRules item, long unitCents) {
+                this.item = item;
+                this.unitCents = unitCents;
+            }
+        }
+
+        private final Comparator<Entry> dearestFirst = (a, b) -> a.unitCents != b.unitCents
+                ? Long.compare(b.unitCents, a.unitCents) : Integer.compare(a.item.dense, b.item.dense);
+        private final List<Entry> entries = new ArrayList<>();   // kept dearest first
+        private final int[] slotUnits = new int[slotTotal];   // units in the order that could fill each slot
+        private final int[] appliedTimes = new int[rules.length];
+        private final long[] appliedCents = new long[rules.length];
+        private final long[] componentCents = new long[componentRules.length];
+        private final BitSet dirty = new BitSet(componentRules.length);
+        private final BitSet unfillable = new BitSet(shapeCount);   // while repricing: shapes that found no more units
+        private final Entry[] taken = new Entry[maxSetUnits];
+        private long discountCents;
+
+        public void change(int menuItemId, long unitCents, int deltaQty) {
+            ItemRules item = byItem.get(menuItemId);
+            if (item == null || deltaQty == 0) return;
+            Entry entry = null;
+            for (Entry e : entries) {
+                if (e.item == item && e.unitCents == unitCents) {
+                    entry = e;
+                    break;
+                }
+            }
+            if (entry == null) {
+                // dearest first, so each set is filled with the units a promotion saves most on
+                // (ties by item, so the result does not depend on the order lines were added in)
+                entry = new Entry(item, unitCents);
+                int at = Collections.binarySearch(entries, entry, dearestFirst);
+                entries.add(at < 0 ? -at - 1 : at, entry);
+            }
+            entry.qty += deltaQty;
+            if (entry.qty <= 0) entries.remove(entry);
+            for (int slot : item.slots) slotUnits[slot] += deltaQty;
+            dirty.set(item.component);
+        }
+
+        public void clear() {
+            for (Entry e : entries) {
+                for (int slot : e.item.slots) slotUnits[slot] -= e.qty;
+                dirty.set(e.item.component);
+            }
+            entries.clear();
+        }
+
+        // what the promotions take off the order as it stands
+        public long discountCents() {
+            for (int c = dirty.nextSetBit(0); c >= 0; c = dirty.nextSetBit(c + 1)) {
+                discountCents -= componentCents[c];
+                componentCents[c] = reprice(c);
+                discountCents += componentCents[c];
+            }
+            dirty.clear();
+            return discountCents;
+        }
+
+        // the promotions that apply, in priority order
+        public List<Applied> applied() {
+            discountCents();
+            List<Applied> out = new ArrayList<>();
+            for (int r = 0; r < rules.length; r++) {
+                if (appliedTimes[r] > 0) out.add(new Applied(rules[r].name, appliedTimes[r], appliedCents[r]));
+            }
+            return out;
+        }
+
+        private long reprice(int component) {
+            int[] rs = componentRules[component];
+            int unitsLeft = 0;
+            for (Entry e : entries) {
+                // units of other components are never taken here
+                e.left = e.item.component == component ? e.qty : 0;
+                unitsLeft += e.left;
+            }
+            unfillable.clear();
+            long total = 0;
+            for (int r : rs) {
+                appliedTimes[r] = 0;
+                appliedCents[r] = 0;
+                // units are only used up while repricing, so a shape that could not be filled never can again
+                if (unitsLeft < setUnits[r] || unfillable.get(shapeOf[r]) || !fillable(r)) continue;
+                while (unitsLeft >= setUnits[r]) {
+                    int n = fill(r);
+                    if (n < 0) {
+                        unfillable.set(shapeOf[r]);
+                        break;
+                    }
+                    long sum = 0;
+                    for (int i = 0; i < n; i++) sum += taken[i].unitCents;
+                    long off = rules[r].discountOn(sum);
+                    if (off <= 0) {
+                        for (int i = 0; i < n; i++) taken[i].left++;
+                        break;
+                    }
+                    appliedTimes[r]++;
+                    appliedCents[r] += off;
+                    total += off;
+                    unitsLeft -= n;
+                }
+            }
+            return total;
+        }
+
+        // whether the order has enough units for every slot of rule r, before any are used
+        private boolean fillable(int r) {
+            int[] counts = slotCounts[r];
+            for (int s = 0, slot = firstSlot[r]; s < counts.length; s++, slot++) if (slotUnits[slot] < counts[s]) return false;
+            return true;
+        }
+
+        // take one set of units for rule r into taken[]; the count, or -1 (nothing taken) when a slot cannot be filled
+        private int fill(int r) {
+            BitSet[] slots = slotItems[r];
+            int n = 0;
+            for (int s = 0; s < slots.length; s++) {
+                int need = slotCounts[r][s];
+                for (int i = 0; i < entries.size() && need > 0; i++) {
+                    Entry e = entries.get(i);
+                    if (e.left == 0 || !slots[s].get(e.item.dense)) continue;
+                    int take = Math.min(need, e.left);
+                    e.left -= take;
+                    need -= take;
+                    for (int k = 0; k < take; k++) taken[n++] = e;
+                }
+                if (need > 0) {
+                    for (int i = 0; i < n; i++) taken[i].left++;
+                    return -1;
+                }
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Sales rollups kept next to the orders: revenue and tax per hour (sales_hourly) and per day
+ * (sales_daily), and quantity and revenue per item per day (item_sales_daily).
+ *
+ * Writers collect the effect of their orders in a Delta and apply it in the same transaction as
+ * the order rows, so the rollups never disagree with the orders table. Reports read the rollup
+ * rows only, so their cost depends on the number of hours/days/items asked for, not on the
+ * number of orders. backfill() rebuilds everything from orders and order_lines.
+ *
+ * The stores without tables keep the same rollups in a Rollup in memory (see InMemoryStore), so
+ * every Store answers hourlySales, dailySales and topItems the same way.
+ *
+ * Item revenue is at the lines' prices (qty x unit price), before promotion discounts, while the
+ * hourly and daily subtotals and totals are what the orders came to after them. Over a period
+ * with promotions the items' revenue therefore adds up to more than the subtotal, by the
+ * discounts given; discounts are not apportioned to items.
+ */
+public class SalesAnalytics {
+
+    // create the rollup tables if missing; true if they were created (and need a backfill)
+    static boolean ensureTables(Connection conn, DatabaseMetaData md) throws SQLException {
+        try (ResultSet rs = md.getTables(null, null, "SALES_HOURLY", null)) {
+            if (rs.next()) return false;
+        }
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate(
+                    "CREATE TABLE sales_hourly (" +
+                            "sale_day DATE NOT NULL," +
+                            "sale_hour SMALLINT NOT NULL," +
+                            "order_count INT NOT NULL," +
+                            "subtotal_cents BIGINT NOT NULL," +
+                            "tax_cents BIGINT NOT NULL," +
+                            "total_cents BIGINT NOT NULL," +
+                            "PRIMARY KEY (sale_day, sale_hour)" +
+                            ")"
+            );
+            st.executeUpdate(
+                    "CREATE TABLE sales_daily (" +
+                            "sale_day DATE PRIMARY KEY," +
+                            "order_count INT NOT NULL," +
+                            "subtotal_cents BIGINT NOT NULL," +
+                            "tax_cents BIGINT NOT NULL," +
+                            "total_cents BIGINT NOT NULL" +
+                            ")"
+            );
+            st.executeUpdate(
+                    "CREATE TABLE item_sales_daily (" +
+                            "sale_day DATE NOT NULL," +
+                            "item_name VARCHAR(200) NOT NULL," +
+                            "menu_item_id INT," +
+                            "qty BIGINT NOT NULL," +
+                            "revenue_cents BIGINT NOT NULL," +
+                            "PRIMARY KEY (sale_day, item_name)" +
+                            ")"
+            );
+        }
+        return true;
+    }
+
+    // recompute all rollups from the orders (one transaction; writers wait on the table locks)
+    public static void backfill() throws SQLException {
+        try (ConnectionPool.PooledConnection pc = DatabaseManager.pool().acquire()) {
+            backfill(pc);
+        }
+    }
+
+    static void backfill(ConnectionPool.PooledConnection pc) throws SQLException {
+        Connection conn = pc.connection();
+        conn.setAutoCommit(false);
+        try (Statement st = conn.createStatement()) {
+            st.execute("LOCK TABLE orders IN SHARE MODE");
+            st.execute("LOCK TABLE order_lines IN SHARE MODE");
+            st.executeUpdate("DELETE FROM sales_hourly");
+            st.executeUpdate("DELETE FROM sales_daily");
+            st.executeUpdate("DELETE FROM item_sales_daily");
+            st.executeUpdate(
+                    "INSERT INTO sales_hourly (sale_day, sale_hour, order_count, subtotal_cents, tax_cents, total_cents) " +
+                            "SELECT DATE(order_date), HOUR(order_date), COUNT(*), " +
+                            "COALESCE(SUM(subtotal_cents), 0), COALESCE(SUM(tax_cents), 0), COALESCE(SUM(total_cents), 0) " +
+                            "FROM orders GROUP BY DATE(order_date), HOUR(order_date)");
+            st.executeUpdate(
+                    "INSERT INTO sales_daily (sale_day, order_count, subtotal_cents, tax_cents, total_cents) " +
+                            "SELECT sale_day, SUM(order_count), SUM(subtotal_cents), SUM(tax_cents), SUM(total_cents) " +
+                            "FROM sales_hourly GROUP BY sale_day");
+            st.executeUpdate(
+                    "INSERT INTO item_sales_daily (sale_day, item_name, menu_item_id, qty, revenue_cents) " +
+                            "SELECT DATE(o.order_date), l.item_name, MAX(l.menu_item_id), SUM(CAST(l.qty AS BIGINT)), " +
+                            "SUM(l.qty * COALESCE(l.unit_price_cents, 0)) " +
+                            "FROM order_lines l JOIN orders o ON o.transaction_id = l.transaction_id " +
+                            "GROUP BY DATE(o.order_date), l.item_name");
+            conn.commit();
+        } catch (SQLException ex) {
+            conn.rollback();
+            throw ex;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    // revenue per hour for order dates in [from, to)
+    public static List<Bucket> hourlySales(LocalDate from, LocalDate to) throws SQLException {
+        String sql = "SELECT sale_day, sale_hour, order_count, subtotal_cents, tax_cents, total_cents FROM sales_hourly "
+                + "WHERE sale_day >= ? AND sale_day < ? ORDER BY sale_day, sale_hour";
+        List<Bucket> out = new ArrayList<>();
+        try (ConnectionPool.PooledConnection pc = DatabaseManager.pool().acquire()) {
+            PreparedStatement ps = pc.prepare(sql);
+            ps.setDate(1, Date.valueOf(from));
+            ps.setDate(2, Date.valueOf(to));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    out.add(new Bucket(rs.getDate(1).toLocalDate().atTime(rs.getInt(2), 0),
+                            rs.getInt(3), rs.getLong(4), rs.getLong(5), rs.getLong(6)));
+                }
+            }
+        }
+        return out;
+    }
+
+    // revenue per day for days in [from, to)
+    public static List<Bucket> dailySales(LocalDate from, LocalDate to) throws SQLException {
+        String sql = "SELECT sale_day, order_count, subtotal_cents, tax_cents, total_cents FROM sales_daily "
+                + "WHERE sale_day >= ? AND sale_day < ? ORDER BY sale_day";
+        List<Bucket> out = new ArrayList<>();
+        try (ConnectionPool.PooledConnection pc = DatabaseManager.pool().acquire()) {
+            PreparedStatement ps = pc.prepare(sql);
+            ps.setDate(1, Date.valueOf(from));
+            ps.setDate(2, Date.valueOf(to));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    out.add(new Bucket(rs.getDate(1).toLocalDate().atStartOfDay(),
+                            rs.getInt(2), rs.getLong(3), rs.getLong(4), rs.getLong(5)));
+                }
+            }
+        }
+        return out;
+    }
+
+    // best sellers by quantity for days in [from, to)
+    public static List<ItemSales> topItems(LocalDate from, LocalDate to, int limit) throws SQLException {
+        String sql = "SELECT item_name, SUM(qty) AS q, SUM(revenue_cents) FROM item_sales_daily "
+                + "WHERE sale_day >= ? AND sale_day < ? GROUP BY item_name ORDER BY q DESC, item_name FETCH FIRST ? ROWS ONLY";
+        List<ItemSales> out = new ArrayList<>();
+        try (ConnectionPool.PooledConnection pc = DatabaseManager.pool().acquire()) {
+            PreparedStatement ps = pc.prepare(sql);
+            ps.setDate(1, Date.valueOf(from));
+            ps.setDate(2, Date.valueOf(to));
+            ps.setInt(3, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.add(new ItemSales(rs.getString(1), rs.getLong(2), rs.getLong(3)));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * The effect of orders added (sign +1) or removed (sign -1) on the three rollups, kept in
+     * sorted maps, with the same queries as the tables. Not thread-safe.
+     */
+    public static class Rollup {
+        // values: order_count, subtotal, tax, total
+        final NavigableMap<LocalDateTime, long[]> hours = new TreeMap<>();
+        final NavigableMap<LocalDate, long[]> days = new TreeMap<>();
+        // key: day + '\n' + item name; values: qty, revenue, menu item id
+        final NavigableMap<String, long[]> items = new TreeMap<>();
+
+        public void add(Timestamp orderDate, List<DatabaseManager.OrderLine> lines, long subtotalCents, long taxCents, long totalCents, int sign) {
+            LocalDateTime t = orderDate.toLocalDateTime();
+            LocalDate day = t.toLocalDate();
+            accumulate(hours.computeIfAbsent(t.withMinute(0).withSecond(0).withNano(0), k -> new long[4]), sign, subtotalCents, taxCents, totalCents);
+            accumulate(days.computeIfAbsent(day, k -> new long[4]), sign, subtotalCents, taxCents, totalCents);
+            for (DatabaseManager.OrderLine l : lines) {
+                long[] v = items.computeIfAbsent(day + "\n" + l.itemName, k -> new long[3]);
+                v[0] += sign * (long) l.qty;
+                if (l.unitPriceCents != DatabaseManager.OrderLine.UNKNOWN_PRICE) v[1] += sign * Money.times(l.unitPriceCents, l.qty);
+                if (l.menuItemId > 0) v[2] = l.menuItemId;
+            }
+        }
+
+        private static void accumulate(long[] v, int sign, long subtotalCents, long taxCents, long totalCents) {
+            v[0] += sign;
+            v[1] += sign * subtotalCents;
+            v[2] += sign * taxCents;
+            v[3] += sign * totalCents;
+        }
+
+        public boolean isEmpty() { return days.isEmpty(); }
+
+        // as SalesAnalytics.hourlySales; hours whose orders were all removed are left out
+        public List<Bucket> hourlySales(LocalDate from, LocalDate to) {
+            return buckets(hours.subMap(from.atStartOfDay(), true, to.atStartOfDay(), false));
+        }
+
+        public List<Bucket> dailySales(LocalDate from, LocalDate to) {
+            Map<LocalDateTime, long[]> byStart = new TreeMap<>();
+            days.subMap(from, true, to, false).forEach((day, v) -> byStart.put(day.atStartOfDay(), v));
+            return buckets(byStart);
+        }
+
+        private static List<Bucket> buckets(Map<LocalDateTime, long[]> rows) {
+            List<Bucket> out = new ArrayList<>();
+            rows.forEach((start, v) -> {
+                if (v[0] != 0) out.add(new Bucket(start, (int) v[0], v[1], v[2], v[3]));
+            });
+            return out;
+        }
+
+        public List<ItemSales> topItems(LocalDate from, LocalDate to, int limit) {
+            // keys start with the ISO day, so they sort by day first
+            Map<String, long[]> byName = new HashMap<>();
+            items.subMap(from.toString(), to.toString()).forEach((key, v) -> {
+                long[] sum = byName.computeIfAbsent(key.substring(key.indexOf('\n') + 1), k -> new long[2]);
+                sum[0] += v[0];
+                sum[1] += v[1];
+            });
+            List<ItemSales> out = new ArrayList<>();
+            byName.forEach((name, v) -> {
+                if (v[0] != 0 || v[1] != 0) out.add(new ItemSales(name, v[0], v[1]));
+            });
+            out.sort((a, b) -> a.qty != b.qty ? Long.compare(b.qty, a.qty) : a.itemName.compareTo(b.itemName));
+            return out.size() > limit ? new ArrayList<>(out.subList(0, limit)) : out;
+        }
+    }
+
+    /**
+     * Pending changes to the rollup tables from orders written or removed in the current
+     * transaction. Keys are kept sorted so concurrent writers lock rollup rows in the same order.
+     */
+    public static final class Delta extends Rollup {
+        // write the changes; caller owns the transaction
+        public void applyTo(ConnectionPool.PooledConnection pc) throws SQLException {
+            for (Map.Entry<LocalDateTime, long[]> e : hours.entrySet()) {
+                long[] v = e.getValue();
+                upsert(pc,
+                        "UPDATE sales_hourly SET order_count=order_count+?, subtotal_cents=subtotal_cents+?, tax_cents=tax_cents+?, total_cents=total_cents+? WHERE sale_day=? AND sale_hour=?",
+                        "INSERT INTO sales_hourly (order_count, subtotal_cents, tax_cents, total_cents, sale_day, sale_hour) VALUES (?, ?, ?, ?, ?, ?)",
+                        ps -> {
+                            bindAmounts(ps, v);
+                            ps.setDate(5, Date.valueOf(e.getKey().toLocalDate()));
+                            ps.setInt(6, e.getKey().getHour());
+                        });
+            }
+            for (Map.Entry<LocalDate, long[]> e : days.entrySet()) {
+                long[] v = e.getValue();
+                upsert(pc,
+                        "UPDATE sales_daily SET order_count=order_count+?, subtotal_cents=subtotal_cents+?, tax_cents=tax_cents+?, total_cents=total_cents+? WHERE sale_day=?",
+                        "INSERT INTO sales_daily (order_count, subtotal_cents, tax_cents, total_cents, sale_day) VALUES (?, ?, ?, ?, ?)",
+                        ps -> {
+                            bindAmounts(ps, v);
+                            ps.setDate(5, Date.valueOf(e.getKey()));
+                        });
+            }
+            for (Map.Entry<String, long[]> e : items.entrySet()) {
+                long[] v = e.getValue();
+                int nl = e.getKey().indexOf('\n');
+                Date day = Date.valueOf(e.getKey().substring(0, nl));
+                String name = e.getKey().substring(nl + 1);
+                upsert(pc,
+                        "UPDATE item_sales_daily SET qty=qty+?, revenue_cents=revenue_cents+?, menu_item_id=COALESCE(CAST(? AS INT), menu_item_id) WHERE sale_day=? AND item_name=?",
+                        "INSERT INTO item_sales_daily (qty, revenue_cents, menu_item_id, sale_day, item_name) VALUES (?, ?, ?, ?, ?)",
+                        ps -> {
+                            ps.setLong(1, v[0]);
+                            ps.setLong(2, v[1]);
+                            if (v[2] > 0) ps.setInt(3, (int) v[2]); else ps.setNull(3, Types.INTEGER);
+                            ps.setDate(4, day);
+                            ps.setString(5, name);
+                        });
+            }
+        }
+
+        private static void bindAmounts(PreparedStatement ps, long[] v) throws SQLException {
+            ps.setLong(1, v[0]);
+            ps.setLong(2, v[1]);
+            ps.setLong(3, v[2]);
+            ps.setLong(4, v[3]);
+        }
+    }
+
+    private interface Binder {
+        void bind(PreparedStatement ps) throws SQLException;
+    }
+
+    // UPDATE the row, INSERT it if missing; a concurrent insert of the same key is retried as an UPDATE
+    private static void upsert(ConnectionPool.PooledConnection pc, String update, String insert, Binder binder) throws SQLException {
+        PreparedStatement up = pc.prepare(update);
+        binder.bind(up);
+        if (up.executeUpdate() > 0) return;
+        PreparedStatement in = pc.prepare(insert);
+        binder.bind(in);
+        try {
+            in.executeUpdate();
+        } catch (SQLException ex) {
+            if (!"23505".equals(ex.getSQLState())) throw ex;   // duplicate key
+            binder.bind(up);
+            up.executeUpdate();
+        }
+    }
+
+    // one hour or day of sales
+    public static class Bucket {
+        public final LocalDateTime start;
+        public final int orders;
+        public final long subtotalCents;
+        public final long taxCents;
+        public final long totalCents;
+
+        public Bucket(LocalDateTime start, int orders, long subtotalCents, long taxCents, long totalCents) {
+            this.start = start;
+            this.orders = orders;
+            this.subtotalCents = subtotalCents;
+            this.taxCents = taxCents;
+            this.totalCents = totalCents;
+        }
+    }
+
+    // sales of one item over a period; revenue is at list price, before order discounts
+    public static class ItemSales {
+        public final String itemName;
+        public final long qty;
+        public final long revenueCents;
+
+        public ItemSales(String itemName, long qty, long revenueCents) {
+            this.itemName = itemName;
+            this.qty = qty;
+            this.revenueCents = revenueCents;
+        }
+    }
+}
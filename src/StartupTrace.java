@@ -0,0 +1,36 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Startup timing. Phases are stamped in milliseconds since the first mark (the start of main)
+ * and printed as one "startup: phase=NNms ..." line once the frame is on screen and the menu
+ * has loaded. Off unless -Doakdonuts.startupTrace=true; bench/StartupBenchmark parses the line.
+ */
+public final class StartupTrace {
+    public static final String FIRST_FRAME = "first-frame";
+    public static final String MENU_READY = "menu-ready";
+
+    private static final boolean ENABLED = Boolean.getBoolean("oakdonuts.startupTrace");
+    private static final long T0 = System.nanoTime();
+    private static final Map<String, Long> marks = new LinkedHashMap<>();
+    private static boolean reported;
+
+    private StartupTrace() {}
+
+    public static boolean enabled() { return ENABLED; }
+
+    // remember when a phase completed (first call per phase wins)
+    public static synchronized void mark(String phase) {
+        if (ENABLED) marks.putIfAbsent(phase, (System.nanoTime() - T0) / 1_000_000L);
+    }
+
+    // print the report once both the first frame and the menu are up; true if this call printed it
+    public static synchronized boolean reportIfComplete() {
+        if (!ENABLED || reported || !marks.containsKey(FIRST_FRAME) || !marks.containsKey(MENU_READY)) return false;
+        reported = true;
+        StringBuilder sb = new StringBuilder("startup:");
+        marks.forEach((phase, ms) -> sb.append(' ').append(phase).append('=').append(ms).append("ms"));
+        System.out.println(sb);
+        return true;
+    }
+}
@@ -0,0 +1,32 @@
+import java.io.IOException;
+
+/**
+ * A storage backend: menu, orders and stock levels plus opening and closing.
+ * The backend is picked at runtime with -Doakdonuts.store=derby (default), memory or log:
+ *  - derby:  embedded Derby through DatabaseManager (pooled connections, rollups, write-behind)
+ *  - memory: InMemoryStore, nothing survives a restart (demo and tests)
+ *  - log:    OrderLogStore, an append-only memory-mapped log replayed into memory on open
+ *            (file set with -Doakdonuts.log.path)
+ */
+public interface Store extends MenuStore, OrderStore, InventoryStore, AutoCloseable {
+
+    // create or check the schema, replay the log, ...; called once before any other call
+    void open() throws Exception;
+
+    // flush pending writes and release files and connections
+    @Override
+    void close() throws IOException;
+
+    static Store fromSystemProperties() {
+        return create(System.getProperty("oakdonuts.store", "derby"));
+    }
+
+    static Store create(String kind) {
+        switch (kind) {
+            case "derby": return new DerbyStore();
+            case "memory": return new InMemoryStore();
+            case "log": return new OrderLogStore(System.getProperty("oakdonuts.log.path", "oakdonuts-orders.log"));
+            default: throw new IllegalArgumentException("unknown oakdonuts.store: " + kind + " (expected derby, memory or log)");
+        }
+    }
+}